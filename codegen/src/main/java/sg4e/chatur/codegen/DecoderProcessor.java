@@ -0,0 +1,517 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.codegen;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code <Model>Decoder} for every class annotated with
+ * {@link GenerateDecoder}. See that annotation for what is supported.
+ * <p>
+ * Lombok setters do not exist yet when this processor runs, so their names
+ * are derived with Lombok's rules; a wrong guess fails the compilation of the
+ * generated source rather than misbinding at runtime.
+ */
+@SupportedAnnotationTypes("sg4e.chatur.codegen.GenerateDecoder")
+public class DecoderProcessor extends AbstractProcessor {
+
+    private static final String JSON_PROPERTY = "com.fasterxml.jackson.annotation.JsonProperty";
+    private static final String JSON_IGNORE = "com.fasterxml.jackson.annotation.JsonIgnore";
+    private static final String JSON_IGNORE_PROPERTIES = "com.fasterxml.jackson.annotation.JsonIgnoreProperties";
+    private static final String JSON_NAMING = "com.fasterxml.jackson.databind.annotation.JsonNaming";
+    private static final String SNAKE_CASE = "com.fasterxml.jackson.databind.PropertyNamingStrategy.SnakeCaseStrategy";
+    private static final String LOMBOK_DATA = "lombok.Data";
+    private static final String LOMBOK_SETTER = "lombok.Setter";
+    private static final String MODEL_DECODER = "sg4e.chatur.json.ModelDecoder";
+
+    /**
+     * How the JSON value of a property is read.
+     */
+    private enum Kind {
+        STRING("readString(parser)"),
+        BOOLEAN("readBoolean(parser)"),
+        INT("readInt(parser)"),
+        LONG("readLong(parser)"),
+        DOUBLE("readDouble(parser)"),
+        STRING_LIST("readStringList(parser)"),
+        /**
+         * A {@code JsonNode} tree of the value, whatever its shape.
+         */
+        TREE("readTree(parser)"),
+        /**
+         * A string converted by the static {@code parse(String)} of the
+         * property's type.
+         */
+        PARSED("readString(parser)");
+
+        final String read;
+
+        Kind(String read) {
+            this.read = read;
+        }
+    }
+
+    private static final class Property {
+
+        final String jsonName;
+        final String field;
+        /**
+         * The setter, or the unpacking method, that takes the value.
+         */
+        final String setter;
+        final Kind kind;
+        final String type;
+
+        Property(String jsonName, VariableElement field, String setter, Kind kind, TypeMirror type) {
+            this.jsonName = jsonName;
+            this.field = field.getSimpleName().toString();
+            this.setter = setter;
+            this.kind = kind;
+            this.type = typeName(type);
+        }
+    }
+
+    private static final class UnsupportedModelException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedModelException(String message) {
+            super(message);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for(Element element : round.getElementsAnnotatedWith(GenerateDecoder.class)) {
+            if(element.getKind() != ElementKind.CLASS) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@GenerateDecoder only applies to classes", element);
+                continue;
+            }
+            TypeElement model = (TypeElement) element;
+            try {
+                write(model, readProperties(model));
+            } catch(UnsupportedModelException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "No decoder generated, Jackson will bind " + model.getSimpleName() + ": " + ex.getMessage(), model);
+            } catch(IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write decoder: " + ex, model);
+            }
+        }
+        return true;
+    }
+
+    private List<Property> readProperties(TypeElement model) throws UnsupportedModelException {
+        if(model.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new UnsupportedModelException("the class is abstract");
+        }
+        if(!hasNoArgConstructor(model)) {
+            throw new UnsupportedModelException("no accessible no-argument constructor");
+        }
+        boolean snakeCase = false;
+        AnnotationMirror naming = findInHierarchy(model, JSON_NAMING);
+        if(naming != null) {
+            String strategy = String.valueOf(value(naming, "value"));
+            if(!SNAKE_CASE.equals(strategy)) {
+                throw new UnsupportedModelException("naming strategy " + strategy);
+            }
+            snakeCase = true;
+        }
+        String modelPackage = packageOf(model);
+        // by JSON name; fields first, then unpacking methods, which take over
+        // their field's name as Jackson does
+        Map<String, Property> properties = new LinkedHashMap<>();
+        Map<String, String> fieldJsonNames = new LinkedHashMap<>();
+        for(TypeElement type = model; type != null; type = superclass(type)) {
+            for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if(modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)
+                        || find(field, JSON_IGNORE) != null) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                AnnotationMirror property = find(field, JSON_PROPERTY);
+                String jsonName = property == null ? null : (String) value(property, "value");
+                if(jsonName == null || jsonName.isEmpty()) {
+                    jsonName = impliedName(field);
+                    jsonName = snakeCase ? snakeCase(jsonName) : jsonName;
+                }
+                Kind kind = kindOf(field.asType());
+                fieldJsonNames.put(name, jsonName);
+                if(kind == null) {
+                    // may still be bound by an unpacking method below
+                    continue;
+                }
+                properties.putIfAbsent(jsonName, new Property(jsonName, field, setterFor(type, field, modelPackage), kind, field.asType()));
+            }
+            for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                AnnotationMirror property = find(method, JSON_PROPERTY);
+                if(property == null || method.getParameters().size() != 1) {
+                    continue;
+                }
+                VariableElement field = unpackedField(type, method);
+                if(field == null) {
+                    throw new UnsupportedModelException("cannot tell which field " + method.getSimpleName() + " sets");
+                }
+                if(!isAccessible(method, type, modelPackage)) {
+                    throw new UnsupportedModelException(method.getSimpleName() + " is not accessible");
+                }
+                TypeMirror parameter = method.getParameters().get(0).asType();
+                Kind kind = kindOf(parameter);
+                if(kind == null) {
+                    throw new UnsupportedModelException("unsupported parameter of " + method.getSimpleName() + ": " + parameter);
+                }
+                String jsonName = (String) value(property, "value");
+                if(jsonName == null || jsonName.isEmpty()) {
+                    throw new UnsupportedModelException(method.getSimpleName() + " has no explicit property name");
+                }
+                String fieldJsonName = fieldJsonNames.get(field.getSimpleName().toString());
+                if(fieldJsonName != null) {
+                    properties.remove(fieldJsonName);
+                }
+                // the method itself takes the value, so whatever it does
+                // with it matches the mapper
+                properties.put(jsonName, new Property(jsonName, field, method.getSimpleName().toString(), kind, parameter));
+            }
+        }
+        for(Map.Entry<String, String> field : fieldJsonNames.entrySet()) {
+            if(!isBound(properties, field.getKey())) {
+                throw new UnsupportedModelException("unsupported type of field " + field.getKey());
+            }
+        }
+        return new ArrayList<>(properties.values());
+    }
+
+    private void write(TypeElement model, List<Property> properties) throws IOException {
+        String packageName = packageOf(model);
+        String modelName = model.getSimpleName().toString();
+        String decoderName = modelName + "Decoder";
+        boolean ignoreUnknown = ignoresUnknown(model);
+        String qualified = packageName.isEmpty() ? decoderName : packageName + "." + decoderName;
+        try(Writer writer = processingEnv.getFiler().createSourceFile(qualified, model).openWriter();
+                PrintWriter out = new PrintWriter(writer)) {
+            if(!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("import com.fasterxml.jackson.core.JsonParser;");
+            out.println("import java.io.IOException;");
+            out.println();
+            out.println("/**");
+            out.println(" * Binds {@link " + modelName + "} without reflection. Generated by");
+            out.println(" * {@code " + DecoderProcessor.class.getName() + "}; do not edit.");
+            out.println(" */");
+            out.println("public final class " + decoderName + " extends " + MODEL_DECODER + "<" + modelName + "> {");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + modelName + " decode(JsonParser parser) throws IOException {");
+            out.println("        if(!startObject(parser)) {");
+            out.println("            return null;");
+            out.println("        }");
+            out.println("        " + modelName + " model = new " + modelName + "();");
+            out.println("        while(nextField(parser)) {");
+            out.println("            switch(parser.getCurrentName()) {");
+            for(Property property : properties) {
+                out.println("                case \"" + escape(property.jsonName) + "\":");
+                if(property.kind == Kind.PARSED) {
+                    String raw = "raw" + capitalize(property.field);
+                    out.println("                    String " + raw + " = " + property.kind.read + ";");
+                    out.println("                    model." + property.setter + "(" + raw + " == null ? null : "
+                            + property.type + ".parse(" + raw + "));");
+                } else {
+                    out.println("                    model." + property.setter + "(" + property.kind.read + ");");
+                }
+                out.println("                    break;");
+            }
+            out.println("                default:");
+            out.println("                    skipUnknown(parser, " + modelName + ".class, " + ignoreUnknown + ");");
+            out.println("                    break;");
+            out.println("            }");
+            out.println("        }");
+            out.println("        return model;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Also true for the implicit default constructor, which is listed like a
+     * declared one.
+     */
+    private static boolean hasNoArgConstructor(TypeElement model) {
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(model.getEnclosedElements())) {
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean ignoresUnknown(TypeElement model) {
+        AnnotationMirror ignore = findInHierarchy(model, JSON_IGNORE_PROPERTIES);
+        return ignore != null && Boolean.TRUE.equals(value(ignore, "ignoreUnknown"));
+    }
+
+    private static boolean isBound(Map<String, Property> properties, String fieldName) {
+        for(Property property : properties.values()) {
+            if(property.field.equals(fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the field set by an unpacking method: {@code unpackColor} and
+     * {@code setColor} set {@code color}.
+     */
+    private static VariableElement unpackedField(TypeElement type, ExecutableElement method) {
+        String name = method.getSimpleName().toString();
+        for(String prefix : new String[]{"unpack", "set"}) {
+            if(name.startsWith(prefix) && name.length() > prefix.length()) {
+                String fieldName = Character.toLowerCase(name.charAt(prefix.length())) + name.substring(prefix.length() + 1);
+                for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                    if(field.getSimpleName().contentEquals(fieldName)) {
+                        return field;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the setter of {@code field}: a declared
+     * non-private setter, or the one Lombok generates.
+     */
+    private String setterFor(TypeElement type, VariableElement field, String modelPackage) throws UnsupportedModelException {
+        String name = field.getSimpleName().toString();
+        String lombokName = "set" + capitalize(name);
+        if(field.asType().getKind() == TypeKind.BOOLEAN && name.length() > 2 && name.startsWith("is")
+                && Character.isUpperCase(name.charAt(2))) {
+            lombokName = "set" + name.substring(2);
+        }
+        boolean samePackage = packageOf(type).equals(modelPackage);
+        for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if(method.getSimpleName().contentEquals(lombokName) && method.getParameters().size() == 1) {
+                if(isAccessible(method, type, modelPackage)) {
+                    return lombokName;
+                }
+                throw new UnsupportedModelException(lombokName + " is not accessible");
+            }
+        }
+        AnnotationMirror setter = find(field, LOMBOK_SETTER);
+        if(setter == null) {
+            setter = find(type, LOMBOK_SETTER);
+        }
+        if(setter == null) {
+            if(find(type, LOMBOK_DATA) == null || field.getModifiers().contains(Modifier.FINAL)) {
+                throw new UnsupportedModelException("no setter for " + name);
+            }
+            return lombokName;
+        }
+        Object level = value(setter, "value");
+        String access = level == null ? "PUBLIC" : level.toString();
+        if(access.equals("PUBLIC") || samePackage && (access.equals("PACKAGE") || access.equals("PROTECTED"))) {
+            return lombokName;
+        }
+        throw new UnsupportedModelException("the setter of " + name + " is " + access);
+    }
+
+    /**
+     * Whether the decoder, in {@code modelPackage}, can call {@code method}
+     * declared by {@code type}.
+     */
+    private boolean isAccessible(ExecutableElement method, TypeElement type, String modelPackage) {
+        Set<Modifier> modifiers = method.getModifiers();
+        return modifiers.contains(Modifier.PUBLIC)
+                || packageOf(type).equals(modelPackage) && !modifiers.contains(Modifier.PRIVATE);
+    }
+
+    private Kind kindOf(TypeMirror type) {
+        switch(type.getKind()) {
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+        DeclaredType declared = (DeclaredType) type;
+        TypeElement element = (TypeElement) declared.asElement();
+        String name = element.getQualifiedName().toString();
+        if(name.equals("java.lang.String")) {
+            return Kind.STRING;
+        }
+        if(name.equals("java.util.List") && declared.getTypeArguments().size() == 1
+                && declared.getTypeArguments().get(0).toString().equals("java.lang.String")) {
+            return Kind.STRING_LIST;
+        }
+        if(name.equals("com.fasterxml.jackson.databind.JsonNode")) {
+            return Kind.TREE;
+        }
+        for(ExecutableElement method : ElementFilter.methodsIn(element.getEnclosedElements())) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if(method.getSimpleName().contentEquals("parse") && modifiers.contains(Modifier.STATIC)
+                    && modifiers.contains(Modifier.PUBLIC) && method.getParameters().size() == 1
+                    && method.getParameters().get(0).asType().toString().equals("java.lang.String")
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+                return Kind.PARSED;
+            }
+        }
+        return null;
+    }
+
+    private static String typeName(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                ? ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString()
+                : type.toString();
+    }
+
+    /**
+     * Returns the property name Jackson infers for {@code field} before
+     * naming: boolean {@code isFoo} fields are known by their Lombok accessors
+     * as {@code foo}.
+     */
+    private static String impliedName(VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if(field.asType().getKind() == TypeKind.BOOLEAN && name.length() > 2 && name.startsWith("is")
+                && Character.isUpperCase(name.charAt(2))) {
+            return Character.toLowerCase(name.charAt(2)) + name.substring(3);
+        }
+        return name;
+    }
+
+    /**
+     * Translates like Jackson's {@code SnakeCaseStrategy}.
+     */
+    static String snakeCase(String name) {
+        StringBuilder result = new StringBuilder(name.length() * 2);
+        boolean wasPrevTranslated = false;
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(i > 0 || c != '_') {
+                if(Character.isUpperCase(c)) {
+                    if(!wasPrevTranslated && result.length() > 0 && result.charAt(result.length() - 1) != '_') {
+                        result.append('_');
+                    }
+                    c = Character.toLowerCase(c);
+                    wasPrevTranslated = true;
+                } else {
+                    wasPrevTranslated = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if(superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private AnnotationMirror findInHierarchy(TypeElement type, String annotation) {
+        for(TypeElement t = type; t != null; t = superclass(t)) {
+            AnnotationMirror mirror = find(t, annotation);
+            if(mirror != null) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static AnnotationMirror find(Element element, String annotation) {
+        for(AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an explicitly set annotation value: a String, Boolean, the
+     * simple name of an enum constant, or a type.
+     */
+    private static Object value(AnnotationMirror mirror, String name) {
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if(entry.getKey().getSimpleName().contentEquals(name)) {
+                Object value = entry.getValue().getValue();
+                if(value instanceof VariableElement) {
+                    return ((VariableElement) value).getSimpleName().toString();
+                }
+                if(value instanceof DeclaredType) {
+                    return ((TypeElement) ((DeclaredType) value).asElement()).getQualifiedName().toString();
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
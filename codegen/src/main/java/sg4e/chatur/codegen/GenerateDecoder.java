@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Jackson model for which {@link DecoderProcessor} generates a
+ * {@code <Model>Decoder} in the same package: a {@code ModelDecoder} that
+ * binds the model from a token stream with a switch over its field names,
+ * calling its setters directly instead of going through reflection.
+ * <p>
+ * The decoder honors the subset of Jackson's annotations used by the models:
+ * {@code @JsonNaming} with the snake case strategy,
+ * {@code @JsonProperty} on fields and on one-argument unpacking methods,
+ * {@code @JsonIgnore} and {@code @JsonIgnoreProperties(ignoreUnknown)}.
+ * Setters may be declared or generated by Lombok. Unpacking methods are
+ * called by the decoder with the value Jackson would pass them, so they must
+ * not be private. A model the processor cannot handle gets no decoder and a
+ * compiler warning, and is bound by Jackson at runtime as before.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateDecoder {
+}
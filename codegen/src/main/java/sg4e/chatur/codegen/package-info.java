@@ -0,0 +1,5 @@
+/**
+ * Compile-time code generation for the JSON models; see
+ * {@link sg4e.chatur.codegen.GenerateDecoder}.
+ */
+package sg4e.chatur.codegen;
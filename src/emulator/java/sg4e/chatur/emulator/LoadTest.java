@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Value;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.ChaturBotPool;
+import sg4e.chatur.EventBus;
+import sg4e.chatur.Topic;
+import sg4e.chatur.metrics.HistogramSnapshot;
+import sg4e.chatur.metrics.LatencyHistogram;
+
+/**
+ * End-to-end load test: connects a {@link ChaturBotPool} to a
+ * {@link ProtocolEmulator} for every combination of room count and per-room
+ * event rate, and reports received throughput, generation-to-handler latency
+ * percentiles, heap and thread use:
+ * <pre>
+ * LoadTest [--rooms 10,100,1000] [--rates 1,10] [--warmup 5] [--seconds 10]
+ * </pre>
+ * Heap and threads are measured while the rooms are connected, relative to
+ * before the pool was created, and divided by the number of rooms to give the
+ * footprint of one room. The emulator runs in the same JVM, so this includes
+ * its state for each connection, mostly an 8 KiB read buffer. Bots use
+ * {@link EventBus} subscriptions for every generated topic, so each event is
+ * fully decoded.
+ */
+public class LoadTest {
+
+    private static final String CONNECT_AUTH = "[\"{\\\"method\\\":\\\"connect\\\",\\\"data\\\":{\\\"user\\\":\\\"__anonymous__\\\"}}\"]";
+    private static final long JOIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * The measurements of one step.
+     */
+    @Value
+    public static class Result {
+
+        int rooms;
+        double ratePerRoom;
+        double receivedPerSecond;
+        HistogramSnapshot latencyNanos;
+        long heapBytes;
+        int threads;
+        long droppedByServer;
+
+        public long getHeapBytesPerRoom() {
+            return heapBytes / rooms;
+        }
+
+        public double getThreadsPerRoom() {
+            return (double) threads / rooms;
+        }
+    }
+
+    private final long warmupMillis;
+    private final long measureMillis;
+
+    /**
+     * Creates a harness.
+     *
+     * @param warmupMillis time to run after every room joined, before
+     * measuring
+     * @param measureMillis length of the measurement
+     */
+    public LoadTest(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] rooms = {10, 100, 1000};
+        double[] rates = {1, 10};
+        long warmup = 5, seconds = 10;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            switch(args[i]) {
+                case "--rooms":
+                    rooms = parseInts(args[i + 1]);
+                    break;
+                case "--rates":
+                    rates = parseDoubles(args[i + 1]);
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("usage: LoadTest [--rooms 10,100,1000] [--rates 1,10] [--warmup 5] [--seconds 10]");
+                    System.exit(1);
+            }
+        }
+        LoadTest test = new LoadTest(TimeUnit.SECONDS.toMillis(warmup), TimeUnit.SECONDS.toMillis(seconds));
+        System.out.println("rooms\trate/room\trecv/s\tp50 us\tp99 us\tp99.9 us\tmax us\theap/room\tthreads/room\tdropped");
+        for(int roomCount : rooms) {
+            for(double rate : rates) {
+                Result r = test.run(roomCount, rate);
+                HistogramSnapshot latency = r.getLatencyNanos();
+                System.out.printf("%d\t%.1f\t%.0f\t%d\t%d\t%d\t%d\t%d\t%.2f\t%d%n", r.getRooms(), r.getRatePerRoom(),
+                        r.getReceivedPerSecond(), latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000,
+                        latency.getValueAtPercentile(99.9) / 1000, latency.getMax() / 1000, r.getHeapBytesPerRoom(),
+                        r.getThreadsPerRoom(), r.getDroppedByServer());
+            }
+        }
+    }
+
+    /**
+     * Runs one step.
+     *
+     * @param rooms number of rooms, each on its own connection
+     * @param ratePerRoom events generated per second in each room
+     * @return
+     * @throws Exception if the emulator cannot start or the rooms do not all
+     * join within a minute
+     */
+    public Result run(int rooms, double ratePerRoom) throws Exception {
+        long baselineHeap = usedHeapAfterGc();
+        int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        AtomicReference<LatencyHistogram> latency = new AtomicReference<>(new LatencyHistogram());
+        LongAdder received = new LongAdder();
+        EventBus bus = new EventBus();
+        bus.subscribe(Topic.ROOM_MESSAGE, (bot, message) -> record(latency, received, message.getMessage()));
+        bus.subscribe(Topic.NOTICE, (bot, notice) -> record(latency, received,
+                notice.getAmount() > 0 || notice.getMsg() == null ? notice.getMessage() : notice.getMsg().get(0)));
+        bus.subscribe(Topic.TITLE_CHANGE, (bot, title) -> record(latency, received, title));
+        try(ProtocolEmulator emulator = new ProtocolEmulator(ratePerRoom, TrafficMix.DEFAULT);
+                ChaturBotPool pool = new ChaturBotPool(ChaturBot::new, 16, 1)) {
+            pool.setEventBus(bus);
+            for(int i = 0; i < rooms; i++) {
+                pool.addRoom("room" + i, emulator.getUrl(), CONNECT_AUTH);
+            }
+            long deadline = System.currentTimeMillis() + JOIN_TIMEOUT_MILLIS;
+            while(emulator.getJoinedCount() < rooms) {
+                if(System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException(String.format("Only %d of %d rooms joined", emulator.getJoinedCount(), rooms));
+                }
+                Thread.sleep(50);
+            }
+            Thread.sleep(warmupMillis);
+            latency.set(new LatencyHistogram());
+            received.reset();
+            long droppedBefore = emulator.getDroppedCount();
+            long start = System.nanoTime();
+            Thread.sleep(measureMillis);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long count = received.sum();
+            HistogramSnapshot snapshot = latency.get().snapshot();
+            long heap = usedHeapAfterGc() - baselineHeap;
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baselineThreads;
+            return new Result(rooms, ratePerRoom, count / seconds, snapshot, heap, threads, emulator.getDroppedCount() - droppedBefore);
+        }
+    }
+
+    private static void record(AtomicReference<LatencyHistogram> latency, LongAdder received, String text) {
+        received.increment();
+        long sent = ProtocolEmulator.sentNanos(text);
+        if(sent != -1) {
+            latency.get().record(System.nanoTime() - sent);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for(int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for(int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,674 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emulator;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local WebSocket server that speaks the SockJS-style protocol
+ * {@link sg4e.chatur.ChaturBot} expects, for tests and load tests without
+ * the real service.
+ * <p>
+ * On connection it sends the {@code o} open frame. It answers {@code connect}
+ * with a successful {@code onAuthResponse} and {@code updateRoomCount} with an
+ * {@code onRoomCountUpdate}. Once a connection sends {@code joinRoom}, it
+ * receives synthetic {@code onRoomMsg}, {@code onNotify} and
+ * {@code onTitleChange} traffic at the configured rate and
+ * {@link TrafficMix}. Events due within the same 10 ms tick are batched into
+ * one frame, and idle connections get an {@code h} heartbeat every 25
+ * seconds. Any {@code connectAuth} whose method is {@code connect} is
+ * accepted.
+ * <p>
+ * Every generated text (message, tip message, announcement and title) starts
+ * with the {@link System#nanoTime()} at which it was generated, so receivers
+ * in the same JVM can measure end-to-end latency with {@link #sentNanos}.
+ * <p>
+ * One thread serves all connections with non-blocking I/O and another
+ * generates traffic. Only unfragmented client frames are supported.
+ */
+public class ProtocolEmulator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProtocolEmulator.class);
+
+    private static final String AUTH_RESPONSE = "a[\"{\\\"args\\\":[\\\"1\\\"],\\\"callback\\\":null,\\\"method\\\":\\\"onAuthResponse\\\"}\"]";
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final long TICK_MILLIS = 10;
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(25);
+    private static final int MAX_CLIENT_FRAME = 1 << 20;
+    private static final int MAX_PENDING_BYTES = 8 << 20;
+    private static final int[] TIP_AMOUNTS = {1, 5, 10, 25, 50, 100, 500};
+    private static final String[] WORDS = {
+        "hi", "hello", "lol", "nice", "wow", "omg", "haha", "please", "thanks", "love",
+        "show", "tip", "what", "where", "again", "again", "again", "you", "are", "so"
+    };
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final TrafficMix mix;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread ioThread, trafficThread;
+    private volatile double eventsPerSecond;
+    private volatile boolean closed;
+
+    /**
+     * Starts an emulator on a free loopback port.
+     *
+     * @param eventsPerSecond events generated per second for each joined
+     * connection
+     * @param mix
+     * @throws IOException
+     */
+    public ProtocolEmulator(double eventsPerSecond, TrafficMix mix) throws IOException {
+        this(0, eventsPerSecond, mix);
+    }
+
+    /**
+     * Starts an emulator on a loopback port.
+     *
+     * @param port 0 for any free port
+     * @param eventsPerSecond events generated per second for each joined
+     * connection
+     * @param mix
+     * @throws IOException
+     */
+    public ProtocolEmulator(int port, double eventsPerSecond, TrafficMix mix) throws IOException {
+        setRate(eventsPerSecond);
+        this.mix = mix;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        ioThread = new Thread(this::serve, "chaturbot-emulator-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+        trafficThread = new Thread(this::generate, "chaturbot-emulator-traffic");
+        trafficThread.setDaemon(true);
+        trafficThread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the URL to pass to {@link sg4e.chatur.ChaturBot}.
+     *
+     * @return
+     */
+    public String getUrl() {
+        return "ws://127.0.0.1:" + getPort() + "/ws";
+    }
+
+    /**
+     * Changes the rate of generated events per joined connection; takes effect
+     * on the next tick.
+     *
+     * @param eventsPerSecond
+     */
+    public void setRate(double eventsPerSecond) {
+        if(eventsPerSecond < 0) {
+            throw new IllegalArgumentException("eventsPerSecond must not be negative");
+        }
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    public double getRate() {
+        return eventsPerSecond;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the number of connections that have joined a room.
+     *
+     * @return
+     */
+    public int getJoinedCount() {
+        int joined = 0;
+        for(Connection connection : connections) {
+            if(connection.room != null) {
+                joined++;
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Returns the number of events generated.
+     *
+     * @return
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of events discarded because a client did not read
+     * fast enough.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Closes every client connection without a close frame, as a crashed
+     * server would.
+     */
+    public void dropConnections() {
+        for(Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the send time embedded at the start of a generated text.
+     *
+     * @param text
+     * @return the {@link System#nanoTime()} at which it was generated, or -1
+     * if {@code text} was not generated by an emulator
+     */
+    public static long sentNanos(String text) {
+        if(text == null) {
+            return -1;
+        }
+        int end = text.indexOf(' ');
+        if(end <= 0) {
+            end = text.length();
+        }
+        long nanos = 0;
+        for(int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if(c == '-' && i == 0) {
+                continue;
+            }
+            if(c < '0' || c > '9') {
+                return -1;
+            }
+            nanos = nanos * 10 + (c - '0');
+        }
+        return text.charAt(0) == '-' ? -nanos : nanos;
+    }
+
+    /**
+     * Stops the server and closes every connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        trafficThread.interrupt();
+        try {
+            ioThread.join();
+            trafficThread.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        dropConnections();
+        try {
+            server.close();
+            selector.close();
+        } catch(IOException ex) {
+            LOG.debug("Error closing emulator", ex);
+        }
+    }
+
+    private void serve() {
+        while(!closed) {
+            try {
+                selector.select();
+                Connection pending;
+                while((pending = pendingWrites.poll()) != null) {
+                    if(pending.key.isValid()) {
+                        pending.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                for(Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext();) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if(!key.isValid()) {
+                        continue;
+                    }
+                    if(key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if(key.isReadable()) {
+                            connection.read();
+                        }
+                        if(key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch(IOException ex) {
+                        LOG.debug("Closing emulated connection", ex);
+                        connection.close();
+                    }
+                }
+            } catch(IOException ex) {
+                LOG.error("Emulator I/O failure", ex);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+    }
+
+    private void generate() {
+        Random random = new Random();
+        StringBuilder frame = new StringBuilder();
+        long last = System.nanoTime();
+        while(!closed) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch(InterruptedException ex) {
+                continue;
+            }
+            long now = System.nanoTime();
+            double due = eventsPerSecond * (now - last) / 1e9;
+            last = now;
+            for(Connection connection : connections) {
+                String room = connection.room;
+                if(room == null) {
+                    continue;
+                }
+                connection.due += due;
+                int count = (int) connection.due;
+                if(count == 0) {
+                    if(now - connection.lastSentNanos > HEARTBEAT_NANOS) {
+                        connection.send("h");
+                        connection.lastSentNanos = now;
+                    }
+                    continue;
+                }
+                connection.due -= count;
+                frame.setLength(0);
+                frame.append("a[");
+                for(int i = 0; i < count; i++) {
+                    if(i > 0) {
+                        frame.append(',');
+                    }
+                    appendQuoted(frame, event(room, random));
+                }
+                frame.append(']');
+                if(connection.send(frame.toString())) {
+                    sent.addAndGet(count);
+                } else {
+                    dropped.addAndGet(count);
+                }
+                connection.lastSentNanos = now;
+            }
+        }
+    }
+
+    private String event(String room, Random random) {
+        int pick = random.nextInt(mix.total());
+        String user = "user" + random.nextInt(1000);
+        long nanos = System.nanoTime();
+        if(pick < mix.getRoomMessages()) {
+            String arg = "{\"c\":\"#494949\",\"X-Successful\":true,\"f\":\"default\",\"gender\":\"m\",\"m\":"
+                    + quoted(nanos + " " + words(random)) + ",\"user\":\"" + user
+                    + "\",\"is_mod\":false,\"in_fanclub\":false,\"has_tokens\":true,\"tipped_recently\":false,"
+                    + "\"tipped_alot_recently\":false,\"tipped_tons_recently\":false}";
+            return message("onRoomMsg", quoted(room), quoted(arg));
+        }
+        pick -= mix.getRoomMessages();
+        if(pick < mix.getTips()) {
+            String arg = "{\"to_username\":\"" + room + "\",\"message\":\"" + nanos + "\",\"from_username\":\"" + user
+                    + "\",\"amount\":" + TIP_AMOUNTS[random.nextInt(TIP_AMOUNTS.length)]
+                    + ",\"is_mod\":false,\"type\":\"tip_alert\",\"history\":false,\"is_anonymous_tip\":false,"
+                    + "\"in_fanclub\":false,\"has_tokens\":true,\"tipped_recently\":true,"
+                    + "\"tipped_alot_recently\":false,\"tipped_tons_recently\":false}";
+            return message("onNotify", quoted(arg));
+        }
+        pick -= mix.getTips();
+        if(pick < mix.getNotices()) {
+            String arg = "{\"background\":\"#ffffff\",\"foreground\":\"rgb(220,85,0)\",\"weight\":\"bold\","
+                    + "\"type\":\"room_message\",\"msg\":" + quoted(nanos + " Welcome! Be nice in chat.") + "}";
+            return message("onNotify", quoted(arg));
+        }
+        return message("onTitleChange", quoted(nanos + " " + words(random) + " #emulated"));
+    }
+
+    private static String words(Random random) {
+        StringBuilder text = new StringBuilder();
+        int count = 1 + random.nextInt(8);
+        for(int i = 0; i < count; i++) {
+            if(i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String message(String method, String... quotedArgs) {
+        return "{\"args\":[" + String.join(",", quotedArgs) + "],\"callback\":null,\"method\":\"" + method + "\"}";
+    }
+
+    private static String quoted(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        appendQuoted(sb, value);
+        return sb.toString();
+    }
+
+    private static void appendQuoted(StringBuilder sb, String value) {
+        sb.append('"').append(JsonStringEncoder.getInstance().quoteAsString(value)).append('"');
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch(NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(8192);
+        private boolean upgraded;
+        private int pendingBytes;
+        private volatile String room;
+        // used only by the traffic thread
+        private double due;
+        private long lastSentNanos = System.nanoTime();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if(channel.read(input) < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            if(!upgraded && !handshake()) {
+                input.compact();
+                if(!input.hasRemaining()) {
+                    throw new IOException("Handshake too large");
+                }
+                return;
+            }
+            while(upgraded && readFrame()) {
+                // keep reading frames
+            }
+            input.compact();
+        }
+
+        private boolean handshake() throws IOException {
+            int end = -1;
+            for(int i = input.position(); i + 3 < input.limit(); i++) {
+                if(input.get(i) == '\r' && input.get(i + 1) == '\n' && input.get(i + 2) == '\r' && input.get(i + 3) == '\n') {
+                    end = i + 4;
+                    break;
+                }
+            }
+            if(end < 0) {
+                return false;
+            }
+            byte[] request = new byte[end - input.position()];
+            input.get(request);
+            String key = null;
+            for(String line : new String(request, StandardCharsets.ISO_8859_1).split("\r\n")) {
+                int colon = line.indexOf(':');
+                if(colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+            }
+            if(key == null) {
+                write("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                throw new IOException("Not a WebSocket handshake");
+            }
+            write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            upgraded = true;
+            send("o");
+            return true;
+        }
+
+        /**
+         * Handles one complete client frame from the input buffer.
+         *
+         * @return false if the buffer does not hold a complete frame
+         */
+        private boolean readFrame() throws IOException {
+            int start = input.position();
+            int available = input.remaining();
+            if(available < 2) {
+                return false;
+            }
+            int b0 = input.get(start) & 0xFF;
+            int b1 = input.get(start + 1) & 0xFF;
+            int header = 2;
+            long length = b1 & 0x7F;
+            if(length == 126) {
+                header += 2;
+                if(available < header) {
+                    return false;
+                }
+                length = input.getShort(start + 2) & 0xFFFF;
+            } else if(length == 127) {
+                header += 8;
+                if(available < header) {
+                    return false;
+                }
+                length = input.getLong(start + 2);
+            }
+            boolean masked = (b1 & 0x80) != 0;
+            int maskOffset = start + header;
+            if(masked) {
+                header += 4;
+            }
+            if(length < 0 || length > MAX_CLIENT_FRAME) {
+                // a 64-bit length with the top bit set reads as negative
+                throw new IOException("Invalid client frame length: " + length);
+            }
+            if(available < header + length) {
+                if(input.capacity() < header + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(header + (int) length);
+                    larger.put(input);
+                    larger.flip();
+                    input = larger;
+                }
+                return false;
+            }
+            byte[] payload = new byte[(int) length];
+            for(int i = 0; i < payload.length; i++) {
+                byte b = input.get(start + header + i);
+                payload[i] = masked ? (byte) (b ^ input.get(maskOffset + (i & 3))) : b;
+            }
+            input.position(start + header + payload.length);
+            switch(b0 & 0x0F) {
+                case 0x1:
+                    onText(new String(payload, StandardCharsets.UTF_8));
+                    break;
+                case 0x8:
+                    sendFrame(0x88, new byte[0]);
+                    close();
+                    return false;
+                case 0x9:
+                    sendFrame(0x8A, payload);
+                    break;
+                default:
+                    // pong and unsupported continuation frames
+                    break;
+            }
+            return true;
+        }
+
+        private void onText(String text) {
+            JsonNode frame;
+            try {
+                frame = MAPPER.readTree(text);
+            } catch(IOException ex) {
+                LOG.debug("Ignoring malformed client frame {}", text);
+                return;
+            }
+            for(JsonNode element : frame.isArray() ? frame : MAPPER.createArrayNode().add(frame)) {
+                JsonNode command;
+                try {
+                    command = element.isTextual() ? MAPPER.readTree(element.asText()) : element;
+                } catch(IOException ex) {
+                    LOG.debug("Ignoring malformed client command {}", element);
+                    continue;
+                }
+                switch(command.path("method").asText()) {
+                    case "connect":
+                        send(AUTH_RESPONSE);
+                        break;
+                    case "joinRoom":
+                        room = command.path("data").path("room").asText("room");
+                        break;
+                    case "updateRoomCount":
+                        send("a[" + quoted(message("onRoomCountUpdate", quoted(Integer.toString(100 + connections.size())))) + "]");
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Sends a text frame.
+         *
+         * @return false if it was dropped because the client is too far
+         * behind
+         */
+        boolean send(String text) {
+            return sendFrame(0x81, text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private boolean sendFrame(int opcode, byte[] payload) {
+            int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+            ByteBuffer frame = ByteBuffer.allocate(header + payload.length);
+            frame.put((byte) opcode);
+            if(payload.length < 126) {
+                frame.put((byte) payload.length);
+            } else if(payload.length < 65536) {
+                frame.put((byte) 126);
+                frame.putShort((short) payload.length);
+            } else {
+                frame.put((byte) 127);
+                frame.putLong(payload.length);
+            }
+            frame.put(payload);
+            frame.flip();
+            return write(frame);
+        }
+
+        private boolean write(byte[] bytes) {
+            return write(ByteBuffer.wrap(bytes));
+        }
+
+        private synchronized boolean write(ByteBuffer buffer) {
+            if(!channel.isOpen()) {
+                return false;
+            }
+            if(pendingBytes + buffer.remaining() > MAX_PENDING_BYTES) {
+                return false;
+            }
+            if(output.isEmpty()) {
+                try {
+                    channel.write(buffer);
+                } catch(IOException ex) {
+                    close();
+                    return false;
+                }
+                if(!buffer.hasRemaining()) {
+                    return true;
+                }
+            }
+            output.add(buffer);
+            pendingBytes += buffer.remaining();
+            pendingWrites.add(this);
+            selector.wakeup();
+            return true;
+        }
+
+        synchronized void flush() throws IOException {
+            while(!output.isEmpty()) {
+                ByteBuffer head = output.peek();
+                int before = head.remaining();
+                channel.write(head);
+                pendingBytes -= before - head.remaining();
+                if(head.hasRemaining()) {
+                    return;
+                }
+                output.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            connections.remove(this);
+            room = null;
+            try {
+                channel.close();
+            } catch(IOException ex) {
+                LOG.debug("Error closing emulated connection", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emulator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.EventBus;
+import sg4e.chatur.Topic;
+import sg4e.chatur.shard.ShardCoordinator;
+
+/**
+ * Failover drill for a {@link ShardCoordinator}: spreads rooms of a
+ * {@link ProtocolEmulator} across worker processes, kills one worker partway
+ * through, and prints every second the events received and the rooms and
+ * message rate of each worker:
+ * <pre>
+ * ShardDrill [--workers 3] [--rooms 30] [--rate 5] [--seconds 40] [--kill 10]
+ * </pre>
+ * Worker 0 is killed after {@code --kill} seconds; its rooms should move to
+ * the other workers at once, and back to its replacement at the next
+ * rebalance. The room count of {@code room0} is queried through its worker
+ * at the end.
+ */
+public class ShardDrill {
+
+    private static final String CONNECT_AUTH = "[\"{\\\"method\\\":\\\"connect\\\",\\\"data\\\":{\\\"user\\\":\\\"__anonymous__\\\"}}\"]";
+
+    public static void main(String[] args) throws Exception {
+        int workers = 3, rooms = 30;
+        double rate = 5;
+        long seconds = 40, kill = 10;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            switch(args[i]) {
+                case "--workers":
+                    workers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rooms":
+                    rooms = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Long.parseLong(args[i + 1]);
+                    break;
+                case "--kill":
+                    kill = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("usage: ShardDrill [--workers 3] [--rooms 30] [--rate 5] [--seconds 40] [--kill 10]");
+                    System.exit(1);
+            }
+        }
+        LongAdder received = new LongAdder();
+        EventBus bus = new EventBus();
+        bus.subscribe(Topic.ROOM_MESSAGE, (bot, message) -> received.increment());
+        bus.subscribe(Topic.NOTICE, (bot, notice) -> received.increment());
+        bus.subscribe(Topic.TITLE_CHANGE, (bot, title) -> received.increment());
+        try(ProtocolEmulator emulator = new ProtocolEmulator(rate, TrafficMix.DEFAULT);
+                ShardCoordinator coordinator = new ShardCoordinator(ChaturBot::new, workers, Collections.emptyList(), 1.2,
+                        TimeUnit.SECONDS.toMillis(5))) {
+            coordinator.setEventBus(bus);
+            for(int i = 0; i < rooms; i++) {
+                coordinator.addRoom("room" + i, emulator.getUrl(), CONNECT_AUTH);
+            }
+            System.out.println("second\trecv/s\tjoined\trooms per worker\tevents/s per worker");
+            for(long second = 1; second <= seconds; second++) {
+                Thread.sleep(1000);
+                if(second == kill) {
+                    System.out.println("killing worker 0");
+                    coordinator.destroyWorker(0);
+                }
+                int[] counts = new int[workers];
+                double[] rates = new double[workers];
+                for(Map.Entry<String, Integer> entry : coordinator.getAssignments().entrySet()) {
+                    counts[entry.getValue()]++;
+                    rates[entry.getValue()] += coordinator.getMessageRate(entry.getKey());
+                }
+                StringBuilder load = new StringBuilder();
+                for(double r : rates) {
+                    load.append(String.format("%.0f ", r));
+                }
+                System.out.printf("%d\t%d\t%d\t%s\t%s%n", second, received.sumThenReset(), emulator.getJoinedCount(),
+                        Arrays.toString(counts), load.toString().trim());
+            }
+            System.out.printf("restarts %d, moved rooms %d, dropped by server %d, users in room0 %d%n", coordinator.getWorkerRestartCount(),
+                    coordinator.getMovedRoomCount(), emulator.getDroppedCount(), coordinator.queryRoomCount("room0").get());
+        }
+    }
+}
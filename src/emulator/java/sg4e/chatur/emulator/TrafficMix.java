@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emulator;
+
+import lombok.Value;
+
+/**
+ * Relative weights of the kinds of events generated by a
+ * {@link ProtocolEmulator}. A weight of 0 disables a kind.
+ */
+@Value
+public class TrafficMix {
+
+    /**
+     * Roughly the mix of a busy room: mostly chat, some tips, occasional
+     * announcements and title changes.
+     */
+    public static final TrafficMix DEFAULT = new TrafficMix(80, 10, 6, 4);
+
+    int roomMessages;
+    int tips;
+    int notices;
+    int titleChanges;
+
+    /**
+     * Creates a mix.
+     *
+     * @param roomMessages weight of {@code onRoomMsg}
+     * @param tips weight of {@code onNotify} tips
+     * @param notices weight of other {@code onNotify} announcements
+     * @param titleChanges weight of {@code onTitleChange}
+     */
+    public TrafficMix(int roomMessages, int tips, int notices, int titleChanges) {
+        if(roomMessages < 0 || tips < 0 || notices < 0 || titleChanges < 0 || roomMessages + tips + notices + titleChanges == 0) {
+            throw new IllegalArgumentException("Weights must be non-negative and not all zero");
+        }
+        this.roomMessages = roomMessages;
+        this.tips = tips;
+        this.notices = notices;
+        this.titleChanges = titleChanges;
+    }
+
+    int total() {
+        return roomMessages + tips + notices + titleChanges;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * A local stand-in for the chat server, and load tests built on it.
+ */
+package sg4e.chatur.emulator;
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketFactory;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one frame for a bot without overridden hooks that consumes events
+ * through an {@link EventBus}: nothing subscribed (every event method is
+ * skipped after its name), a selective tip filter (notices are filtered on
+ * the lazy view and chat messages skipped), and every chat message.
+ */
+@State(Scope.Thread)
+public class EventBusBenchmark {
+
+    @Param({"NONE", "TIPS_OVER_100", "ALL_MESSAGES"})
+    public String subscription;
+
+    private List<String> frames;
+    private ChaturBot bot;
+    private WebSocket socket;
+    private int next;
+    private Object sink;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        frames = FrameCorpus.load();
+        socket = new WebSocketFactory().createSocket("ws://localhost:1");
+        bot = new ChaturBot("examplemodel", "ws://localhost:1", "connect");
+        EventBus bus = new EventBus();
+        switch(subscription) {
+            case "TIPS_OVER_100":
+                bus.subscribe(Topic.TIP, EventFilters.minAmount(100), (source, tip) -> sink = tip.getFromUsername());
+                break;
+            case "ALL_MESSAGES":
+                bus.subscribe(Topic.ROOM_MESSAGE, (source, message) -> sink = message.getMessage());
+                break;
+            default:
+                break;
+        }
+        bot.setEventBus(bus);
+        bot.onText(socket, "o");
+    }
+
+    @Benchmark
+    public Object onTextMessage() throws Exception {
+        String frame = frames.get(next);
+        next = next + 1 == frames.size() ? 0 : next + 1;
+        bot.onText(socket, frame);
+        return sink;
+    }
+}
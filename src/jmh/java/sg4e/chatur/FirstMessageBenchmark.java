@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sg4e.chatur.json.ModelDecoder;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Time to bind the first chat message and the first notice in a fresh JVM,
+ * the latency a bot sees right after startup. The mapper is created in setup
+ * in both cases, so {@code MAPPER} measures building Jackson's deserializers
+ * and {@code GENERATED} measures loading the generated decoders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class FirstMessageBenchmark {
+
+    private static final String ROOM_MESSAGE = "{\"c\":\"#494949\",\"X-Successful\":true,\"f\":\"default\",\"gender\":\"m\","
+            + "\"m\":\"hello\",\"user\":\"user001\",\"is_mod\":false,\"in_fanclub\":false,\"has_tokens\":true,"
+            + "\"tipped_recently\":false,\"tipped_alot_recently\":false,\"tipped_tons_recently\":false}";
+    private static final String NOTICE = "{\"to_username\":\"examplemodel\",\"message\":\"\",\"from_username\":\"user001\","
+            + "\"amount\":25,\"is_mod\":false,\"type\":\"tip_alert\",\"history\":false,\"in_fanclub\":false,"
+            + "\"has_tokens\":true,\"msg\":[\"thanks\"],\"foreground\":\"#009900\"}";
+
+    @Param({"GENERATED", "MAPPER"})
+    public String binding;
+
+    private JsonFactory factory;
+
+    @Setup
+    public void setup() {
+        factory = JsonSupport.MAPPER.getFactory();
+    }
+
+    @Benchmark
+    public void firstMessage(Blackhole blackhole) throws IOException {
+        blackhole.consume(bind(RoomMessage.class, ROOM_MESSAGE));
+        blackhole.consume(bind(Notification.class, NOTICE));
+    }
+
+    private <T> T bind(Class<T> clazz, String json) throws IOException {
+        try(JsonParser parser = factory.createParser(json)) {
+            if(binding.equals("GENERATED")) {
+                ModelDecoder<T> decoder = JsonSupport.decoderFor(clazz);
+                if(decoder == null) {
+                    throw new IllegalStateException("No decoder was generated for " + clazz);
+                }
+                return decoder.decode(parser);
+            }
+            return JsonSupport.readerFor(clazz).readValue(parser);
+        }
+    }
+}
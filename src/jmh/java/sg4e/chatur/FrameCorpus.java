@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads a versioned corpus of raw WebSocket text frames from
+ * {@code src/jmh/resources/sg4e/chatur/corpus}. Lines starting with {@code #}
+ * are comments.
+ */
+public final class FrameCorpus {
+
+    /**
+     * The corpus used by default; bump when the corpus is re-recorded so that
+     * results from different corpora are never compared.
+     */
+    public static final String CURRENT = "frames-v1.txt";
+
+    private FrameCorpus() {
+    }
+
+    public static List<String> load(String name) throws IOException {
+        InputStream in = FrameCorpus.class.getResourceAsStream("corpus/" + name);
+        if(in == null) {
+            throw new IOException("Missing frame corpus " + name);
+        }
+        List<String> frames = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(!line.isEmpty() && !line.startsWith("#")) {
+                    frames.add(line);
+                }
+            }
+        }
+        return Collections.unmodifiableList(frames);
+    }
+
+    public static List<String> load() throws IOException {
+        return load(CURRENT);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.io.IOException;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import sg4e.chatur.ChaturBot.ParsedWebsocketMessage;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Decodes and binds one corpus frame per operation, comparing the streaming
+ * {@link FrameDecoder} with the tree-based fallback path.
+ */
+@State(Scope.Thread)
+public class FrameDecodeBenchmark {
+
+    private List<String> frames;
+    private FrameDecoder decoder;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        frames = FrameCorpus.load();
+        decoder = new FrameDecoder();
+    }
+
+    private String nextFrame() {
+        String frame = frames.get(next);
+        next = next + 1 == frames.size() ? 0 : next + 1;
+        return frame;
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) throws IOException {
+        if(decoder.reset(nextFrame())) {
+            while(decoder.next()) {
+                bind(decoder, bh);
+            }
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) throws IOException {
+        bind(new ParsedWebsocketMessage(nextFrame()), bh);
+    }
+
+    static void bind(WebsocketMessage message, Blackhole bh) throws IOException {
+        switch(message.getMethod()) {
+            case "onRoomMsg":
+                bh.consume(message.mapToObject(1, RoomMessage.class));
+                break;
+            case "onNotify":
+                bh.consume(message.mapToObject(0, Notification.class));
+                break;
+            case "onTitleChange":
+                bh.consume(message.mapToObject(0, String.class));
+                break;
+            case "onSilence":
+                bh.consume(message.mapToObject(0, String.class));
+                bh.consume(message.mapToObject(1, String.class));
+                break;
+            default:
+                bh.consume(message.getMethod());
+                break;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketFactory;
+import java.io.IOException;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * End-to-end cost of one frame: the same path {@code onTextMessage} takes,
+ * from raw text to the user's callback, without a network connection. The
+ * handlers read the user and message (or tipper and amount), as typical bots
+ * do.
+ */
+@State(Scope.Thread)
+public class ListenerBenchmark {
+
+    @Param({"EAGER", "LAZY", "FLYWEIGHT"})
+    public DecodingMode decodingMode;
+
+    private List<String> frames;
+    private ChaturBot bot;
+    private WebSocket socket;
+    private int next;
+    private Object sink;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        frames = FrameCorpus.load();
+        socket = new WebSocketFactory().createSocket("ws://localhost:1");
+        bot = new ChaturBot("examplemodel", "ws://localhost:1", "connect") {
+            @Override
+            protected void onRoomMsg(RoomMessage message) {
+                sink = message.getUser();
+                sink = message.getMessage();
+            }
+
+            @Override
+            protected void onNotify(Notification notification) {
+                sink = notification.getFromUsername();
+                sink = notification.getAmount();
+            }
+
+            @Override
+            protected void onTitleChange(String newTitle) {
+                sink = newTitle;
+            }
+
+            @Override
+            protected void onSilence(String arg0, String arg1) {
+                sink = arg1;
+            }
+        };
+        bot.setDecodingMode(decodingMode);
+        // complete the handshake so that later frames take the steady-state path
+        bot.onText(socket, "o");
+    }
+
+    @Benchmark
+    public Object onTextMessage() throws Exception {
+        String frame = frames.get(next);
+        next = next + 1 == frames.size() ? 0 : next + 1;
+        bot.onText(socket, frame);
+        return sink;
+    }
+}
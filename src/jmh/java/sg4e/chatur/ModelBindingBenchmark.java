@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sg4e.chatur.json.ModelDecoder;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Binds the model JSON carried in frame arguments, isolating binding from
+ * envelope decoding. {@code GENERATED} uses the decoders generated at build
+ * time; {@code MAPPER} uses Jackson's reflective binding (including
+ * {@code Notification.unpackMsg} and the color unpacking).
+ */
+@State(Scope.Thread)
+public class ModelBindingBenchmark {
+
+    private final List<String> roomMessages = new ArrayList<>();
+    private final List<String> notifications = new ArrayList<>();
+    private final JsonFactory factory = JsonSupport.MAPPER.getFactory();
+    private Binder<RoomMessage> roomMessageBinder;
+    private Binder<Notification> notificationBinder;
+    private int nextRoomMessage, nextNotification;
+
+    @Param({"GENERATED", "MAPPER"})
+    public String binding;
+
+    private interface Binder<T> {
+
+        T bind(JsonParser parser) throws IOException;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        for(String frame : FrameCorpus.load()) {
+            if(decoder.reset(frame)) {
+                while(decoder.next()) {
+                    if("onRoomMsg".equals(decoder.getMethod())) {
+                        roomMessages.add(decoder.mapToObject(1, String.class));
+                    } else if("onNotify".equals(decoder.getMethod())) {
+                        notifications.add(decoder.mapToObject(0, String.class));
+                    }
+                }
+            }
+        }
+        roomMessageBinder = binder(RoomMessage.class);
+        notificationBinder = binder(Notification.class);
+    }
+
+    private <T> Binder<T> binder(Class<T> clazz) {
+        if(binding.equals("GENERATED")) {
+            ModelDecoder<T> decoder = JsonSupport.decoderFor(clazz);
+            if(decoder == null) {
+                throw new IllegalStateException("No decoder was generated for " + clazz);
+            }
+            return decoder::decode;
+        }
+        return JsonSupport.readerFor(clazz)::readValue;
+    }
+
+    @Benchmark
+    public RoomMessage roomMessage() throws IOException {
+        String json = roomMessages.get(nextRoomMessage);
+        nextRoomMessage = nextRoomMessage + 1 == roomMessages.size() ? 0 : nextRoomMessage + 1;
+        try(JsonParser parser = factory.createParser(json)) {
+            return roomMessageBinder.bind(parser);
+        }
+    }
+
+    @Benchmark
+    public Notification notification() throws IOException {
+        String json = notifications.get(nextNotification);
+        nextNotification = nextNotification + 1 == notifications.size() ? 0 : nextNotification + 1;
+        try(JsonParser parser = factory.createParser(json)) {
+            return notificationBinder.bind(parser);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emoticons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finds the emoticons in chat messages with the compiled
+ * {@link EmoticonMatcher}, and with the usual alternative, one regex that
+ * alternates every code, longest first.
+ */
+@State(Scope.Thread)
+public class EmoticonBenchmark {
+
+    private static final String[] WORDS = {"hello", "lol", "nice", "tip", "pls", "omg", "so", "cute", "wow", "thanks", "bye"};
+
+    @Param({"100", "1000"})
+    public int codes;
+
+    private EmoticonMatcher matcher;
+    private Pattern pattern;
+    private final List<String> messages = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Emoticon> emoticons = new ArrayList<>();
+        for(int i = 0; i < codes; i++) {
+            emoticons.add(new Emoticon(":" + WORDS[i % WORDS.length] + i, "https://example.com/" + i + ".png"));
+        }
+        matcher = new EmoticonMatcher(emoticons);
+        List<Emoticon> longestFirst = new ArrayList<>(emoticons);
+        longestFirst.sort((a, b) -> b.getCode().length() - a.getCode().length());
+        StringBuilder regex = new StringBuilder("(?:");
+        for(Emoticon emoticon : longestFirst) {
+            if(regex.length() > 3) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(emoticon.getCode()));
+        }
+        pattern = Pattern.compile(regex.append(")(?!\\w)").toString());
+        // mostly plain chat, with an emoticon in one message in four
+        for(int i = 0; i < 1024; i++) {
+            StringBuilder message = new StringBuilder();
+            int words = 2 + random.nextInt(10);
+            for(int w = 0; w < words; w++) {
+                message.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if(random.nextInt(4) == 0) {
+                message.append(' ').append(emoticons.get(random.nextInt(codes)).getCode());
+            }
+            messages.add(message.toString());
+        }
+    }
+
+    @Benchmark
+    public int automaton() {
+        String message = nextMessage();
+        return matcher.tokenize(message).size();
+    }
+
+    @Benchmark
+    public int regex() {
+        String message = nextMessage();
+        Matcher m = pattern.matcher(message);
+        int found = 0;
+        while(m.find()) {
+            found++;
+        }
+        return found;
+    }
+
+    private String nextMessage() {
+        String message = messages.get(next);
+        next = next + 1 == messages.size() ? 0 : next + 1;
+        return message;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parses the chat color formats seen in the corpus.
+ */
+@State(Scope.Thread)
+public class ColorBenchmark {
+
+    private static final String[] COLORS = {"#494949", "#dc5500", "rgb(73,73,73)", "#009900", "rgb(220,85,0)", "#804baa"};
+    private int next;
+
+    @Benchmark
+    public ChatColor readColor() {
+        String c = COLORS[next];
+        next = next + 1 == COLORS.length ? 0 : next + 1;
+        return RoomMessage.readColor(c);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.moderation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Replays a room's traffic through a {@link FloodDetector} and measures the
+ * time to check one message. {@code CHATTER} is ordinary chat from 2000
+ * regulars at 50 messages a second; {@code RAID} mixes in a copy-paste raid by
+ * thousands of fresh accounts at 500 messages a second, each posting the spam
+ * with a random suffix, so most messages draw a verdict.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FloodDetectorBenchmark {
+
+    private static final int TRACE = 1 << 16;
+    private static final String[] WORDS = {
+        "hello", "lol", "nice", "tip", "pls", "omg", "so", "cute", "wow", "thanks", "bye",
+        "love", "this", "song", "dance", "again", "you", "are", "amazing", "good", "night"
+    };
+    private static final String[] SPAM = {
+        "FREE TOKENS at cheap-tokens dot example visit now",
+        "join my room for a private show right now",
+        "check my profile for free pics and more"
+    };
+
+    @Param({"CHATTER", "RAID"})
+    public String traffic;
+
+    private FloodDetector detector;
+    private final String[] users = new String[TRACE];
+    private final String[] messages = new String[TRACE];
+    private final long[] times = new long[TRACE];
+    private long span;
+    private long offset;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        boolean raid = "RAID".equals(traffic);
+        long now = 0;
+        for(int i = 0; i < TRACE; i++) {
+            if(raid && random.nextInt(10) != 0) {
+                users[i] = "raider" + random.nextInt(5000);
+                messages[i] = SPAM[random.nextInt(SPAM.length)] + " " + Integer.toString(random.nextInt(), 36);
+                now += 2;
+            } else {
+                users[i] = "user" + random.nextInt(2000);
+                StringBuilder message = new StringBuilder();
+                int words = 2 + random.nextInt(10);
+                for(int w = 0; w < words; w++) {
+                    message.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                messages[i] = message.toString();
+                now += raid ? 2 : 20;
+            }
+            times[i] = now;
+        }
+        span = now + 1;
+        detector = new FloodDetector();
+    }
+
+    @Benchmark
+    public FloodVerdict check() {
+        int i = next;
+        FloodVerdict verdict = detector.check("examplemodel", users[i], messages[i], offset + times[i]);
+        if(++next == TRACE) {
+            next = 0;
+            offset += span;
+        }
+        return verdict;
+    }
+}
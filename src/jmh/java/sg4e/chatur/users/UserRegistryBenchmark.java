@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.users;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looks up known users by name and by character range, the path taken for
+ * every message once a registry is installed.
+ */
+@State(Scope.Thread)
+public class UserRegistryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private final UserRegistry registry = new UserRegistry();
+    private final RoomUserTable room = registry.getRoom("room");
+    private String[] names;
+    private char[][] chars;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        names = new String[users];
+        chars = new char[users][];
+        for(int i = 0; i < users; i++) {
+            // fresh instances so that lookups by string do not hit the interned one
+            names[i] = new String("user" + i);
+            chars[i] = names[i].toCharArray();
+            room.update(registry.intern("user" + i), RoomUserTable.pack(RoomUserTable.IN_FANCLUB, "f"));
+        }
+    }
+
+    @Benchmark
+    public int internString() {
+        String name = names[next];
+        next = next + 1 == users ? 0 : next + 1;
+        return registry.intern(name);
+    }
+
+    @Benchmark
+    public int internChars() {
+        char[] name = chars[next];
+        next = next + 1 == users ? 0 : next + 1;
+        return registry.intern(name, 0, name.length);
+    }
+
+    @Benchmark
+    public int roomFlags() {
+        int id = next;
+        next = next + 1 == users ? 0 : next + 1;
+        return room.getFlags(id);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * What an {@link EventDispatcher} does with a new event when its queue is
+ * full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Block the WebSocket reading thread until space is available. No events
+     * are lost, but a slow handler eventually stalls the connection.
+     */
+    BLOCK,
+    /**
+     * Discard the oldest queued event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new event.
+     */
+    DROP_NEWEST,
+    /**
+     * A title change replaces the room's title change that is still queued,
+     * since only the latest title matters. When the queue is full, other
+     * events block as with {@link #BLOCK}.
+     */
+    COALESCE_TITLE_CHANGES
+}
@@ -15,20 +15,44 @@
  */
 package sg4e.chatur;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.neovisionaries.ws.client.WebSocket;
 import com.neovisionaries.ws.client.WebSocketAdapter;
+import com.neovisionaries.ws.client.WebSocketError;
 import com.neovisionaries.ws.client.WebSocketException;
 import com.neovisionaries.ws.client.WebSocketFactory;
+import com.neovisionaries.ws.client.WebSocketFrame;
+import com.neovisionaries.ws.client.WebSocketState;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.Data;
 import org.apache.commons.text.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sg4e.chatur.EventDispatcher.EventType;
+import sg4e.chatur.json.Announcement;
+import sg4e.chatur.json.FanclubJoin;
+import sg4e.chatur.json.LazyNotification;
+import sg4e.chatur.json.LazyRoomMessage;
+import sg4e.chatur.json.NoticeType;
 import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.PanelRefresh;
 import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.json.TipAlert;
+import sg4e.chatur.metrics.MetricsSink;
+import sg4e.chatur.metrics.MetricsSink.RoomRecorder;
+import sg4e.chatur.users.RoomUserTable;
+import sg4e.chatur.users.UserRegistry;
 
 /**
  * The gateway to the chat API; subclass and override relevant methods for
@@ -40,12 +64,68 @@ public class ChaturBot {
     private static final String CONNECT_SUCCESSFUL_MESSAGE = "o";
     private static final String AUTH_SUCCESSFUL_MESSAGE = "a[\"{\\\"args\\\":[\\\"1\\\"],\\\"callback\\\":null,\\\"method\\\":\\\"onAuthResponse\\\"}\"]";
     private static final String UPDATE_ROOM_COUNT_RESPONSE_METHOD = "onRoomCountUpdate";
+    private static final long DEFAULT_ROOM_COUNT_TIMEOUT_SECONDS = 10;
     private static final Logger LOG = LoggerFactory.getLogger(ChaturBot.class);
+    /**
+     * Which of the event hooks each subclass overrides, by
+     * {@link EventType#ordinal()}.
+     */
+    private static final ClassValue<boolean[]> OVERRIDDEN_HOOKS = new ClassValue<boolean[]>() {
+        @Override
+        protected boolean[] computeValue(Class<?> type) {
+            boolean[] hooks = new boolean[EventType.values().length];
+            hooks[EventType.ROOM_MSG.ordinal()] = overrides(type, "onRoomMsg", RoomMessage.class);
+            hooks[EventType.TITLE_CHANGE.ordinal()] = overrides(type, "onTitleChange", String.class);
+            hooks[EventType.NOTIFY.ordinal()] = overrides(type, "onNotify", Notification.class);
+            hooks[EventType.GROUP_SHOW_CANCEL.ordinal()] = overrides(type, "onNotifyGroupShowCancel");
+            hooks[EventType.SILENCE.ordinal()] = overrides(type, "onSilence", String.class, String.class);
+            hooks[EventType.TIP_ALERT.ordinal()] = overrides(type, "onTipAlert", TipAlert.class);
+            hooks[EventType.ANNOUNCEMENT.ordinal()] = overrides(type, "onAnnouncement", Announcement.class);
+            hooks[EventType.FANCLUB_JOIN.ordinal()] = overrides(type, "onFanclubJoin", FanclubJoin.class);
+            hooks[EventType.PANEL_REFRESH.ordinal()] = overrides(type, "onPanelRefresh");
+            return hooks;
+        }
+    };
+    /**
+     * The events of notices with a dedicated model.
+     */
+    private static final EventType[] NOTICE_MODEL_TYPES = {
+        EventType.TIP_ALERT, EventType.ANNOUNCEMENT, EventType.FANCLUB_JOIN, EventType.PANEL_REFRESH
+    };
 
-    private final ObjectMapper mapper;
-    private final WebSocket ws;
+    private final FrameDecoder decoder;
+    private final boolean[] overriddenHooks;
+    private final RoomCountRouter roomCounts = new RoomCountRouter();
+    private final OutboundQueue outbound = new OutboundQueue(() -> this.ws);
+    private final String joinRoomCommand;
+    private final String updateRoomCountCommand;
+    private volatile WebSocket ws;
     private final String roomName;
+    private final String connectAuth;
+    private int handshakePhase = 0;
     private volatile boolean authenticated;
+    private volatile boolean stopped;
+    /**
+     * Set once the bot is removed from its {@link ChaturBotPool}; guarded by
+     * this.
+     */
+    private boolean retired;
+    private volatile long lastFrameNanos;
+    private final AtomicReference<ConnectionState> state = new AtomicReference<>(ConnectionState.DISCONNECTED);
+    private final List<ConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+    private volatile EventDispatcher dispatcher;
+    private volatile FrameListener frameListener;
+    private volatile DecodingMode decodingMode = DecodingMode.EAGER;
+    private volatile RoomRecorder metrics = RoomRecorder.NOOP;
+    private volatile UserRegistry userRegistry;
+    private volatile RoomUserTable roomUsers;
+    private volatile EventBus eventBus;
+    private final LazyRoomMessage filterRoomMessage = new LazyRoomMessage();
+    private final LazyNotification filterNotification = new LazyNotification();
+    private volatile long connectStartNanos;
+    private long parseStartNanos;
+    private final LazyRoomMessage flyweightRoomMessage = new LazyRoomMessage();
+    private final LazyNotification flyweightNotification = new LazyNotification();
 
     /**
      * Creates a new instance; {@link #start()} must be called to open the
@@ -60,11 +140,14 @@ public class ChaturBot {
         this.roomName = roomName;
         authenticated = false;
         ws = WEBSOCKET_FACTORY.createSocket(URL);
-        mapper = new ObjectMapper();
-        mapper.findAndRegisterModules();
+        decoder = new FrameDecoder();
+        overriddenHooks = OVERRIDDEN_HOOKS.get(getClass());
+        decoder.setMethodFilter(this::isWanted);
+        this.connectAuth = connectAuth;
+        String room = OutboundQueue.jsonString(roomName);
+        joinRoomCommand = OutboundQueue.encode("{\"method\":\"joinRoom\",\"data\":{\"room\":" + room + "}}");
+        updateRoomCountCommand = OutboundQueue.encode("{\"method\":\"updateRoomCount\",\"data\":{\"model_name\":" + room + ",\"private_room\":false}}");
         ws.addListener(new WebSocketAdapter() {
-            private int handshakePhase = 0;
-
             @Override
             public void handleCallbackError(WebSocket websocket, Throwable cause) throws Exception {
                 LOG.error("Error during WS message parsing", cause);
@@ -72,101 +155,314 @@ public class ChaturBot {
 
             @Override
             public void onTextMessage(WebSocket websocket, String message) throws Exception {
-                LOG.trace(message);
-                if(handshakePhase == 0) {
-                    if(!CONNECT_SUCCESSFUL_MESSAGE.equals(message)) {
-                        LOG.warn("Unexpected message after connection: {}", message);
-                    }
-                    websocket.sendText(connectAuth);
-                    handshakePhase++;
+                // a replaced socket may still be delivering its last frames
+                if(websocket == ws) {
+                    onText(websocket, message);
                 }
-                if(message.startsWith("a")) {
-                    ParsedWebsocketMessage parsed = new ParsedWebsocketMessage(message);
-                    switch(parsed.getMethod()) {
-                        case "onAuthResponse":
-                            onAuthResponse(websocket, message);
-                            break;
-                        case "onRoomMsg":
-                            onRoomMsg(parsed.mapToObject(1, RoomMessage.class));
-                            break;
-                        case "onTitleChange":
-                            onTitleChange(parsed.mapToObject(0, String.class));
-                            break;
-                        case "onNotify":
-                            onNotify(parsed.mapToObject(0, Notification.class));
-                            break;
-                        case "onNotifyGroupShowCancel":
-                            onNotifyGroupShowCancel();
-                            break;
-                        case "onSilence":
-                            onSilence(parsed.getArgs().get(0).asText(), parsed.getArgs().get(1).asText());
-                            break;
-                        case UPDATE_ROOM_COUNT_RESPONSE_METHOD:
-                            //this is handled by a dedicated listener
-                            break;
-                        default:
-                            LOG.warn(String.format("Unrecognized method %s: %s", parsed.getMethod(), message));
-                            break;
-                    }
-                } else {
-                    //ignore
+            }
+
+            @Override
+            public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame, WebSocketFrame clientCloseFrame, boolean closedByServer) throws Exception {
+                if(websocket == ws) {
+                    onConnectionLost(closedByServer ? new IOException("Connection closed by server") : null);
+                }
+            }
+
+            @Override
+            public void onError(WebSocket websocket, WebSocketException cause) throws Exception {
+                if(websocket == ws && !websocket.isOpen()) {
+                    onConnectionLost(cause);
                 }
             }
+
+            @Override
+            public void onFrame(WebSocket websocket, WebSocketFrame frame) throws Exception {
+                metrics.bytesReceived(frame.getPayloadLength());
+            }
         });
     }
 
+    /**
+     * Handles one text frame; only ever called from the socket's reading
+     * thread (or a harness feeding frames without a network).
+     */
+    void onText(WebSocket websocket, String message) throws Exception {
+        LOG.trace(message);
+        lastFrameNanos = System.nanoTime();
+        FrameListener listener = frameListener;
+        if(listener != null) {
+            try {
+                listener.onFrame(roomName, System.currentTimeMillis(), message);
+            } catch(RuntimeException ex) {
+                LOG.error("Frame listener failed for room {}", roomName, ex);
+            }
+        }
+        if(handshakePhase == 0) {
+            if(!CONNECT_SUCCESSFUL_MESSAGE.equals(message)) {
+                LOG.warn("Unexpected message after connection: {}", message);
+            }
+            websocket.sendText(connectAuth);
+            handshakePhase++;
+        }
+        if(message.startsWith("a")) {
+            handleFrame(websocket, message);
+        } else {
+            //ignore
+        }
+    }
+
     /**
      * Opens the connection and starts receiving messages from the server.
+     * Does nothing once the bot has been removed from a
+     * {@link ChaturBotPool}.
      *
      * @throws WebSocketException
      */
     public void start() throws WebSocketException {
-        ws.connect();
+        stopped = false;
+        connect();
     }
 
     /**
      * Closes the connection and stops receiving messages form the server.
+     * The bot can be started again.
      */
     public void stop() {
+        stopped = true;
+        transition(ConnectionState.STOPPED, null);
+        authenticated = false;
         ws.disconnect();
+        roomCounts.onError(new IllegalStateException("Connection closed before room count response"));
+    }
+
+    /**
+     * Stops the bot for good: a connection attempt already in progress is
+     * closed once it completes, and later calls to {@link #start()} and
+     * reconnects do nothing. Used by {@link ChaturBotPool#removeRoom(String)},
+     * whose connection tasks may still be about to start the bot.
+     */
+    synchronized void retire() {
+        retired = true;
+        stop();
+    }
+
+    /**
+     * Replaces the socket with a new one and connects it; the handshake and
+     * {@code joinRoom} are replayed as on the first connection. Does nothing
+     * once {@link #stop()} has been called.
+     */
+    void reconnect() throws WebSocketException {
+        if(stopped) {
+            return;
+        }
+        WebSocket old = ws;
+        ws = recreate(old);
+        old.disconnect();
+        connect();
+    }
+
+    private synchronized void connect() throws WebSocketException {
+        if(retired) {
+            return;
+        }
+        WebSocket socket = ws;
+        if(socket.getState() != WebSocketState.CREATED) {
+            socket = recreate(socket);
+            ws = socket;
+        }
+        authenticated = false;
+        handshakePhase = 0;
+        outbound.clear();
+        transition(ConnectionState.CONNECTING, null);
+        connectStartNanos = System.nanoTime();
+        try {
+            socket.connect();
+        } catch(WebSocketException ex) {
+            if(socket == ws) {
+                transition(ConnectionState.DISCONNECTED, ex);
+            }
+            throw ex;
+        }
+        lastFrameNanos = System.nanoTime();
+        metrics.connected(lastFrameNanos - connectStartNanos);
+        // the handshake may already have completed on the reading thread
+        if(state.compareAndSet(ConnectionState.CONNECTING, ConnectionState.CONNECTED)) {
+            fireStateChange(ConnectionState.CONNECTING, ConnectionState.CONNECTED, null);
+        }
+    }
+
+    private static WebSocket recreate(WebSocket socket) throws WebSocketException {
+        try {
+            return socket.recreate();
+        } catch(IOException ex) {
+            throw new WebSocketException(WebSocketError.SOCKET_CONNECT_ERROR, "Unable to recreate socket", ex);
+        }
+    }
+
+    private void onConnectionLost(Throwable cause) {
+        authenticated = false;
+        if(!stopped) {
+            transition(ConnectionState.DISCONNECTED, cause);
+        }
+        roomCounts.onError(new IllegalStateException("Connection closed before room count response"));
+    }
+
+    private void transition(ConnectionState next, Throwable cause) {
+        ConnectionState previous = state.getAndSet(next);
+        if(previous != next) {
+            fireStateChange(previous, next, cause);
+        }
+    }
+
+    private void fireStateChange(ConnectionState previous, ConnectionState current, Throwable cause) {
+        LOG.debug("{}: {} -> {}", roomName, previous, current);
+        for(ConnectionListener listener : connectionListeners) {
+            try {
+                listener.onStateChange(this, previous, current, cause);
+            } catch(RuntimeException ex) {
+                LOG.error("Connection listener failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Processes a raw text frame as if it had been received from the server.
+     * This is intended for replaying recorded traffic into a bot that is not
+     * connected; frames must be injected from a single thread at a time.
+     *
+     * @param frame raw text as it was received from the websocket
+     * @throws Exception if a callback or decoding fails
+     */
+    public void injectFrame(String frame) throws Exception {
+        onText(ws, frame);
+    }
+
+    /**
+     * Processes one message whose arguments have already been unescaped, as if
+     * it had been received in a frame. This is how events decoded by another
+     * process, such as a {@link sg4e.chatur.shard.ShardWorker}, are published
+     * by a bot that is not connected; messages must be injected from a single
+     * thread at a time, like frames. Chat messages and notices bound in the
+     * other process are injected with {@link #injectRoomMessage(RoomMessage)}
+     * and {@link #injectNotification(Notification)} instead.
+     *
+     * @param method protocol method, such as {@code onRoomMsg}
+     * @param args the unescaped arguments
+     * @throws IOException if an argument cannot be decoded
+     * @throws IllegalArgumentException if {@code method} is
+     * {@code onAuthResponse}; the handshake can only be injected with
+     * {@link #injectFrame(String)}
+     */
+    public void injectMessage(String method, String... args) throws IOException {
+        if("onAuthResponse".equals(method)) {
+            throw new IllegalArgumentException("The handshake cannot be injected as a decoded message");
+        }
+        markParseStart();
+        dispatch(ws, method, new DecodedMessage(method, args));
+    }
+
+    /**
+     * Publishes a chat message bound elsewhere, as if an {@code onRoomMsg}
+     * carrying it had been received; see
+     * {@link #injectMessage(String, String...)}. The message is interned and
+     * filtered like a decoded one.
+     *
+     * @param message
+     */
+    public void injectRoomMessage(RoomMessage message) {
+        markParseStart();
+        EventBus bus = eventBus;
+        metrics.messageReceived(EventType.ROOM_MSG.method);
+        if(needsModel(EventType.ROOM_MSG) || bus != null && bus.hasSubscribers(roomName, EventType.ROOM_MSG)
+                && bus.matches(roomName, EventType.ROOM_MSG, message)) {
+            emit(EventType.ROOM_MSG, trackUser(message), null);
+        }
+    }
+
+    /**
+     * Publishes a notice bound elsewhere, as if an {@code onNotify} carrying
+     * it had been received, including as its dedicated model; see
+     * {@link #injectMessage(String, String...)}.
+     *
+     * @param notification
+     */
+    public void injectNotification(Notification notification) {
+        markParseStart();
+        EventBus bus = eventBus;
+        metrics.messageReceived(EventType.NOTIFY.method);
+        if(needsModel(EventType.NOTIFY) || bus != null && bus.hasSubscribers(roomName, EventType.NOTIFY)
+                && bus.matches(roomName, EventType.NOTIFY, notification)) {
+            emit(EventType.NOTIFY, trackUser(notification), null);
+        }
+        EventType type = noticeModelType(notification.getNoticeType());
+        if(type != null && isWanted(type, bus)) {
+            emit(type, noticeModel(type, notification), null);
+        }
+    }
+
+    /**
+     * Returns whether messages of a protocol method, such as
+     * {@code onRoomMsg}, produce anything in this bot: false only for event
+     * methods with no overridden hook, no {@link EventBus} subscriber and no
+     * user registry to feed, whose messages are skipped undecoded. A process
+     * that decodes for this bot, such as a
+     * {@link sg4e.chatur.shard.ShardWorker}, can leave those out. The answer
+     * changes as subscriptions come and go.
+     *
+     * @param method
+     * @return
+     */
+    public boolean wantsMethod(String method) {
+        return isWanted(method);
     }
 
     /**
      * Queries the server for number of users in room and returns the response
      * asynchronously inside the {@link RoomCount} object. See the object's
      * documentation for how to manage the asynchronous nature of the query.
+     * {@link #queryRoomCount()} offers the same query as a future.
      *
      * @return
      * @throws IllegalStateException if {@link #start()} has not been called, or
      * authentication with server is incomplete (see {@link #isAuthenticated()}.
      */
     public RoomCount getRoomCount() {
+        return new RoomCount(queryRoomCount());
+    }
+
+    /**
+     * Queries the server for number of users in room, failing the future with
+     * a {@link java.util.concurrent.TimeoutException} if the server does not
+     * respond within 10 seconds.
+     *
+     * @return
+     * @throws IllegalStateException if {@link #start()} has not been called, or
+     * authentication with server is incomplete (see {@link #isAuthenticated()}.
+     * @see #queryRoomCount(long, TimeUnit)
+     */
+    public CompletableFuture<Integer> queryRoomCount() {
+        return queryRoomCount(DEFAULT_ROOM_COUNT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queries the server for number of users in room. Queries made while
+     * another is still unanswered share its future instead of sending another
+     * request. The count may be -1 if the room is offline.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws IllegalStateException if {@link #start()} has not been called, or
+     * authentication with server is incomplete (see {@link #isAuthenticated()}.
+     */
+    public CompletableFuture<Integer> queryRoomCount(long timeout, TimeUnit unit) {
         if(!ws.isOpen()) {
             throw new IllegalStateException(String.format("Must call start() on %s before room count query", getClass().getSimpleName()));
         }
         if(!isAuthenticated()) {
             throw new IllegalStateException("Client has not yet authenticated");
         }
-        RoomCount count = new RoomCount();
-        ws.addListener(new WebSocketAdapter() {
-            @Override
-            public void handleCallbackError(WebSocket websocket, Throwable cause) throws Exception {
-                LOG.error("Uncaught exception in room count server response parsing");
-                count.setError(cause);
-                ws.removeListener(this);
-            }
-
-            @Override
-            public void onTextMessage(WebSocket websocket, String message) throws Exception {
-                ParsedWebsocketMessage parsed = new ParsedWebsocketMessage(message);
-                if(UPDATE_ROOM_COUNT_RESPONSE_METHOD.equals(parsed.getMethod())) {
-                    count.set(Integer.parseInt(parsed.mapToObject(0, String.class)));
-                    ws.removeListener(this);
-                }
-            }
-        });
-        ws.sendText(String.format("[\"{\\\"method\\\":\\\"updateRoomCount\\\",\\\"data\\\":{\\\"model_name\\\":\\\"%s\\\",\\\"private_room\\\":false}}\"]", roomName));
-        return count;
+        return roomCounts.request(() -> outbound.enqueue(updateRoomCountCommand), timeout, unit);
     }
 
     /**
@@ -179,6 +475,132 @@ public class ChaturBot {
         return authenticated;
     }
 
+    /**
+     * Returns the current state of the connection.
+     *
+     * @return
+     */
+    public ConnectionState getConnectionState() {
+        return state.get();
+    }
+
+    /**
+     * Returns the time, in {@link System#nanoTime()}, at which the last frame
+     * (including SockJS heartbeats) was received or the connection was
+     * opened; 0 if neither has happened.
+     *
+     * @return
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    /**
+     * Adds a listener for connection state transitions.
+     *
+     * @param listener
+     */
+    public void addConnectionListener(ConnectionListener listener) {
+        connectionListeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeConnectionListener(ConnectionListener listener) {
+        connectionListeners.remove(listener);
+    }
+
+    /**
+     * Routes callbacks through {@code dispatcher} instead of running them on
+     * the WebSocket reading thread. {@link #onAuthResponse} always runs on the
+     * reading thread because it completes the connection handshake. Pass null
+     * to go back to calling handlers directly.
+     *
+     * @param dispatcher
+     */
+    public void setDispatcher(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Passes every raw frame received by this bot to {@code listener} before
+     * it is decoded, for example to record traffic. Pass null to remove.
+     *
+     * @param listener
+     */
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
+    /**
+     * Reports frame counts, decoding and handler latencies and connection
+     * timings of this bot to {@code sink}. Pass null or
+     * {@link MetricsSink#NOOP} to stop recording; no timing is done then.
+     *
+     * @param sink
+     */
+    public void setMetricsSink(MetricsSink sink) {
+        this.metrics = sink == null ? RoomRecorder.NOOP : sink.forRoom(roomName);
+    }
+
+    /**
+     * Interns the users of every message and notice through {@code registry},
+     * so that {@link RoomMessage#getUserId()} and
+     * {@link Notification#getFromUserId()} are set and duplicate name strings
+     * are shared, and keeps each user's latest state in the registry's table
+     * for this room. Reading the state forces the flags to be decoded under
+     * the lazy {@link DecodingMode}s. Pass null to stop.
+     *
+     * @param registry
+     */
+    public void setUserRegistry(UserRegistry registry) {
+        this.roomUsers = registry == null ? null : registry.getRoom(roomName);
+        this.userRegistry = registry;
+    }
+
+    /**
+     * Limits the commands this bot sends to the server, such as
+     * {@code joinRoom} and room count queries. Commands beyond the limit are
+     * queued. The default is 5 per second with bursts of 10.
+     *
+     * @param commandsPerSecond
+     * @param burst number of commands that may be sent at once after a quiet
+     * period
+     */
+    public void setOutboundRateLimit(double commandsPerSecond, int burst) {
+        outbound.setRateLimit(commandsPerSecond, burst);
+    }
+
+    /**
+     * Sets how long a command waits for others to be sent with it in one
+     * frame. The default is 5 milliseconds.
+     *
+     * @param window
+     * @param unit
+     */
+    public void setOutboundFlushWindow(long window, TimeUnit unit) {
+        outbound.setFlushWindow(window, unit);
+    }
+
+    /**
+     * Publishes the events of this bot to the subscribers of {@code bus}, in
+     * addition to the overridden hooks. Pass null to remove.
+     *
+     * @param bus
+     */
+    public void setEventBus(EventBus bus) {
+        this.eventBus = bus;
+    }
+
+    /**
+     * Selects how chat messages and notices are decoded before they are
+     * passed to {@link #onRoomMsg} and {@link #onNotify}. The default is
+     * {@link DecodingMode#EAGER}.
+     *
+     * @param mode
+     */
+    public void setDecodingMode(DecodingMode mode) {
+        this.decodingMode = Objects.requireNonNull(mode);
+    }
+
     /**
      * Returns the room name, as specified to the constructor.
      *
@@ -188,28 +610,384 @@ public class ChaturBot {
         return roomName;
     }
 
+    /**
+     * Decodes every message in an array frame with the streaming
+     * {@link FrameDecoder}, falling back to {@link ParsedWebsocketMessage} if
+     * the frame cannot be decoded before any message has been dispatched.
+     */
+    private void handleFrame(WebSocket websocket, String message) throws Exception {
+        boolean dispatched = false;
+        try {
+            if(decoder.reset(message)) {
+                for(markParseStart(); decoder.next(); markParseStart()) {
+                    dispatched = true;
+                    if(decoder.isSkipped()) {
+                        metrics.messageReceived(decoder.getMethod());
+                    } else {
+                        dispatch(websocket, message, decoder);
+                    }
+                }
+                return;
+            }
+        } catch(JsonProcessingException ex) {
+            if(dispatched) {
+                throw ex;
+            }
+            LOG.debug("Streaming decoder rejected frame; falling back", ex);
+        }
+        markParseStart();
+        dispatch(websocket, message, new ParsedWebsocketMessage(message));
+    }
+
+    private void markParseStart() {
+        if(metrics != RoomRecorder.NOOP) {
+            parseStartNanos = System.nanoTime();
+        }
+    }
+
+    private void dispatch(WebSocket websocket, String message, WebsocketMessage parsed) throws IOException {
+        RoomRecorder recorder = metrics;
+        EventBus bus = eventBus;
+        recorder.messageReceived(parsed.getMethod());
+        switch(parsed.getMethod()) {
+            case "onAuthResponse":
+                onAuthResponse(websocket, message);
+                break;
+            case "onRoomMsg":
+                if(needsModel(EventType.ROOM_MSG) || bus != null && bus.hasSubscribers(roomName, EventType.ROOM_MSG)
+                        && bus.matches(roomName, EventType.ROOM_MSG, filterRoomMessage.wrap(parsed.argChars(1), parsed.argOffset(1), parsed.argLength(1)))) {
+                    emit(EventType.ROOM_MSG, trackUser(readRoomMessage(parsed)), null);
+                }
+                break;
+            case "onTitleChange":
+                if(isWanted(EventType.TITLE_CHANGE, bus)) {
+                    emit(EventType.TITLE_CHANGE, parsed.mapToObject(0, String.class), null);
+                }
+                break;
+            case "onNotify":
+                dispatchNotice(parsed, bus);
+                break;
+            case "onNotifyGroupShowCancel":
+                if(isWanted(EventType.GROUP_SHOW_CANCEL, bus)) {
+                    emit(EventType.GROUP_SHOW_CANCEL, null, null);
+                }
+                break;
+            case "onSilence":
+                if(isWanted(EventType.SILENCE, bus)) {
+                    emit(EventType.SILENCE, parsed.mapToObject(0, String.class), parsed.mapToObject(1, String.class));
+                }
+                break;
+            case UPDATE_ROOM_COUNT_RESPONSE_METHOD:
+                roomCounts.onResponse(Integer.parseInt(parsed.mapToObject(0, String.class)));
+                break;
+            default:
+                recorder.unknownMethod(parsed.getMethod());
+                if(bus != null && bus.hasSubscribers(roomName, EventType.RAW)) {
+                    emit(EventType.RAW, readRawMessage(parsed), null);
+                } else {
+                    LOG.warn(String.format("Unrecognized method %s: %s", parsed.getMethod(), message));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Emits a notice as a {@link Notification} and as its dedicated model,
+     * each only if something consumes it. The type is matched on the raw JSON,
+     * so notices of kinds nobody wants are skipped without building a model.
+     */
+    private void dispatchNotice(WebsocketMessage parsed, EventBus bus) throws IOException {
+        LazyNotification view = null;
+        boolean notify = needsModel(EventType.NOTIFY);
+        if(!notify && bus != null && bus.hasSubscribers(roomName, EventType.NOTIFY)) {
+            view = filterNotification.wrap(parsed.argChars(0), parsed.argOffset(0), parsed.argLength(0));
+            notify = bus.matches(roomName, EventType.NOTIFY, view);
+        }
+        if(notify) {
+            emit(EventType.NOTIFY, trackUser(readNotification(parsed)), null);
+        }
+        if(wantsNoticeModels(bus)) {
+            if(view == null) {
+                view = filterNotification.wrap(parsed.argChars(0), parsed.argOffset(0), parsed.argLength(0));
+            }
+            EventType type = noticeModelType(view.getNoticeType());
+            if(type != null && isWanted(type, bus)) {
+                emit(type, noticeModel(type, view), null);
+            }
+        }
+    }
+
+    private boolean wantsNoticeModels(EventBus bus) {
+        for(EventType type : NOTICE_MODEL_TYPES) {
+            if(isWanted(type, bus)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static EventType noticeModelType(NoticeType noticeType) {
+        switch(noticeType) {
+            case TIP_ALERT:
+                return EventType.TIP_ALERT;
+            case ROOM_MESSAGE:
+                return EventType.ANNOUNCEMENT;
+            case FANCLUB_JOIN:
+                return EventType.FANCLUB_JOIN;
+            case REFRESH_PANEL:
+                return EventType.PANEL_REFRESH;
+            default:
+                return null;
+        }
+    }
+
+    private static Object noticeModel(EventType type, Notification notification) {
+        switch(type) {
+            case TIP_ALERT:
+                return TipAlert.from(notification);
+            case ANNOUNCEMENT:
+                return Announcement.from(notification);
+            case FANCLUB_JOIN:
+                return FanclubJoin.from(notification);
+            default:
+                return PanelRefresh.INSTANCE;
+        }
+    }
+
+    /**
+     * Method filter of the decoder: skips the messages of event methods that
+     * nothing consumes. Internal and unknown methods are always decoded.
+     */
+    private boolean isWanted(String method) {
+        EventType type = EventType.forMethod(method);
+        if(type == EventType.NOTIFY) {
+            EventBus bus = eventBus;
+            return isWanted(type, bus) || wantsNoticeModels(bus);
+        }
+        return type == null || isWanted(type, eventBus);
+    }
+
+    private boolean isWanted(EventType type, EventBus bus) {
+        return needsModel(type) || bus != null && bus.hasSubscribers(roomName, type);
+    }
+
+    /**
+     * Returns true if events of {@code type} must be decoded regardless of
+     * bus filters: the hook is overridden, or users are being tracked.
+     */
+    private boolean needsModel(EventType type) {
+        return overriddenHooks[type.ordinal()]
+                || userRegistry != null && (type == EventType.ROOM_MSG || type == EventType.NOTIFY);
+    }
+
+    private static boolean overrides(Class<?> type, String hook, Class<?>... parameterTypes) {
+        for(Class<?> c = type; c != ChaturBot.class && c != null; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(hook, parameterTypes);
+                return true;
+            } catch(NoSuchMethodException ex) {
+                // keep looking in the superclass
+            }
+        }
+        return false;
+    }
+
+    private static RawMessage readRawMessage(WebsocketMessage parsed) throws IOException {
+        List<String> args = new ArrayList<>();
+        for(int i = 0; i < parsed.getArgCount(); i++) {
+            args.add(parsed.mapToObject(i, String.class));
+        }
+        return new RawMessage(parsed.getMethod(), Collections.unmodifiableList(args));
+    }
+
+    private RoomMessage readRoomMessage(WebsocketMessage parsed) throws IOException {
+        switch(effectiveDecodingMode()) {
+            case FLYWEIGHT:
+                return flyweightRoomMessage.wrap(parsed.argChars(1), parsed.argOffset(1), parsed.argLength(1));
+            case LAZY:
+                return new LazyRoomMessage().wrap(copyArg(parsed, 1), 0, parsed.argLength(1));
+            default:
+                return parsed.mapToObject(1, RoomMessage.class);
+        }
+    }
+
+    private Notification readNotification(WebsocketMessage parsed) throws IOException {
+        switch(effectiveDecodingMode()) {
+            case FLYWEIGHT:
+                return flyweightNotification.wrap(parsed.argChars(0), parsed.argOffset(0), parsed.argLength(0));
+            case LAZY:
+                return new LazyNotification().wrap(copyArg(parsed, 0), 0, parsed.argLength(0));
+            default:
+                return parsed.mapToObject(0, Notification.class);
+        }
+    }
+
+    private RoomMessage trackUser(RoomMessage message) {
+        UserRegistry registry = userRegistry;
+        if(registry != null) {
+            int id = message.internUser(registry);
+            RoomUserTable table = roomUsers;
+            if(id != UserRegistry.UNKNOWN_USER && table != null) {
+                int flags = RoomUserTable.flags(message, message.isMod());
+                table.update(id, RoomUserTable.pack(flags, message.getGender()));
+            }
+        }
+        return message;
+    }
+
+    private Notification trackUser(Notification notification) {
+        UserRegistry registry = userRegistry;
+        if(registry != null) {
+            int id = notification.internUser(registry);
+            RoomUserTable table = roomUsers;
+            if(id != UserRegistry.UNKNOWN_USER && table != null) {
+                int flags = RoomUserTable.flags(notification, notification.isMod());
+                table.update(id, RoomUserTable.pack(flags, null));
+            }
+        }
+        return notification;
+    }
+
+    private DecodingMode effectiveDecodingMode() {
+        DecodingMode mode = decodingMode;
+        return mode == DecodingMode.FLYWEIGHT && dispatcher != null ? DecodingMode.LAZY : mode;
+    }
+
+    private static char[] copyArg(WebsocketMessage parsed, int argPosition) {
+        int offset = parsed.argOffset(argPosition);
+        return Arrays.copyOfRange(parsed.argChars(argPosition), offset, offset + parsed.argLength(argPosition));
+    }
+
+    private void emit(EventType type, Object first, Object second) {
+        RoomRecorder recorder = metrics;
+        // a notice can emit more than one event; its parse time counts once
+        if(recorder != RoomRecorder.NOOP && parseStartNanos != 0) {
+            recorder.parsed(type.method, System.nanoTime() - parseStartNanos);
+            parseStartNanos = 0;
+        }
+        EventDispatcher current = dispatcher;
+        if(current == null) {
+            deliver(type, first, second);
+        } else {
+            try {
+                current.submit(this, type, first, second);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Invokes the callback for a decoded event; called either inline from the
+     * reading thread or from an {@link EventDispatcher} worker.
+     */
+    void deliver(EventType type, Object first, Object second) {
+        RoomRecorder recorder = metrics;
+        if(recorder == RoomRecorder.NOOP) {
+            invoke(type, first, second);
+        } else {
+            long start = System.nanoTime();
+            try {
+                invoke(type, first, second);
+            } finally {
+                recorder.handled(type.method, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void invoke(EventType type, Object first, Object second) {
+        switch(type) {
+            case ROOM_MSG:
+                onRoomMsg((RoomMessage) first);
+                break;
+            case TITLE_CHANGE:
+                onTitleChange((String) first);
+                break;
+            case NOTIFY:
+                onNotify((Notification) first);
+                break;
+            case GROUP_SHOW_CANCEL:
+                onNotifyGroupShowCancel();
+                break;
+            case SILENCE:
+                onSilence((String) first, (String) second);
+                break;
+            case TIP_ALERT:
+                onTipAlert((TipAlert) first);
+                break;
+            case ANNOUNCEMENT:
+                onAnnouncement((Announcement) first);
+                break;
+            case FANCLUB_JOIN:
+                onFanclubJoin((FanclubJoin) first);
+                break;
+            case PANEL_REFRESH:
+                onPanelRefresh();
+                break;
+            default:
+                break;
+        }
+        EventBus bus = eventBus;
+        if(bus != null) {
+            bus.deliver(this, type, first, second);
+        }
+    }
+
+    /**
+     * The original decoding path: unescapes the whole frame and parses it into
+     * a tree. Only the first message in the frame is read.
+     */
     @Data
-    private class ParsedWebsocketMessage {
+    static class ParsedWebsocketMessage implements WebsocketMessage {
 
         private final String method;
         private final JsonNode args;
+        private int charsPosition = -1;
+        private char[] chars;
 
         public ParsedWebsocketMessage(String rawMessage) throws JsonProcessingException {
             String stripped = StringEscapeUtils.unescapeJava(rawMessage.substring(3, rawMessage.length() - 2));
-            JsonNode wsBody = mapper.readTree(stripped);
+            JsonNode wsBody = JsonSupport.MAPPER.readTree(stripped);
             args = wsBody.at("/args");
             method = wsBody.at("/method").asText();
         }
 
-        public <T> T mapToObject(int argPosition, Class<T> clazz) throws JsonProcessingException {
+        @Override
+        public <T> T mapToObject(int argPosition, Class<T> clazz) throws IOException {
             if(String.class.equals(clazz)) {
                 String text = args.get(argPosition).asText();
                 @SuppressWarnings("unchecked")
                 T t = (T) text;
                 return t;
             } else {
-                return mapper.readValue(args.get(argPosition).asText(), clazz);
+                try(JsonParser arg = JsonSupport.MAPPER.getFactory().createParser(args.get(argPosition).asText())) {
+                    return JsonSupport.read(clazz, arg);
+                }
+            }
+        }
+
+        @Override
+        public int getArgCount() {
+            return args.size();
+        }
+
+        @Override
+        public char[] argChars(int argPosition) {
+            if(charsPosition != argPosition) {
+                chars = args.get(argPosition).asText().toCharArray();
+                charsPosition = argPosition;
             }
+            return chars;
+        }
+
+        @Override
+        public int argOffset(int argPosition) {
+            return 0;
+        }
+
+        @Override
+        public int argLength(int argPosition) {
+            return argChars(argPosition).length;
         }
     }
 
@@ -227,7 +1005,12 @@ public class ChaturBot {
             LOG.warn("Unexpected message after connection: {}", message);
         }
         authenticated = true;
-        websocket.sendText(String.format("[\"{\\\"method\\\":\\\"joinRoom\\\",\\\"data\\\":{\\\"room\\\":\\\"%s\\\"}}\"]", roomName));
+        transition(ConnectionState.AUTHENTICATED, null);
+        long connectStart = connectStartNanos;
+        if(connectStart != 0) {
+            metrics.authenticated(System.nanoTime() - connectStart);
+        }
+        outbound.enqueue(joinRoomCommand);
     }
 
     /**
@@ -251,7 +1034,9 @@ public class ChaturBot {
 
     /**
      * Called when an announcement or tip is sent. See {@link Notification} for
-     * more info.
+     * more info. Every notice is passed here, including those also passed to
+     * the hooks of their dedicated models, such as {@link #onTipAlert}; a bot
+     * that only overrides those avoids building a {@code Notification}.
      *
      * @param notification
      */
@@ -276,4 +1061,40 @@ public class ChaturBot {
     protected void onNotifyGroupShowCancel() {
 
     }
+
+    /**
+     * Called when a tip is sent. Only the fields of the {@code tip_alert}
+     * notice are decoded.
+     *
+     * @param tip
+     */
+    protected void onTipAlert(TipAlert tip) {
+
+    }
+
+    /**
+     * Called when the broadcaster or an app posts an announcement, such as a
+     * tip menu.
+     *
+     * @param announcement
+     */
+    protected void onAnnouncement(Announcement announcement) {
+
+    }
+
+    /**
+     * Called when a user joins the broadcaster's fan club.
+     *
+     * @param join
+     */
+    protected void onFanclubJoin(FanclubJoin join) {
+
+    }
+
+    /**
+     * Called when Chaturbate asks clients to reload the room's info panel.
+     */
+    protected void onPanelRefresh() {
+
+    }
 }
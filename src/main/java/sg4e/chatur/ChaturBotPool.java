@@ -0,0 +1,339 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.neovisionaries.ws.client.WebSocketException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.metrics.MetricsSink;
+import sg4e.chatur.users.UserRegistry;
+
+/**
+ * Manages many {@link ChaturBot}s in one JVM. Rooms can be added and removed
+ * at any time; connection attempts are queued and released at a fixed rate
+ * onto a bounded executor so that adding hundreds of rooms at once does not
+ * open hundreds of sockets simultaneously.
+ * <p>
+ * All bots share one JSON mapper and its readers regardless of whether they
+ * are created through a pool. Each open connection still owns the reading and
+ * writing threads created by the WebSocket client; only the connection work is
+ * bounded here.
+ */
+public class ChaturBotPool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChaturBotPool.class);
+
+    /**
+     * Creates the bot for a room. Implementations typically call the
+     * constructor of a {@link ChaturBot} subclass.
+     */
+    @FunctionalInterface
+    public interface BotFactory {
+
+        ChaturBot create(String roomName, String URL, String connectAuth) throws IOException;
+    }
+
+    private final BotFactory factory;
+    private final ConcurrentMap<String, ChaturBot> bots = new ConcurrentHashMap<>();
+    private final Queue<ChaturBot> pendingConnects = new ArrayDeque<>();
+    private final Set<ChaturBot> connecting = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ExecutorService connectExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final int maxConcurrentConnects;
+    private volatile EventDispatcher dispatcher;
+    private volatile MetricsSink metricsSink;
+    private volatile UserRegistry userRegistry;
+    private volatile ConnectionSupervisor supervisor;
+    private volatile EventBus eventBus;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of plain {@link ChaturBot}s that opens at most 4
+     * connections concurrently and starts at most 10 connection attempts per
+     * second.
+     */
+    public ChaturBotPool() {
+        this(ChaturBot::new, 4, 100);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param factory creates the bot for each room
+     * @param maxConcurrentConnects maximum number of connection handshakes in
+     * progress at once
+     * @param connectIntervalMillis minimum delay between the start of two
+     * connection attempts
+     */
+    public ChaturBotPool(BotFactory factory, int maxConcurrentConnects, long connectIntervalMillis) {
+        if(maxConcurrentConnects < 1) {
+            throw new IllegalArgumentException("maxConcurrentConnects must be positive");
+        }
+        if(connectIntervalMillis < 1) {
+            throw new IllegalArgumentException("connectIntervalMillis must be positive");
+        }
+        this.factory = factory;
+        this.maxConcurrentConnects = maxConcurrentConnects;
+        connectExecutor = Executors.newFixedThreadPool(maxConcurrentConnects, daemonThreads("chaturbot-connect"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("chaturbot-pool"));
+        scheduler.scheduleWithFixedDelay(this::releaseConnect, connectIntervalMillis, connectIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the bot for a room and queues its connection attempt.
+     *
+     * @param roomName
+     * @param URL
+     * @param connectAuth
+     * @return the bot; it is connected asynchronously
+     * @throws IOException if the bot cannot be created
+     * @throws IllegalStateException if the room is already in this pool, or
+     * the pool is closed
+     */
+    public ChaturBot addRoom(String roomName, String URL, String connectAuth) throws IOException {
+        if(closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        ChaturBot bot = factory.create(roomName, URL, connectAuth);
+        EventDispatcher current = dispatcher;
+        if(current != null) {
+            bot.setDispatcher(current);
+        }
+        MetricsSink sink = metricsSink;
+        if(sink != null) {
+            bot.setMetricsSink(sink);
+        }
+        UserRegistry registry = userRegistry;
+        if(registry != null) {
+            bot.setUserRegistry(registry);
+        }
+        EventBus bus = eventBus;
+        if(bus != null) {
+            bot.setEventBus(bus);
+        }
+        if(bots.putIfAbsent(roomName, bot) != null) {
+            throw new IllegalStateException(String.format("Room %s is already in the pool", roomName));
+        }
+        ConnectionSupervisor currentSupervisor = supervisor;
+        if(currentSupervisor != null) {
+            currentSupervisor.add(bot);
+        }
+        synchronized(pendingConnects) {
+            pendingConnects.add(bot);
+        }
+        return bot;
+    }
+
+    /**
+     * Removes a room from the pool and closes its connection, including a
+     * connection attempt that is in progress. The removed bot cannot be
+     * started again. Does nothing if the room is not in the pool.
+     *
+     * @param roomName
+     * @return the removed bot, or null
+     */
+    public ChaturBot removeRoom(String roomName) {
+        ChaturBot bot = bots.remove(roomName);
+        if(bot != null) {
+            synchronized(pendingConnects) {
+                pendingConnects.remove(bot);
+            }
+            ConnectionSupervisor currentSupervisor = supervisor;
+            if(currentSupervisor != null) {
+                currentSupervisor.remove(bot);
+            }
+            bot.retire();
+        }
+        return bot;
+    }
+
+    /**
+     * Routes the callbacks of every bot in this pool, including bots added
+     * later, through {@code dispatcher}. Pass null to run callbacks directly on
+     * the reading threads again.
+     *
+     * @param dispatcher
+     */
+    public void setDispatcher(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        for(ChaturBot bot : bots.values()) {
+            bot.setDispatcher(dispatcher);
+        }
+    }
+
+    /**
+     * Reports the metrics of every bot in this pool, including bots added
+     * later, to {@code sink}. Pass null to stop recording.
+     *
+     * @param sink
+     */
+    public void setMetricsSink(MetricsSink sink) {
+        this.metricsSink = sink;
+        for(ChaturBot bot : bots.values()) {
+            bot.setMetricsSink(sink);
+        }
+    }
+
+    /**
+     * Interns the users of every bot in this pool, including bots added later,
+     * through one shared {@code registry}. Pass null to stop.
+     *
+     * @param registry
+     */
+    public void setUserRegistry(UserRegistry registry) {
+        this.userRegistry = registry;
+        for(ChaturBot bot : bots.values()) {
+            bot.setUserRegistry(registry);
+        }
+    }
+
+    /**
+     * Publishes the events of every bot in this pool, including bots added
+     * later, to {@code bus}. Pass null to remove.
+     *
+     * @param bus
+     */
+    public void setEventBus(EventBus bus) {
+        this.eventBus = bus;
+        for(ChaturBot bot : bots.values()) {
+            bot.setEventBus(bus);
+        }
+    }
+
+    /**
+     * Reconnects the bots of this pool, including bots added later, through
+     * {@code supervisor} when their connection is lost or their first
+     * connection attempt fails. Pass null to stop supervising; the previous
+     * supervisor is not closed.
+     *
+     * @param supervisor
+     */
+    public void setConnectionSupervisor(ConnectionSupervisor supervisor) {
+        ConnectionSupervisor previous = this.supervisor;
+        this.supervisor = supervisor;
+        for(ChaturBot bot : bots.values()) {
+            if(previous != null) {
+                previous.remove(bot);
+            }
+            if(supervisor != null) {
+                supervisor.add(bot);
+            }
+        }
+    }
+
+    /**
+     * Returns the bot for a room, or null if the room is not in this pool.
+     *
+     * @param roomName
+     * @return
+     */
+    public ChaturBot getBot(String roomName) {
+        return bots.get(roomName);
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the rooms in this pool.
+     *
+     * @return
+     */
+    public Set<String> getRooms() {
+        return Collections.unmodifiableSet(new HashSet<>(bots.keySet()));
+    }
+
+    /**
+     * Returns the number of rooms in this pool.
+     *
+     * @return
+     */
+    public int size() {
+        return bots.size();
+    }
+
+    /**
+     * Returns the number of rooms whose connection attempt has not started.
+     *
+     * @return
+     */
+    public int getPendingConnectCount() {
+        synchronized(pendingConnects) {
+            return pendingConnects.size();
+        }
+    }
+
+    /**
+     * Stops every bot and releases the pool's threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        connectExecutor.shutdownNow();
+        synchronized(pendingConnects) {
+            pendingConnects.clear();
+        }
+        for(String room : getRooms()) {
+            removeRoom(room);
+        }
+    }
+
+    private void releaseConnect() {
+        if(connecting.size() >= maxConcurrentConnects) {
+            return;
+        }
+        ChaturBot bot;
+        synchronized(pendingConnects) {
+            bot = pendingConnects.poll();
+        }
+        if(bot == null) {
+            return;
+        }
+        connecting.add(bot);
+        connectExecutor.execute(() -> {
+            try {
+                if(bots.get(bot.getRoomName()) == bot) {
+                    bot.start();
+                }
+            } catch(WebSocketException ex) {
+                LOG.warn("Unable to connect to room {}", bot.getRoomName(), ex);
+            } finally {
+                connecting.remove(bot);
+            }
+        });
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
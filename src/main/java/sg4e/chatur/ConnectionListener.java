@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * Receives the connection state transitions of a {@link ChaturBot}. Called
+ * from whichever thread caused the transition (the thread calling
+ * {@link ChaturBot#start()}, or one of the WebSocket's threads); keep
+ * implementations short.
+ */
+@FunctionalInterface
+public interface ConnectionListener {
+
+    /**
+     * @param bot
+     * @param previous
+     * @param current
+     * @param cause the error that closed the connection, if any; may be null
+     */
+    void onStateChange(ChaturBot bot, ConnectionState previous, ConnectionState current, Throwable cause);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * The life cycle of a {@link ChaturBot}'s connection.
+ *
+ * @see ChaturBot#addConnectionListener(ConnectionListener)
+ */
+public enum ConnectionState {
+    /**
+     * Not connected: never started, or the connection was lost or could not be
+     * opened.
+     */
+    DISCONNECTED,
+    /**
+     * Opening the WebSocket.
+     */
+    CONNECTING,
+    /**
+     * The WebSocket is open and the chat handshake is in progress.
+     */
+    CONNECTED,
+    /**
+     * The server accepted the authorization and the room has been joined.
+     */
+    AUTHENTICATED,
+    /**
+     * {@link ChaturBot#stop()} was called; a supervisor will not reconnect.
+     */
+    STOPPED
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.neovisionaries.ws.client.WebSocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps many {@link ChaturBot}s connected. A bot whose connection is lost, or
+ * that has received no frame at all (SockJS sends a heartbeat every 25
+ * seconds even in a quiet room) for the stale timeout, is reconnected on a new
+ * socket, replaying the authorization and {@code joinRoom}.
+ * <p>
+ * Failed attempts back off exponentially with full jitter: the n-th
+ * consecutive attempt waits a random time up to
+ * {@code min(maxBackoff, initialBackoff * 2^n)}. Independently of backoff,
+ * an attempt whose delay has elapsed must take a token from a bucket shared
+ * by all supervised bots, refilled at {@code maxReconnectsPerSecond}, so that
+ * a network outage affecting hundreds of rooms does not turn into a
+ * reconnect storm. A bot only ever waits for a token, never behind the
+ * longer backoff of another bot.
+ * <p>
+ * Stopping a bot with {@link ChaturBot#stop()} ends its supervision until it
+ * is started again.
+ */
+public class ConnectionSupervisor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionSupervisor.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService connectExecutor;
+    private final ConcurrentMap<ChaturBot, Supervised> bots = new ConcurrentHashMap<>();
+    private final long staleNanos;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double reconnectsPerNano;
+    private final double maxReconnectTokens;
+    private final AtomicLong reconnects = new AtomicLong();
+    /**
+     * Token bucket of the global rate limit; used on the scheduler thread
+     * only.
+     */
+    private double reconnectTokens;
+    private long tokensUpdatedNanos = System.nanoTime();
+
+    /**
+     * Creates a supervisor that treats a connection as stale after 60 seconds
+     * without frames, backs off from 1 second up to 2 minutes, and starts at
+     * most 5 reconnects per second.
+     */
+    public ConnectionSupervisor() {
+        this(60, TimeUnit.SECONDS, 1000, 120_000, 5);
+    }
+
+    /**
+     * Creates a supervisor.
+     *
+     * @param staleTimeout time without any frame after which an open
+     * connection is replaced
+     * @param unit
+     * @param initialBackoffMillis upper bound of the delay before the first
+     * reconnect attempt
+     * @param maxBackoffMillis upper bound of the delay between attempts
+     * @param maxReconnectsPerSecond limit on reconnect attempts across all
+     * supervised bots
+     */
+    public ConnectionSupervisor(long staleTimeout, TimeUnit unit, long initialBackoffMillis, long maxBackoffMillis, double maxReconnectsPerSecond) {
+        if(initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoff must be positive and initialBackoffMillis <= maxBackoffMillis");
+        }
+        if(maxReconnectsPerSecond <= 0) {
+            throw new IllegalArgumentException("maxReconnectsPerSecond must be positive");
+        }
+        this.staleNanos = unit.toNanos(staleTimeout);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.reconnectsPerNano = maxReconnectsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.maxReconnectTokens = Math.max(1, maxReconnectsPerSecond);
+        this.reconnectTokens = maxReconnectTokens;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chaturbot-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger counter = new AtomicInteger();
+        connectExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chaturbot-reconnect-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkPeriod = Math.max(1, staleNanos / 4);
+        scheduler.scheduleWithFixedDelay(this::checkStale, checkPeriod, checkPeriod, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts supervising {@code bot}. The bot is not connected by this call;
+     * supervision takes over from the first lost connection or failed
+     * {@link ChaturBot#start()}.
+     *
+     * @param bot
+     */
+    public void add(ChaturBot bot) {
+        Supervised supervised = new Supervised(bot);
+        if(bots.putIfAbsent(bot, supervised) == null) {
+            bot.addConnectionListener(supervised);
+        }
+    }
+
+    /**
+     * Stops supervising {@code bot}; a pending reconnect is cancelled.
+     *
+     * @param bot
+     */
+    public void remove(ChaturBot bot) {
+        Supervised supervised = bots.remove(bot);
+        if(supervised != null) {
+            bot.removeConnectionListener(supervised);
+            scheduler.execute(supervised::cancel);
+        }
+    }
+
+    /**
+     * Returns the number of supervised bots.
+     *
+     * @return
+     */
+    public int size() {
+        return bots.size();
+    }
+
+    /**
+     * Returns the number of reconnect attempts started.
+     *
+     * @return
+     */
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    @Override
+    public void close() {
+        for(ChaturBot bot : bots.keySet()) {
+            remove(bot);
+        }
+        scheduler.shutdownNow();
+        connectExecutor.shutdownNow();
+    }
+
+    private void checkStale() {
+        long now = System.nanoTime();
+        for(Supervised supervised : bots.values()) {
+            ChaturBot bot = supervised.bot;
+            ConnectionState state = bot.getConnectionState();
+            if((state == ConnectionState.CONNECTED || state == ConnectionState.AUTHENTICATED)
+                    && now - bot.getLastFrameNanos() > staleNanos) {
+                LOG.info("No frames from {} for {} ms; reconnecting", bot.getRoomName(), TimeUnit.NANOSECONDS.toMillis(now - bot.getLastFrameNanos()));
+                supervised.schedule();
+            }
+        }
+    }
+
+    /**
+     * Takes a token of the global rate limit if one is available; called on
+     * the scheduler thread only.
+     *
+     * @return 0 if a token was taken, otherwise nanoseconds until the next
+     * one is due
+     */
+    private long acquireToken() {
+        long now = System.nanoTime();
+        reconnectTokens = Math.min(maxReconnectTokens, reconnectTokens + (now - tokensUpdatedNanos) * reconnectsPerNano);
+        tokensUpdatedNanos = now;
+        if(reconnectTokens >= 1) {
+            reconnectTokens--;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - reconnectTokens) / reconnectsPerNano));
+    }
+
+    /**
+     * Supervision state of one bot. Apart from the listener callback, which
+     * only hops to the scheduler, everything runs on the scheduler thread.
+     */
+    private final class Supervised implements ConnectionListener {
+
+        private final ChaturBot bot;
+        private int attempts;
+        private ScheduledFuture<?> pending;
+        private boolean connecting;
+
+        Supervised(ChaturBot bot) {
+            this.bot = bot;
+        }
+
+        @Override
+        public void onStateChange(ChaturBot bot, ConnectionState previous, ConnectionState current, Throwable cause) {
+            switch(current) {
+                case DISCONNECTED:
+                    if(cause != null) {
+                        LOG.info("Connection to {} lost: {}", bot.getRoomName(), cause.toString());
+                    }
+                    execute(this::schedule);
+                    break;
+                case AUTHENTICATED:
+                    execute(() -> attempts = 0);
+                    break;
+                case STOPPED:
+                    execute(this::cancel);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void schedule() {
+            if(pending != null || connecting || bots.get(bot) != this) {
+                return;
+            }
+            long backoffMillis = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts, 30));
+            long jitterNanos = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(backoffMillis + 1));
+            attempts++;
+            pending = scheduler.schedule(this::launch, jitterNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            if(pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            attempts = 0;
+        }
+
+        private void launch() {
+            pending = null;
+            if(bots.get(bot) != this || bot.getConnectionState() == ConnectionState.STOPPED) {
+                return;
+            }
+            long wait = acquireToken();
+            if(wait > 0) {
+                // spread the bots waiting for tokens over the next interval
+                long spread = (long) (ThreadLocalRandom.current().nextDouble() / reconnectsPerNano);
+                pending = scheduler.schedule(this::launch, wait + spread, TimeUnit.NANOSECONDS);
+                return;
+            }
+            connecting = true;
+            reconnects.incrementAndGet();
+            connectExecutor.execute(() -> {
+                try {
+                    bot.reconnect();
+                } catch(WebSocketException ex) {
+                    LOG.info("Reconnect to {} failed: {}", bot.getRoomName(), ex.toString());
+                } catch(RuntimeException ex) {
+                    LOG.warn("Reconnect to {} failed", bot.getRoomName(), ex);
+                } finally {
+                    execute(() -> {
+                        connecting = false;
+                        if(bot.getConnectionState() == ConnectionState.DISCONNECTED) {
+                            schedule();
+                        }
+                    });
+                }
+            });
+        }
+
+        private void execute(Runnable task) {
+            try {
+                scheduler.execute(task);
+            } catch(RejectedExecutionException ex) {
+                // closed
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+
+/**
+ * A message whose arguments were already unescaped elsewhere, such as in
+ * another process; see {@link ChaturBot#injectMessage(String, String...)}.
+ */
+class DecodedMessage implements WebsocketMessage {
+
+    private final String method;
+    private final String[] args;
+    private int charsPosition = -1;
+    private char[] chars;
+
+    DecodedMessage(String method, String[] args) {
+        this.method = method;
+        this.args = args;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public int getArgCount() {
+        return args.length;
+    }
+
+    @Override
+    public <T> T mapToObject(int argPosition, Class<T> clazz) throws IOException {
+        if(String.class.equals(clazz)) {
+            @SuppressWarnings("unchecked")
+            T t = (T) args[argPosition];
+            return t;
+        }
+        try(JsonParser arg = JsonSupport.MAPPER.getFactory().createParser(argChars(argPosition), 0, chars.length)) {
+            return JsonSupport.read(clazz, arg);
+        }
+    }
+
+    @Override
+    public char[] argChars(int argPosition) {
+        if(charsPosition != argPosition) {
+            chars = args[argPosition].toCharArray();
+            charsPosition = argPosition;
+        }
+        return chars;
+    }
+
+    @Override
+    public int argOffset(int argPosition) {
+        return 0;
+    }
+
+    @Override
+    public int argLength(int argPosition) {
+        return argChars(argPosition).length;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * How a {@link ChaturBot} turns chat messages and notices into
+ * {@link sg4e.chatur.json.RoomMessage} and
+ * {@link sg4e.chatur.json.Notification} objects.
+ */
+public enum DecodingMode {
+    /**
+     * Bind every field before the callback is invoked. This is the default.
+     */
+    EAGER,
+    /**
+     * Pass {@link sg4e.chatur.json.LazyRoomMessage} and
+     * {@link sg4e.chatur.json.LazyNotification} views holding a copy of the
+     * raw JSON; each field is decoded on first access. Objects may be kept
+     * after the callback returns.
+     */
+    LAZY,
+    /**
+     * Like {@link #LAZY}, but one view per type is reused for every message
+     * and reads the decoder's buffer directly, so no model objects are
+     * allocated per message. Callbacks must not keep references to the objects they
+     * receive. When an {@link EventDispatcher} is installed, callbacks run
+     * after the buffer has been reused, so this mode behaves like
+     * {@link #LAZY}.
+     */
+    FLYWEIGHT
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.EventDispatcher.EventType;
+
+/**
+ * Delivers the events of any number of bots to typed subscriptions, as an
+ * alternative to overriding the {@link ChaturBot} hooks. Subscriptions can be
+ * global or limited to one room, and can carry an {@link EventFilter}.
+ * <pre>{@code
+ * EventBus bus = new EventBus();
+ * bus.subscribe(Topic.TIP, EventFilters.minAmount(100), (bot, tip) -> ...);
+ * bot.setEventBus(bus);
+ * }</pre>
+ * <p>
+ * Bots consult the bus before decoding: a message whose method has neither a
+ * subscriber nor an overridden hook is skipped after reading its method name,
+ * and a chat message or notice that no subscription's filter accepts is never
+ * bound to a model. Handlers run where the hooks would (the reading thread, or
+ * the bot's {@link EventDispatcher}), after the hook. An exception thrown by
+ * one handler is logged and does not affect the others.
+ */
+public class EventBus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventBus.class);
+
+    /**
+     * A subscription; close it to unsubscribe.
+     */
+    public interface Subscription extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    private final Subscribers global = new Subscribers();
+    private final ConcurrentMap<String, Subscribers> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes to every event of {@code topic} from every room.
+     *
+     * @param <T>
+     * @param topic
+     * @param handler
+     * @return
+     */
+    public <T> Subscription subscribe(Topic<T> topic, EventHandler<? super T> handler) {
+        return subscribe(null, topic, null, handler);
+    }
+
+    /**
+     * Subscribes to the events of {@code topic} from every room that
+     * {@code filter} accepts.
+     *
+     * @param <T>
+     * @param topic
+     * @param filter
+     * @param handler
+     * @return
+     */
+    public <T> Subscription subscribe(Topic<T> topic, EventFilter<? super T> filter, EventHandler<? super T> handler) {
+        return subscribe(null, topic, filter, handler);
+    }
+
+    /**
+     * Subscribes to the events of {@code topic} from one room that
+     * {@code filter} accepts.
+     *
+     * @param <T>
+     * @param roomName the room, or null for every room
+     * @param topic
+     * @param filter may be null to accept every event
+     * @param handler
+     * @return
+     */
+    public <T> Subscription subscribe(String roomName, Topic<T> topic, EventFilter<? super T> filter, EventHandler<? super T> handler) {
+        Subscribers scope = roomName == null ? global : rooms.computeIfAbsent(roomName, key -> new Subscribers());
+        Subscriber<T> subscriber = new Subscriber<>(topic, filter, handler);
+        scope.byTopic[topic.index].add(subscriber);
+        return () -> scope.byTopic[topic.index].remove(subscriber);
+    }
+
+    /**
+     * Returns whether any subscription may receive events of {@code type}
+     * from {@code roomName}.
+     */
+    boolean hasSubscribers(String roomName, EventType type) {
+        if(global.has(type)) {
+            return true;
+        }
+        Subscribers room = rooms.get(roomName);
+        return room != null && room.has(type);
+    }
+
+    /**
+     * Returns whether any subscription accepts {@code view}, a lazily decoded
+     * event of {@code type} from {@code roomName}. A filter that throws is
+     * logged and counts as not accepting the event.
+     */
+    boolean matches(String roomName, EventType type, Object view) {
+        if(global.matches(roomName, type, view)) {
+            return true;
+        }
+        Subscribers room = rooms.get(roomName);
+        return room != null && room.matches(roomName, type, view);
+    }
+
+    /**
+     * Delivers a decoded event to every accepting subscription.
+     */
+    void deliver(ChaturBot bot, EventType type, Object first, Object second) {
+        Object event = type == EventType.SILENCE ? new Silence((String) first, (String) second) : first;
+        global.deliver(bot, type, event);
+        Subscribers room = rooms.get(bot.getRoomName());
+        if(room != null) {
+            room.deliver(bot, type, event);
+        }
+    }
+
+    private static final class Subscriber<T> {
+
+        private final Topic<T> topic;
+        private final EventFilter<? super T> filter;
+        private final EventHandler<? super T> handler;
+
+        Subscriber(Topic<T> topic, EventFilter<? super T> filter, EventHandler<? super T> handler) {
+            this.topic = topic;
+            this.filter = filter;
+            this.handler = handler;
+        }
+
+        boolean accepts(Object event) {
+            @SuppressWarnings("unchecked")
+            T typed = (T) event;
+            return (topic.implicitFilter == null || topic.implicitFilter.test(typed))
+                    && (filter == null || filter.test(typed));
+        }
+
+        void deliver(ChaturBot bot, Object event) {
+            @SuppressWarnings("unchecked")
+            T typed = (T) event;
+            handler.onEvent(bot, typed);
+        }
+    }
+
+    private static final class Subscribers {
+
+        private final List<Subscriber<?>>[] byTopic = newLists(Topic.ALL.length);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static List<Subscriber<?>>[] newLists(int length) {
+            List<Subscriber<?>>[] lists = new List[length];
+            for(int i = 0; i < length; i++) {
+                lists[i] = new CopyOnWriteArrayList<>();
+            }
+            return lists;
+        }
+
+        boolean has(EventType type) {
+            for(Topic<?> topic : Topic.ALL) {
+                if(topic.type == type && !byTopic[topic.index].isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matches(String roomName, EventType type, Object view) {
+            for(Topic<?> topic : Topic.ALL) {
+                if(topic.type == type) {
+                    for(Subscriber<?> subscriber : byTopic[topic.index]) {
+                        try {
+                            if(subscriber.accepts(view)) {
+                                return true;
+                            }
+                        } catch(RuntimeException ex) {
+                            LOG.error("{} filter failed for room {}", topic, roomName, ex);
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        void deliver(ChaturBot bot, EventType type, Object event) {
+            for(Topic<?> topic : Topic.ALL) {
+                if(topic.type == type) {
+                    for(Subscriber<?> subscriber : byTopic[topic.index]) {
+                        try {
+                            if(subscriber.accepts(event)) {
+                                subscriber.deliver(bot, event);
+                            }
+                        } catch(RuntimeException ex) {
+                            LOG.error("{} handler failed for room {}", topic, bot.getRoomName(), ex);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
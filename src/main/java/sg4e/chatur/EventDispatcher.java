@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link ChaturBot} callbacks on worker threads instead of the WebSocket
+ * reading thread, so that slow handlers do not stall the connection.
+ * <p>
+ * Each worker owns a pre-allocated ring buffer. Every room is assigned to one
+ * worker, so events for a room are always handled in the order they were
+ * received, while different rooms are handled in parallel. What happens when a
+ * ring is full is decided by the {@link BackpressurePolicy}.
+ * <p>
+ * Install a dispatcher with {@link ChaturBot#setDispatcher(EventDispatcher)};
+ * one dispatcher can be shared by any number of bots.
+ */
+public class EventDispatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventDispatcher.class);
+
+    enum EventType {
+        ROOM_MSG("onRoomMsg"),
+        TITLE_CHANGE("onTitleChange"),
+        NOTIFY("onNotify"),
+        GROUP_SHOW_CANCEL("onNotifyGroupShowCancel"),
+        SILENCE("onSilence"),
+        /**
+         * Notices with a dedicated model, decoded alongside {@link #NOTIFY}.
+         */
+        TIP_ALERT("onNotify"),
+        ANNOUNCEMENT("onNotify"),
+        FANCLUB_JOIN("onNotify"),
+        PANEL_REFRESH("onNotify"),
+        /**
+         * A message with a method the bot does not know, for
+         * {@link Topic#RAW} subscribers.
+         */
+        RAW("unknown");
+
+        /**
+         * The protocol method the event was decoded from.
+         */
+        final String method;
+
+        EventType(String method) {
+            this.method = method;
+        }
+
+        /**
+         * Returns the type of events decoded from {@code method}, or null for
+         * methods that are handled internally or unknown. Notices map to
+         * {@link #NOTIFY}.
+         */
+        static EventType forMethod(String method) {
+            switch(method) {
+                case "onRoomMsg":
+                    return ROOM_MSG;
+                case "onTitleChange":
+                    return TITLE_CHANGE;
+                case "onNotify":
+                    return NOTIFY;
+                case "onNotifyGroupShowCancel":
+                    return GROUP_SHOW_CANCEL;
+                case "onSilence":
+                    return SILENCE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final BackpressurePolicy policy;
+    private final Lane[] lanes;
+    private final AtomicLong droppedOldest = new AtomicLong();
+    private final AtomicLong droppedNewest = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a dispatcher and starts its worker threads.
+     *
+     * @param workers number of worker threads
+     * @param capacityPerWorker size of each worker's ring buffer
+     * @param policy behavior when a ring buffer is full
+     */
+    public EventDispatcher(int workers, int capacityPerWorker, BackpressurePolicy policy) {
+        if(workers < 1 || capacityPerWorker < 1) {
+            throw new IllegalArgumentException("workers and capacityPerWorker must be positive");
+        }
+        this.policy = policy;
+        lanes = new Lane[workers];
+        for(int i = 0; i < workers; i++) {
+            lanes[i] = new Lane(capacityPerWorker);
+            Thread thread = new Thread(lanes[i], "chaturbot-dispatch-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of events currently queued across all workers.
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for(Lane lane : lanes) {
+            depth += lane.depth();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of queued events discarded by
+     * {@link BackpressurePolicy#DROP_OLDEST}.
+     *
+     * @return
+     */
+    public long getDroppedOldestCount() {
+        return droppedOldest.get();
+    }
+
+    /**
+     * Returns the number of new events discarded by
+     * {@link BackpressurePolicy#DROP_NEWEST}, including events submitted after
+     * {@link #close()}.
+     *
+     * @return
+     */
+    public long getDroppedNewestCount() {
+        return droppedNewest.get();
+    }
+
+    /**
+     * Returns the number of title changes replaced by a later one under
+     * {@link BackpressurePolicy#COALESCE_TITLE_CHANGES}.
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Stops the workers. Queued events are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for(Lane lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    void submit(ChaturBot bot, EventType type, Object first, Object second) throws InterruptedException {
+        if(closed) {
+            droppedNewest.incrementAndGet();
+            return;
+        }
+        int index = (bot.getRoomName().hashCode() & Integer.MAX_VALUE) % lanes.length;
+        lanes[index].offer(bot, type, first, second);
+    }
+
+    private static final class Slot {
+
+        private ChaturBot bot;
+        private EventType type;
+        private Object first, second;
+
+        void clear() {
+            bot = null;
+            type = null;
+            first = null;
+            second = null;
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final Slot[] ring;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Map<ChaturBot, Slot> queuedTitles = new IdentityHashMap<>();
+        private int head, size;
+        private boolean running = true;
+
+        Lane(int capacity) {
+            ring = new Slot[capacity];
+            for(int i = 0; i < capacity; i++) {
+                ring[i] = new Slot();
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void offer(ChaturBot bot, EventType type, Object first, Object second) throws InterruptedException {
+            lock.lock();
+            try {
+                if(policy == BackpressurePolicy.COALESCE_TITLE_CHANGES && type == EventType.TITLE_CHANGE) {
+                    Slot queued = queuedTitles.get(bot);
+                    if(queued != null) {
+                        queued.first = first;
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                }
+                if(size == ring.length) {
+                    switch(policy) {
+                        case DROP_NEWEST:
+                            droppedNewest.incrementAndGet();
+                            return;
+                        case DROP_OLDEST:
+                            release(ring[head]);
+                            head = (head + 1) % ring.length;
+                            size--;
+                            droppedOldest.incrementAndGet();
+                            break;
+                        default:
+                            while(size == ring.length && running) {
+                                notFull.await();
+                            }
+                            if(!running) {
+                                droppedNewest.incrementAndGet();
+                                return;
+                            }
+                            break;
+                    }
+                }
+                Slot slot = ring[(head + size) % ring.length];
+                slot.bot = bot;
+                slot.type = type;
+                slot.first = first;
+                slot.second = second;
+                if(type == EventType.TITLE_CHANGE && policy == BackpressurePolicy.COALESCE_TITLE_CHANGES) {
+                    queuedTitles.put(bot, slot);
+                }
+                size++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void shutdown() {
+            lock.lock();
+            try {
+                running = false;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                ChaturBot bot;
+                EventType type;
+                Object first, second;
+                lock.lock();
+                try {
+                    while(size == 0 && running) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if(!running) {
+                        return;
+                    }
+                    Slot slot = ring[head];
+                    bot = slot.bot;
+                    type = slot.type;
+                    first = slot.first;
+                    second = slot.second;
+                    release(slot);
+                    head = (head + 1) % ring.length;
+                    size--;
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    bot.deliver(type, first, second);
+                } catch(Exception ex) {
+                    LOG.error("Uncaught exception in {} handler for room {}", type, bot.getRoomName(), ex);
+                }
+            }
+        }
+
+        private void release(Slot slot) {
+            if(slot.type == EventType.TITLE_CHANGE && queuedTitles.get(slot.bot) == slot) {
+                queuedTitles.remove(slot.bot);
+            }
+            slot.clear();
+        }
+    }
+}
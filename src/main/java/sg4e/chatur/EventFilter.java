@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * Selects the events delivered to an {@link EventBus} subscription.
+ * <p>
+ * For chat messages and notices, filters are first applied to a lazily
+ * decoded view of the message, so a filter that reads one field (such as the
+ * tip amount) decodes only that field; models are bound only when some
+ * subscription accepts the message. Filters should therefore only read the
+ * event and not keep it. See {@link EventFilters} for common filters.
+ *
+ * @param <T> the event type of the subscribed {@link Topic}
+ */
+@FunctionalInterface
+public interface EventFilter<T> {
+
+    boolean test(T event);
+
+    default EventFilter<T> and(EventFilter<? super T> other) {
+        return event -> test(event) && other.test(event);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.util.Set;
+import sg4e.chatur.json.FanclubJoin;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.json.TipAlert;
+
+/**
+ * Common {@link EventFilter}s.
+ */
+public final class EventFilters {
+
+    private EventFilters() {
+    }
+
+    /**
+     * Accepts notices with an amount of at least {@code amount}; for
+     * {@link Topic#TIP}, "tips &gt;= amount".
+     *
+     * @param amount
+     * @return
+     */
+    public static EventFilter<Notification> minAmount(int amount) {
+        return notification -> notification.getAmount() >= amount;
+    }
+
+    /**
+     * Accepts tips of at least {@code amount}, for {@link Topic#TIP_ALERT}.
+     *
+     * @param amount
+     * @return
+     */
+    public static EventFilter<TipAlert> minTip(int amount) {
+        return tip -> tip.getAmount() >= amount;
+    }
+
+    /**
+     * Accepts chat messages sent by, and notices, tips and fan club joins
+     * from, one of {@code usernames}. Other events are rejected.
+     *
+     * @param usernames
+     * @return
+     */
+    public static EventFilter<Object> userIn(Set<String> usernames) {
+        return event -> {
+            if(event instanceof RoomMessage) {
+                return usernames.contains(((RoomMessage) event).getUser());
+            }
+            if(event instanceof Notification) {
+                return usernames.contains(((Notification) event).getFromUsername());
+            }
+            if(event instanceof TipAlert) {
+                return usernames.contains(((TipAlert) event).getFromUsername());
+            }
+            if(event instanceof FanclubJoin) {
+                return usernames.contains(((FanclubJoin) event).getUsername());
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Accepts chat messages from moderators.
+     *
+     * @return
+     */
+    public static EventFilter<RoomMessage> fromMod() {
+        return RoomMessage::isMod;
+    }
+}
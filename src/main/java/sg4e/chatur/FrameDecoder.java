@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Streaming decoder for SockJS array frames ({@code a["...", ...]}).
+ * <p>
+ * Each element of the frame is a JSON document encoded as a JSON string, and
+ * its {@code args} are themselves JSON documents encoded as strings. This
+ * decoder walks the envelope once with a {@link JsonParser}, copies the
+ * unescaped arguments into a reusable buffer, and binds models directly from
+ * that buffer, so no intermediate {@code String} or {@code JsonNode} tree is
+ * built for the frame.
+ * <p>
+ * When a method filter is set, the method name is first read from the end of
+ * each message, where Chaturbate puts it, and messages whose method is
+ * rejected are skipped without parsing their arguments.
+ * <p>
+ * Instances reuse their buffers between frames and are not thread-safe; use
+ * one per WebSocket reading thread.
+ */
+class FrameDecoder implements WebsocketMessage {
+
+    private static final String[] KNOWN_METHODS = {
+        "onAuthResponse", "onRoomMsg", "onTitleChange", "onNotify",
+        "onNotifyGroupShowCancel", "onSilence", "onRoomCountUpdate"
+    };
+
+    private final JsonFactory factory = JsonSupport.MAPPER.getFactory();
+
+    private char[] frameBuffer = new char[1024];
+    private char[] argBuffer = new char[1024];
+    private int[] argOffsets = new int[4];
+    private int[] argLengths = new int[4];
+    private int argCount;
+    private String method;
+    private boolean skipped;
+    private JsonParser envelope;
+    private Predicate<String> methodFilter;
+
+    /**
+     * Sets the methods whose messages are decoded; others are skipped when
+     * their method can be read without parsing. Null decodes everything.
+     */
+    void setMethodFilter(Predicate<String> methodFilter) {
+        this.methodFilter = methodFilter;
+    }
+
+    /**
+     * Prepares the decoder for a new frame.
+     *
+     * @param frame raw text from the websocket
+     * @return false if the frame is not an array frame; nothing can be decoded
+     * @throws IOException
+     */
+    boolean reset(String frame) throws IOException {
+        closeEnvelope();
+        int length = frame.length();
+        if(length < 3 || frame.charAt(0) != 'a' || frame.charAt(1) != '[') {
+            return false;
+        }
+        if(frameBuffer.length < length) {
+            frameBuffer = new char[Math.max(length, frameBuffer.length * 2)];
+        }
+        frame.getChars(0, length, frameBuffer, 0);
+        envelope = factory.createParser(frameBuffer, 1, length - 1);
+        if(envelope.nextToken() != JsonToken.START_ARRAY) {
+            closeEnvelope();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the next message in the current frame. After this returns true,
+     * {@link #getMethod()} and {@link #mapToObject(int, Class)} refer to that
+     * message.
+     *
+     * @return false when the frame has no more messages
+     * @throws IOException if the frame is malformed
+     */
+    boolean next() throws IOException {
+        if(envelope == null) {
+            return false;
+        }
+        JsonToken token = envelope.nextToken();
+        if(token == JsonToken.END_ARRAY || token == null) {
+            closeEnvelope();
+            return false;
+        }
+        if(token != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(envelope, "Expected JSON string in SockJS frame, got " + token);
+        }
+        method = null;
+        argCount = 0;
+        skipped = false;
+        char[] text = envelope.getTextCharacters();
+        int offset = envelope.getTextOffset();
+        int length = envelope.getTextLength();
+        if(methodFilter != null) {
+            String peeked = peekMethod(text, offset, length);
+            if(peeked != null && !methodFilter.test(peeked)) {
+                method = peeked;
+                skipped = true;
+                return true;
+            }
+        }
+        try(JsonParser body = factory.createParser(text, offset, length)) {
+            if(body.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(body, "Expected JSON object in SockJS message");
+            }
+            while(body.nextToken() == JsonToken.FIELD_NAME) {
+                String field = body.getCurrentName();
+                JsonToken value = body.nextToken();
+                if("method".equals(field) && value == JsonToken.VALUE_STRING) {
+                    method = readMethod(body);
+                } else if("args".equals(field) && value == JsonToken.START_ARRAY) {
+                    readArgs(body);
+                } else {
+                    body.skipChildren();
+                }
+            }
+        }
+        if(method == null) {
+            method = "";
+        }
+        return true;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns true if the current message was skipped by the method filter;
+     * only {@link #getMethod()} is available then.
+     */
+    boolean isSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public int getArgCount() {
+        return argCount;
+    }
+
+    @Override
+    public <T> T mapToObject(int argPosition, Class<T> clazz) throws IOException {
+        checkArg(argPosition);
+        if(String.class.equals(clazz)) {
+            @SuppressWarnings("unchecked")
+            T t = (T) new String(argBuffer, argOffsets[argPosition], argLengths[argPosition]);
+            return t;
+        }
+        try(JsonParser arg = factory.createParser(argBuffer, argOffsets[argPosition], argLengths[argPosition])) {
+            return JsonSupport.read(clazz, arg);
+        }
+    }
+
+    @Override
+    public char[] argChars(int argPosition) {
+        checkArg(argPosition);
+        return argBuffer;
+    }
+
+    @Override
+    public int argOffset(int argPosition) {
+        checkArg(argPosition);
+        return argOffsets[argPosition];
+    }
+
+    @Override
+    public int argLength(int argPosition) {
+        checkArg(argPosition);
+        return argLengths[argPosition];
+    }
+
+    private void checkArg(int argPosition) {
+        if(argPosition < 0 || argPosition >= argCount) {
+            throw new IndexOutOfBoundsException(String.format("Argument %d requested but %s has %d", argPosition, method, argCount));
+        }
+    }
+
+    private String readMethod(JsonParser body) throws IOException {
+        return methodName(body.getTextCharacters(), body.getTextOffset(), body.getTextLength());
+    }
+
+    /**
+     * Reads the method of a message ending in {@code "method":"<name>"}}
+     * without parsing the rest.
+     *
+     * @return null if the message does not end that way or the name is
+     * escaped
+     */
+    static String peekMethod(char[] text, int offset, int length) {
+        int i = skipWhitespaceBackward(text, offset, offset + length - 1);
+        if(i < offset || text[i] != '}') {
+            return null;
+        }
+        i = skipWhitespaceBackward(text, offset, i - 1);
+        if(i < offset || text[i] != '"') {
+            return null;
+        }
+        int end = i;
+        int start = end - 1;
+        while(start >= offset && text[start] != '"') {
+            if(text[start] == '\\') {
+                return null;
+            }
+            start--;
+        }
+        if(start < offset) {
+            return null;
+        }
+        i = skipWhitespaceBackward(text, offset, start - 1);
+        if(i < offset || text[i] != ':') {
+            return null;
+        }
+        i = skipWhitespaceBackward(text, offset, i - 1);
+        int keyStart = i - "\"method\"".length() + 1;
+        if(keyStart < offset || !regionMatches("\"method\"", text, keyStart, i - keyStart + 1)) {
+            return null;
+        }
+        return methodName(text, start + 1, end - start - 1);
+    }
+
+    private static int skipWhitespaceBackward(char[] text, int offset, int i) {
+        while(i >= offset && (text[i] == ' ' || text[i] == '\t' || text[i] == '\n' || text[i] == '\r')) {
+            i--;
+        }
+        return i;
+    }
+
+    private static String methodName(char[] text, int offset, int length) {
+        for(String known : KNOWN_METHODS) {
+            if(regionMatches(known, text, offset, length)) {
+                return known;
+            }
+        }
+        return new String(text, offset, length);
+    }
+
+    private void readArgs(JsonParser body) throws IOException {
+        int used = 0;
+        JsonToken token;
+        while((token = body.nextToken()) != JsonToken.END_ARRAY) {
+            if(token == null) {
+                throw new JsonParseException(body, "Unterminated args array");
+            }
+            if(token.isStructStart()) {
+                throw new JsonParseException(body, "Structured args are not supported by the streaming decoder");
+            }
+            if(argCount == argOffsets.length) {
+                argOffsets = Arrays.copyOf(argOffsets, argCount * 2);
+                argLengths = Arrays.copyOf(argLengths, argCount * 2);
+            }
+            int length = body.getTextLength();
+            if(argBuffer.length < used + length) {
+                argBuffer = Arrays.copyOf(argBuffer, Math.max(used + length, argBuffer.length * 2));
+            }
+            System.arraycopy(body.getTextCharacters(), body.getTextOffset(), argBuffer, used, length);
+            argOffsets[argCount] = used;
+            argLengths[argCount] = length;
+            argCount++;
+            used += length;
+        }
+    }
+
+    private void closeEnvelope() throws IOException {
+        if(envelope != null) {
+            envelope.close();
+            envelope = null;
+        }
+    }
+
+    private static boolean regionMatches(String s, char[] text, int offset, int length) {
+        if(s.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(s.charAt(i) != text[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
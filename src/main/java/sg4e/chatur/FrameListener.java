@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * Receives every raw text frame a {@link ChaturBot} receives, before it is
+ * decoded. Called on the WebSocket reading thread, so implementations must be
+ * fast and thread-safe if shared between bots.
+ *
+ * @see ChaturBot#setFrameListener(FrameListener)
+ */
+@FunctionalInterface
+public interface FrameListener {
+
+    /**
+     * @param roomName room of the bot that received the frame
+     * @param timestampMillis wall-clock receive time
+     * @param frame raw text from the websocket
+     */
+    void onFrame(String roomName, long timestampMillis, String frame);
+}
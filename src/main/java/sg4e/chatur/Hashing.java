@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+/**
+ * 64-bit hashing of strings and keys, shared by the packages that count or
+ * sample chat: FNV-1a finished with the MurmurHash3 finalizer. Analytics
+ * sketches are only mergeable and readable from snapshots if they hash the
+ * same way, so this must not change without bumping the snapshot format
+ * version in AnalyticsSnapshot.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of {@code s}, finished with
+     * {@link #mix(long)} so that every bit depends on every char; null
+     * hashes like the empty string.
+     *
+     * @param s
+     * @return
+     */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        if(s != null) {
+            for(int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        return mix(h);
+    }
+
+    /**
+     * The finalizer of MurmurHash3: spreads every input bit over the output.
+     *
+     * @param h
+     * @return
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
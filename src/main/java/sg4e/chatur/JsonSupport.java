@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import sg4e.chatur.json.ModelDecoder;
+
+/**
+ * The mapper and readers shared by every {@link ChaturBot} in the JVM. The
+ * mapper is configured once, so module discovery runs only on first use, and
+ * is never reconfigured afterwards, which keeps it safe to share across
+ * threads.
+ * <p>
+ * Models with a {@link ModelDecoder} generated at build time are bound by it
+ * instead of the mapper, which avoids building Jackson's deserializers on the
+ * first message and lets the JIT inline the whole binding.
+ */
+final class JsonSupport {
+
+    static final ObjectMapper MAPPER = createMapper();
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, Object> DECODERS = new ConcurrentHashMap<>();
+    /**
+     * Cached for models without a generated decoder.
+     */
+    private static final Object NO_DECODER = new Object();
+
+    private JsonSupport() {
+    }
+
+    static ObjectReader readerFor(Class<?> clazz) {
+        ObjectReader reader = READERS.get(clazz);
+        if(reader == null) {
+            reader = READERS.computeIfAbsent(clazz, MAPPER::readerFor);
+        }
+        return reader;
+    }
+
+    /**
+     * Binds the value at the current or next token of {@code parser} to
+     * {@code clazz}, with its generated decoder if it has one.
+     */
+    static <T> T read(Class<T> clazz, JsonParser parser) throws IOException {
+        ModelDecoder<T> decoder = decoderFor(clazz);
+        return decoder != null ? decoder.decode(parser) : readerFor(clazz).readValue(parser);
+    }
+
+    /**
+     * Returns the generated decoder of {@code clazz}, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ModelDecoder<T> decoderFor(Class<T> clazz) {
+        Object decoder = DECODERS.get(clazz);
+        if(decoder == null) {
+            decoder = DECODERS.computeIfAbsent(clazz, JsonSupport::loadDecoder);
+        }
+        return decoder == NO_DECODER ? null : (ModelDecoder<T>) decoder;
+    }
+
+    private static Object loadDecoder(Class<?> clazz) {
+        try {
+            Class<?> generated = Class.forName(clazz.getName() + "Decoder", true, clazz.getClassLoader());
+            if(ModelDecoder.class.isAssignableFrom(generated)) {
+                return generated.getConstructor().newInstance();
+            }
+        } catch(ReflectiveOperationException | LinkageError ex) {
+            // not generated; bind with the mapper
+        }
+        return NO_DECODER;
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.findAndRegisterModules();
+        return mapper;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import com.neovisionaries.ws.client.WebSocket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound commands of one connection. Commands queued within the flush
+ * window are sent together as one SockJS array frame, and a token bucket
+ * limits the number of commands sent per second; commands beyond the limit
+ * wait in the queue, in order.
+ * <p>
+ * Commands are queued already encoded as SockJS array elements (see
+ * {@link #encode(String)}), so fixed commands can be encoded once and reused.
+ */
+class OutboundQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundQueue.class);
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chaturbot-outbound");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int MAX_BATCH = 64;
+    private static final int MAX_PENDING = 1024;
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Supplier<WebSocket> socket;
+    private final Queue<String> pending = new ArrayDeque<>();
+    private final StringBuilder frame = new StringBuilder(256);
+    private long flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private double tokensPerNano;
+    private double burst;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private boolean flushScheduled;
+
+    /**
+     * @param socket returns the socket of the current connection at flush time
+     */
+    OutboundQueue(Supplier<WebSocket> socket) {
+        this.socket = socket;
+        setRateLimit(5, 10);
+        tokens = burst;
+    }
+
+    /**
+     * Encodes a command as an element of a SockJS array frame: a JSON string
+     * holding the command's JSON.
+     */
+    static String encode(String commandJson) {
+        StringBuilder sb = new StringBuilder(commandJson.length() + 16);
+        sb.append('"');
+        appendEscaped(sb, commandJson);
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Encodes {@code value} as a JSON string literal.
+     */
+    static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        appendEscaped(sb, value);
+        return sb.append('"').toString();
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if(c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    synchronized void setRateLimit(double commandsPerSecond, int burst) {
+        if(commandsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.tokensPerNano = commandsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    synchronized void setFlushWindow(long window, TimeUnit unit) {
+        this.flushWindowNanos = Math.max(0, unit.toNanos(window));
+    }
+
+    /**
+     * Queues an encoded command.
+     *
+     * @throws IllegalStateException if too many commands are pending
+     */
+    synchronized void enqueue(String encodedCommand) {
+        if(pending.size() >= MAX_PENDING) {
+            throw new IllegalStateException("Outbound queue is full");
+        }
+        pending.add(encodedCommand);
+        if(!flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, flushWindowNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Discards pending commands, e.g. when the connection they were meant for
+     * is replaced.
+     */
+    synchronized void clear() {
+        pending.clear();
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Sends the next batch. Commands are only removed from the queue once the
+     * frame has been handed to an open socket. While there is none, for
+     * example while the connection is being replaced, the batch is retried
+     * later; sendText would silently drop a frame on a closed socket.
+     */
+    private synchronized void flush() {
+        flushScheduled = false;
+        WebSocket ws = socket.get();
+        if(ws == null || !ws.isOpen()) {
+            if(!pending.isEmpty()) {
+                flushScheduled = true;
+                FLUSHER.schedule(this::flush, RETRY_NANOS, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+        int count = Math.min(MAX_BATCH, Math.min(pending.size(), (int) tokens));
+        if(count > 0) {
+            frame.setLength(0);
+            frame.append('[');
+            Iterator<String> commands = pending.iterator();
+            for(int i = 0; i < count; i++) {
+                if(i > 0) {
+                    frame.append(',');
+                }
+                frame.append(commands.next());
+            }
+            frame.append(']');
+            try {
+                ws.sendText(frame.toString());
+            } catch(RuntimeException ex) {
+                LOG.warn("Unable to send {} outbound commands; retrying", count, ex);
+                flushScheduled = true;
+                FLUSHER.schedule(this::flush, RETRY_NANOS, TimeUnit.NANOSECONDS);
+                return;
+            }
+            for(int i = 0; i < count; i++) {
+                pending.poll();
+            }
+            tokens -= count;
+        }
+        if(!pending.isEmpty()) {
+            long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+}
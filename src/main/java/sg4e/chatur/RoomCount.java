@@ -15,31 +15,44 @@
  */
 package sg4e.chatur;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Number of users in the chat. This class encapsulates the asynchronous query.
  * You must check that {@link #hasServerResponse()} is true and
  * {@link #hasError()} is false before calling {@link #get()} to be sure that
- * the query has been successful. It is also possible for queries to fail
- * indefinitely, so it is advisable to run the query again via
- * {@link ChaturBot#getRoomCount()} and handle the new object if the current
- * object fails to receive a server response after a few seconds.
+ * the query has been successful. Queries that receive no server response fail
+ * with a {@link java.util.concurrent.TimeoutException} after a few seconds.
  * <p>
  * {@code RoomCount} objects are updated for only one query. Subsequent calls to
  * {@link ChaturBot#getRoomCount()} will update only the new object, not
  * previous {@code RoomCount}s.
+ * <p>
+ * This is a thin adapter over {@link ChaturBot#queryRoomCount()}; new code
+ * should prefer the future returned by that method.
  */
 public class RoomCount {
 
     private final AtomicInteger count;
+    private final CompletableFuture<Integer> future;
     private volatile boolean hasServerResponse;
     private volatile Throwable error;
 
-    RoomCount() {
+    RoomCount(CompletableFuture<Integer> future) {
         count = new AtomicInteger(-1);
         hasServerResponse = false;
         error = null;
+        this.future = future;
+        future.whenComplete((value, cause) -> {
+            if(cause != null) {
+                setError(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+            } else {
+                set(value);
+                setServerResponse();
+            }
+        });
     }
 
     /**
@@ -73,8 +86,17 @@ public class RoomCount {
     }
 
     void setError(Throwable error) {
-        hasServerResponse();
         this.error = error;
+        setServerResponse();
+    }
+
+    /**
+     * Returns the future this object is tracking.
+     *
+     * @return
+     */
+    public CompletableFuture<Integer> toFuture() {
+        return future;
     }
 
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the room count of many bots periodically on a single scheduler
+ * thread. The first sample of each room is delayed by a random fraction of the
+ * period so that rooms added together do not all query at once.
+ */
+public class RoomCountPoller implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoomCountPoller.class);
+
+    /**
+     * Receives room count samples. Called from the thread that completes the
+     * query, usually the WebSocket reading thread; keep implementations short.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        void onRoomCount(ChaturBot bot, int count, long timestampMillis);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<ChaturBot, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
+    private final long period;
+    private final TimeUnit unit;
+    private final Listener listener;
+
+    /**
+     * Creates a poller.
+     *
+     * @param period time between two samples of the same room; also used as
+     * the query timeout
+     * @param unit
+     * @param listener receives every successful sample
+     */
+    public RoomCountPoller(long period, TimeUnit unit, Listener listener) {
+        this.period = period;
+        this.unit = unit;
+        this.listener = listener;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chaturbot-roomcount-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling {@code bot}. Samples are skipped while the bot is not
+     * authenticated. Adding a bot that is already polled does nothing.
+     *
+     * @param bot
+     */
+    public void add(ChaturBot bot) {
+        tasks.computeIfAbsent(bot, key -> {
+            long initialDelay = ThreadLocalRandom.current().nextLong(Math.max(1, period));
+            return scheduler.scheduleAtFixedRate(() -> sample(key), initialDelay, period, unit);
+        });
+    }
+
+    /**
+     * Stops sampling {@code bot}.
+     *
+     * @param bot
+     */
+    public void remove(ChaturBot bot) {
+        ScheduledFuture<?> task = tasks.remove(bot);
+        if(task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the number of bots being sampled.
+     *
+     * @return
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        tasks.clear();
+    }
+
+    private void sample(ChaturBot bot) {
+        if(!bot.isAuthenticated()) {
+            return;
+        }
+        try {
+            bot.queryRoomCount(period, unit).whenComplete((count, cause) -> {
+                if(cause != null) {
+                    LOG.debug("Room count query for {} failed", bot.getRoomName(), cause);
+                } else {
+                    listener.onRoomCount(bot, count, System.currentTimeMillis());
+                }
+            });
+        } catch(IllegalStateException ex) {
+            LOG.debug("Skipping room count for {}", bot.getRoomName(), ex);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches {@code onRoomCountUpdate} responses to pending room count queries
+ * for one connection.
+ * <p>
+ * While a query is unanswered, further queries share its future rather than
+ * sending another request. Every response completes all queries pending at
+ * that time, oldest first, since any response carries the current count.
+ */
+class RoomCountRouter {
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chaturbot-roomcount-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Deque<CompletableFuture<Integer>> pending = new ArrayDeque<>();
+
+    /**
+     * Returns the future of the unanswered query, or registers a new one and
+     * calls {@code sender} to send the request.
+     *
+     * @param sender sends the {@code updateRoomCount} request
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    CompletableFuture<Integer> request(Runnable sender, long timeout, TimeUnit unit) {
+        CompletableFuture<Integer> future;
+        synchronized(this) {
+            future = pending.peekLast();
+            if(future != null && !future.isDone()) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.addLast(future);
+        }
+        CompletableFuture<Integer> registered = future;
+        TIMEOUTS.schedule(() -> {
+            if(registered.completeExceptionally(new TimeoutException("No room count response from server"))) {
+                remove(registered);
+            }
+        }, timeout, unit);
+        try {
+            sender.run();
+        } catch(RuntimeException ex) {
+            remove(registered);
+            registered.completeExceptionally(ex);
+        }
+        return registered;
+    }
+
+    void onResponse(int count) {
+        for(CompletableFuture<Integer> future : drain()) {
+            future.complete(count);
+        }
+    }
+
+    void onError(Throwable cause) {
+        for(CompletableFuture<Integer> future : drain()) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private synchronized List<CompletableFuture<Integer>> drain() {
+        List<CompletableFuture<Integer>> drained = new ArrayList<>(pending);
+        pending.clear();
+        return drained;
+    }
+
+    private synchronized void remove(CompletableFuture<Integer> future) {
+        pending.remove(future);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+/**
+ * Names of the per-room directories of the on-disk stores, such as
+ * {@link sg4e.chatur.archive.ChatArchiveWriter}. Room names are URL-encoded,
+ * so any name maps to a single path element; names made only of dots, which
+ * URL encoding leaves as they are, are escaped too so that they cannot
+ * resolve to the store's directory or its parent.
+ */
+public final class RoomDirectories {
+
+    private RoomDirectories() {
+    }
+
+    /**
+     * Returns the directory name of a room.
+     *
+     * @param room
+     * @return
+     * @throws IllegalArgumentException if {@code room} is empty
+     */
+    public static String directoryName(String room) {
+        if(room.isEmpty()) {
+            throw new IllegalArgumentException("Room name is empty");
+        }
+        String encoded;
+        try {
+            encoded = URLEncoder.encode(room, "UTF-8");
+        } catch(UnsupportedEncodingException ex) {
+            throw new AssertionError(ex);
+        }
+        for(int i = 0; i < encoded.length(); i++) {
+            if(encoded.charAt(i) != '.') {
+                return encoded;
+            }
+        }
+        return encoded.replace(".", "%2E");
+    }
+
+    /**
+     * Returns the room of a directory named by {@link #directoryName(String)}.
+     *
+     * @param directoryName
+     * @return
+     */
+    public static String roomName(String directoryName) {
+        try {
+            return URLDecoder.decode(directoryName, "UTF-8");
+        } catch(UnsupportedEncodingException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
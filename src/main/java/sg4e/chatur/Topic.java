@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import sg4e.chatur.EventDispatcher.EventType;
+import sg4e.chatur.json.Announcement;
+import sg4e.chatur.json.FanclubJoin;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.PanelRefresh;
+import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.json.TipAlert;
+
+/**
+ * A kind of event that can be subscribed to on an {@link EventBus}.
+ *
+ * @param <T> the type of the events
+ */
+public final class Topic<T> {
+
+    /**
+     * Normal chat messages.
+     */
+    public static final Topic<RoomMessage> ROOM_MESSAGE = new Topic<>(0, "ROOM_MESSAGE", EventType.ROOM_MSG, null);
+    /**
+     * Every notice, including tips, announcements and panel refreshes. Prefer
+     * the topics of the dedicated notice models below when only some kinds
+     * are of interest; notices of kinds nobody subscribed to are then skipped
+     * without building any model.
+     */
+    public static final Topic<Notification> NOTICE = new Topic<>(1, "NOTICE", EventType.NOTIFY, null);
+    /**
+     * Notices with a positive amount.
+     */
+    public static final Topic<Notification> TIP = new Topic<>(2, "TIP", EventType.NOTIFY, EventFilters.minAmount(1));
+    public static final Topic<String> TITLE_CHANGE = new Topic<>(3, "TITLE_CHANGE", EventType.TITLE_CHANGE, null);
+    public static final Topic<Silence> SILENCE = new Topic<>(4, "SILENCE", EventType.SILENCE, null);
+    /**
+     * Group show cancellations; the event is always null.
+     */
+    public static final Topic<Void> GROUP_SHOW_CANCEL = new Topic<>(5, "GROUP_SHOW_CANCEL", EventType.GROUP_SHOW_CANCEL, null);
+    /**
+     * Messages with methods this library does not know.
+     */
+    public static final Topic<RawMessage> RAW = new Topic<>(6, "RAW", EventType.RAW, null);
+
+    /**
+     * {@code tip_alert} notices, as compact {@link TipAlert}s.
+     */
+    public static final Topic<TipAlert> TIP_ALERT = new Topic<>(7, "TIP_ALERT", EventType.TIP_ALERT, null);
+    /**
+     * {@code room_message} notices, as {@link Announcement}s.
+     */
+    public static final Topic<Announcement> ANNOUNCEMENT = new Topic<>(8, "ANNOUNCEMENT", EventType.ANNOUNCEMENT, null);
+    /**
+     * {@code fanclub_join} notices, as {@link FanclubJoin}s.
+     */
+    public static final Topic<FanclubJoin> FANCLUB_JOIN = new Topic<>(9, "FANCLUB_JOIN", EventType.FANCLUB_JOIN, null);
+    /**
+     * {@code refresh_panel} notices; the event is always
+     * {@link PanelRefresh#INSTANCE}.
+     */
+    public static final Topic<PanelRefresh> PANEL_REFRESH = new Topic<>(10, "PANEL_REFRESH", EventType.PANEL_REFRESH, null);
+
+    static final Topic<?>[] ALL = {ROOM_MESSAGE, NOTICE, TIP, TITLE_CHANGE, SILENCE, GROUP_SHOW_CANCEL, RAW,
+        TIP_ALERT, ANNOUNCEMENT, FANCLUB_JOIN, PANEL_REFRESH};
+
+    final int index;
+    private final String name;
+    final EventType type;
+    /**
+     * Applied before the subscription's own filter; may be null.
+     */
+    final EventFilter<? super T> implicitFilter;
+
+    private Topic(int index, String name, EventType type, EventFilter<? super T> implicitFilter) {
+        this.index = index;
+        this.name = name;
+        this.type = type;
+        this.implicitFilter = implicitFilter;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
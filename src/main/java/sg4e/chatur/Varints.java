@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Unsigned LEB128 varints, as written by {@link sg4e.chatur.json.ModelCodec}
+ * and in the frames between shard processes: seven bits per byte, least
+ * significant first, with the high bit set on every byte but the last.
+ */
+public final class Varints {
+
+    private Varints() {
+    }
+
+    /**
+     * Writes {@code value} as an unsigned varint of one to ten bytes.
+     *
+     * @param out
+     * @param value
+     * @throws IOException if {@code out} fails
+     */
+    public static void write(DataOutput out, long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param in
+     * @return
+     * @throws IOException if {@code in} fails or ends inside the varint, or
+     * the varint is longer than ten bytes
+     */
+    public static long read(DataInput in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    /**
+     * Reads an unsigned varint that must fit in an {@code int}, such as a
+     * length or an ID.
+     *
+     * @param in
+     * @return
+     * @throws IOException as {@link #read(DataInput)}, or if the value is
+     * larger than {@link Integer#MAX_VALUE}
+     */
+    public static int readInt(DataInput in) throws IOException {
+        long value = read(in);
+        if(value > Integer.MAX_VALUE) {
+            throw new IOException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur;
+
+import java.io.IOException;
+
+/**
+ * A single decoded {@code {"method": ..., "args": [...]}} message from a
+ * SockJS array frame.
+ */
+interface WebsocketMessage {
+
+    String getMethod();
+
+    int getArgCount();
+
+    /**
+     * Maps the argument at {@code argPosition} to {@code clazz}. Arguments are
+     * sent as strings; {@code String.class} returns the argument verbatim and
+     * any other class binds the argument's JSON content.
+     *
+     * @param <T>
+     * @param argPosition
+     * @param clazz
+     * @return
+     * @throws IOException
+     */
+    <T> T mapToObject(int argPosition, Class<T> clazz) throws IOException;
+
+    /**
+     * Returns an array holding the unescaped characters of the argument at
+     * {@code argPosition}, starting at {@link #argOffset(int)}. The array may
+     * be reused once the next message is decoded.
+     *
+     * @param argPosition
+     * @return
+     */
+    char[] argChars(int argPosition);
+
+    int argOffset(int argPosition);
+
+    int argLength(int argPosition);
+}
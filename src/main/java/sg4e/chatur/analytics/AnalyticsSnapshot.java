@@ -0,0 +1,294 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.analytics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import sg4e.chatur.Hashing;
+
+/**
+ * The sketches of one or more rooms over one or more time buckets: message
+ * and tip counts, distinct chatters, and the most frequent words and tippers.
+ * Snapshots returned by {@link ChatAnalytics} are copies and never change.
+ * <p>
+ * Snapshots of the same shape merge into the snapshot of all their messages,
+ * so room totals roll up into global totals and buckets into longer periods.
+ * They serialize to a compact binary format:
+ * <pre>
+ * [int MAGIC][byte VERSION][long fromMillis][long toMillis]
+ * [long messages][long tips][long tipTokens]
+ * [chatters: byte precision, 2^precision registers]
+ * [words: int depth, int width, long total, depth * width int counters]
+ * [top words] [top tippers]: int capacity, long total, int size,
+ *     size * [utf item][long count][long error]
+ * </pre>
+ * which takes about 7 KB with the defaults of {@link ChatAnalytics}.
+ */
+public final class AnalyticsSnapshot {
+
+    static final int MAGIC = 0x43424153;
+    /**
+     * Bumped whenever the format or {@link Hashing} changes.
+     */
+    static final int VERSION = 1;
+
+    private long fromMillis, toMillis;
+    private long messages, tips, tipTokens;
+    private final HyperLogLog chatters;
+    private final CountMinSketch words;
+    private final SpaceSaving topWords;
+    private final SpaceSaving topTippers;
+
+    AnalyticsSnapshot(long fromMillis, long toMillis, HyperLogLog chatters, CountMinSketch words, SpaceSaving topWords, SpaceSaving topTippers) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.chatters = chatters;
+        this.words = words;
+        this.topWords = topWords;
+        this.topTippers = topTippers;
+    }
+
+    /**
+     * Returns the start of the earliest bucket covered, inclusive.
+     *
+     * @return
+     */
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    /**
+     * Returns the end of the latest bucket covered, exclusive.
+     *
+     * @return
+     */
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    public long getMessageCount() {
+        return messages;
+    }
+
+    public long getTipCount() {
+        return tips;
+    }
+
+    public long getTipTokens() {
+        return tipTokens;
+    }
+
+    /**
+     * Returns the estimated number of distinct users who chatted.
+     *
+     * @return
+     */
+    public long getUniqueChatters() {
+        return chatters.estimate();
+    }
+
+    /**
+     * Returns up to {@code n} of the most frequent words and emoticon codes,
+     * most frequent first.
+     *
+     * @param n
+     * @return
+     */
+    public List<HeavyHitter> getTopWords(int n) {
+        return topWords.top(n);
+    }
+
+    /**
+     * Returns up to {@code n} of the users who tipped most often, most
+     * frequent first.
+     *
+     * @param n
+     * @return
+     */
+    public List<HeavyHitter> getTopTippers(int n) {
+        return topTippers.top(n);
+    }
+
+    /**
+     * Returns an upper bound on the number of times a word was used, whether
+     * or not it is among the most frequent.
+     *
+     * @param word a word as returned by {@link #getTopWords}: lower case, or
+     * an emoticon code
+     * @return
+     */
+    public long estimateWordCount(String word) {
+        return words.estimate(word);
+    }
+
+    /**
+     * Returns a new snapshot covering both this and {@code other}.
+     *
+     * @param other a snapshot of the same shape
+     * @return
+     * @throws IllegalArgumentException if the snapshots were made with
+     * different sketch sizes
+     */
+    public AnalyticsSnapshot merge(AnalyticsSnapshot other) {
+        AnalyticsSnapshot merged = copy();
+        merged.add(other);
+        return merged;
+    }
+
+    /**
+     * Writes this snapshot in the format described above. The stream is not
+     * closed.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        writeTo((DataOutput) data);
+        data.flush();
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        try {
+            writeTo(bytes);
+        } catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in
+     * @return
+     * @throws IOException if the data is not a snapshot of a supported
+     * version
+     */
+    public static AnalyticsSnapshot readFrom(InputStream in) throws IOException {
+        return readFrom((DataInput) new DataInputStream(in));
+    }
+
+    public static AnalyticsSnapshot fromByteArray(byte[] bytes) throws IOException {
+        return readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnalyticsSnapshot(fromMillis=%d, toMillis=%d, messages=%d, tips=%d, tipTokens=%d, uniqueChatters=%d)",
+                fromMillis, toMillis, messages, tips, tipTokens, getUniqueChatters());
+    }
+
+    void recordMessage(String user, List<String> messageWords) {
+        messages++;
+        if(user != null) {
+            chatters.add(user);
+        }
+        for(String word : messageWords) {
+            long hash = Hashing.hash(word);
+            words.addHash(hash, 1);
+            topWords.add(word, 1);
+        }
+    }
+
+    void recordTip(String user, int amount) {
+        tips++;
+        tipTokens += amount;
+        topTippers.add(user, 1);
+    }
+
+    /**
+     * Adds the counts of {@code other} to this snapshot.
+     */
+    void add(AnalyticsSnapshot other) {
+        fromMillis = Math.min(fromMillis, other.fromMillis);
+        toMillis = Math.max(toMillis, other.toMillis);
+        messages += other.messages;
+        tips += other.tips;
+        tipTokens += other.tipTokens;
+        chatters.merge(other.chatters);
+        words.merge(other.words);
+        topWords.merge(other.topWords);
+        topTippers.merge(other.topTippers);
+    }
+
+    /**
+     * Empties this snapshot and points it at a new bucket.
+     */
+    void reset(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        messages = 0;
+        tips = 0;
+        tipTokens = 0;
+        chatters.clear();
+        words.clear();
+        topWords.clear();
+        topTippers.clear();
+    }
+
+    AnalyticsSnapshot copy() {
+        AnalyticsSnapshot copy = new AnalyticsSnapshot(fromMillis, toMillis, chatters.copy(), words.copy(), topWords.copy(), topTippers.copy());
+        copy.messages = messages;
+        copy.tips = tips;
+        copy.tipTokens = tipTokens;
+        return copy;
+    }
+
+    private void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(fromMillis);
+        out.writeLong(toMillis);
+        out.writeLong(messages);
+        out.writeLong(tips);
+        out.writeLong(tipTokens);
+        chatters.writeTo(out);
+        words.writeTo(out);
+        topWords.writeTo(out);
+        topTippers.writeTo(out);
+    }
+
+    private static AnalyticsSnapshot readFrom(DataInput in) throws IOException {
+        if(in.readInt() != MAGIC) {
+            throw new IOException("Not an analytics snapshot");
+        }
+        int version = in.readUnsignedByte();
+        if(version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot version %d, expected %d", version, VERSION));
+        }
+        long fromMillis = in.readLong();
+        long toMillis = in.readLong();
+        long messages = in.readLong();
+        long tips = in.readLong();
+        long tipTokens = in.readLong();
+        AnalyticsSnapshot snapshot = new AnalyticsSnapshot(fromMillis, toMillis,
+                HyperLogLog.readFrom(in), CountMinSketch.readFrom(in), SpaceSaving.readFrom(in), SpaceSaving.readFrom(in));
+        snapshot.messages = messages;
+        snapshot.tips = tips;
+        snapshot.tipTokens = tipTokens;
+        return snapshot;
+    }
+}
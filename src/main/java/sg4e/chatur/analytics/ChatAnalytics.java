@@ -0,0 +1,356 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.analytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.emoticons.EmoticonDictionary;
+import sg4e.chatur.emoticons.MessageToken;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Keeps approximate analytics per room in fixed time buckets: distinct
+ * chatters in a {@link HyperLogLog}, word frequencies in a
+ * {@link CountMinSketch}, and the most frequent words and tippers in
+ * {@link SpaceSaving} summaries. Memory per room is fixed by the number of
+ * buckets kept and the sketch sizes, however many users chat; about 7 KB per
+ * bucket with the defaults. Feed it from an {@link sg4e.chatur.EventBus}:
+ * <pre>{@code
+ * ChatAnalytics analytics = new ChatAnalytics();
+ * bus.subscribe(Topic.ROOM_MESSAGE, analytics::onRoomMessage);
+ * bus.subscribe(Topic.TIP, analytics::onNotice);
+ * }</pre>
+ * <p>
+ * Queries merge the buckets of a range into an {@link AnalyticsSnapshot}, for
+ * one room or all of them. Words are runs of letters and digits, lower-cased;
+ * with an {@link EmoticonDictionary} set, emoticons count as their code.
+ * <p>
+ * Each room's buckets are updated under a per-room lock. Events older than the
+ * oldest bucket kept are ignored.
+ */
+public class ChatAnalytics {
+
+    /**
+     * Words longer than this are truncated.
+     */
+    public static final int MAX_WORD_LENGTH = 64;
+
+    private static final int WORD_SKETCH_DEPTH = 4;
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final int precision;
+    private final int topSize;
+    private final int wordSketchWidth;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private volatile EmoticonDictionary emoticons;
+
+    /**
+     * Creates analytics with 5-minute buckets kept for an hour,
+     * {@link HyperLogLog#DEFAULT_PRECISION} and the top 32 words and tippers.
+     */
+    public ChatAnalytics() {
+        this(5, TimeUnit.MINUTES, 12, HyperLogLog.DEFAULT_PRECISION, 32);
+    }
+
+    /**
+     * Creates analytics.
+     *
+     * @param bucket length of a bucket
+     * @param unit
+     * @param buckets number of buckets kept per room
+     * @param precision of the distinct chatter counts; see
+     * {@link HyperLogLog#HyperLogLog(int)}
+     * @param topSize number of words and tippers tracked per bucket; the
+     * count-min sketch of words is sized from it
+     */
+    public ChatAnalytics(long bucket, TimeUnit unit, int buckets, int precision, int topSize) {
+        this.bucketMillis = unit.toMillis(bucket);
+        if(bucketMillis < 1 || buckets < 1) {
+            throw new IllegalArgumentException("bucket and buckets must be positive");
+        }
+        if(topSize < 1) {
+            throw new IllegalArgumentException("topSize must be positive");
+        }
+        this.buckets = buckets;
+        this.precision = precision;
+        this.topSize = topSize;
+        this.wordSketchWidth = Math.max(64, Integer.highestOneBit(topSize * 8 - 1) << 1);
+        // fail early on a bad precision rather than on the first message
+        new HyperLogLog(precision);
+    }
+
+    /**
+     * Sets the emoticons counted as words; null counts only letters and
+     * digits.
+     *
+     * @param emoticons
+     */
+    public void setEmoticons(EmoticonDictionary emoticons) {
+        this.emoticons = emoticons;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Records a chat message received now; usable as an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#ROOM_MESSAGE}.
+     *
+     * @param bot
+     * @param message
+     */
+    public void onRoomMessage(ChaturBot bot, RoomMessage message) {
+        EmoticonDictionary dictionary = emoticons;
+        List<String> words = dictionary == null || message.getMessage() == null
+                ? words(message.getMessage())
+                : words(message.getTokens(dictionary));
+        record(bot.getRoomName(), message.getUser(), words, System.currentTimeMillis());
+    }
+
+    /**
+     * Records the tip in a notice received now, if it is one; usable as an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#TIP}.
+     * Tips replayed from the room's history on join are ignored.
+     *
+     * @param bot
+     * @param notice
+     */
+    public void onNotice(ChaturBot bot, Notification notice) {
+        if(notice.getAmount() > 0 && notice.getFromUsername() != null && !notice.isHistory()) {
+            recordTip(bot.getRoomName(), notice.getFromUsername(), notice.getAmount(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Records a chat message.
+     *
+     * @param roomName
+     * @param user
+     * @param message
+     * @param timestampMillis
+     */
+    public void recordMessage(String roomName, String user, String message, long timestampMillis) {
+        EmoticonDictionary dictionary = emoticons;
+        List<String> words = dictionary == null || message == null ? words(message) : words(dictionary.tokenize(message));
+        record(roomName, user, words, timestampMillis);
+    }
+
+    /**
+     * Records a tip.
+     *
+     * @param roomName
+     * @param user
+     * @param amount
+     * @param timestampMillis
+     */
+    public void recordTip(String roomName, String user, int amount, long timestampMillis) {
+        Room room = room(roomName);
+        synchronized(room) {
+            AnalyticsSnapshot bucket = room.bucket(timestampMillis);
+            if(bucket != null) {
+                bucket.recordTip(user, amount);
+            }
+        }
+    }
+
+    /**
+     * Returns the analytics of a room over the buckets that start within
+     * {@code [fromMillis, toMillis)}.
+     *
+     * @param roomName
+     * @param fromMillis
+     * @param toMillis
+     * @return an empty snapshot of the range if nothing was recorded
+     */
+    public AnalyticsSnapshot getSnapshot(String roomName, long fromMillis, long toMillis) {
+        AnalyticsSnapshot total = empty();
+        Room room = rooms.get(roomName);
+        if(room != null) {
+            room.addTo(total, fromMillis, toMillis);
+        }
+        return rangeOrEmpty(total, fromMillis, toMillis);
+    }
+
+    /**
+     * Returns the analytics of all rooms over the buckets that start within
+     * {@code [fromMillis, toMillis)}. Users chatting in several rooms are
+     * counted once.
+     *
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     */
+    public AnalyticsSnapshot getGlobalSnapshot(long fromMillis, long toMillis) {
+        AnalyticsSnapshot total = empty();
+        for(Room room : rooms.values()) {
+            room.addTo(total, fromMillis, toMillis);
+        }
+        return rangeOrEmpty(total, fromMillis, toMillis);
+    }
+
+    /**
+     * Returns a copy of each bucket kept for a room, oldest first, e.g. to
+     * persist them.
+     *
+     * @param roomName
+     * @return
+     */
+    public List<AnalyticsSnapshot> getBuckets(String roomName) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            return Collections.emptyList();
+        }
+        List<AnalyticsSnapshot> copies = new ArrayList<>(buckets);
+        synchronized(room) {
+            for(AnalyticsSnapshot bucket : room.ring) {
+                if(bucket != null) {
+                    copies.add(bucket.copy());
+                }
+            }
+        }
+        copies.sort((a, b) -> Long.compare(a.getFromMillis(), b.getFromMillis()));
+        return copies;
+    }
+
+    public Set<String> getRoomNames() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /**
+     * Discards all buckets of a room.
+     *
+     * @param roomName
+     */
+    public void removeRoom(String roomName) {
+        rooms.remove(roomName);
+    }
+
+    private Room room(String roomName) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            room = rooms.computeIfAbsent(roomName, key -> new Room());
+        }
+        return room;
+    }
+
+    private void record(String roomName, String user, List<String> words, long timestampMillis) {
+        Room room = room(roomName);
+        synchronized(room) {
+            AnalyticsSnapshot bucket = room.bucket(timestampMillis);
+            if(bucket != null) {
+                bucket.recordMessage(user, words);
+            }
+        }
+    }
+
+    private AnalyticsSnapshot empty() {
+        return new AnalyticsSnapshot(Long.MAX_VALUE, Long.MIN_VALUE, new HyperLogLog(precision),
+                new CountMinSketch(WORD_SKETCH_DEPTH, wordSketchWidth), new SpaceSaving(topSize), new SpaceSaving(topSize));
+    }
+
+    private static AnalyticsSnapshot rangeOrEmpty(AnalyticsSnapshot total, long fromMillis, long toMillis) {
+        if(total.getFromMillis() > total.getToMillis()) {
+            total.reset(fromMillis, toMillis);
+        }
+        return total;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if(text != null) {
+            addWords(text, words);
+        }
+        return words;
+    }
+
+    private static List<String> words(List<MessageToken> tokens) {
+        List<String> words = new ArrayList<>();
+        for(MessageToken token : tokens) {
+            if(token.isEmoticon()) {
+                words.add(token.getEmoticon().getCode());
+            } else {
+                addWords(token.getText(), words);
+            }
+        }
+        return words;
+    }
+
+    private static void addWords(String text, List<String> words) {
+        StringBuilder word = new StringBuilder();
+        int length = text.length();
+        for(int i = 0; i < length;) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if(Character.isLetterOrDigit(cp)) {
+                if(word.length() < MAX_WORD_LENGTH) {
+                    word.appendCodePoint(Character.toLowerCase(cp));
+                }
+            } else if(word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if(word.length() > 0) {
+            words.add(word.toString());
+        }
+    }
+
+    private final class Room {
+
+        /**
+         * Allocated when first written; slot {@code epoch % buckets}.
+         */
+        private final AnalyticsSnapshot[] ring = new AnalyticsSnapshot[buckets];
+
+        /**
+         * Returns the bucket for {@code timestampMillis}, recycling the slot
+         * of an expired bucket, or null if the timestamp is too old.
+         */
+        AnalyticsSnapshot bucket(long timestampMillis) {
+            long epoch = Math.floorDiv(timestampMillis, bucketMillis);
+            long start = epoch * bucketMillis;
+            int slot = (int) Math.floorMod(epoch, (long) buckets);
+            AnalyticsSnapshot bucket = ring[slot];
+            if(bucket == null) {
+                bucket = empty();
+                bucket.reset(start, start + bucketMillis);
+                ring[slot] = bucket;
+            } else if(bucket.getFromMillis() < start) {
+                bucket.reset(start, start + bucketMillis);
+            } else if(bucket.getFromMillis() > start) {
+                return null;
+            }
+            return bucket;
+        }
+
+        synchronized void addTo(AnalyticsSnapshot total, long fromMillis, long toMillis) {
+            for(AnalyticsSnapshot bucket : ring) {
+                if(bucket != null && bucket.getFromMillis() >= fromMillis && bucket.getFromMillis() < toMillis) {
+                    total.add(bucket);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import sg4e.chatur.Hashing;
+
+/**
+ * Estimates how often each string was added, in {@code depth * width} ints.
+ * Estimates are never below the true count, and exceed it by at most
+ * {@code e / width} of the total count with probability
+ * {@code 1 - exp(-depth)}.
+ * <p>
+ * Sketches of the same dimensions merge by adding their counters. Counters
+ * saturate instead of overflowing. Not thread-safe.
+ */
+public final class CountMinSketch {
+
+    private final int depth, width, shift;
+    /**
+     * {@code counts[row * width + column]}
+     */
+    private final int[] counts;
+    private long total;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param depth number of rows
+     * @param width number of columns per row; a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if(depth < 1 || width < 2 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("depth must be positive and width a power of two");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.shift = 64 - Integer.numberOfTrailingZeros(width);
+        counts = new int[depth * width];
+    }
+
+    private CountMinSketch(CountMinSketch other) {
+        depth = other.depth;
+        width = other.width;
+        shift = other.shift;
+        counts = other.counts.clone();
+        total = other.total;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the sum of all counts added.
+     *
+     * @return
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public void add(String value, int count) {
+        addHash(Hashing.hash(value), count);
+    }
+
+    /**
+     * Adds {@code count} occurrences of a value by its 64-bit hash.
+     *
+     * @param hash
+     * @param count
+     */
+    public void addHash(long hash, int count) {
+        if(count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        for(int row = 0; row < depth; row++) {
+            int i = row * width + column(hash, row);
+            counts[i] = saturatedAdd(counts[i], count);
+        }
+        total += count;
+    }
+
+    public long estimate(String value) {
+        return estimateHash(Hashing.hash(value));
+    }
+
+    public long estimateHash(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds the counts of {@code other} to this sketch.
+     *
+     * @param other a sketch of the same depth and width
+     */
+    public void merge(CountMinSketch other) {
+        if(other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException(String.format("Cannot merge a %dx%d sketch into %dx%d", other.depth, other.width, depth, width));
+        }
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = saturatedAdd(counts[i], other.counts[i]);
+        }
+        total += other.total;
+    }
+
+    public CountMinSketch copy() {
+        return new CountMinSketch(this);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    /**
+     * Returns the size of the counters in bytes.
+     *
+     * @return
+     */
+    public int sizeInBytes() {
+        return 4 * counts.length;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(width);
+        out.writeLong(total);
+        for(int count : counts) {
+            out.writeInt(count);
+        }
+    }
+
+    static CountMinSketch readFrom(DataInput in) throws IOException {
+        int depth = in.readInt();
+        int width = in.readInt();
+        if(depth < 1 || depth > 64 || width < 2 || width > 1 << 24 || Integer.bitCount(width) != 1) {
+            throw new IOException(String.format("Invalid count-min dimensions %dx%d", depth, width));
+        }
+        CountMinSketch sketch = new CountMinSketch(depth, width);
+        sketch.total = in.readLong();
+        for(int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = in.readInt();
+        }
+        return sketch;
+    }
+
+    private int column(long hash, int row) {
+        return (int) (Hashing.mix(hash + row * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        int sum = a + b;
+        return sum < 0 ? Integer.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the most frequent strings with the Space-Saving algorithm of
+ * Metwally et al. in at most {@code capacity} counters. When a new string
+ * arrives and every counter is taken, it replaces the string with the lowest
+ * count and inherits that count as its error. Any string occurring more than
+ * {@code total / capacity} times is guaranteed to be tracked.
+ * <p>
+ * Counters are kept in a min-heap, so adding is {@code O(log capacity)}.
+ * Summaries merge as described by Agarwal et al., "Mergeable Summaries":
+ * strings missing from a full summary are assumed to have its lowest count,
+ * and the largest {@code capacity} of the combined counters are kept. Not
+ * thread-safe.
+ */
+public final class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+    private long total;
+
+    /**
+     * Creates an empty summary.
+     *
+     * @param capacity number of strings tracked
+     */
+    public SpaceSaving(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        counters = new HashMap<>(capacity * 2);
+        heap = new Counter[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the sum of all counts added.
+     *
+     * @return
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Adds {@code count} occurrences of {@code item}.
+     *
+     * @param item
+     * @param count
+     */
+    public void add(String item, long count) {
+        if(count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        total += count;
+        Counter counter = counters.get(item);
+        if(counter != null) {
+            counter.count += count;
+            siftDown(counter.index);
+        } else if(size < capacity) {
+            insert(new Counter(item, count, 0));
+        } else {
+            counter = heap[0];
+            counters.remove(counter.item);
+            counter.item = item;
+            counter.error = counter.count;
+            counter.count += count;
+            counters.put(item, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the tracked count of {@code item}, an upper bound of its true
+     * count; 0 if it is not tracked.
+     *
+     * @param item
+     * @return
+     */
+    public long count(String item) {
+        Counter counter = counters.get(item);
+        return counter == null ? 0 : counter.count;
+    }
+
+    /**
+     * Returns up to {@code n} of the most frequent strings, most frequent
+     * first.
+     *
+     * @param n
+     * @return
+     */
+    public List<HeavyHitter> top(int n) {
+        List<HeavyHitter> hitters = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            hitters.add(new HeavyHitter(heap[i].item, heap[i].count, heap[i].error));
+        }
+        hitters.sort((a, b) -> a.getCount() != b.getCount() ? Long.compare(b.getCount(), a.getCount()) : a.getItem().compareTo(b.getItem()));
+        return hitters.size() > n ? new ArrayList<>(hitters.subList(0, n)) : hitters;
+    }
+
+    /**
+     * Merges the counters of {@code other} into this summary, which keeps its
+     * own capacity.
+     *
+     * @param other
+     */
+    public void merge(SpaceSaving other) {
+        long floor = size == capacity ? heap[0].count : 0;
+        long otherFloor = other.size == other.capacity ? other.heap[0].count : 0;
+        List<Counter> combined = new ArrayList<>(size + other.size);
+        for(int i = 0; i < size; i++) {
+            Counter mine = heap[i];
+            Counter theirs = other.counters.get(mine.item);
+            combined.add(theirs == null
+                    ? new Counter(mine.item, mine.count + otherFloor, mine.error + otherFloor)
+                    : new Counter(mine.item, mine.count + theirs.count, mine.error + theirs.error));
+        }
+        for(int i = 0; i < other.size; i++) {
+            Counter theirs = other.heap[i];
+            if(!counters.containsKey(theirs.item)) {
+                combined.add(new Counter(theirs.item, theirs.count + floor, theirs.error + floor));
+            }
+        }
+        if(combined.size() > capacity) {
+            combined.sort((a, b) -> Long.compare(b.count, a.count));
+            combined = combined.subList(0, capacity);
+        }
+        long mergedTotal = total + other.total;
+        clear();
+        for(Counter counter : combined) {
+            insert(counter);
+        }
+        total = mergedTotal;
+    }
+
+    public SpaceSaving copy() {
+        SpaceSaving copy = new SpaceSaving(capacity);
+        for(int i = 0; i < size; i++) {
+            copy.insert(new Counter(heap[i].item, heap[i].count, heap[i].error));
+        }
+        copy.total = total;
+        return copy;
+    }
+
+    public void clear() {
+        counters.clear();
+        for(int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        size = 0;
+        total = 0;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeLong(total);
+        out.writeInt(size);
+        for(int i = 0; i < size; i++) {
+            out.writeUTF(heap[i].item);
+            out.writeLong(heap[i].count);
+            out.writeLong(heap[i].error);
+        }
+    }
+
+    static SpaceSaving readFrom(DataInput in) throws IOException {
+        int capacity = in.readInt();
+        if(capacity < 1 || capacity > 1 << 20) {
+            throw new IOException("Invalid space-saving capacity " + capacity);
+        }
+        SpaceSaving summary = new SpaceSaving(capacity);
+        summary.total = in.readLong();
+        int size = in.readInt();
+        if(size < 0 || size > capacity) {
+            throw new IOException(String.format("%d counters in a summary of capacity %d", size, capacity));
+        }
+        for(int i = 0; i < size; i++) {
+            summary.insert(new Counter(in.readUTF(), in.readLong(), in.readLong()));
+        }
+        return summary;
+    }
+
+    private void insert(Counter counter) {
+        counters.put(counter.item, counter);
+        heap[size] = counter;
+        counter.index = size;
+        siftUp(size++);
+    }
+
+    private void siftUp(int i) {
+        Counter counter = heap[i];
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(counter, i);
+    }
+
+    private void siftDown(int i) {
+        Counter counter = heap[i];
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size) {
+                break;
+            }
+            if(child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if(counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(counter, i);
+    }
+
+    private void place(Counter counter, int i) {
+        heap[i] = counter;
+        counter.index = i;
+    }
+
+    private static final class Counter {
+
+        String item;
+        long count, error;
+        int index;
+
+        Counter(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
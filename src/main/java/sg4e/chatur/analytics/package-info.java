@@ -0,0 +1,5 @@
+/**
+ * Approximate chat analytics per room and time bucket: distinct chatters,
+ * frequent words and frequent tippers, in mergeable fixed-size sketches.
+ */
+package sg4e.chatur.analytics;
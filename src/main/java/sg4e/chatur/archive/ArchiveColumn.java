@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+/**
+ * The columns of an archive segment. Each column is stored separately, so a
+ * scan only decodes the columns it asks for.
+ */
+public enum ArchiveColumn {
+    /**
+     * Whether the row is a chat message or a notice.
+     */
+    KIND,
+    /**
+     * Receive time in milliseconds since the epoch, delta-encoded.
+     */
+    TIMESTAMP,
+    /**
+     * Sender of a message or notice, dictionary-encoded per segment.
+     */
+    USER,
+    /**
+     * Message text; for notices without a message, the lines of
+     * {@code msg} joined by newlines.
+     */
+    TEXT,
+    /**
+     * Tip amount; zero for everything but tips.
+     */
+    AMOUNT,
+    /**
+     * {@link sg4e.chatur.users.RoomUserTable} flags of the sender, plus
+     * {@link ArchiveRow#HISTORY}.
+     */
+    FLAGS,
+    /**
+     * Notice type such as {@code tip_alert}, dictionary-encoded per segment;
+     * null for messages.
+     */
+    TYPE,
+    /**
+     * Message color or notice foreground, dictionary-encoded per segment.
+     */
+    COLOR,
+    /**
+     * Notice background, dictionary-encoded per segment.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Constants and primitive encodings shared by the archive writer and reader.
+ * <p>
+ * A segment file holds the rows of one room within one time partition:
+ * <pre>
+ * [int MAGIC][int VERSION]
+ * [column block] for each {@link ArchiveColumn}
+ * [footer]
+ * [int footerOffset][int MAGIC]
+ * </pre>
+ * The footer is {@code [utf room][int rows][long minTimestamp]
+ * [long maxTimestamp][int minAmount][int maxAmount]} followed by
+ * {@code [int offset][int length]} for each column in declaration order. The
+ * amount stats cover tips only and are zero when a segment has none.
+ * <p>
+ * Integers inside column blocks are unsigned LEB128 varints; signed deltas
+ * are zigzag-encoded first. Strings are UTF-8 prefixed with their length plus
+ * one, so that zero encodes null.
+ */
+final class ArchiveFormat {
+
+    static final int MAGIC = 0x43424341;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 8;
+    static final String SEGMENT_SUFFIX = ".cba";
+
+    static final byte KIND_MESSAGE = 0;
+    static final byte KIND_NOTICE = 1;
+
+    private ArchiveFormat() {
+    }
+
+    /**
+     * File name of a segment; zero-padded so that names sort by partition.
+     */
+    static String segmentFileName(long partitionStart, int sequence) {
+        return String.format("%016d-%04d%s", partitionStart, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the partition start encoded in a segment file name, or -1 if
+     * the name is not one.
+     */
+    static long partitionStart(String fileName) {
+        int dash = fileName.indexOf('-');
+        if(dash <= 0 || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, dash));
+        } catch(NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int b = buffer.get();
+        if(b >= 0) {
+            return b;
+        }
+        int value = b & 0x7F;
+        int shift = 7;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    /**
+     * A growable byte array with the encodings above.
+     */
+    static final class Sink {
+
+        byte[] bytes = new byte[256];
+        int size;
+
+        void put(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+
+        void putBytes(byte[] b, int offset, int length) {
+            ensure(length);
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            bytes[size++] = (byte) (v >>> 24);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) v;
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putVarint(int v) {
+            ensure(5);
+            while((v & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        void putVarlong(long v) {
+            ensure(10);
+            while((v & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        void putAll(Sink other) {
+            putBytes(other.bytes, 0, other.size);
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if(size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import sg4e.chatur.json.ChatColor;
+
+/**
+ * A cursor over the rows of a scan, reused for every row. Only the columns
+ * requested for the scan can be read; the others throw
+ * {@link IllegalStateException}. Text is decoded only when
+ * {@link #getText()} is called.
+ */
+public final class ArchiveRow {
+
+    /**
+     * Flag of notices replayed from before the bot joined the room. The other
+     * flag bits are those of {@link sg4e.chatur.users.RoomUserTable}.
+     */
+    public static final int HISTORY = 1 << 6;
+
+    private final boolean[] loaded = new boolean[ArchiveColumn.values().length];
+    private String room;
+    private int row;
+    byte[] kinds;
+    long[] timestamps;
+    int[] users;
+    String[] userDictionary;
+    ByteBuffer textData;
+    int[] textStarts;
+    int[] textLengths;
+    int[] amounts;
+    byte[] flags;
+    int[] types;
+    String[] typeDictionary;
+    int[] colors;
+    ChatColor[] colorDictionary;
+    int[] backgrounds;
+    ChatColor[] backgroundDictionary;
+    private byte[] scratch = new byte[256];
+
+    void reset(String room, Set<ArchiveColumn> columns) {
+        this.room = room;
+        for(ArchiveColumn column : ArchiveColumn.values()) {
+            loaded[column.ordinal()] = columns.contains(column);
+        }
+    }
+
+    void moveTo(int row) {
+        this.row = row;
+    }
+
+    /**
+     * Room of every row of the segment being scanned.
+     *
+     * @return
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Returns true for notices (including tips), false for chat messages.
+     *
+     * @return
+     */
+    public boolean isNotice() {
+        check(ArchiveColumn.KIND);
+        return kinds[row] == ArchiveFormat.KIND_NOTICE;
+    }
+
+    public long getTimestamp() {
+        check(ArchiveColumn.TIMESTAMP);
+        return timestamps[row];
+    }
+
+    /**
+     * Sender of the message or notice.
+     *
+     * @return null if there is none
+     */
+    public String getUser() {
+        check(ArchiveColumn.USER);
+        return dictionaryValue(userDictionary, users[row]);
+    }
+
+    /**
+     * Index of the sender in the segment's user dictionary; equal indexes
+     * within a segment are equal users. 0 if there is no sender.
+     *
+     * @return
+     */
+    public int getUserIndex() {
+        check(ArchiveColumn.USER);
+        return users[row];
+    }
+
+    /**
+     * Decodes the text of the row.
+     *
+     * @return null if the row has no text
+     */
+    public String getText() {
+        check(ArchiveColumn.TEXT);
+        int length = textLengths[row];
+        if(length < 0) {
+            return null;
+        }
+        if(scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        textData.position(textStarts[row]);
+        textData.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public int getAmount() {
+        check(ArchiveColumn.AMOUNT);
+        return amounts[row];
+    }
+
+    public int getFlags() {
+        check(ArchiveColumn.FLAGS);
+        return flags[row] & 0xFF;
+    }
+
+    /**
+     * Returns true if the row has every flag in {@code mask}.
+     *
+     * @param mask
+     * @return
+     */
+    public boolean hasFlags(int mask) {
+        return (getFlags() & mask) == mask;
+    }
+
+    /**
+     * Notice type.
+     *
+     * @return null for chat messages
+     */
+    public String getType() {
+        check(ArchiveColumn.TYPE);
+        return dictionaryValue(typeDictionary, types[row]);
+    }
+
+    /**
+     * Message color or notice foreground.
+     *
+     * @return null if the row has none
+     */
+    public ChatColor getColor() {
+        check(ArchiveColumn.COLOR);
+        return dictionaryValue(colorDictionary, colors[row]);
+    }
+
+    /**
+     * Notice background.
+     *
+     * @return null if the row has none
+     */
+    public ChatColor getBackground() {
+        check(ArchiveColumn.BACKGROUND);
+        return dictionaryValue(backgroundDictionary, backgrounds[row]);
+    }
+
+    private void check(ArchiveColumn column) {
+        if(!loaded[column.ordinal()]) {
+            throw new IllegalStateException("Column " + column + " was not requested for this scan");
+        }
+    }
+
+    private static <T> T dictionaryValue(T[] dictionary, int index) {
+        return index == 0 ? null : dictionary[index - 1];
+    }
+}
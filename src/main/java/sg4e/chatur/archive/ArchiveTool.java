@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.EventBus;
+import sg4e.chatur.Topic;
+import sg4e.chatur.record.FrameLogReader;
+
+/**
+ * Command-line tool to build and query chat archives:
+ * <pre>
+ * import &lt;frame log&gt; &lt;archive&gt;
+ * info   &lt;archive&gt; [--room R] [--from T] [--to T]
+ * count  &lt;archive&gt; [--room R] [--from T] [--to T]
+ * tips   &lt;archive&gt; [--room R] [--from T] [--to T] [--top N]
+ * </pre>
+ * Times are ISO-8601 instants ({@code 2020-05-01T00:00:00Z}) or milliseconds
+ * since the epoch. Segments are scanned in parallel, and {@code tips} skips
+ * segments whose footer shows no tips. Notices replayed from before a bot
+ * joined its room are not counted as tips.
+ */
+public class ArchiveTool {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: ArchiveTool import <frame log> <archive>",
+            "       ArchiveTool info|count|tips <archive> [--room R] [--from T] [--to T] [--top N]");
+
+    private final ChatArchiveReader reader;
+    private final String room;
+    private final long fromMillis, toMillis;
+    private final int top;
+
+    private ArchiveTool(Path archive, String room, long fromMillis, long toMillis, int top) {
+        this.reader = new ChatArchiveReader(archive);
+        this.room = room;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.top = top;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2) {
+            exitWithUsage();
+        }
+        if("import".equals(args[0])) {
+            if(args.length != 3) {
+                exitWithUsage();
+            }
+            long rows = importFrameLog(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.println("Archived " + rows + " events");
+            return;
+        }
+        String room = null;
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        int top = 10;
+        for(int i = 2; i < args.length; i += 2) {
+            if(i + 1 == args.length) {
+                exitWithUsage();
+            }
+            switch(args[i]) {
+                case "--room":
+                    room = args[i + 1];
+                    break;
+                case "--from":
+                    from = parseTime(args[i + 1]);
+                    break;
+                case "--to":
+                    to = parseTime(args[i + 1]);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    exitWithUsage();
+            }
+        }
+        ArchiveTool tool = new ArchiveTool(Paths.get(args[1]), room, from, to, top);
+        switch(args[0]) {
+            case "info":
+                tool.info(System.out);
+                break;
+            case "count":
+                tool.count(System.out);
+                break;
+            case "tips":
+                tool.tips(System.out);
+                break;
+            default:
+                exitWithUsage();
+        }
+    }
+
+    /**
+     * Decodes every frame of a recorded log and archives its messages and
+     * notices with the time they were recorded.
+     *
+     * @param frameLog
+     * @param archive
+     * @return number of archived events
+     * @throws Exception
+     */
+    public static long importFrameLog(Path frameLog, Path archive) throws Exception {
+        long[] rows = new long[1];
+        long[] timestamp = new long[1];
+        // the bus would log and swallow a handler's exception, so it is kept
+        // here and rethrown once the frame has been delivered; write failures
+        // are rethrown by the writer's close()
+        InterruptedException[] interrupted = new InterruptedException[1];
+        Map<String, ChaturBot> bots = new HashMap<>();
+        EventBus bus = new EventBus();
+        try(ChatArchiveWriter writer = new ChatArchiveWriter(archive);
+                FrameLogReader log = new FrameLogReader(frameLog)) {
+            bus.subscribe(Topic.ROOM_MESSAGE, (bot, message) -> {
+                try {
+                    writer.append(bot.getRoomName(), timestamp[0], message);
+                    rows[0]++;
+                } catch(InterruptedException ex) {
+                    interrupted[0] = ex;
+                }
+            });
+            bus.subscribe(Topic.NOTICE, (bot, notice) -> {
+                try {
+                    writer.append(bot.getRoomName(), timestamp[0], notice);
+                    rows[0]++;
+                } catch(InterruptedException ex) {
+                    interrupted[0] = ex;
+                }
+            });
+            while(log.next()) {
+                ChaturBot bot = bots.get(log.getRoom());
+                if(bot == null) {
+                    // never connected; only used to decode recorded frames
+                    bot = new ChaturBot(log.getRoom(), "ws://localhost", "");
+                    bot.setEventBus(bus);
+                    bots.put(log.getRoom(), bot);
+                }
+                timestamp[0] = log.getTimestamp();
+                bot.injectFrame(log.getFrame());
+                if(interrupted[0] != null) {
+                    throw interrupted[0];
+                }
+            }
+        }
+        return rows[0];
+    }
+
+    private void info(PrintStream out) throws IOException {
+        for(SegmentInfo segment : reader.getSegments(room, fromMillis, toMillis)) {
+            out.printf("%s\t%s\t%d rows\t%s .. %s\ttips %d..%d%n", segment.getRoom(), segment.getPath().getFileName(),
+                    segment.getRows(), Instant.ofEpochMilli(segment.getMinTimestamp()),
+                    Instant.ofEpochMilli(segment.getMaxTimestamp()), segment.getMinAmount(), segment.getMaxAmount());
+        }
+    }
+
+    private void count(PrintStream out) throws IOException {
+        Set<ArchiveColumn> columns = EnumSet.of(ArchiveColumn.KIND);
+        Map<String, long[]> counts = reader.getSegments(room, fromMillis, toMillis).parallelStream()
+                .map(segment -> {
+                    long[] count = new long[2];
+                    scan(segment, columns, row -> count[row.isNotice() ? 1 : 0]++);
+                    Map<String, long[]> partial = new HashMap<>();
+                    partial.put(segment.getRoom(), count);
+                    return partial;
+                })
+                .reduce(new HashMap<>(), ArchiveTool::merge);
+        long messages = 0, notices = 0;
+        for(Map.Entry<String, long[]> entry : new TreeMap<>(counts).entrySet()) {
+            out.printf("%s\t%d messages\t%d notices%n", entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            messages += entry.getValue()[0];
+            notices += entry.getValue()[1];
+        }
+        out.printf("total\t%d messages\t%d notices%n", messages, notices);
+    }
+
+    private void tips(PrintStream out) throws IOException {
+        Set<ArchiveColumn> columns = EnumSet.of(ArchiveColumn.USER, ArchiveColumn.AMOUNT, ArchiveColumn.FLAGS);
+        List<SegmentInfo> withTips = new ArrayList<>();
+        for(SegmentInfo segment : reader.getSegments(room, fromMillis, toMillis)) {
+            if(segment.getMaxAmount() > 0) {
+                withTips.add(segment);
+            }
+        }
+        // [tokens, tips] per tipper
+        Map<String, long[]> tippers = withTips.parallelStream()
+                .map(segment -> {
+                    Map<String, long[]> partial = new HashMap<>();
+                    scan(segment, columns, row -> {
+                        int amount = row.getAmount();
+                        if(amount > 0 && !row.hasFlags(ArchiveRow.HISTORY)) {
+                            long[] total = partial.computeIfAbsent(row.getUser(), user -> new long[2]);
+                            total[0] += amount;
+                            total[1]++;
+                        }
+                    });
+                    return partial;
+                })
+                .reduce(new HashMap<>(), ArchiveTool::merge);
+        long tokens = 0, tips = 0;
+        for(long[] total : tippers.values()) {
+            tokens += total[0];
+            tips += total[1];
+        }
+        out.printf("%d tokens in %d tips from %d tippers%n", tokens, tips, tippers.size());
+        tippers.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+                .limit(top)
+                .forEach(entry -> out.printf("%s\t%d%n", entry.getKey(), entry.getValue()[0]));
+    }
+
+    private void scan(SegmentInfo segment, Set<ArchiveColumn> columns, Consumer<ArchiveRow> visitor) {
+        try {
+            reader.scanSegment(segment, fromMillis, toMillis, columns, visitor);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Map<String, long[]> merge(Map<String, long[]> a, Map<String, long[]> b) {
+        Map<String, long[]> merged = new HashMap<>(a);
+        for(Map.Entry<String, long[]> entry : b.entrySet()) {
+            long[] sum = merged.get(entry.getKey());
+            if(sum == null) {
+                merged.put(entry.getKey(), entry.getValue().clone());
+            } else {
+                sum = sum.clone();
+                for(int i = 0; i < sum.length; i++) {
+                    sum[i] += entry.getValue()[i];
+                }
+                merged.put(entry.getKey(), sum);
+            }
+        }
+        return merged;
+    }
+
+    private static long parseTime(String time) {
+        return time.chars().allMatch(Character::isDigit) ? Long.parseLong(time) : Instant.parse(time).toEpochMilli();
+    }
+
+    private static void exitWithUsage() {
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import static sg4e.chatur.archive.ArchiveFormat.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import sg4e.chatur.RoomDirectories;
+import sg4e.chatur.json.ChatColor;
+
+/**
+ * Queries an archive written by {@link ChatArchiveWriter}.
+ * <p>
+ * Segments are selected by room and time range using their file names and
+ * footers, without decoding any rows. Within a selected segment only the
+ * requested columns are decoded. Time ranges are half-open,
+ * {@code [fromMillis, toMillis)}; pass {@link Long#MIN_VALUE} and
+ * {@link Long#MAX_VALUE} for an unbounded range.
+ * <p>
+ * A reader holds no open files and may be used by several threads; each
+ * scan uses its own {@link ArchiveRow}.
+ */
+public class ChatArchiveReader {
+
+    private final Path directory;
+
+    /**
+     * Opens the archive in {@code directory}.
+     *
+     * @param directory
+     */
+    public ChatArchiveReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Lists the rooms that have segments in the archive.
+     *
+     * @return room names in alphabetical order
+     * @throws IOException
+     */
+    public List<String> getRooms() throws IOException {
+        List<String> rooms = new ArrayList<>();
+        for(Path roomDirectory : roomDirectories(null)) {
+            rooms.add(RoomDirectories.roomName(roomDirectory.getFileName().toString()));
+        }
+        Collections.sort(rooms);
+        return rooms;
+    }
+
+    /**
+     * Lists the segments that may hold rows of {@code room} within the time
+     * range, reading only their footers.
+     *
+     * @param room null for every room
+     * @param fromMillis
+     * @param toMillis
+     * @return segments in order of room, then time
+     * @throws IOException if a segment is not a valid archive segment
+     */
+    public List<SegmentInfo> getSegments(String room, long fromMillis, long toMillis) throws IOException {
+        List<SegmentInfo> segments = new ArrayList<>();
+        for(Path roomDirectory : roomDirectories(room)) {
+            for(Path file : segmentFiles(roomDirectory)) {
+                long partitionStart = partitionStart(file.getFileName().toString());
+                // rows are never earlier than their partition, and names sort by partition
+                if(partitionStart >= toMillis) {
+                    break;
+                }
+                SegmentInfo info = open(file).info;
+                if(info.overlaps(fromMillis, toMillis)) {
+                    segments.add(info);
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Visits the rows of {@code room} within the time range.
+     *
+     * @param room null for every room
+     * @param fromMillis
+     * @param toMillis
+     * @param columns the columns {@code visitor} reads
+     * @param visitor
+     * @return number of rows visited
+     * @throws IOException if a segment is not a valid archive segment
+     */
+    public long scan(String room, long fromMillis, long toMillis, Set<ArchiveColumn> columns, Consumer<ArchiveRow> visitor) throws IOException {
+        ArchiveRow row = new ArchiveRow();
+        long visited = 0;
+        for(SegmentInfo segment : getSegments(room, fromMillis, toMillis)) {
+            visited += scan(segment, fromMillis, toMillis, columns, visitor, row);
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the rows of one segment within the time range. Segments can be
+     * scanned in parallel.
+     *
+     * @param segment
+     * @param fromMillis
+     * @param toMillis
+     * @param columns the columns {@code visitor} reads
+     * @param visitor
+     * @return number of rows visited
+     * @throws IOException if the segment is not a valid archive segment
+     */
+    public long scanSegment(SegmentInfo segment, long fromMillis, long toMillis, Set<ArchiveColumn> columns, Consumer<ArchiveRow> visitor) throws IOException {
+        return scan(segment, fromMillis, toMillis, columns, visitor, new ArchiveRow());
+    }
+
+    private long scan(SegmentInfo info, long fromMillis, long toMillis, Set<ArchiveColumn> columns,
+            Consumer<ArchiveRow> visitor, ArchiveRow row) throws IOException {
+        if(!info.overlaps(fromMillis, toMillis)) {
+            return 0;
+        }
+        Segment segment = open(info.getPath());
+        boolean filterTime = !info.within(fromMillis, toMillis);
+        Set<ArchiveColumn> load = columns.isEmpty() ? EnumSet.noneOf(ArchiveColumn.class) : EnumSet.copyOf(columns);
+        if(filterTime) {
+            load.add(ArchiveColumn.TIMESTAMP);
+        }
+        row.reset(info.getRoom(), load);
+        for(ArchiveColumn column : load) {
+            segment.decode(column, row);
+        }
+        int rows = info.getRows();
+        long visited = 0;
+        for(int i = 0; i < rows; i++) {
+            if(filterTime) {
+                long timestamp = row.timestamps[i];
+                if(timestamp < fromMillis || timestamp >= toMillis) {
+                    continue;
+                }
+            }
+            row.moveTo(i);
+            visitor.accept(row);
+            visited++;
+        }
+        return visited;
+    }
+
+    private List<Path> roomDirectories(String room) throws IOException {
+        List<Path> rooms = new ArrayList<>();
+        if(room != null) {
+            Path roomDirectory = directory.resolve(RoomDirectories.directoryName(room));
+            if(Files.isDirectory(roomDirectory)) {
+                rooms.add(roomDirectory);
+            }
+            return rooms;
+        }
+        if(!Files.isDirectory(directory)) {
+            return rooms;
+        }
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for(Path path : stream) {
+                rooms.add(path);
+            }
+        }
+        Collections.sort(rooms);
+        return rooms;
+    }
+
+    private static List<Path> segmentFiles(Path roomDirectory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(roomDirectory, "*" + SEGMENT_SUFFIX)) {
+            for(Path path : stream) {
+                if(partitionStart(path.getFileName().toString()) >= 0) {
+                    files.add(path);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static Segment open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.limit();
+        if(size < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException(file + " is not an archive segment");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION) {
+            throw new IOException(String.format("Unsupported archive version %d in %s", version, file));
+        }
+        buffer.position(buffer.getInt(size - TRAILER_SIZE));
+        String room = readString(buffer);
+        int rows = buffer.getInt();
+        long minTimestamp = buffer.getLong();
+        long maxTimestamp = buffer.getLong();
+        int minAmount = buffer.getInt();
+        int maxAmount = buffer.getInt();
+        int columns = ArchiveColumn.values().length;
+        int[] offsets = new int[columns];
+        for(int i = 0; i < columns; i++) {
+            offsets[i] = buffer.getInt();
+            // skip the length; every column is read up to its row count
+            buffer.getInt();
+        }
+        SegmentInfo info = new SegmentInfo(file, room, rows, minTimestamp, maxTimestamp, minAmount, maxAmount);
+        return new Segment(buffer, info, offsets);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer) - 1;
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+
+        private final ByteBuffer buffer;
+        private final SegmentInfo info;
+        private final int[] offsets;
+
+        Segment(ByteBuffer buffer, SegmentInfo info, int[] offsets) {
+            this.buffer = buffer;
+            this.info = info;
+            this.offsets = offsets;
+        }
+
+        void decode(ArchiveColumn column, ArchiveRow row) {
+            int rows = info.getRows();
+            buffer.position(offsets[column.ordinal()]);
+            switch(column) {
+                case KIND:
+                    row.kinds = capacity(row.kinds, rows);
+                    buffer.get(row.kinds, 0, rows);
+                    break;
+                case TIMESTAMP:
+                    row.timestamps = capacity(row.timestamps, rows);
+                    if(rows > 0) {
+                        long timestamp = buffer.getLong();
+                        row.timestamps[0] = timestamp;
+                        for(int i = 1; i < rows; i++) {
+                            timestamp += unzigzag(readVarlong(buffer));
+                            row.timestamps[i] = timestamp;
+                        }
+                    }
+                    break;
+                case USER:
+                    row.userDictionary = readStrings(buffer);
+                    row.users = readVarints(buffer, row.users, rows);
+                    break;
+                case TEXT:
+                    int lengthsSize = readVarint(buffer);
+                    int dataStart = buffer.position() + lengthsSize;
+                    row.textStarts = capacity(row.textStarts, rows);
+                    row.textLengths = readVarints(buffer, row.textLengths, rows);
+                    int start = dataStart;
+                    for(int i = 0; i < rows; i++) {
+                        int length = row.textLengths[i] - 1;
+                        row.textLengths[i] = length;
+                        row.textStarts[i] = start;
+                        start += Math.max(length, 0);
+                    }
+                    row.textData = buffer.duplicate();
+                    break;
+                case AMOUNT:
+                    row.amounts = readVarints(buffer, row.amounts, rows);
+                    break;
+                case FLAGS:
+                    row.flags = capacity(row.flags, rows);
+                    buffer.get(row.flags, 0, rows);
+                    break;
+                case TYPE:
+                    row.typeDictionary = readStrings(buffer);
+                    row.types = readVarints(buffer, row.types, rows);
+                    break;
+                case COLOR:
+                    row.colorDictionary = readColors(buffer);
+                    row.colors = readVarints(buffer, row.colors, rows);
+                    break;
+                case BACKGROUND:
+                    row.backgroundDictionary = readColors(buffer);
+                    row.backgrounds = readVarints(buffer, row.backgrounds, rows);
+                    break;
+                default:
+                    throw new AssertionError(column);
+            }
+        }
+
+        private static String[] readStrings(ByteBuffer buffer) {
+            String[] values = new String[readVarint(buffer)];
+            for(int i = 0; i < values.length; i++) {
+                values[i] = readString(buffer);
+            }
+            return values;
+        }
+
+        private static ChatColor[] readColors(ByteBuffer buffer) {
+            ChatColor[] values = new ChatColor[readVarint(buffer)];
+            for(int i = 0; i < values.length; i++) {
+                int argb = buffer.getInt();
+                values[i] = ChatColor.ofArgb(argb >>> 24, (argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+            }
+            return values;
+        }
+
+        private static int[] readVarints(ByteBuffer buffer, int[] values, int rows) {
+            values = capacity(values, rows);
+            for(int i = 0; i < rows; i++) {
+                values[i] = readVarint(buffer);
+            }
+            return values;
+        }
+
+        private static int[] capacity(int[] array, int rows) {
+            return array != null && array.length >= rows ? array : new int[rows];
+        }
+
+        private static long[] capacity(long[] array, int rows) {
+            return array != null && array.length >= rows ? array : new long[rows];
+        }
+
+        private static byte[] capacity(byte[] array, int rows) {
+            return array != null && array.length >= rows ? array : new byte[rows];
+        }
+    }
+}
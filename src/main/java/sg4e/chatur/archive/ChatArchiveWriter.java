@@ -0,0 +1,385 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.RoomDirectories;
+import sg4e.chatur.json.ChatColor;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.json.TippingMetadata;
+import sg4e.chatur.users.RoomUserTable;
+
+/**
+ * Writes chat events into a columnar archive that {@link ChatArchiveReader}
+ * can scan far faster than JSON.
+ * <p>
+ * The archive is a directory with one subdirectory per room. Events are
+ * handed to a background thread through a bounded queue, so callers never
+ * wait on file I/O unless the thread falls that far behind. It buffers them
+ * per room and writes an immutable segment file when their time partition
+ * ends, when a segment reaches its row limit, and on {@link #flush()} and
+ * {@link #close()}. Each segment stores its rows column by column: users,
+ * notice types and colors are dictionary-encoded, timestamps are
+ * delta-encoded, and the footer records the room, row count and timestamp
+ * and tip amount ranges so that readers can skip segments without decoding
+ * them. Events not yet written are lost if the JVM exits without closing the
+ * writer.
+ * <p>
+ * To archive live chat, subscribe the writer to an
+ * {@link sg4e.chatur.EventBus}:
+ * <pre>
+ * bus.subscribe(Topic.ROOM_MESSAGE, writer::onRoomMessage);
+ * bus.subscribe(Topic.NOTICE, writer::onNotice);
+ * </pre>
+ */
+public class ChatArchiveWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatArchiveWriter.class);
+
+    public static final long DEFAULT_PARTITION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final int DEFAULT_MAX_ROWS = 64 * 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    private static final long ALIVE_CHECK_MILLIS = 1000;
+    private static final Object STOP = new Object();
+
+    private final Path directory;
+    private final long partitionMillis;
+    private final int maxRows;
+    private final BlockingQueue<Object> queue;
+    private final Map<String, SegmentBuilder> open = new HashMap<>();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Opens a writer with hourly partitions and starts its thread.
+     *
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public ChatArchiveWriter(Path directory) throws IOException {
+        this(directory, DEFAULT_PARTITION_MILLIS, DEFAULT_MAX_ROWS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens a writer and starts its thread.
+     *
+     * @param directory created if it does not exist
+     * @param partitionMillis length of the time partitions; rows of different
+     * partitions never share a segment
+     * @param maxRows rows buffered per room before a segment is written
+     * @param queueCapacity rows waiting for the writer thread before
+     * {@code append} blocks
+     * @throws IOException
+     */
+    public ChatArchiveWriter(Path directory, long partitionMillis, int maxRows, int queueCapacity) throws IOException {
+        if(partitionMillis < 1 || maxRows < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("partitionMillis, maxRows and queueCapacity must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.partitionMillis = partitionMillis;
+        this.maxRows = maxRows;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        thread = new Thread(this::run, "chaturbot-archive-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Archives a chat message received now; an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#ROOM_MESSAGE}.
+     * If interrupted while the queue is full the message is dropped and
+     * counted by {@link #getDroppedCount()}.
+     *
+     * @param bot
+     * @param message
+     */
+    public void onRoomMessage(ChaturBot bot, RoomMessage message) {
+        try {
+            append(bot.getRoomName(), System.currentTimeMillis(), message);
+        } catch(InterruptedException ex) {
+            dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Archives a notice received now; an {@link sg4e.chatur.EventHandler} for
+     * {@link sg4e.chatur.Topic#NOTICE}. If interrupted while the queue is
+     * full the notice is dropped and counted by {@link #getDroppedCount()}.
+     *
+     * @param bot
+     * @param notice
+     */
+    public void onNotice(ChaturBot bot, Notification notice) {
+        try {
+            append(bot.getRoomName(), System.currentTimeMillis(), notice);
+        } catch(InterruptedException ex) {
+            dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a chat message for archiving, waiting for room in the queue if
+     * the writer thread is behind.
+     *
+     * @param room
+     * @param timestampMillis
+     * @param message
+     * @throws InterruptedException
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void append(String room, long timestampMillis, RoomMessage message) throws InterruptedException {
+        enqueue(new Row(room, ArchiveFormat.KIND_MESSAGE, timestampMillis, message.getUser(), message.getMessage(), 0,
+                flags(message, message.isMod(), false), null, message.getColor(), null));
+    }
+
+    /**
+     * Queues a notice for archiving, waiting for room in the queue if the
+     * writer thread is behind. Its text is {@code message}, or the lines of
+     * {@code msg} joined by newlines if it has no message.
+     *
+     * @param room
+     * @param timestampMillis
+     * @param notice
+     * @throws InterruptedException
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void append(String room, long timestampMillis, Notification notice) throws InterruptedException {
+        String text = notice.getMessage();
+        if(text == null && notice.getMsg() != null) {
+            text = String.join("\n", notice.getMsg());
+        }
+        enqueue(new Row(room, ArchiveFormat.KIND_NOTICE, timestampMillis, notice.getFromUsername(), text,
+                notice.getAmount(), flags(notice, notice.isMod(), notice.isHistory()), notice.getType(),
+                notice.getForeground(), notice.getBackground()));
+    }
+
+    /**
+     * Waits until every row queued so far has been written as a segment.
+     *
+     * @throws IOException the first segment write that failed since the last
+     * flush; the rows of that segment are lost
+     * @throws InterruptedException
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void flush() throws IOException, InterruptedException {
+        if(closed) {
+            throw new IllegalStateException("Archive writer is closed");
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        queue.put(done);
+        while(!done.await(ALIVE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if(!thread.isAlive()) {
+                // queued behind close(), which has already written everything
+                throw new IllegalStateException("Archive writer is closed");
+            }
+        }
+        rethrowFailure();
+    }
+
+    /**
+     * Returns the number of live events dropped because the receiving thread
+     * was interrupted while the queue was full.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the queued rows, stops the thread and closes the writer. Waits
+     * for the segments to be written even if interrupted, and then restores
+     * the interrupt status.
+     *
+     * @throws IOException the first segment write that failed since the last
+     * flush
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        while(true) {
+            try {
+                queue.put(STOP);
+                break;
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        rethrowFailure();
+    }
+
+    private void enqueue(Row row) throws InterruptedException {
+        if(closed) {
+            throw new IllegalStateException("Archive writer is closed");
+        }
+        queue.put(row);
+    }
+
+    private void rethrowFailure() throws IOException {
+        IOException ex = failure.getAndSet(null);
+        if(ex != null) {
+            throw ex;
+        }
+    }
+
+    private void run() {
+        while(true) {
+            Object next;
+            try {
+                next = queue.take();
+            } catch(InterruptedException ex) {
+                continue;
+            }
+            if(next instanceof Row) {
+                add((Row) next);
+            } else if(next instanceof CountDownLatch) {
+                writeAll();
+                ((CountDownLatch) next).countDown();
+            } else if(next == STOP) {
+                // archive what raced with close() before it stopped new rows
+                for(Object late : queue) {
+                    if(late instanceof Row) {
+                        add((Row) late);
+                    }
+                }
+                writeAll();
+                for(Object late : queue) {
+                    if(late instanceof CountDownLatch) {
+                        ((CountDownLatch) late).countDown();
+                    }
+                }
+                queue.clear();
+                return;
+            }
+        }
+    }
+
+    private void add(Row row) {
+        long partition = Math.floorDiv(row.timestamp, partitionMillis) * partitionMillis;
+        SegmentBuilder builder = open.get(row.room);
+        if(builder != null && builder.getPartitionStart() != partition) {
+            write(builder);
+            builder = null;
+        }
+        if(builder == null) {
+            builder = new SegmentBuilder(row.room, partition);
+            open.put(row.room, builder);
+        }
+        builder.add(row.kind, row.timestamp, row.user, row.text, row.amount, row.flags, row.type, row.color,
+                row.background);
+        if(builder.getRows() >= maxRows) {
+            write(builder);
+            open.remove(row.room);
+        }
+    }
+
+    private void writeAll() {
+        for(SegmentBuilder builder : open.values()) {
+            write(builder);
+        }
+        open.clear();
+    }
+
+    private void write(SegmentBuilder builder) {
+        if(builder.getRows() == 0) {
+            return;
+        }
+        try {
+            Path roomDirectory = Files.createDirectories(directory.resolve(RoomDirectories.directoryName(builder.getRoom())));
+            for(int sequence = 0;; sequence++) {
+                Path file = roomDirectory.resolve(ArchiveFormat.segmentFileName(builder.getPartitionStart(), sequence));
+                try(OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    builder.writeTo(out);
+                    return;
+                } catch(FileAlreadyExistsException ex) {
+                    // an earlier segment of the same partition; try the next name
+                }
+            }
+        } catch(IOException ex) {
+            LOG.error("Could not write archive segment for room {}", builder.getRoom(), ex);
+            failure.compareAndSet(null, ex);
+        }
+    }
+
+    private static int flags(TippingMetadata metadata, boolean isMod, boolean history) {
+        int flags = RoomUserTable.flags(metadata, isMod);
+        if(history) {
+            flags |= ArchiveRow.HISTORY;
+        }
+        return flags;
+    }
+
+    private static final class Row {
+
+        private final String room;
+        private final byte kind;
+        private final long timestamp;
+        private final String user, text;
+        private final int amount, flags;
+        private final String type;
+        private final ChatColor color, background;
+
+        Row(String room, byte kind, long timestamp, String user, String text, int amount, int flags, String type,
+                ChatColor color, ChatColor background) {
+            this.room = room;
+            this.kind = kind;
+            this.timestamp = timestamp;
+            this.user = user;
+            this.text = text;
+            this.amount = amount;
+            this.flags = flags;
+            this.type = type;
+            this.color = color;
+            this.background = background;
+        }
+    }
+}
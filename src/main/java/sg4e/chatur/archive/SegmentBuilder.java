@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import static sg4e.chatur.archive.ArchiveFormat.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import sg4e.chatur.json.ChatColor;
+
+/**
+ * Accumulates the columns of one segment in memory until it is written.
+ */
+final class SegmentBuilder {
+
+    private final String room;
+    private final long partitionStart;
+    private final Sink kinds = new Sink();
+    private final Sink timestamps = new Sink();
+    private final Sink texts = new Sink();
+    private final Sink textLengths = new Sink();
+    private final Sink amounts = new Sink();
+    private final Sink flags = new Sink();
+    private final Dictionary<String> users = new Dictionary<>();
+    private final Dictionary<String> types = new Dictionary<>();
+    private final Dictionary<Integer> colors = new Dictionary<>();
+    private final Dictionary<Integer> backgrounds = new Dictionary<>();
+    private int rows;
+    private long lastTimestamp, minTimestamp, maxTimestamp;
+    private int minAmount, maxAmount;
+
+    SegmentBuilder(String room, long partitionStart) {
+        this.room = room;
+        this.partitionStart = partitionStart;
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    long getPartitionStart() {
+        return partitionStart;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    void add(byte kind, long timestamp, String user, String text, int amount, int rowFlags,
+            String type, ChatColor color, ChatColor background) {
+        kinds.put(kind);
+        if(rows == 0) {
+            timestamps.putLong(timestamp);
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            timestamps.putVarlong(zigzag(timestamp - lastTimestamp));
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+        lastTimestamp = timestamp;
+        users.add(user);
+        if(text == null) {
+            textLengths.putVarint(0);
+        } else {
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            textLengths.putVarint(utf8.length + 1);
+            texts.putBytes(utf8, 0, utf8.length);
+        }
+        amounts.putVarint(amount);
+        if(amount > 0) {
+            boolean first = maxAmount == 0;
+            minAmount = first ? amount : Math.min(minAmount, amount);
+            maxAmount = Math.max(maxAmount, amount);
+        }
+        flags.put((byte) rowFlags);
+        types.add(type);
+        colors.add(color == null ? null : color.getArgb());
+        backgrounds.add(background == null ? null : background.getArgb());
+        rows++;
+    }
+
+    /**
+     * Writes the segment file contents.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        Sink file = new Sink();
+        file.putInt(MAGIC);
+        file.putInt(VERSION);
+        int[] offsets = new int[ArchiveColumn.values().length];
+        int[] lengths = new int[offsets.length];
+        for(ArchiveColumn column : ArchiveColumn.values()) {
+            offsets[column.ordinal()] = file.size;
+            writeColumn(column, file);
+            lengths[column.ordinal()] = file.size - offsets[column.ordinal()];
+        }
+        int footerOffset = file.size;
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        file.putVarint(roomBytes.length + 1);
+        file.putBytes(roomBytes, 0, roomBytes.length);
+        file.putInt(rows);
+        file.putLong(minTimestamp);
+        file.putLong(maxTimestamp);
+        file.putInt(minAmount);
+        file.putInt(maxAmount);
+        for(int i = 0; i < offsets.length; i++) {
+            file.putInt(offsets[i]);
+            file.putInt(lengths[i]);
+        }
+        file.putInt(footerOffset);
+        file.putInt(MAGIC);
+        out.write(file.bytes, 0, file.size);
+    }
+
+    private void writeColumn(ArchiveColumn column, Sink file) {
+        switch(column) {
+            case KIND:
+                file.putAll(kinds);
+                break;
+            case TIMESTAMP:
+                file.putAll(timestamps);
+                break;
+            case USER:
+                users.writeTo(file, SegmentBuilder::putString);
+                break;
+            case TEXT:
+                file.putVarint(textLengths.size);
+                file.putAll(textLengths);
+                file.putAll(texts);
+                break;
+            case AMOUNT:
+                file.putAll(amounts);
+                break;
+            case FLAGS:
+                file.putAll(flags);
+                break;
+            case TYPE:
+                types.writeTo(file, SegmentBuilder::putString);
+                break;
+            case COLOR:
+                colors.writeTo(file, Sink::putInt);
+                break;
+            case BACKGROUND:
+                backgrounds.writeTo(file, Sink::putInt);
+                break;
+            default:
+                throw new AssertionError(column);
+        }
+    }
+
+    private static void putString(Sink sink, String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        sink.putVarint(utf8.length + 1);
+        sink.putBytes(utf8, 0, utf8.length);
+    }
+
+    /**
+     * A column of values replaced by their index in a per-segment dictionary.
+     * Index 0 stands for null, so the dictionary is written starting at 1:
+     * {@code [varint size][value...][varint index per row]}.
+     */
+    private static final class Dictionary<T> {
+
+        private final Map<T, Integer> indexes = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+        private final Sink ids = new Sink();
+
+        void add(T value) {
+            if(value == null) {
+                ids.putVarint(0);
+                return;
+            }
+            Integer index = indexes.get(value);
+            if(index == null) {
+                values.add(value);
+                index = values.size();
+                indexes.put(value, index);
+            }
+            ids.putVarint(index);
+        }
+
+        void writeTo(Sink file, ValueWriter<T> writer) {
+            file.putVarint(values.size());
+            for(T value : values) {
+                writer.write(file, value);
+            }
+            file.putAll(ids);
+        }
+    }
+
+    private interface ValueWriter<T> {
+
+        void write(Sink sink, T value);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.archive;
+
+import java.nio.file.Path;
+import lombok.Value;
+
+/**
+ * The footer of an archive segment: where it is, whose rows it holds and the
+ * range of their values. Amount ranges only cover tips and are zero when the
+ * segment has none.
+ */
+@Value
+public class SegmentInfo {
+
+    Path path;
+    String room;
+    int rows;
+    long minTimestamp;
+    long maxTimestamp;
+    int minAmount;
+    int maxAmount;
+
+    /**
+     * Returns true if some rows may fall in {@code [fromMillis, toMillis)}.
+     *
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     */
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return maxTimestamp >= fromMillis && minTimestamp < toMillis;
+    }
+
+    /**
+     * Returns true if every row falls in {@code [fromMillis, toMillis)}.
+     *
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     */
+    public boolean within(long fromMillis, long toMillis) {
+        return minTimestamp >= fromMillis && maxTimestamp < toMillis;
+    }
+}
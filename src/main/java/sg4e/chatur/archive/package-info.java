@@ -0,0 +1,4 @@
+/**
+ * A compact, columnar on-disk archive of chat history and tools to query it.
+ */
+package sg4e.chatur.archive;
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import java.util.Locale;
+import lombok.Value;
+
+/**
+ * A chat command, registered with a {@link CommandRouter}.
+ */
+@Value
+public class Command {
+
+    /**
+     * The name typed after the prefix, in lower case; matched regardless of
+     * case.
+     */
+    String name;
+    Permission permission;
+    Cooldown cooldown;
+    CommandHandler handler;
+
+    /**
+     * Creates a command anyone can run at any time.
+     *
+     * @param name
+     * @param handler
+     */
+    public Command(String name, CommandHandler handler) {
+        this(name, Permission.EVERYONE, Cooldown.NONE, handler);
+    }
+
+    /**
+     * Creates a command.
+     *
+     * @param name a single word without the prefix
+     * @param permission
+     * @param cooldown
+     * @param handler
+     */
+    public Command(String name, Permission permission, Cooldown cooldown, CommandHandler handler) {
+        this.name = checkName(name);
+        this.permission = permission;
+        this.cooldown = cooldown;
+        this.handler = handler;
+    }
+
+    static String checkName(String name) {
+        if(name.isEmpty()) {
+            throw new IllegalArgumentException("Command name must not be empty");
+        }
+        for(int i = 0; i < name.length(); i++) {
+            if(Character.isWhitespace(name.charAt(i))) {
+                throw new IllegalArgumentException("Command name must be a single word: " + name);
+            }
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * One use of a command: who sent it, where, and its arguments.
+ * <p>
+ * Arguments are the words after the command, separated by whitespace; text in
+ * double quotes is one argument, without the quotes. {@code !song "Take On Me"
+ * loud} has the arguments {@code Take On Me} and {@code loud}.
+ */
+public class CommandContext {
+
+    private final ChaturBot bot;
+    private final RoomMessage message;
+    private final Command command;
+    private final String text;
+    /**
+     * Start and end of each argument in {@link #text}, quotes excluded.
+     */
+    private final int[] bounds;
+    private List<String> arguments;
+
+    CommandContext(ChaturBot bot, RoomMessage message, Command command, String text, int argumentsStart) {
+        this.bot = bot;
+        this.message = message;
+        this.command = command;
+        this.text = text;
+        this.bounds = split(text, argumentsStart);
+    }
+
+    public ChaturBot getBot() {
+        return bot;
+    }
+
+    public RoomMessage getMessage() {
+        return message;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the sender.
+     *
+     * @return
+     */
+    public String getUser() {
+        return message.getUser();
+    }
+
+    public String getRoomName() {
+        return bot.getRoomName();
+    }
+
+    public int getArgumentCount() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * Returns an argument, or null if there are not that many.
+     *
+     * @param index counting from 0
+     * @return
+     */
+    public String getArgument(int index) {
+        if(index < 0 || index >= getArgumentCount()) {
+            return null;
+        }
+        return text.substring(bounds[2 * index], bounds[2 * index + 1]);
+    }
+
+    /**
+     * Returns an argument as an int, or {@code defaultValue} if it is missing
+     * or not an integer.
+     *
+     * @param index counting from 0
+     * @param defaultValue
+     * @return
+     */
+    public int getInt(int index, int defaultValue) {
+        String argument = getArgument(index);
+        if(argument == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(argument);
+        } catch(NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    public List<String> getArguments() {
+        if(arguments == null) {
+            List<String> list = new ArrayList<>(getArgumentCount());
+            for(int i = 0; i < getArgumentCount(); i++) {
+                list.add(getArgument(i));
+            }
+            arguments = Collections.unmodifiableList(list);
+        }
+        return arguments;
+    }
+
+    /**
+     * Returns the message from an argument to the end, as typed, including
+     * quotes; e.g. the text of {@code !say <text>}.
+     *
+     * @param index counting from 0
+     * @return the empty string if there are not that many arguments
+     */
+    public String getRest(int index) {
+        if(index < 0 || index >= getArgumentCount()) {
+            return "";
+        }
+        int start = bounds[2 * index];
+        if(start > 0 && text.charAt(start - 1) == '"') {
+            start--;
+        }
+        return text.substring(start).trim();
+    }
+
+    private static int[] split(String text, int start) {
+        int[] bounds = new int[8];
+        int count = 0;
+        int length = text.length();
+        int i = start;
+        while(true) {
+            while(i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if(i == length) {
+                break;
+            }
+            int begin, end;
+            if(text.charAt(i) == '"') {
+                begin = i + 1;
+                end = text.indexOf('"', begin);
+                if(end < 0) {
+                    // an unterminated quote runs to the end
+                    end = length;
+                }
+                i = Math.min(end + 1, length);
+            } else {
+                begin = i;
+                while(i < length && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                end = i;
+            }
+            if(count + 2 > bounds.length) {
+                int[] larger = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, larger, 0, count);
+                bounds = larger;
+            }
+            bounds[count++] = begin;
+            bounds[count++] = end;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(bounds, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
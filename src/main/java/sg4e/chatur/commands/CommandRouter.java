@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.Hashing;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Routes chat messages such as {@code !song "Take On Me"} to registered
+ * {@link Command}s, checking their {@link Permission} and {@link Cooldown}s.
+ * One router can serve any number of bots:
+ * <pre>{@code
+ * CommandRouter commands = new CommandRouter();
+ * commands.register(new Command("song", Permission.EVERYONE, Cooldown.perUser(30, TimeUnit.SECONDS),
+ *         context -> queue(context.getRest(0))));
+ * commands.alias("s", "song");
+ * bus.subscribe(Topic.ROOM_MESSAGE, commands::onRoomMessage);
+ * }</pre>
+ * <p>
+ * Command names are compiled into a prefix trie when commands are registered,
+ * so a message is matched by walking its first word once, whatever the number
+ * of commands. Messages that do not start with the prefix, which is most
+ * chat, are rejected by comparing their first character.
+ * <p>
+ * Cooldowns are kept in a {@link CooldownWheel} shared by all rooms, so
+ * their memory is bounded by the cooldowns running, not by the users ever
+ * seen. Routing is safe from any number of threads; cooldowns are checked and
+ * started under one short lock. Handlers run on the routing thread, and their
+ * exceptions are logged.
+ */
+public class CommandRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommandRouter.class);
+
+    public static final char DEFAULT_PREFIX = '!';
+
+    private static final long COMMAND_SALT = 0x6A09E667F3BCC908L;
+    private static final long ROOM_SALT = 0xBB67AE8584CAA73BL;
+    private static final long USER_SALT = 0x3C6EF372FE94F82BL;
+
+    private final char prefix;
+    private final TreeMap<String, Command> commands = new TreeMap<>();
+    private final CooldownWheel cooldowns = new CooldownWheel(1000, 256);
+    private volatile Node root = Node.EMPTY;
+    private volatile RejectionListener rejectionListener;
+
+    /**
+     * Creates a router for commands starting with {@code !}.
+     */
+    public CommandRouter() {
+        this(DEFAULT_PREFIX);
+    }
+
+    /**
+     * Creates a router.
+     *
+     * @param prefix the character every command starts with
+     */
+    public CommandRouter(char prefix) {
+        if(Character.isWhitespace(prefix) || Character.isLetterOrDigit(prefix)) {
+            throw new IllegalArgumentException("Prefix must be a symbol: " + prefix);
+        }
+        this.prefix = prefix;
+    }
+
+    public char getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Registers a command under its name, replacing any command or alias of
+     * that name.
+     *
+     * @param command
+     */
+    public synchronized void register(Command command) {
+        commands.put(command.getName(), command);
+        compile();
+    }
+
+    /**
+     * Registers another name for a registered command.
+     *
+     * @param alias
+     * @param name the command's name
+     * @throws IllegalArgumentException if no command has that name
+     */
+    public synchronized void alias(String alias, String name) {
+        Command command = commands.get(Command.checkName(name));
+        if(command == null) {
+            throw new IllegalArgumentException("No command named " + name);
+        }
+        commands.put(Command.checkName(alias), command);
+        compile();
+    }
+
+    /**
+     * Removes a command or alias.
+     *
+     * @param name
+     */
+    public synchronized void unregister(String name) {
+        if(commands.remove(Command.checkName(name)) != null) {
+            compile();
+        }
+    }
+
+    /**
+     * Sets the listener told about commands that were not run because of
+     * their permission or cooldowns, e.g. to reply "try again in 10s".
+     *
+     * @param rejectionListener null for none
+     */
+    public void setRejectionListener(RejectionListener rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    /**
+     * Runs the command in a chat message received now, if it is one; usable as
+     * an {@link sg4e.chatur.EventHandler} for
+     * {@link sg4e.chatur.Topic#ROOM_MESSAGE}.
+     *
+     * @param bot
+     * @param message
+     */
+    public void onRoomMessage(ChaturBot bot, RoomMessage message) {
+        route(bot, message, System.currentTimeMillis());
+    }
+
+    /**
+     * Runs the command in a chat message, if it is one.
+     *
+     * @param bot the bot of the room the message was sent in
+     * @param message
+     * @param nowMillis the time the message is handled, for cooldowns
+     * @return true if a command ran
+     */
+    public boolean route(ChaturBot bot, RoomMessage message, long nowMillis) {
+        String text = message.getMessage();
+        if(text == null || text.isEmpty() || text.charAt(0) != prefix) {
+            return false;
+        }
+        Node node = root;
+        int length = text.length();
+        int end = 1;
+        while(end < length && !Character.isWhitespace(text.charAt(end))) {
+            node = node.child(Character.toLowerCase(text.charAt(end)));
+            if(node == null) {
+                return false;
+            }
+            end++;
+        }
+        Command command = node.command;
+        if(command == null) {
+            return false;
+        }
+        CommandContext context = new CommandContext(bot, message, command, text, end);
+        String roomName = bot.getRoomName();
+        if(!command.getPermission().allows(message, roomName)) {
+            reject(context, RejectionListener.Reason.PERMISSION, 0);
+            return false;
+        }
+        Cooldown cooldown = command.getCooldown();
+        if(cooldown != Cooldown.NONE) {
+            long wait = acquire(command, cooldown, roomName, message.getUser(), nowMillis);
+            if(wait > 0) {
+                reject(context, RejectionListener.Reason.COOLDOWN, wait);
+                return false;
+            }
+        }
+        try {
+            command.getHandler().onCommand(context);
+        } catch(RuntimeException ex) {
+            LOG.error("Command {} failed in room {}", command.getName(), roomName, ex);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the cooldowns of a command if none is running.
+     *
+     * @return 0 if they were started, otherwise the time until they all
+     * expire
+     */
+    private long acquire(Command command, Cooldown cooldown, String roomName, String user, long nowMillis) {
+        long commandKey = Hashing.mix(Hashing.hash(command.getName()) ^ COMMAND_SALT);
+        long roomKey = Hashing.mix(commandKey ^ Hashing.hash(roomName) ^ ROOM_SALT);
+        long userKey = Hashing.mix(roomKey ^ Hashing.hash(user) ^ USER_SALT);
+        synchronized(cooldowns) {
+            long wait = 0;
+            if(cooldown.getCommandMillis() > 0) {
+                wait = Math.max(wait, cooldowns.remaining(commandKey, nowMillis));
+            }
+            if(cooldown.getRoomMillis() > 0) {
+                wait = Math.max(wait, cooldowns.remaining(roomKey, nowMillis));
+            }
+            if(cooldown.getUserMillis() > 0) {
+                wait = Math.max(wait, cooldowns.remaining(userKey, nowMillis));
+            }
+            if(wait > 0) {
+                return wait;
+            }
+            if(cooldown.getCommandMillis() > 0) {
+                cooldowns.start(commandKey, nowMillis, cooldown.getCommandMillis());
+            }
+            if(cooldown.getRoomMillis() > 0) {
+                cooldowns.start(roomKey, nowMillis, cooldown.getRoomMillis());
+            }
+            if(cooldown.getUserMillis() > 0) {
+                cooldowns.start(userKey, nowMillis, cooldown.getUserMillis());
+            }
+            return 0;
+        }
+    }
+
+    private void reject(CommandContext context, RejectionListener.Reason reason, long retryAfterMillis) {
+        RejectionListener listener = rejectionListener;
+        if(listener != null) {
+            try {
+                listener.onRejected(context, reason, retryAfterMillis);
+            } catch(RuntimeException ex) {
+                LOG.error("Rejection listener failed for command {}", context.getCommand().getName(), ex);
+            }
+        }
+    }
+
+    private void compile() {
+        root = Node.build(commands, "");
+    }
+
+    /**
+     * An immutable trie node: the sorted characters that continue a name, and
+     * the command named by the path to this node, if any.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(new char[0], new Node[0], null);
+
+        final char[] labels;
+        final Node[] children;
+        final Command command;
+
+        Node(char[] labels, Node[] children, Command command) {
+            this.labels = labels;
+            this.children = children;
+            this.command = command;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+
+        /**
+         * Builds the node for {@code path} from the names in {@code commands}
+         * that start with it.
+         */
+        static Node build(TreeMap<String, Command> commands, String path) {
+            Map<String, Command> below = path.isEmpty() ? commands : commands.subMap(path, true, path + Character.MAX_VALUE, true);
+            Command command = below.get(path);
+            char[] labels = new char[below.size()];
+            int count = 0;
+            for(String name : below.keySet()) {
+                if(name.length() > path.length()) {
+                    char c = name.charAt(path.length());
+                    if(count == 0 || labels[count - 1] != c) {
+                        labels[count++] = c;
+                    }
+                }
+            }
+            labels = Arrays.copyOf(labels, count);
+            Node[] children = new Node[count];
+            for(int i = 0; i < count; i++) {
+                children[i] = build(commands, path + labels[i]);
+            }
+            return new Node(labels, children, command);
+        }
+    }
+}
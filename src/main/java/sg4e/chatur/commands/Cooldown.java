@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Value;
+
+/**
+ * How long a command is unavailable after it runs. A command can have up to
+ * three cooldowns, which must all have expired for it to run again: one for
+ * the command everywhere, one per room, and one per user in a room. Zero
+ * disables a cooldown.
+ */
+@Value
+public class Cooldown {
+
+    /**
+     * No cooldowns.
+     */
+    public static final Cooldown NONE = new Cooldown(0, 0, 0, TimeUnit.MILLISECONDS);
+
+    /**
+     * Time after any use of the command, in any room.
+     */
+    long commandMillis;
+    /**
+     * Time after a use of the command in the same room.
+     */
+    long roomMillis;
+    /**
+     * Time after a use of the command by the same user in the same room.
+     */
+    long userMillis;
+
+    /**
+     * Creates cooldowns.
+     *
+     * @param command time after any use of the command
+     * @param room time after a use in the same room
+     * @param user time after a use by the same user in the same room
+     * @param unit
+     */
+    public Cooldown(long command, long room, long user, TimeUnit unit) {
+        if(command < 0 || room < 0 || user < 0) {
+            throw new IllegalArgumentException("Cooldowns must not be negative");
+        }
+        this.commandMillis = unit.toMillis(command);
+        this.roomMillis = unit.toMillis(room);
+        this.userMillis = unit.toMillis(user);
+    }
+
+    /**
+     * Creates a cooldown per user in a room.
+     *
+     * @param user
+     * @param unit
+     * @return
+     */
+    public static Cooldown perUser(long user, TimeUnit unit) {
+        return new Cooldown(0, 0, user, unit);
+    }
+
+    /**
+     * Creates a cooldown per room.
+     *
+     * @param room
+     * @param unit
+     * @return
+     */
+    public static Cooldown perRoom(long room, TimeUnit unit) {
+        return new Cooldown(0, room, 0, unit);
+    }
+}
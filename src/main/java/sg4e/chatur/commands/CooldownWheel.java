@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import java.util.Arrays;
+
+/**
+ * Expiry times of cooldowns, keyed by 64-bit hashes, in a hashed timer wheel.
+ * <p>
+ * Expiries are kept in an open-addressing table of parallel {@code long}
+ * arrays, so a cooldown costs 16 bytes there plus 8 in the wheel and no
+ * objects. Each key is also filed in the wheel slot of its expiry tick;
+ * when a tick ends, its slot is swept and the keys that have expired are
+ * removed, so the table only holds cooldowns that are running or expired
+ * within the current tick. Slots cover {@code slots * tickMillis}; keys expiring
+ * further ahead stay in their slot for more turns of the wheel.
+ * <p>
+ * Two keys with the same hash share a cooldown. Not thread-safe.
+ */
+final class CooldownWheel {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final long tickMillis;
+    private final long[][] slots;
+    private final int[] slotSizes;
+    private long[] keys;
+    private long[] expiries;
+    private int size;
+    private long currentTick = Long.MIN_VALUE;
+
+    /**
+     * @param tickMillis resolution of the sweep; cooldowns are removed from
+     * the table up to one tick after they expire
+     * @param slots number of wheel slots; a power of two
+     */
+    CooldownWheel(long tickMillis, int slots) {
+        if(tickMillis < 1 || slots < 1 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("tickMillis must be positive and slots a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new long[slots][];
+        slotSizes = new int[slots];
+        keys = new long[16];
+        expiries = new long[16];
+    }
+
+    /**
+     * Returns the time left on a cooldown at {@code nowMillis}, or 0 if it is
+     * not running.
+     */
+    long remaining(long key, long nowMillis) {
+        advance(nowMillis);
+        long expiry = get(key);
+        return expiry > nowMillis ? expiry - nowMillis : 0;
+    }
+
+    /**
+     * Starts a cooldown, replacing any running one of the same key.
+     */
+    void start(long key, long nowMillis, long durationMillis) {
+        advance(nowMillis);
+        long expiry = nowMillis + durationMillis;
+        put(key, expiry);
+        int slot = slot(Math.floorDiv(expiry, tickMillis));
+        long[] entries = slots[slot];
+        if(entries == null) {
+            entries = slots[slot] = new long[4];
+        } else if(slotSizes[slot] == entries.length) {
+            entries = slots[slot] = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[slotSizes[slot]++] = key;
+    }
+
+    /**
+     * Returns the number of cooldowns in the table.
+     */
+    int size() {
+        return size;
+    }
+
+    private void advance(long nowMillis) {
+        long tick = Math.floorDiv(nowMillis, tickMillis);
+        if(currentTick == Long.MIN_VALUE || tick < currentTick) {
+            currentTick = tick;
+            return;
+        }
+        // sweep the ticks that have ended; after a gap of a whole turn, each
+        // slot needs sweeping only once
+        long from = Math.max(currentTick, tick - slots.length);
+        for(long t = from; t < tick; t++) {
+            sweep(slot(t), nowMillis);
+        }
+        currentTick = tick;
+    }
+
+    private void sweep(int slot, long nowMillis) {
+        long[] entries = slots[slot];
+        int kept = 0;
+        for(int i = 0; i < slotSizes[slot]; i++) {
+            long key = entries[i];
+            long expiry = get(key);
+            if(expiry == 0) {
+                continue;
+            }
+            if(expiry <= nowMillis) {
+                remove(key);
+            } else if(slot(Math.floorDiv(expiry, tickMillis)) == slot) {
+                // expires on a later turn of the wheel
+                entries[kept++] = key;
+            }
+            // otherwise the key was restarted and is filed in another slot
+        }
+        if(entries != null) {
+            Arrays.fill(entries, kept, slotSizes[slot], 0);
+        }
+        slotSizes[slot] = kept;
+    }
+
+    private int slot(long tick) {
+        return (int) (tick & (slots.length - 1));
+    }
+
+    // open addressing with linear probing; key 0 marks an empty cell
+
+    private static long cell(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (keys.length - 1);
+    }
+
+    private long get(long key) {
+        key = cell(key);
+        for(int i = index(key);; i = (i + 1) & (keys.length - 1)) {
+            if(keys[i] == key) {
+                return expiries[i];
+            }
+            if(keys[i] == 0) {
+                return 0;
+            }
+        }
+    }
+
+    private void put(long key, long expiry) {
+        key = cell(key);
+        if(size + 1 > keys.length * LOAD_FACTOR) {
+            rehash(keys.length * 2);
+        }
+        int i = index(key);
+        while(keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & (keys.length - 1);
+        }
+        if(keys[i] == 0) {
+            keys[i] = key;
+            size++;
+        }
+        expiries[i] = expiry;
+    }
+
+    private void remove(long key) {
+        key = cell(key);
+        int mask = keys.length - 1;
+        int i = index(key);
+        while(keys[i] != key) {
+            if(keys[i] == 0) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        // shift later entries of the probe sequence back into the hole
+        int hole = i;
+        for(int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = index(keys[j]);
+            if(((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                expiries[hole] = expiries[j];
+                hole = j;
+            }
+        }
+        keys[hole] = 0;
+        expiries[hole] = 0;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldExpiries = expiries;
+        keys = new long[capacity];
+        expiries = new long[capacity];
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != 0) {
+                put(oldKeys[i], oldExpiries[i]);
+            }
+        }
+    }
+}
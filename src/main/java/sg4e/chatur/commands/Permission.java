@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Who may run a command. Each level also admits everyone above it: the
+ * broadcaster may run any command, and moderators any command open to the
+ * fan club.
+ */
+public enum Permission {
+    EVERYONE,
+    FANCLUB,
+    MOD,
+    BROADCASTER;
+
+    /**
+     * Returns true if the sender of {@code message} may run a command with
+     * this permission in {@code roomName}.
+     *
+     * @param message
+     * @param roomName
+     * @return
+     */
+    public boolean allows(RoomMessage message, String roomName) {
+        switch(this) {
+            case EVERYONE:
+                return true;
+            case FANCLUB:
+                return message.isInFanclub() || message.isMod() || isBroadcaster(message, roomName);
+            case MOD:
+                return message.isMod() || isBroadcaster(message, roomName);
+            default:
+                return isBroadcaster(message, roomName);
+        }
+    }
+
+    private static boolean isBroadcaster(RoomMessage message, String roomName) {
+        return message.getUser() != null && message.getUser().equalsIgnoreCase(roomName);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.commands;
+
+/**
+ * Told when a command was recognized but not run.
+ */
+@FunctionalInterface
+public interface RejectionListener {
+
+    enum Reason {
+        /**
+         * The sender lacks the command's {@link Permission}.
+         */
+        PERMISSION,
+        /**
+         * One of the command's cooldowns has not expired.
+         */
+        COOLDOWN
+    }
+
+    /**
+     * @param context the command that was rejected
+     * @param reason
+     * @param retryAfterMillis for {@link Reason#COOLDOWN}, time until the
+     * command can run; otherwise 0
+     */
+    void onRejected(CommandContext context, Reason reason, long retryAfterMillis);
+}
@@ -0,0 +1,5 @@
+/**
+ * Chat commands such as {@code !song}: routing, argument parsing,
+ * permissions and cooldowns.
+ */
+package sg4e.chatur.commands;
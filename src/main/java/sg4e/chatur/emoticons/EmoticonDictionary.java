@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emoticons;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The emoticons known to an application, compiled into an
+ * {@link EmoticonMatcher}. The dictionary can be reloaded at any time: the
+ * new matcher is built on the calling thread and then swapped in, so threads
+ * tokenizing messages are never blocked and each message is tokenized
+ * against one complete dictionary, old or new.
+ * <pre>{@code
+ * EmoticonDictionary emoticons = EmoticonDictionary.load(Paths.get("emoticons.txt"));
+ * // in a handler
+ * for(MessageToken token : message.getTokens(emoticons)) ...
+ * }</pre>
+ */
+public class EmoticonDictionary {
+
+    private volatile EmoticonMatcher matcher;
+
+    /**
+     * Creates an empty dictionary, in which messages are a single text run.
+     */
+    public EmoticonDictionary() {
+        matcher = EmoticonMatcher.EMPTY;
+    }
+
+    public EmoticonDictionary(Collection<Emoticon> emoticons) {
+        matcher = new EmoticonMatcher(emoticons);
+    }
+
+    /**
+     * Creates a dictionary from a file in the format read by
+     * {@link #reload(Path)}.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static EmoticonDictionary load(Path file) throws IOException {
+        return new EmoticonDictionary(read(file));
+    }
+
+    /**
+     * Returns the current matcher; it does not change when the dictionary is
+     * reloaded.
+     *
+     * @return
+     */
+    public EmoticonMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * Replaces the emoticons.
+     *
+     * @param emoticons
+     */
+    public void reload(Collection<Emoticon> emoticons) {
+        matcher = new EmoticonMatcher(emoticons);
+    }
+
+    /**
+     * Replaces the emoticons with a map of codes to images.
+     *
+     * @param images
+     */
+    public void reload(Map<String, String> images) {
+        List<Emoticon> emoticons = new ArrayList<>(images.size());
+        images.forEach((code, image) -> emoticons.add(new Emoticon(code, image)));
+        reload(emoticons);
+    }
+
+    /**
+     * Replaces the emoticons with those in {@code file}: one per line, the
+     * code followed by whitespace and the image. Blank lines and lines
+     * starting with {@code #} are ignored. If the file cannot be read, the
+     * dictionary is unchanged.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void reload(Path file) throws IOException {
+        reload(read(file));
+    }
+
+    /**
+     * Splits {@code text} with the current matcher.
+     *
+     * @param text
+     * @return
+     */
+    public List<MessageToken> tokenize(String text) {
+        return matcher.tokenize(text);
+    }
+
+    private static List<Emoticon> read(Path file) throws IOException {
+        List<Emoticon> emoticons = new ArrayList<>();
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = 0;
+                while(space < line.length() && !Character.isWhitespace(line.charAt(space))) {
+                    space++;
+                }
+                String image = line.substring(space).trim();
+                emoticons.add(new Emoticon(line.substring(0, space), image.isEmpty() ? null : image));
+            }
+        }
+        return emoticons;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emoticons;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable Aho-Corasick automaton over the codes of a set of emoticons,
+ * which finds every code in a message in one pass regardless of how many
+ * codes there are.
+ * <p>
+ * The automaton is compiled to a dense transition table, one row per trie
+ * node and one column per distinct character of the codes, so each character
+ * of a message costs one array lookup. Characters that appear in no code
+ * share a column that always leads back to the root.
+ * <p>
+ * Matches follow regex {@code \b} rules at word characters: a code that
+ * starts or ends with a letter, digit or underscore only matches where the
+ * neighboring character is not one, so {@code :smile} does not match inside
+ * {@code :smiles}. Overlapping matches are resolved leftmost-longest.
+ */
+public final class EmoticonMatcher {
+
+    /**
+     * Matches nothing.
+     */
+    public static final EmoticonMatcher EMPTY = new EmoticonMatcher(Collections.emptyList());
+
+    private final Emoticon[] emoticons;
+    private final boolean[] wordStart, wordEnd;
+    private final int[] asciiClass = new int[128];
+    private final char[] otherChars;
+    private final int[] otherClass;
+    private final int classes;
+    /**
+     * {@code next[state * classes + class]}
+     */
+    private final int[] next;
+    private final int[] depth;
+    /**
+     * The index of the emoticon whose code ends at each state, or -1.
+     */
+    private final int[] output;
+    /**
+     * The nearest state on the failure chain with an output, or 0 (the root
+     * never has one).
+     */
+    private final int[] outputLink;
+
+    /**
+     * Compiles the codes of {@code emoticons}. Empty codes are ignored; of
+     * several emoticons with the same code, the last wins.
+     *
+     * @param emoticons
+     */
+    public EmoticonMatcher(Collection<Emoticon> emoticons) {
+        List<Emoticon> usable = new ArrayList<>(emoticons.size());
+        int maxStates = 1;
+        char[] alphabet = new char[16];
+        int alphabetSize = 0;
+        for(Emoticon emoticon : emoticons) {
+            String code = emoticon.getCode();
+            if(code == null || code.isEmpty()) {
+                continue;
+            }
+            usable.add(emoticon);
+            maxStates += code.length();
+            for(int i = 0; i < code.length(); i++) {
+                if(alphabetSize == alphabet.length) {
+                    alphabet = Arrays.copyOf(alphabet, alphabetSize * 2);
+                }
+                alphabet[alphabetSize++] = code.charAt(i);
+            }
+        }
+        Arrays.sort(alphabet, 0, alphabetSize);
+        int distinct = 0;
+        for(int i = 0; i < alphabetSize; i++) {
+            if(distinct == 0 || alphabet[distinct - 1] != alphabet[i]) {
+                alphabet[distinct++] = alphabet[i];
+            }
+        }
+        // class 0 is every character outside the alphabet
+        classes = distinct + 1;
+        int others = 0;
+        for(int i = 0; i < distinct; i++) {
+            if(alphabet[i] >= 128) {
+                others++;
+            }
+        }
+        otherChars = new char[others];
+        otherClass = new int[others];
+        for(int i = 0, o = 0; i < distinct; i++) {
+            if(alphabet[i] < 128) {
+                asciiClass[alphabet[i]] = i + 1;
+            } else {
+                otherChars[o] = alphabet[i];
+                otherClass[o++] = i + 1;
+            }
+        }
+
+        int[] trie = new int[maxStates * classes];
+        int[] stateDepth = new int[maxStates];
+        int[] stateOutput = new int[maxStates];
+        Arrays.fill(stateOutput, -1);
+        List<Emoticon> indexed = new ArrayList<>();
+        int states = 1;
+        for(Emoticon emoticon : usable) {
+            String code = emoticon.getCode();
+            int state = 0;
+            for(int i = 0; i < code.length(); i++) {
+                int slot = state * classes + classOf(code.charAt(i));
+                if(trie[slot] == 0) {
+                    stateDepth[states] = i + 1;
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            if(stateOutput[state] >= 0) {
+                indexed.set(stateOutput[state], emoticon);
+            } else {
+                stateOutput[state] = indexed.size();
+                indexed.add(emoticon);
+            }
+        }
+
+        // turn the trie into a DFA: missing transitions follow the failure
+        // link, computed breadth-first so shallower states are complete first
+        int[] fail = new int[states];
+        int[] links = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for(int c = 0; c < classes; c++) {
+            int child = trie[c];
+            if(child != 0) {
+                queue.add(child);
+            }
+        }
+        while(!queue.isEmpty()) {
+            int state = queue.poll();
+            int failRow = fail[state] * classes;
+            int row = state * classes;
+            for(int c = 0; c < classes; c++) {
+                int child = trie[row + c];
+                if(child != 0 && stateDepth[child] == stateDepth[state] + 1) {
+                    int childFail = trie[failRow + c];
+                    fail[child] = childFail;
+                    links[child] = stateOutput[childFail] >= 0 ? childFail : links[childFail];
+                    queue.add(child);
+                } else {
+                    trie[row + c] = trie[failRow + c];
+                }
+            }
+        }
+
+        next = Arrays.copyOf(trie, states * classes);
+        depth = Arrays.copyOf(stateDepth, states);
+        output = Arrays.copyOf(stateOutput, states);
+        outputLink = links;
+        this.emoticons = indexed.toArray(new Emoticon[0]);
+        wordStart = new boolean[this.emoticons.length];
+        wordEnd = new boolean[this.emoticons.length];
+        for(int i = 0; i < this.emoticons.length; i++) {
+            String code = this.emoticons[i].getCode();
+            wordStart[i] = isWordChar(code.charAt(0));
+            wordEnd[i] = isWordChar(code.charAt(code.length() - 1));
+        }
+    }
+
+    /**
+     * Returns the number of distinct codes.
+     *
+     * @return
+     */
+    public int size() {
+        return emoticons.length;
+    }
+
+    /**
+     * Splits {@code text} into runs of plain text and emoticons.
+     *
+     * @param text
+     * @return an unmodifiable list; empty for null or empty text
+     */
+    public List<MessageToken> tokenize(String text) {
+        if(text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // candidate matches in order of their end; at most a few per message
+        int[] starts = null, ends = null, codes = null;
+        int found = 0;
+        int length = text.length();
+        int state = 0;
+        for(int i = 0; i < length; i++) {
+            state = next[state * classes + classOf(text.charAt(i))];
+            for(int s = output[state] >= 0 ? state : outputLink[state]; s != 0; s = outputLink[s]) {
+                int code = output[s];
+                int start = i - depth[s] + 1;
+                if(wordStart[code] && start > 0 && isWordChar(text.charAt(start - 1))
+                        || wordEnd[code] && i + 1 < length && isWordChar(text.charAt(i + 1))) {
+                    continue;
+                }
+                if(starts == null) {
+                    starts = new int[4];
+                    ends = new int[4];
+                    codes = new int[4];
+                } else if(found == starts.length) {
+                    starts = Arrays.copyOf(starts, found * 2);
+                    ends = Arrays.copyOf(ends, found * 2);
+                    codes = Arrays.copyOf(codes, found * 2);
+                }
+                starts[found] = start;
+                ends[found] = i + 1;
+                codes[found++] = code;
+            }
+        }
+        if(found == 0) {
+            return Collections.singletonList(new MessageToken(text, null));
+        }
+        // leftmost-longest: order by start, then by length descending
+        for(int i = 1; i < found; i++) {
+            int start = starts[i], end = ends[i], code = codes[i];
+            int j = i - 1;
+            while(j >= 0 && (starts[j] > start || starts[j] == start && ends[j] < end)) {
+                starts[j + 1] = starts[j];
+                ends[j + 1] = ends[j];
+                codes[j + 1] = codes[j];
+                j--;
+            }
+            starts[j + 1] = start;
+            ends[j + 1] = end;
+            codes[j + 1] = code;
+        }
+        List<MessageToken> tokens = new ArrayList<>(found * 2 + 1);
+        int position = 0;
+        for(int i = 0; i < found; i++) {
+            if(starts[i] < position) {
+                continue;
+            }
+            if(starts[i] > position) {
+                tokens.add(new MessageToken(text.substring(position, starts[i]), null));
+            }
+            Emoticon emoticon = emoticons[codes[i]];
+            tokens.add(new MessageToken(emoticon.getCode(), emoticon));
+            position = ends[i];
+        }
+        if(position < length) {
+            tokens.add(new MessageToken(text.substring(position), null));
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    private int classOf(char c) {
+        if(c < 128) {
+            return asciiClass[c];
+        }
+        int i = Arrays.binarySearch(otherChars, c);
+        return i < 0 ? 0 : otherClass[i];
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
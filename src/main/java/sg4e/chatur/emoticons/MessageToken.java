@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.emoticons;
+
+import lombok.Value;
+
+/**
+ * A run of plain text or a single emoticon in a tokenized message.
+ */
+@Value
+public class MessageToken {
+
+    /**
+     * The text of the token; for emoticons, the code as written.
+     */
+    String text;
+    /**
+     * Null for plain text.
+     */
+    Emoticon emoticon;
+
+    public boolean isEmoticon() {
+        return emoticon != null;
+    }
+}
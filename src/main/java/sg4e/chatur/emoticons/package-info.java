@@ -0,0 +1,5 @@
+/**
+ * Splitting chat messages into text and emoticons with a compiled
+ * multi-pattern matcher.
+ */
+package sg4e.chatur.emoticons;
@@ -18,8 +18,9 @@ package sg4e.chatur.examples;
 import com.neovisionaries.ws.client.WebSocketException;
 import java.io.IOException;
 import sg4e.chatur.ChaturBot;
-import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.Announcement;
 import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.json.TipAlert;
 
 /**
  * Simple example of how to use the library. Prints basic messages to stdout.
@@ -41,16 +42,17 @@ public class SimpleBot extends ChaturBot {
     }
 
     @Override
-    protected void onNotify(Notification notification) {
-        if(notification.getAmount() != 0) {
-            System.out.println(notification.getFromUsername() + " tipped " + notification.getAmount());
-        }
-        else if(notification.getMsg() != null) {
-            System.out.println("Announcement: " + notification.getMsg());
-        }
-        // else ignore; there are a lot of meaningless notifications that simply tell the client to refresh a UI element.
+    protected void onTipAlert(TipAlert tip) {
+        System.out.println(tip.getFromUsername() + " tipped " + tip.getAmount());
     }
 
+    @Override
+    protected void onAnnouncement(Announcement announcement) {
+        System.out.println("Announcement: " + announcement.getLines());
+    }
+
+    // other notices, mostly requests to refresh a UI element, are not decoded since no hook handles them
+
     @Override
     protected void onSilence(String arg0, String arg1) {
         System.out.println("Silence: " + arg0 + " > " + arg1);
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import java.util.Collections;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * A message from the broadcaster or an app, such as a tip menu or a welcome
+ * message, decoded from a {@code room_message} notice.
+ */
+@Value
+public class Announcement {
+
+    /**
+     * The lines of the message; never null.
+     */
+    List<String> lines;
+    ChatColor foreground;
+    ChatColor background;
+    String weight;
+
+    /**
+     * Returns the lines of the message joined with newlines.
+     *
+     * @return
+     */
+    public String getText() {
+        return lines.size() == 1 ? lines.get(0) : String.join("\n", lines);
+    }
+
+    /**
+     * Copies the announcement fields of {@code notification}, which should be
+     * a {@link NoticeType#ROOM_MESSAGE}.
+     *
+     * @param notification
+     * @return
+     */
+    public static Announcement from(Notification notification) {
+        List<String> msg = notification.getMsg();
+        return new Announcement(msg == null ? Collections.emptyList() : Collections.unmodifiableList(msg),
+                notification.getForeground(), notification.getBackground(), notification.getWeight());
+    }
+}
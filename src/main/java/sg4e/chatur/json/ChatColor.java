@@ -0,0 +1,253 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable color packed into an ARGB {@code int}, as used for chat text
+ * and notices. Unlike {@link java.awt.Color}, using this class does not load
+ * AWT.
+ * <p>
+ * Chat uses a very small set of colors, so {@link #parse(String)} caches the
+ * parsed instance for each raw string; messages with the same color share one
+ * instance.
+ */
+public final class ChatColor {
+
+    private static final int MAX_CACHED = 256;
+    private static final ConcurrentMap<String, ChatColor> CACHE = new ConcurrentHashMap<>();
+
+    private final int argb;
+    private volatile Object awtColor;
+
+    private ChatColor(int argb) {
+        this.argb = argb;
+    }
+
+    /**
+     * Returns the opaque color with the given RGB components.
+     *
+     * @param red 0-255
+     * @param green 0-255
+     * @param blue 0-255
+     * @return
+     */
+    public static ChatColor ofRgb(int red, int green, int blue) {
+        return ofArgb(255, red, green, blue);
+    }
+
+    /**
+     * Returns the color with the given components.
+     *
+     * @param alpha 0-255
+     * @param red 0-255
+     * @param green 0-255
+     * @param blue 0-255
+     * @return
+     */
+    public static ChatColor ofArgb(int alpha, int red, int green, int blue) {
+        checkComponent(alpha);
+        checkComponent(red);
+        checkComponent(green);
+        checkComponent(blue);
+        return new ChatColor(alpha << 24 | red << 16 | green << 8 | blue);
+    }
+
+    /**
+     * Parses a color as sent by the server: {@code #rrggbb}, {@code #rgb},
+     * {@code rgb(r,g,b)} or {@code rgba(r,g,b,a)} where {@code a} is between 0
+     * and 1.
+     *
+     * @param raw
+     * @return
+     * @throws NumberFormatException if {@code raw} is not in one of these
+     * formats
+     */
+    public static ChatColor parse(String raw) {
+        ChatColor color = CACHE.get(raw);
+        if(color == null) {
+            color = new ChatColor(parseArgb(raw));
+            if(CACHE.size() < MAX_CACHED) {
+                ChatColor existing = CACHE.putIfAbsent(raw, color);
+                if(existing != null) {
+                    color = existing;
+                }
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Returns the color packed as {@code 0xAARRGGBB}.
+     *
+     * @return
+     */
+    public int getArgb() {
+        return argb;
+    }
+
+    /**
+     * Returns the color packed as {@code 0xRRGGBB}, without alpha.
+     *
+     * @return
+     */
+    public int getRgb() {
+        return argb & 0xFFFFFF;
+    }
+
+    public int getAlpha() {
+        return argb >>> 24;
+    }
+
+    public int getRed() {
+        return (argb >> 16) & 0xFF;
+    }
+
+    public int getGreen() {
+        return (argb >> 8) & 0xFF;
+    }
+
+    public int getBlue() {
+        return argb & 0xFF;
+    }
+
+    /**
+     * Returns this color as a {@link java.awt.Color}, loading AWT if it is not
+     * loaded yet. The result is created once per instance.
+     *
+     * @return
+     */
+    public java.awt.Color toAwtColor() {
+        Object awt = awtColor;
+        if(awt == null) {
+            awt = new java.awt.Color(argb, true);
+            awtColor = awt;
+        }
+        return (java.awt.Color) awt;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ChatColor && ((ChatColor) obj).argb == argb;
+    }
+
+    @Override
+    public int hashCode() {
+        return argb;
+    }
+
+    /**
+     * Returns {@code #rrggbb}, or {@code #aarrggbb} if the color is not
+     * opaque.
+     */
+    @Override
+    public String toString() {
+        return getAlpha() == 255 ? String.format("#%06x", getRgb()) : String.format("#%08x", argb);
+    }
+
+    private static int parseArgb(String raw) {
+        int length = raw.length();
+        if(length > 0 && raw.charAt(0) == '#') {
+            if(length == 7) {
+                return 0xFF000000 | hex(raw, 1, 7);
+            }
+            if(length == 4) {
+                int rgb = hex(raw, 1, 4);
+                return 0xFF000000 | ((rgb & 0xF00) * 0x1100) | ((rgb & 0xF0) * 0x110) | ((rgb & 0xF) * 0x11);
+            }
+            throw invalid(raw);
+        }
+        int open = raw.indexOf('(');
+        if(length == 0 || open < 0 || raw.charAt(length - 1) != ')') {
+            throw invalid(raw);
+        }
+        boolean hasAlpha;
+        if(raw.startsWith("rgb(")) {
+            hasAlpha = false;
+        } else if(raw.startsWith("rgba(")) {
+            hasAlpha = true;
+        } else {
+            throw invalid(raw);
+        }
+        int[] components = new int[3];
+        int position = open + 1;
+        for(int i = 0; i < 3; i++) {
+            int end = raw.indexOf(i < 2 || hasAlpha ? ',' : ')', position);
+            if(end < 0) {
+                throw invalid(raw);
+            }
+            components[i] = decimal(raw, position, end);
+            checkComponent(components[i]);
+            position = end + 1;
+        }
+        int alpha = 255;
+        if(hasAlpha) {
+            float a = Float.parseFloat(raw.substring(position, length - 1).trim());
+            if(a < 0 || a > 1) {
+                throw invalid(raw);
+            }
+            alpha = Math.round(a * 255);
+        } else if(position != length) {
+            throw invalid(raw);
+        }
+        return alpha << 24 | components[0] << 16 | components[1] << 8 | components[2];
+    }
+
+    private static int hex(String s, int start, int end) {
+        int value = 0;
+        for(int i = start; i < end; i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if(digit < 0) {
+                throw invalid(s);
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static int decimal(String s, int start, int end) {
+        while(start < end && s.charAt(start) == ' ') {
+            start++;
+        }
+        while(end > start && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if(start == end || end - start > 3) {
+            throw invalid(s);
+        }
+        int value = 0;
+        for(int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if(c < '0' || c > '9') {
+                throw invalid(s);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void checkComponent(int component) {
+        if(component < 0 || component > 255) {
+            throw new NumberFormatException("Color component out of range: " + component);
+        }
+    }
+
+    private static NumberFormatException invalid(String raw) {
+        return new NumberFormatException("Not a color: " + raw);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import lombok.Value;
+
+/**
+ * A user joining the broadcaster's fan club, decoded from a
+ * {@code fanclub_join} notice.
+ */
+@Value
+public class FanclubJoin {
+
+    String username;
+    boolean history;
+
+    /**
+     * Copies the fields of {@code notification}, which should be a
+     * {@link NoticeType#FANCLUB_JOIN}.
+     *
+     * @param notification
+     * @return
+     */
+    public static FanclubJoin from(Notification notification) {
+        return new FanclubJoin(notification.getFromUsername(), notification.isHistory());
+    }
+}
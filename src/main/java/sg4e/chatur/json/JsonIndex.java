@@ -0,0 +1,400 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import sg4e.chatur.users.UserRegistry;
+
+/**
+ * One-pass index of the top-level fields of a JSON object held in a
+ * {@code char[]}. Only the positions of keys and values are recorded;
+ * values are converted when requested. Conversions are lenient in the same
+ * way as Jackson's defaults (e.g. {@code "25"} is accepted as an int).
+ */
+final class JsonIndex {
+
+    private char[] json;
+    private int[] keyStart = new int[16];
+    private int[] keyLength = new int[16];
+    private int[] valueStart = new int[16];
+    private int[] valueLength = new int[16];
+    private int count;
+
+    /**
+     * Indexes {@code json[offset, offset + length)}, which must hold a JSON
+     * object. The array is referenced, not copied.
+     *
+     * @throws JsonParseException if the content is not a JSON object, so that
+     * callers can treat it like a failure of Jackson's parser
+     */
+    void index(char[] json, int offset, int length) throws JsonParseException {
+        try {
+            indexFields(json, offset, length);
+        } catch(IllegalArgumentException ex) {
+            count = 0;
+            throw new JsonParseException(null, ex.getMessage());
+        }
+    }
+
+    private void indexFields(char[] json, int offset, int length) {
+        this.json = json;
+        count = 0;
+        int end = offset + length;
+        int i = skipWhitespace(offset, end);
+        if(i == end || json[i] != '{') {
+            throw malformed(i);
+        }
+        i = skipWhitespace(i + 1, end);
+        if(i < end && json[i] == '}') {
+            return;
+        }
+        while(true) {
+            if(i == end || json[i] != '"') {
+                throw malformed(i);
+            }
+            int keyEnd = skipString(i, end);
+            int k = add();
+            keyStart[k] = i + 1;
+            keyLength[k] = keyEnd - i - 2;
+            i = skipWhitespace(keyEnd, end);
+            if(i == end || json[i] != ':') {
+                throw malformed(i);
+            }
+            i = skipWhitespace(i + 1, end);
+            int valueEnd = skipValue(i, end);
+            valueStart[k] = i;
+            valueLength[k] = valueEnd - i;
+            i = skipWhitespace(valueEnd, end);
+            if(i == end) {
+                throw malformed(i);
+            }
+            if(json[i] == '}') {
+                return;
+            }
+            if(json[i] != ',') {
+                throw malformed(i);
+            }
+            i = skipWhitespace(i + 1, end);
+        }
+    }
+
+    /**
+     * Returns the position of {@code key} among the indexed fields, or -1. If
+     * the key is repeated, the last one wins, as when Jackson binds a model.
+     */
+    int find(String key) {
+        int length = key.length();
+        outer:
+        for(int k = count - 1; k >= 0; k--) {
+            if(keyLength[k] != length) {
+                continue;
+            }
+            int start = keyStart[k];
+            for(int i = 0; i < length; i++) {
+                if(json[start + i] != key.charAt(i)) {
+                    continue outer;
+                }
+            }
+            return k;
+        }
+        return -1;
+    }
+
+    String string(String key) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return null;
+        }
+        int start = valueStart[k];
+        if(json[start] == '"') {
+            return unescape(start + 1, start + valueLength[k] - 1);
+        }
+        return new String(json, start, valueLength[k]);
+    }
+
+    /**
+     * Interns the string value of {@code key} without creating a string when
+     * it has no escapes and is already in {@code registry}.
+     *
+     * @return the ID, or {@link UserRegistry#UNKNOWN_USER} if the key is
+     * missing or null
+     */
+    int intern(String key, UserRegistry registry) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return UserRegistry.UNKNOWN_USER;
+        }
+        int start = valueStart[k];
+        int end = start + valueLength[k];
+        if(json[start] != '"') {
+            return registry.intern(json, start, end - start);
+        }
+        start++;
+        end--;
+        for(int i = start; i < end; i++) {
+            if(json[i] == '\\') {
+                return registry.intern(unescape(start, end));
+            }
+        }
+        return registry.intern(json, start, end - start);
+    }
+
+    /**
+     * Returns the position in {@code candidates} of the string value of
+     * {@code key}, without creating a string unless the value has escapes.
+     *
+     * @return -1 if the key is missing, null or matches no candidate
+     */
+    int match(String key, String[] candidates) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return -1;
+        }
+        int start = valueStart[k];
+        int length = valueLength[k];
+        if(json[start] == '"') {
+            start++;
+            length -= 2;
+        }
+        for(int i = start; i < start + length; i++) {
+            if(json[i] == '\\') {
+                String value = string(key);
+                for(int c = 0; c < candidates.length; c++) {
+                    if(candidates[c].equals(value)) {
+                        return c;
+                    }
+                }
+                return -1;
+            }
+        }
+        outer:
+        for(int c = 0; c < candidates.length; c++) {
+            String candidate = candidates[c];
+            if(candidate.length() != length) {
+                continue;
+            }
+            for(int i = 0; i < length; i++) {
+                if(json[start + i] != candidate.charAt(i)) {
+                    continue outer;
+                }
+            }
+            return c;
+        }
+        return -1;
+    }
+
+    boolean bool(String key) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return false;
+        }
+        int start = valueStart[k];
+        int length = valueLength[k];
+        if(json[start] == '"') {
+            start++;
+            length -= 2;
+        }
+        if(length == 4 && json[start] == 't') {
+            return true;
+        }
+        if(length == 5 && json[start] == 'f') {
+            return false;
+        }
+        return parseInt(start, start + length) != 0;
+    }
+
+    int integer(String key) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return 0;
+        }
+        int start = valueStart[k];
+        int end = start + valueLength[k];
+        if(json[start] == '"') {
+            start++;
+            end--;
+        }
+        return parseInt(start, end);
+    }
+
+    /**
+     * Reads an array of scalars, or a single scalar as a one-element list.
+     */
+    List<String> stringList(String key) {
+        int k = find(key);
+        if(k < 0 || isNull(k)) {
+            return null;
+        }
+        int start = valueStart[k];
+        if(json[start] != '[') {
+            return Collections.singletonList(string(key));
+        }
+        int end = start + valueLength[k] - 1;
+        List<String> list = new ArrayList<>();
+        int i = skipWhitespace(start + 1, end);
+        while(i < end) {
+            int elementEnd = skipValue(i, end);
+            if(json[i] == '"') {
+                list.add(unescape(i + 1, elementEnd - 1));
+            } else {
+                list.add(new String(json, i, elementEnd - i));
+            }
+            i = skipWhitespace(elementEnd, end);
+            if(i < end && json[i] == ',') {
+                i = skipWhitespace(i + 1, end);
+            }
+        }
+        return list;
+    }
+
+    private boolean isNull(int k) {
+        return valueLength[k] == 4 && json[valueStart[k]] == 'n';
+    }
+
+    private int add() {
+        if(count == keyStart.length) {
+            int size = count * 2;
+            keyStart = Arrays.copyOf(keyStart, size);
+            keyLength = Arrays.copyOf(keyLength, size);
+            valueStart = Arrays.copyOf(valueStart, size);
+            valueLength = Arrays.copyOf(valueLength, size);
+        }
+        return count++;
+    }
+
+    private int parseInt(int start, int end) {
+        if(start >= end) {
+            throw new NumberFormatException("Empty number");
+        }
+        // fractional values are truncated, as Jackson does for int fields
+        int stop = start;
+        while(stop < end && json[stop] != '.' && json[stop] != 'e' && json[stop] != 'E') {
+            stop++;
+        }
+        return Integer.parseInt(new String(json, start, stop - start));
+    }
+
+    private String unescape(int start, int end) {
+        int backslash = start;
+        while(backslash < end && json[backslash] != '\\') {
+            backslash++;
+        }
+        if(backslash == end) {
+            return new String(json, start, end - start);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(json, start, backslash - start);
+        for(int i = backslash; i < end; i++) {
+            char c = json[i];
+            if(c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = json[++i];
+            switch(escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(new String(json, i + 1, 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    sb.append(escaped);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private int skipWhitespace(int i, int end) {
+        while(i < end && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the position after the string starting at {@code i}.
+     */
+    private int skipString(int i, int end) {
+        for(int j = i + 1; j < end; j++) {
+            if(json[j] == '\\') {
+                j++;
+            } else if(json[j] == '"') {
+                return j + 1;
+            }
+        }
+        throw malformed(i);
+    }
+
+    /**
+     * Returns the position after the value starting at {@code i}.
+     */
+    private int skipValue(int i, int end) {
+        if(i == end) {
+            throw malformed(i);
+        }
+        char c = json[i];
+        if(c == '"') {
+            return skipString(i, end);
+        }
+        if(c == '{' || c == '[') {
+            int depth = 0;
+            for(int j = i; j < end; j++) {
+                char d = json[j];
+                if(d == '"') {
+                    j = skipString(j, end) - 1;
+                } else if(d == '{' || d == '[') {
+                    depth++;
+                } else if(d == '}' || d == ']') {
+                    if(--depth == 0) {
+                        return j + 1;
+                    }
+                }
+            }
+            throw malformed(i);
+        }
+        int j = i;
+        while(j < end && json[j] != ',' && json[j] != '}' && json[j] != ']' && json[j] != ' ' && json[j] != '\n' && json[j] != '\r' && json[j] != '\t') {
+            j++;
+        }
+        if(j == i) {
+            throw malformed(i);
+        }
+        return j;
+    }
+
+    private static IllegalArgumentException malformed(int position) {
+        return new IllegalArgumentException("Malformed JSON object at offset " + position);
+    }
+}
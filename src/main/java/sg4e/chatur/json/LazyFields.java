@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+/**
+ * Shared state of the lazy model views: the index over the raw JSON and a
+ * bit set of the fields decoded since the last {@link #wrap}.
+ */
+final class LazyFields {
+
+    static final int HAS_TOKENS = 0;
+    static final int TIPPED_ALOT_RECENTLY = 1;
+    static final int TIPPED_TONS_RECENTLY = 2;
+    static final int TIPPED_RECENTLY = 3;
+    static final int IN_FANCLUB = 4;
+    /**
+     * First bit free for fields of subclasses of {@link TippingMetadata}.
+     */
+    static final int FIRST_MODEL_FIELD = 5;
+
+    private final JsonIndex index = new JsonIndex();
+    private long decoded;
+
+    void wrap(char[] json, int offset, int length) throws JsonParseException {
+        index.index(json, offset, length);
+        decoded = 0;
+    }
+
+    /**
+     * Returns true if {@code field} has been decoded since the last
+     * {@link #wrap}.
+     */
+    boolean isDecoded(int field) {
+        return (decoded & (1L << field)) != 0;
+    }
+
+    /**
+     * Records that {@code field} has been decoded. Callers mark a field only
+     * once its value is set, so a decode that throws is retried on the next
+     * access instead of leaving the field at its default.
+     */
+    void markDecoded(int field) {
+        decoded |= 1L << field;
+    }
+
+    JsonIndex index() {
+        return index;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import static sg4e.chatur.json.LazyFields.*;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.util.List;
+import sg4e.chatur.users.UserRegistry;
+
+/**
+ * A {@link Notification} that decodes each field from the raw notice JSON the
+ * first time its getter is called. See {@link LazyRoomMessage} for the
+ * lifetime rules of the wrapped array.
+ */
+public class LazyNotification extends Notification {
+
+    private static final int IS_MOD = FIRST_MODEL_FIELD;
+    private static final int HISTORY = FIRST_MODEL_FIELD + 1;
+    private static final int TO_USERNAME = FIRST_MODEL_FIELD + 2;
+    private static final int MESSAGE = FIRST_MODEL_FIELD + 3;
+    private static final int DONT_SEND_TO = FIRST_MODEL_FIELD + 4;
+    private static final int FROM_USERNAME = FIRST_MODEL_FIELD + 5;
+    private static final int SEND_TO = FIRST_MODEL_FIELD + 6;
+    private static final int TYPE = FIRST_MODEL_FIELD + 7;
+    private static final int WEIGHT = FIRST_MODEL_FIELD + 8;
+    private static final int FOREGROUND = FIRST_MODEL_FIELD + 9;
+    private static final int BACKGROUND = FIRST_MODEL_FIELD + 10;
+    private static final int MSG = FIRST_MODEL_FIELD + 11;
+    private static final int AMOUNT = FIRST_MODEL_FIELD + 12;
+    private static final int NOTICE_TYPE = FIRST_MODEL_FIELD + 13;
+
+    private final LazyFields fields = new LazyFields();
+    private NoticeType noticeType;
+
+    /**
+     * Points this view at the JSON of a notice, discarding previously decoded
+     * values.
+     *
+     * @param json
+     * @param offset
+     * @param length
+     * @return this
+     * @throws JsonParseException if the content is not a JSON object
+     */
+    public LazyNotification wrap(char[] json, int offset, int length) throws JsonParseException {
+        fields.wrap(json, offset, length);
+        setFromUserId(UserRegistry.UNKNOWN_USER);
+        return this;
+    }
+
+    @Override
+    public boolean isMod() {
+        if(!fields.isDecoded(IS_MOD)) {
+            setMod(fields.index().bool("is_mod"));
+            fields.markDecoded(IS_MOD);
+        }
+        return super.isMod();
+    }
+
+    @Override
+    public boolean isHistory() {
+        if(!fields.isDecoded(HISTORY)) {
+            setHistory(fields.index().bool("history"));
+            fields.markDecoded(HISTORY);
+        }
+        return super.isHistory();
+    }
+
+    @Override
+    public String getToUsername() {
+        if(!fields.isDecoded(TO_USERNAME)) {
+            setToUsername(fields.index().string("to_username"));
+            fields.markDecoded(TO_USERNAME);
+        }
+        return super.getToUsername();
+    }
+
+    @Override
+    public String getMessage() {
+        if(!fields.isDecoded(MESSAGE)) {
+            setMessage(fields.index().string("message"));
+            fields.markDecoded(MESSAGE);
+        }
+        return super.getMessage();
+    }
+
+    @Override
+    public String getDontSendTo() {
+        if(!fields.isDecoded(DONT_SEND_TO)) {
+            setDontSendTo(fields.index().string("dont_send_to"));
+            fields.markDecoded(DONT_SEND_TO);
+        }
+        return super.getDontSendTo();
+    }
+
+    @Override
+    public String getFromUsername() {
+        if(!fields.isDecoded(FROM_USERNAME)) {
+            setFromUsername(fields.index().string("from_username"));
+            fields.markDecoded(FROM_USERNAME);
+        }
+        return super.getFromUsername();
+    }
+
+    @Override
+    public String getSendTo() {
+        if(!fields.isDecoded(SEND_TO)) {
+            setSendTo(fields.index().string("send_to"));
+            fields.markDecoded(SEND_TO);
+        }
+        return super.getSendTo();
+    }
+
+    @Override
+    public String getType() {
+        if(!fields.isDecoded(TYPE)) {
+            setType(fields.index().string("type"));
+            fields.markDecoded(TYPE);
+        }
+        return super.getType();
+    }
+
+    /**
+     * Matches the type against the known types without decoding it.
+     */
+    @Override
+    public NoticeType getNoticeType() {
+        if(!fields.isDecoded(NOTICE_TYPE)) {
+            noticeType = NoticeType.of(fields.index().match("type", NoticeType.KNOWN_TYPES));
+            fields.markDecoded(NOTICE_TYPE);
+        }
+        return noticeType;
+    }
+
+    @Override
+    public String getWeight() {
+        if(!fields.isDecoded(WEIGHT)) {
+            setWeight(fields.index().string("weight"));
+            fields.markDecoded(WEIGHT);
+        }
+        return super.getWeight();
+    }
+
+    @Override
+    public ChatColor getForeground() {
+        if(!fields.isDecoded(FOREGROUND)) {
+            String c = fields.index().string("foreground");
+            setForeground(c == null ? null : RoomMessage.readColor(c));
+            fields.markDecoded(FOREGROUND);
+        }
+        return super.getForeground();
+    }
+
+    @Override
+    public ChatColor getBackground() {
+        if(!fields.isDecoded(BACKGROUND)) {
+            String c = fields.index().string("background");
+            setBackground(c == null ? null : RoomMessage.readColor(c));
+            fields.markDecoded(BACKGROUND);
+        }
+        return super.getBackground();
+    }
+
+    @Override
+    public List<String> getMsg() {
+        if(!fields.isDecoded(MSG)) {
+            setMsg(fields.index().stringList("msg"));
+            fields.markDecoded(MSG);
+        }
+        return super.getMsg();
+    }
+
+    @Override
+    public int getAmount() {
+        if(!fields.isDecoded(AMOUNT)) {
+            setAmount(fields.index().integer("amount"));
+            fields.markDecoded(AMOUNT);
+        }
+        return super.getAmount();
+    }
+
+    @Override
+    public boolean hasTokens() {
+        if(!fields.isDecoded(HAS_TOKENS)) {
+            setHasTokens(fields.index().bool("has_tokens"));
+            fields.markDecoded(HAS_TOKENS);
+        }
+        return super.hasTokens();
+    }
+
+    @Override
+    public boolean hasTippedAlotRecently() {
+        if(!fields.isDecoded(TIPPED_ALOT_RECENTLY)) {
+            setTippedAlotRecently(fields.index().bool("tipped_alot_recently"));
+            fields.markDecoded(TIPPED_ALOT_RECENTLY);
+        }
+        return super.hasTippedAlotRecently();
+    }
+
+    @Override
+    public boolean hasTippedTonsRecently() {
+        if(!fields.isDecoded(TIPPED_TONS_RECENTLY)) {
+            setTippedTonsRecently(fields.index().bool("tipped_tons_recently"));
+            fields.markDecoded(TIPPED_TONS_RECENTLY);
+        }
+        return super.hasTippedTonsRecently();
+    }
+
+    @Override
+    public boolean hasTippedRecently() {
+        if(!fields.isDecoded(TIPPED_RECENTLY)) {
+            setTippedRecently(fields.index().bool("tipped_recently"));
+            fields.markDecoded(TIPPED_RECENTLY);
+        }
+        return super.hasTippedRecently();
+    }
+
+    @Override
+    public boolean isInFanclub() {
+        if(!fields.isDecoded(IN_FANCLUB)) {
+            setInFanclub(fields.index().bool("in_fanclub"));
+            fields.markDecoded(IN_FANCLUB);
+        }
+        return super.isInFanclub();
+    }
+
+    /**
+     * Interns the sender straight from the wrapped characters if it has not
+     * been decoded yet; see {@link LazyRoomMessage#internUser}.
+     */
+    @Override
+    public int internUser(UserRegistry registry) {
+        if(!fields.isDecoded(FROM_USERNAME)) {
+            int id = fields.index().intern("from_username", registry);
+            setFromUsername(id == UserRegistry.UNKNOWN_USER ? null : registry.getUsername(id));
+            fields.markDecoded(FROM_USERNAME);
+        }
+        return super.internUser(registry);
+    }
+
+    /**
+     * Decodes every field so that the inherited {@code equals},
+     * {@code hashCode} and {@code toString} see them.
+     */
+    private void decodeAll() {
+        isMod();
+        isHistory();
+        getToUsername();
+        getMessage();
+        getDontSendTo();
+        getFromUsername();
+        getSendTo();
+        getType();
+        getWeight();
+        getForeground();
+        getBackground();
+        getMsg();
+        getAmount();
+        hasTokens();
+        hasTippedAlotRecently();
+        hasTippedTonsRecently();
+        hasTippedRecently();
+        isInFanclub();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        decodeAll();
+        if(o instanceof LazyNotification) {
+            ((LazyNotification) o).decodeAll();
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        decodeAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+}
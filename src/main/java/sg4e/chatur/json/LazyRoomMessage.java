@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import static sg4e.chatur.json.LazyFields.*;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import sg4e.chatur.users.UserRegistry;
+
+/**
+ * A {@link RoomMessage} that decodes each field from the raw message JSON the
+ * first time its getter is called. Wrapping the JSON only indexes the
+ * positions of its fields, so handlers that read one or two fields never pay
+ * for the rest.
+ * <p>
+ * The JSON array passed to {@link #wrap(char[], int, int)} is referenced, not
+ * copied. When {@link sg4e.chatur.ChaturBot} reuses one instance for every
+ * message (see {@code DecodingMode.FLYWEIGHT}), the instance and its array are
+ * only valid until the callback returns.
+ */
+public class LazyRoomMessage extends RoomMessage {
+
+    private static final int COLOR = FIRST_MODEL_FIELD;
+    private static final int X_SUCCESSFUL = FIRST_MODEL_FIELD + 1;
+    private static final int IS_MOD = FIRST_MODEL_FIELD + 2;
+    private static final int GENDER = FIRST_MODEL_FIELD + 3;
+    private static final int USER = FIRST_MODEL_FIELD + 4;
+    private static final int FONT = FIRST_MODEL_FIELD + 5;
+    private static final int MESSAGE = FIRST_MODEL_FIELD + 6;
+
+    private final LazyFields fields = new LazyFields();
+
+    /**
+     * Points this view at the JSON of a chat message, discarding previously
+     * decoded values.
+     *
+     * @param json
+     * @param offset
+     * @param length
+     * @return this
+     * @throws JsonParseException if the content is not a JSON object
+     */
+    public LazyRoomMessage wrap(char[] json, int offset, int length) throws JsonParseException {
+        fields.wrap(json, offset, length);
+        setUserId(UserRegistry.UNKNOWN_USER);
+        return this;
+    }
+
+    @Override
+    public ChatColor getColor() {
+        if(!fields.isDecoded(COLOR)) {
+            String c = fields.index().string("c");
+            setColor(c == null ? null : readColor(c));
+            fields.markDecoded(COLOR);
+        }
+        return super.getColor();
+    }
+
+    @Override
+    public boolean isXSuccessful() {
+        if(!fields.isDecoded(X_SUCCESSFUL)) {
+            setXSuccessful(fields.index().bool("X-Successful"));
+            fields.markDecoded(X_SUCCESSFUL);
+        }
+        return super.isXSuccessful();
+    }
+
+    @Override
+    public boolean isMod() {
+        if(!fields.isDecoded(IS_MOD)) {
+            setMod(fields.index().bool("is_mod"));
+            fields.markDecoded(IS_MOD);
+        }
+        return super.isMod();
+    }
+
+    @Override
+    public String getGender() {
+        if(!fields.isDecoded(GENDER)) {
+            setGender(fields.index().string("gender"));
+            fields.markDecoded(GENDER);
+        }
+        return super.getGender();
+    }
+
+    @Override
+    public String getUser() {
+        if(!fields.isDecoded(USER)) {
+            setUser(fields.index().string("user"));
+            fields.markDecoded(USER);
+        }
+        return super.getUser();
+    }
+
+    @Override
+    public String getFont() {
+        if(!fields.isDecoded(FONT)) {
+            setFont(fields.index().string("f"));
+            fields.markDecoded(FONT);
+        }
+        return super.getFont();
+    }
+
+    @Override
+    public String getMessage() {
+        if(!fields.isDecoded(MESSAGE)) {
+            setMessage(fields.index().string("m"));
+            fields.markDecoded(MESSAGE);
+        }
+        return super.getMessage();
+    }
+
+    @Override
+    public boolean hasTokens() {
+        if(!fields.isDecoded(HAS_TOKENS)) {
+            setHasTokens(fields.index().bool("has_tokens"));
+            fields.markDecoded(HAS_TOKENS);
+        }
+        return super.hasTokens();
+    }
+
+    @Override
+    public boolean hasTippedAlotRecently() {
+        if(!fields.isDecoded(TIPPED_ALOT_RECENTLY)) {
+            setTippedAlotRecently(fields.index().bool("tipped_alot_recently"));
+            fields.markDecoded(TIPPED_ALOT_RECENTLY);
+        }
+        return super.hasTippedAlotRecently();
+    }
+
+    @Override
+    public boolean hasTippedTonsRecently() {
+        if(!fields.isDecoded(TIPPED_TONS_RECENTLY)) {
+            setTippedTonsRecently(fields.index().bool("tipped_tons_recently"));
+            fields.markDecoded(TIPPED_TONS_RECENTLY);
+        }
+        return super.hasTippedTonsRecently();
+    }
+
+    @Override
+    public boolean hasTippedRecently() {
+        if(!fields.isDecoded(TIPPED_RECENTLY)) {
+            setTippedRecently(fields.index().bool("tipped_recently"));
+            fields.markDecoded(TIPPED_RECENTLY);
+        }
+        return super.hasTippedRecently();
+    }
+
+    @Override
+    public boolean isInFanclub() {
+        if(!fields.isDecoded(IN_FANCLUB)) {
+            setInFanclub(fields.index().bool("in_fanclub"));
+            fields.markDecoded(IN_FANCLUB);
+        }
+        return super.isInFanclub();
+    }
+
+    /**
+     * Interns the user straight from the wrapped characters if it has not been
+     * decoded yet, so that no string is created for users already in
+     * {@code registry}.
+     */
+    @Override
+    public int internUser(UserRegistry registry) {
+        if(!fields.isDecoded(USER)) {
+            int id = fields.index().intern("user", registry);
+            setUser(id == UserRegistry.UNKNOWN_USER ? null : registry.getUsername(id));
+            fields.markDecoded(USER);
+        }
+        return super.internUser(registry);
+    }
+
+    /**
+     * Decodes every field so that the inherited {@code equals},
+     * {@code hashCode} and {@code toString} see them.
+     */
+    private void decodeAll() {
+        getColor();
+        isXSuccessful();
+        isMod();
+        getGender();
+        getUser();
+        getFont();
+        getMessage();
+        hasTokens();
+        hasTippedAlotRecently();
+        hasTippedTonsRecently();
+        hasTippedRecently();
+        isInFanclub();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        decodeAll();
+        if(o instanceof LazyRoomMessage) {
+            ((LazyRoomMessage) o).decodeAll();
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        decodeAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import sg4e.chatur.Varints;
+
+/**
+ * Writes {@link RoomMessage}s and {@link Notification}s as a compact sequence
+ * of their fields and reads them back without JSON, so that a model bound in
+ * one process can be published in another, as by
+ * {@link sg4e.chatur.shard.ShardWorker}. Only the fields bound from JSON are
+ * written; user IDs are assigned by interning in the reading process.
+ * <p>
+ * Integers are {@link Varints}; strings are their UTF-8 length plus one, 0
+ * for null, followed by the bytes; colors are a presence byte followed by the
+ * ARGB value. Lazy models are read through their getters and read back
+ * eagerly.
+ */
+public final class ModelCodec {
+
+    private static final int HAS_TOKENS = 1;
+    private static final int TIPPED_ALOT_RECENTLY = 1 << 1;
+    private static final int TIPPED_TONS_RECENTLY = 1 << 2;
+    private static final int TIPPED_RECENTLY = 1 << 3;
+    private static final int IN_FANCLUB = 1 << 4;
+    private static final int MOD = 1 << 5;
+    private static final int X_SUCCESSFUL = 1 << 6;
+    private static final int HISTORY = 1 << 7;
+
+    private ModelCodec() {
+    }
+
+    /**
+     * Writes the fields of a chat message.
+     *
+     * @param message
+     * @param out
+     * @throws IOException if {@code out} fails
+     */
+    public static void writeRoomMessage(RoomMessage message, DataOutput out) throws IOException {
+        int flags = tippingFlags(message);
+        if(message.isMod()) {
+            flags |= MOD;
+        }
+        if(message.isXSuccessful()) {
+            flags |= X_SUCCESSFUL;
+        }
+        Varints.write(out, flags);
+        writeColor(out, message.getColor());
+        writeString(out, message.getGender());
+        writeString(out, message.getUser());
+        writeString(out, message.getFont());
+        writeString(out, message.getMessage());
+    }
+
+    /**
+     * Reads a chat message written by {@link #writeRoomMessage}.
+     *
+     * @param in
+     * @return
+     * @throws IOException if {@code in} fails or does not hold a message
+     */
+    public static RoomMessage readRoomMessage(DataInput in) throws IOException {
+        RoomMessage message = new RoomMessage();
+        int flags = readTippingFlags(in, message);
+        message.setMod((flags & MOD) != 0);
+        message.setXSuccessful((flags & X_SUCCESSFUL) != 0);
+        message.setColor(readColor(in));
+        message.setGender(readString(in));
+        message.setUser(readString(in));
+        message.setFont(readString(in));
+        message.setMessage(readString(in));
+        return message;
+    }
+
+    /**
+     * Writes the fields of a notice.
+     *
+     * @param notification
+     * @param out
+     * @throws IOException if {@code out} fails
+     */
+    public static void writeNotification(Notification notification, DataOutput out) throws IOException {
+        int flags = tippingFlags(notification);
+        if(notification.isMod()) {
+            flags |= MOD;
+        }
+        if(notification.isHistory()) {
+            flags |= HISTORY;
+        }
+        Varints.write(out, flags);
+        writeString(out, notification.getToUsername());
+        writeString(out, notification.getMessage());
+        writeString(out, notification.getDontSendTo());
+        writeString(out, notification.getFromUsername());
+        writeString(out, notification.getSendTo());
+        writeString(out, notification.getType());
+        writeString(out, notification.getWeight());
+        writeColor(out, notification.getForeground());
+        writeColor(out, notification.getBackground());
+        List<String> msg = notification.getMsg();
+        Varints.write(out, msg == null ? 0 : msg.size() + 1L);
+        if(msg != null) {
+            for(String part : msg) {
+                writeString(out, part);
+            }
+        }
+        int amount = notification.getAmount();
+        Varints.write(out, (amount << 1 ^ amount >> 31) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Reads a notice written by {@link #writeNotification}.
+     *
+     * @param in
+     * @return
+     * @throws IOException if {@code in} fails or does not hold a notice
+     */
+    public static Notification readNotification(DataInput in) throws IOException {
+        Notification notification = new Notification();
+        int flags = readTippingFlags(in, notification);
+        notification.setMod((flags & MOD) != 0);
+        notification.setHistory((flags & HISTORY) != 0);
+        notification.setToUsername(readString(in));
+        notification.setMessage(readString(in));
+        notification.setDontSendTo(readString(in));
+        notification.setFromUsername(readString(in));
+        notification.setSendTo(readString(in));
+        notification.setType(readString(in));
+        notification.setWeight(readString(in));
+        notification.setForeground(readColor(in));
+        notification.setBackground(readColor(in));
+        int parts = Varints.readInt(in);
+        if(parts > 0) {
+            List<String> msg = new ArrayList<>(parts - 1);
+            for(int i = 1; i < parts; i++) {
+                msg.add(readString(in));
+            }
+            notification.setMsg(msg);
+        }
+        int amount = (int) Varints.read(in);
+        notification.setAmount(amount >>> 1 ^ -(amount & 1));
+        return notification;
+    }
+
+    private static int tippingFlags(TippingMetadata metadata) {
+        int flags = 0;
+        if(metadata.hasTokens()) {
+            flags |= HAS_TOKENS;
+        }
+        if(metadata.hasTippedAlotRecently()) {
+            flags |= TIPPED_ALOT_RECENTLY;
+        }
+        if(metadata.hasTippedTonsRecently()) {
+            flags |= TIPPED_TONS_RECENTLY;
+        }
+        if(metadata.hasTippedRecently()) {
+            flags |= TIPPED_RECENTLY;
+        }
+        if(metadata.isInFanclub()) {
+            flags |= IN_FANCLUB;
+        }
+        return flags;
+    }
+
+    private static int readTippingFlags(DataInput in, TippingMetadata metadata) throws IOException {
+        int flags = (int) Varints.read(in);
+        metadata.setHasTokens((flags & HAS_TOKENS) != 0);
+        metadata.setTippedAlotRecently((flags & TIPPED_ALOT_RECENTLY) != 0);
+        metadata.setTippedTonsRecently((flags & TIPPED_TONS_RECENTLY) != 0);
+        metadata.setTippedRecently((flags & TIPPED_RECENTLY) != 0);
+        metadata.setInFanclub((flags & IN_FANCLUB) != 0);
+        return flags;
+    }
+
+    private static void writeColor(DataOutput out, ChatColor color) throws IOException {
+        out.writeBoolean(color != null);
+        if(color != null) {
+            out.writeInt(color.getArgb());
+        }
+    }
+
+    private static ChatColor readColor(DataInput in) throws IOException {
+        if(!in.readBoolean()) {
+            return null;
+        }
+        int argb = in.readInt();
+        return ChatColor.ofArgb(argb >>> 24, argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if(s == null) {
+            Varints.write(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Varints.write(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = Varints.readInt(in);
+        if(length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
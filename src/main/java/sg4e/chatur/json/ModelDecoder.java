@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binds a model from a token stream without reflection. Implementations are
+ * generated at build time, as {@code <Model>Decoder} next to each model
+ * annotated with {@code @GenerateDecoder}; the helpers below convert values
+ * as leniently as Jackson's defaults do, so a generated decoder and the
+ * mapper bind the same JSON to equal models.
+ *
+ * @param <T> the model
+ */
+public abstract class ModelDecoder<T> {
+
+    /**
+     * Binds the object at the current token of {@code parser}, or at the next
+     * one if there is no current token.
+     *
+     * @param parser
+     * @return null if the value is a JSON null
+     * @throws IOException if the JSON is malformed or does not fit the model
+     */
+    public abstract T decode(JsonParser parser) throws IOException;
+
+    protected static boolean startObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if(token == null) {
+            token = parser.nextToken();
+        }
+        if(token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if(token != JsonToken.START_OBJECT) {
+            throw MismatchedInputException.from(parser, Object.class, "Expected JSON object, got " + token);
+        }
+        return true;
+    }
+
+    /**
+     * Advances to the value of the next field; its name is then
+     * {@link JsonParser#getCurrentName()}.
+     *
+     * @return false at the end of the object
+     */
+    protected static boolean nextField(JsonParser parser) throws IOException {
+        if(parser.nextToken() != JsonToken.FIELD_NAME) {
+            return false;
+        }
+        parser.nextToken();
+        return true;
+    }
+
+    protected static void skipUnknown(JsonParser parser, Class<?> model, boolean ignoreUnknown) throws IOException {
+        if(!ignoreUnknown) {
+            throw UnrecognizedPropertyException.from(parser, model, parser.getCurrentName(), null);
+        }
+        parser.skipChildren();
+    }
+
+    protected static String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if(token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        if(token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if(token.isScalarValue()) {
+            return parser.getText();
+        }
+        throw mismatch(parser, String.class);
+    }
+
+    protected static boolean readBoolean(JsonParser parser) throws IOException {
+        switch(parser.currentToken()) {
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+            case VALUE_NULL:
+                return false;
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue() != 0;
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                if(text.equals("true") || text.equals("True") || text.equals("TRUE")) {
+                    return true;
+                }
+                if(text.isEmpty() || text.equals("false") || text.equals("False") || text.equals("FALSE") || text.equals("null")) {
+                    return false;
+                }
+                throw mismatch(parser, boolean.class);
+            default:
+                throw mismatch(parser, boolean.class);
+        }
+    }
+
+    protected static int readInt(JsonParser parser) throws IOException {
+        switch(parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getValueAsInt();
+            case VALUE_NULL:
+                return 0;
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                try {
+                    return text.isEmpty() || text.equals("null") ? 0 : Integer.parseInt(text);
+                } catch(NumberFormatException ex) {
+                    throw mismatch(parser, int.class);
+                }
+            default:
+                throw mismatch(parser, int.class);
+        }
+    }
+
+    protected static long readLong(JsonParser parser) throws IOException {
+        switch(parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getValueAsLong();
+            case VALUE_NULL:
+                return 0;
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                try {
+                    return text.isEmpty() || text.equals("null") ? 0 : Long.parseLong(text);
+                } catch(NumberFormatException ex) {
+                    throw mismatch(parser, long.class);
+                }
+            default:
+                throw mismatch(parser, long.class);
+        }
+    }
+
+    protected static double readDouble(JsonParser parser) throws IOException {
+        switch(parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getValueAsDouble();
+            case VALUE_NULL:
+                return 0;
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                try {
+                    return text.isEmpty() || text.equals("null") ? 0 : Double.parseDouble(text);
+                } catch(NumberFormatException ex) {
+                    throw mismatch(parser, double.class);
+                }
+            default:
+                throw mismatch(parser, double.class);
+        }
+    }
+
+    /**
+     * Reads an array of scalars, or a single scalar as a one-element list.
+     */
+    protected static List<String> readStringList(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if(token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if(token != JsonToken.START_ARRAY) {
+            if(!token.isScalarValue()) {
+                throw mismatch(parser, List.class);
+            }
+            return Collections.singletonList(parser.getText());
+        }
+        List<String> list = new ArrayList<>();
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if(token.isScalarValue()) {
+                list.add(parser.getText());
+            } else {
+                parser.skipChildren();
+                list.add("");
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Reads the value as a tree, like the mapper does for a {@code JsonNode}
+     * property: a JSON null is a {@code NullNode}, not null. The parser needs
+     * no codec.
+     */
+    protected static JsonNode readTree(JsonParser parser) throws IOException {
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        JsonToken token = parser.currentToken();
+        switch(token) {
+            case START_OBJECT:
+                ObjectNode object = nodes.objectNode();
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.set(name, readTree(parser));
+                }
+                return object;
+            case START_ARRAY:
+                ArrayNode array = nodes.arrayNode();
+                while(parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readTree(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return nodes.textNode(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch(parser.getNumberType()) {
+                    case INT:
+                        return nodes.numberNode(parser.getIntValue());
+                    case LONG:
+                        return nodes.numberNode(parser.getLongValue());
+                    default:
+                        return nodes.numberNode(parser.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                return nodes.numberNode(parser.getDoubleValue());
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return nodes.booleanNode(parser.getBooleanValue());
+            case VALUE_NULL:
+                return nodes.nullNode();
+            case VALUE_EMBEDDED_OBJECT:
+                return nodes.pojoNode(parser.getEmbeddedObject());
+            default:
+                throw mismatch(parser, JsonNode.class);
+        }
+    }
+
+    private static MismatchedInputException mismatch(JsonParser parser, Class<?> target) throws IOException {
+        return MismatchedInputException.from(parser, target,
+                String.format("Cannot bind %s of field \"%s\" to %s", parser.currentToken(), parser.getCurrentName(), target.getSimpleName()));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+/**
+ * The kinds of {@link Notification} that have a dedicated model, keyed on the
+ * notice's {@code type} field.
+ */
+public enum NoticeType {
+
+    /**
+     * A tip; see {@link TipAlert}.
+     */
+    TIP_ALERT("tip_alert"),
+    /**
+     * A message from the broadcaster or an app, such as a tip menu; see
+     * {@link Announcement}.
+     */
+    ROOM_MESSAGE("room_message"),
+    /**
+     * A user joining the broadcaster's fan club; see {@link FanclubJoin}.
+     */
+    FANCLUB_JOIN("fanclub_join"),
+    /**
+     * A request to reload the room's info panel; see {@link PanelRefresh}.
+     */
+    REFRESH_PANEL("refresh_panel"),
+    /**
+     * Any other type, or a missing one. Only {@link Notification} describes
+     * these.
+     */
+    OTHER(null);
+
+    private static final NoticeType[] KNOWN = {TIP_ALERT, ROOM_MESSAGE, FANCLUB_JOIN, REFRESH_PANEL};
+    static final String[] KNOWN_TYPES = {TIP_ALERT.type, ROOM_MESSAGE.type, FANCLUB_JOIN.type, REFRESH_PANEL.type};
+
+    private final String type;
+
+    NoticeType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the value of the {@code type} field for this kind of notice.
+     *
+     * @return null for {@link #OTHER}
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the kind of notice with the {@code type} field {@code type}.
+     *
+     * @param type may be null
+     * @return {@link #OTHER} if the type has no dedicated model
+     */
+    public static NoticeType of(String type) {
+        for(NoticeType known : KNOWN) {
+            if(known.type.equals(type)) {
+                return known;
+            }
+        }
+        return OTHER;
+    }
+
+    static NoticeType of(int knownIndex) {
+        return knownIndex < 0 ? OTHER : KNOWN[knownIndex];
+    }
+}
@@ -15,12 +15,12 @@
  */
 package sg4e.chatur.json;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
-import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -29,6 +29,8 @@ import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Setter;
+import sg4e.chatur.codegen.GenerateDecoder;
+import sg4e.chatur.users.UserRegistry;
 
 /**
  * A multipurpose model for most notices in chat, including tips and
@@ -46,29 +48,91 @@ import lombok.Setter;
  */
 @Data
 @EqualsAndHashCode(callSuper = true)
-@Setter(AccessLevel.PRIVATE)
+@Setter(AccessLevel.PACKAGE)
 @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
 @JsonIgnoreProperties(ignoreUnknown = true)
+@GenerateDecoder
 public class Notification extends TippingMetadata {
 
-    private boolean isMod, history;
+    @JsonProperty("is_mod")
+    private boolean isMod;
+    private boolean history;
     private String toUsername, message, dontSendTo, fromUsername, sendTo, type, weight;
-    private Color foreground, background;
+    private ChatColor foreground, background;
     private List<String> msg;
     private int amount;
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private int fromUserId = UserRegistry.UNKNOWN_USER;
 
     @JsonProperty("foreground")
-    private void unpackForeground(String c) {
+    void unpackForeground(String c) {
         foreground = RoomMessage.readColor(c);
     }
 
     @JsonProperty("background")
-    private void unpackBackground(String c) {
+    void unpackBackground(String c) {
         background = RoomMessage.readColor(c);
     }
     
+    /**
+     * Returns the foreground as a {@link java.awt.Color}; prefer
+     * {@link #getForeground()}, which does not load AWT.
+     *
+     * @return null if the notice has no foreground
+     */
+    public java.awt.Color getAwtForeground() {
+        ChatColor c = getForeground();
+        return c == null ? null : c.toAwtColor();
+    }
+
+    /**
+     * Returns the background as a {@link java.awt.Color}; prefer
+     * {@link #getBackground()}, which does not load AWT.
+     *
+     * @return null if the notice has no background
+     */
+    public java.awt.Color getAwtBackground() {
+        ChatColor c = getBackground();
+        return c == null ? null : c.toAwtColor();
+    }
+
+    /**
+     * Returns the kind of notice according to {@link #getType()}; each kind
+     * other than {@link NoticeType#OTHER} has a compact dedicated model.
+     *
+     * @return
+     */
+    @JsonIgnore
+    public NoticeType getNoticeType() {
+        return NoticeType.of(getType());
+    }
+
+    /**
+     * Replaces the usernames and type with the shared instances held by
+     * {@code registry} and records the ID of the sender, which
+     * {@link #getFromUserId()} returns from then on.
+     *
+     * @param registry
+     * @return the sender's ID, or {@link UserRegistry#UNKNOWN_USER} if the
+     * notice has no sender
+     */
+    public int internUser(UserRegistry registry) {
+        String from = getFromUsername();
+        if(from != null) {
+            fromUserId = registry.intern(from);
+            setFromUsername(registry.getUsername(fromUserId));
+        }
+        String to = getToUsername();
+        if(to != null) {
+            setToUsername(registry.getUsername(registry.intern(to)));
+        }
+        setType(registry.canonicalize(getType()));
+        return fromUserId;
+    }
+
     @JsonProperty("msg")
-    private void unpackMsg(JsonNode json) {
+    void unpackMsg(JsonNode json) {
         if(json.isArray()) {
             msg = new ArrayList<>();
             for(Iterator<JsonNode> iter = json.elements(); iter.hasNext();) {
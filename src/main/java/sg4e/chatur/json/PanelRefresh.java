@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+/**
+ * A request to reload the room's info panel, decoded from a
+ * {@code refresh_panel} notice. These notices carry no fields, so every one
+ * is represented by {@link #INSTANCE}.
+ */
+public final class PanelRefresh {
+
+    public static final PanelRefresh INSTANCE = new PanelRefresh();
+
+    private PanelRefresh() {
+    }
+
+    @Override
+    public String toString() {
+        return "PanelRefresh";
+    }
+}
@@ -15,50 +15,130 @@
  */
 package sg4e.chatur.json;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
-import java.awt.Color;
+import java.util.List;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
+import sg4e.chatur.codegen.GenerateDecoder;
+import sg4e.chatur.emoticons.EmoticonDictionary;
+import sg4e.chatur.emoticons.EmoticonMatcher;
+import sg4e.chatur.emoticons.MessageToken;
+import sg4e.chatur.users.UserRegistry;
 
 /**
  * Model for normal chat messages (not tips or announcements).
  */
 @Data
 @EqualsAndHashCode(callSuper = true)
-@Setter(AccessLevel.PRIVATE)
+@Setter(AccessLevel.PACKAGE)
 @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
 @JsonIgnoreProperties(ignoreUnknown = true)
+@GenerateDecoder
 public class RoomMessage extends TippingMetadata {
 
-    private Color color;
+    private ChatColor color;
     @JsonProperty("X-Successful")
     private boolean xSuccessful;
+    @JsonProperty("is_mod")
     private boolean isMod;
     private String gender, user;
     @JsonProperty("f")
     private String font;
     @JsonProperty("m")
     private String message;
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private int userId = UserRegistry.UNKNOWN_USER;
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private TokenCache tokens;
 
     @JsonProperty("c")
-    private void unpackColor(String c) {
+    void unpackColor(String c) {
         color = readColor(c);
     }
 
-    static Color readColor(String c) {
-        if(c.startsWith("#")) {
-            //#494949
-            return Color.decode(c);
+    /**
+     * Returns the message color as a {@link java.awt.Color}; prefer
+     * {@link #getColor()}, which does not load AWT.
+     *
+     * @return null if the message has no color
+     */
+    public java.awt.Color getAwtColor() {
+        ChatColor c = getColor();
+        return c == null ? null : c.toAwtColor();
+    }
+
+    /**
+     * Replaces the user, gender and font with the shared instances held by
+     * {@code registry} and records the user's ID, which {@link #getUserId()}
+     * returns from then on. {@link sg4e.chatur.ChaturBot} does this for every
+     * message once a registry is installed.
+     *
+     * @param registry
+     * @return the user's ID, or {@link UserRegistry#UNKNOWN_USER} if the
+     * message has no user
+     */
+    public int internUser(UserRegistry registry) {
+        String name = getUser();
+        if(name != null) {
+            userId = registry.intern(name);
+            setUser(registry.getUsername(userId));
         }
-        else {
-            //rgb(73,73,73)
-            String[] parts = c.split(",");
-            return new Color((Integer.parseInt(parts[0].split("\\(")[1])), Integer.parseInt(parts[1]), Integer.parseInt(parts[2].substring(0, parts[2].length() - 1)));
+        setGender(registry.canonicalize(getGender()));
+        setFont(registry.canonicalize(getFont()));
+        return userId;
+    }
+
+    /**
+     * Splits the message into text and emoticons. Messages are only
+     * tokenized when this is first called, and the tokens are kept until the
+     * message or the dictionary changes.
+     *
+     * @param emoticons
+     * @return an unmodifiable list; empty if the message is empty
+     */
+    public List<MessageToken> getTokens(EmoticonDictionary emoticons) {
+        EmoticonMatcher matcher = emoticons.getMatcher();
+        String text = getMessage();
+        TokenCache cached = tokens;
+        if(cached == null || cached.matcher != matcher || cached.text != text) {
+            cached = new TokenCache(matcher, text, matcher.tokenize(text));
+            tokens = cached;
         }
+        return cached.tokens;
+    }
+
+    /**
+     * The tokens of a message and what they were computed from; immutable so
+     * that a message shared between threads never sees a torn cache.
+     */
+    private static final class TokenCache {
+
+        private final EmoticonMatcher matcher;
+        private final String text;
+        private final List<MessageToken> tokens;
+
+        TokenCache(EmoticonMatcher matcher, String text, List<MessageToken> tokens) {
+            this.matcher = matcher;
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+
+    static ChatColor readColor(String c) {
+        //#494949 or rgb(73,73,73); a JSON null is no color
+        return c == null ? null : ChatColor.parse(c);
     }
 }
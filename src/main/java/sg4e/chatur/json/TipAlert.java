@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.json;
+
+import lombok.Value;
+
+/**
+ * A tip, decoded from a {@code tip_alert} notice. Holds only the fields a tip
+ * uses; see {@link Notification} for the full notice.
+ */
+@Value
+public class TipAlert {
+
+    String fromUsername;
+    String toUsername;
+    int amount;
+    /**
+     * The tip note; empty if the tipper left none.
+     */
+    String message;
+    boolean mod;
+    boolean inFanclub;
+    boolean history;
+
+    /**
+     * Copies the tip fields of {@code notification}, which should be a
+     * {@link NoticeType#TIP_ALERT}.
+     *
+     * @param notification
+     * @return
+     */
+    public static TipAlert from(Notification notification) {
+        return new TipAlert(notification.getFromUsername(), notification.getToUsername(), notification.getAmount(),
+                notification.getMessage(), notification.isMod(), notification.isInFanclub(), notification.isHistory());
+    }
+}
@@ -22,14 +22,16 @@ import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
+import sg4e.chatur.codegen.GenerateDecoder;
 
 /**
  * Parent class for models that containing tipping data.
  */
 @Data
-@Setter(AccessLevel.PRIVATE)
+@Setter(AccessLevel.PACKAGE)
 @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
 @JsonIgnoreProperties(ignoreUnknown = true)
+@GenerateDecoder
 public class TippingMetadata {
 
     @Getter(AccessLevel.NONE)
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.metrics;
+
+/**
+ * An immutable copy of a {@link LatencyHistogram}. Reported values are the
+ * upper bound of the bucket they fall in.
+ */
+public final class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+
+    HistogramSnapshot(long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        for(long c : counts) {
+            total += c;
+        }
+        this.count = total;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the value below which {@code percentile} percent of the recorded
+     * values fall, or 0 if nothing was recorded.
+     *
+     * @param percentile between 0 and 100
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return LatencyHistogram.highestValue(counts.length - 1);
+    }
+
+    /**
+     * Returns the largest recorded value, rounded up to its bucket.
+     *
+     * @return
+     */
+    public long getMax() {
+        for(int i = counts.length - 1; i >= 0; i--) {
+            if(counts[i] != 0) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean, using the midpoint of each bucket.
+     *
+     * @return
+     */
+    public double getMean() {
+        if(count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for(int i = 0; i < counts.length; i++) {
+            if(counts[i] != 0) {
+                long low = LatencyHistogram.lowestValue(i);
+                long high = i == counts.length - 1 ? low : LatencyHistogram.highestValue(i);
+                sum += counts[i] * ((low + high) / 2.0);
+            }
+        }
+        return sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistogramSnapshot(count=%d, p50=%d, p99=%d, p999=%d, max=%d)",
+                count, getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+    }
+}
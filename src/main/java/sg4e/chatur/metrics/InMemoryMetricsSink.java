@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all measurements in memory for scraping through
+ * {@link #snapshot()}. Counters are kept per room; latency histograms are kept
+ * per method across all rooms so that memory does not grow with the number of
+ * rooms.
+ * <p>
+ * Recording is lock-free: counters are {@link LongAdder}s and histograms are
+ * {@link LatencyHistogram}s. Per-method state is created on the first message
+ * of each method and looked up without locking afterwards.
+ */
+public class InMemoryMetricsSink implements MetricsSink {
+
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> parseLatency = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> handlerLatency = new ConcurrentHashMap<>();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram authLatency = new LatencyHistogram();
+
+    @Override
+    public RoomRecorder forRoom(String roomName) {
+        return rooms.computeIfAbsent(roomName, Room::new);
+    }
+
+    /**
+     * Removes the counters of a room, e.g. after it was removed from a pool.
+     * A bot that still records into this sink keeps updating the detached
+     * counters.
+     *
+     * @param roomName
+     */
+    public void removeRoom(String roomName) {
+        rooms.remove(roomName);
+    }
+
+    /**
+     * Copies all counters and histograms.
+     *
+     * @return
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, RoomSnapshot> roomSnapshots = new HashMap<>();
+        for(Room room : rooms.values()) {
+            roomSnapshots.put(room.name, room.snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(),
+                Collections.unmodifiableMap(roomSnapshots),
+                snapshot(parseLatency),
+                snapshot(handlerLatency),
+                connectLatency.snapshot(),
+                authLatency.snapshot());
+    }
+
+    private static Map<String, HistogramSnapshot> snapshot(Map<String, LatencyHistogram> histograms) {
+        Map<String, HistogramSnapshot> snapshots = new HashMap<>();
+        histograms.forEach((method, histogram) -> snapshots.put(method, histogram.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String method) {
+        LatencyHistogram histogram = histograms.get(method);
+        return histogram != null ? histogram : histograms.computeIfAbsent(method, key -> new LatencyHistogram());
+    }
+
+    private final class Room implements RoomRecorder {
+
+        private final String name;
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder frames = new LongAdder();
+        private final LongAdder unknown = new LongAdder();
+        private final ConcurrentMap<String, LongAdder> messages = new ConcurrentHashMap<>();
+
+        Room(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void bytesReceived(int count) {
+            frames.increment();
+            bytes.add(count);
+        }
+
+        @Override
+        public void messageReceived(String method) {
+            LongAdder counter = messages.get(method);
+            if(counter == null) {
+                counter = messages.computeIfAbsent(method, key -> new LongAdder());
+            }
+            counter.increment();
+        }
+
+        @Override
+        public void parsed(String method, long nanos) {
+            histogram(parseLatency, method).record(nanos);
+        }
+
+        @Override
+        public void handled(String method, long nanos) {
+            histogram(handlerLatency, method).record(nanos);
+        }
+
+        @Override
+        public void unknownMethod(String method) {
+            unknown.increment();
+        }
+
+        @Override
+        public void connected(long nanos) {
+            connectLatency.record(nanos);
+        }
+
+        @Override
+        public void authenticated(long nanos) {
+            authLatency.record(nanos);
+        }
+
+        RoomSnapshot snapshot() {
+            Map<String, Long> byMethod = new HashMap<>();
+            messages.forEach((method, counter) -> byMethod.put(method, counter.sum()));
+            return new RoomSnapshot(name, bytes.sum(), frames.sum(), unknown.sum(), Collections.unmodifiableMap(byMethod));
+        }
+    }
+}
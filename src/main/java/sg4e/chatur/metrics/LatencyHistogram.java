@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values (typically nanoseconds) with
+ * log-linear buckets, in the style of HdrHistogram: values below 64 are
+ * counted exactly and larger values fall into one of 32 buckets per power of
+ * two, so every value is recorded with a relative error of at most about 3%.
+ * Values up to 2<sup>36</sup> (about 68 seconds in nanoseconds) are
+ * distinguished; larger values are counted in the last bucket.
+ * <p>
+ * Recording is a single atomic increment into a pre-allocated array and never
+ * allocates.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_BIT = 36;
+    static final int BUCKETS = EXACT_LIMIT + (MAX_BIT - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one value; negative values are ignored.
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if(value >= 0) {
+            counts.incrementAndGet(bucket(value));
+        }
+    }
+
+    /**
+     * Returns a consistent-enough copy of the current counts. Concurrent
+     * recordings may or may not be included.
+     *
+     * @return
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy);
+    }
+
+    static int bucket(long value) {
+        if(value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if(msb >= MAX_BIT) {
+            return BUCKETS - 1;
+        }
+        int shift = msb - SUB_BUCKET_BITS;
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the smallest value counted in {@code bucket}.
+     */
+    static long lowestValue(int bucket) {
+        if(bucket < EXACT_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket - EXACT_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (bucket - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return sub << shift;
+    }
+
+    /**
+     * Returns the largest value counted in {@code bucket}.
+     */
+    static long highestValue(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.metrics;
+
+/**
+ * Receives measurements from {@link sg4e.chatur.ChaturBot}s. A bot asks the
+ * sink for its {@link RoomRecorder} once, when the sink is installed, so
+ * implementations can resolve per-room state up front instead of on every
+ * event.
+ *
+ * @see sg4e.chatur.ChaturBot#setMetricsSink(MetricsSink)
+ */
+public interface MetricsSink {
+
+    /**
+     * A sink that records nothing. Bots skip timing entirely when it is
+     * installed.
+     */
+    MetricsSink NOOP = roomName -> RoomRecorder.NOOP;
+
+    /**
+     * Returns the recorder for one room.
+     *
+     * @param roomName
+     * @return
+     */
+    RoomRecorder forRoom(String roomName);
+
+    /**
+     * Records the measurements of one room. Methods are called from the
+     * WebSocket reading thread (or dispatcher workers for
+     * {@link #handled(String, long)}) and must be thread-safe, non-blocking and
+     * cheap. All methods do nothing by default.
+     */
+    interface RoomRecorder {
+
+        RoomRecorder NOOP = new RoomRecorder() {
+        };
+
+        /**
+         * A WebSocket frame with a payload of {@code bytes} was received.
+         */
+        default void bytesReceived(int bytes) {
+        }
+
+        /**
+         * A message with {@code method} was decoded from a frame. Called for
+         * every message, including unknown methods.
+         */
+        default void messageReceived(String method) {
+        }
+
+        /**
+         * Decoding and binding a message of {@code method} took
+         * {@code nanos}.
+         */
+        default void parsed(String method, long nanos) {
+        }
+
+        /**
+         * The callback for a message of {@code method} took {@code nanos}.
+         */
+        default void handled(String method, long nanos) {
+        }
+
+        /**
+         * A message with a method the bot does not know was received.
+         */
+        default void unknownMethod(String method) {
+        }
+
+        /**
+         * The WebSocket connection was opened in {@code nanos}.
+         */
+        default void connected(long nanos) {
+        }
+
+        /**
+         * Authentication completed {@code nanos} after the connection attempt
+         * started.
+         */
+        default void authenticated(long nanos) {
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.metrics;
+
+import java.util.Map;
+import lombok.Value;
+
+/**
+ * Everything an {@link InMemoryMetricsSink} has recorded, copied at one point
+ * in time for export.
+ */
+@Value
+public class MetricsSnapshot {
+
+    long timestampMillis;
+    /**
+     * Keyed by room name.
+     */
+    Map<String, RoomSnapshot> rooms;
+    /**
+     * Decode and bind time in nanoseconds, keyed by method, across all rooms.
+     */
+    Map<String, HistogramSnapshot> parseLatency;
+    /**
+     * Callback time in nanoseconds, keyed by method, across all rooms.
+     */
+    Map<String, HistogramSnapshot> handlerLatency;
+    HistogramSnapshot connectLatency;
+    HistogramSnapshot authLatency;
+}
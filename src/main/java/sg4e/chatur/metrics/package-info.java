@@ -0,0 +1,4 @@
+/**
+ * Instrumentation of connections and the frame decoding pipeline.
+ */
+package sg4e.chatur.metrics;
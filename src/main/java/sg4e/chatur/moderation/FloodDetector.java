@@ -0,0 +1,315 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.moderation;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.Hashing;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Flags chat floods, repeated messages and copy-paste raids as messages
+ * arrive, in constant memory per room however many users join. Feed it from
+ * a hook or an {@link sg4e.chatur.EventBus}:
+ * <pre>{@code
+ * FloodDetector floods = new FloodDetector();
+ * floods.addListener(verdict -> ...);
+ * bus.subscribe(Topic.ROOM_MESSAGE, floods::onRoomMessage);
+ * }</pre>
+ * <p>
+ * Each room keeps one sliding-window count-min sketch (see
+ * {@link FloodLimits#getWindowMillis()}) in which every message counts its
+ * user, its room, and the fingerprint of its text alone and paired with the
+ * user. Counts are never underestimated; collisions can only inflate them, by
+ * little as long as the sketch is wide compared to the messages in a window.
+ * <p>
+ * Near-duplicates are found with min-hash fingerprints: the text is reduced to
+ * lowercase letters and digits, a rolling hash is taken over every
+ * {@value #SHINGLE}-character substring, and each of {@value #BANDS} hash
+ * functions keeps the smallest value. Two messages share a band with a
+ * probability equal to the overlap of their substrings, so "join my room 123"
+ * and "JOIN my room 456!!" usually match while unrelated messages do not. A
+ * message's duplicate count is the count of its second most common band, so
+ * it needs to match in at least two.
+ * <p>
+ * Rooms are updated under a per-room lock; verdicts are delivered to the
+ * listeners on the calling thread.
+ */
+public class FloodDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FloodDetector.class);
+
+    /**
+     * The default number of counters per row of a room's sketch. With 4 rows
+     * of 5 buckets, a room takes 160 KB.
+     */
+    public static final int DEFAULT_SKETCH_WIDTH = 2048;
+    /**
+     * Messages with fewer letters and digits are not checked for duplicates
+     * across users.
+     */
+    public static final int MIN_DUPLICATE_LENGTH = 10;
+
+    private static final int DEPTH = 4;
+    private static final int BUCKETS = 5;
+    private static final int SHINGLE = 5;
+    private static final int BANDS = 4;
+    /**
+     * Bands paired with the user for {@link FloodVerdict.Reason#REPEAT}.
+     */
+    private static final int REPEAT_BANDS = 2;
+    private static final long SHINGLE_BASE = 0x100000001B3L;
+    private static final long[] BAND_SEEDS = {
+        0x2545F4914F6CDD1DL, 0x9E3779B97F4A7C15L, 0xBF58476D1CE4E5B9L, 0x94D049BB133111EBL
+    };
+    private static final long USER_SALT = 0x6A09E667F3BCC908L;
+    private static final long REPEAT_SALT = 0x3C6EF372FE94F82BL;
+    private static final long ROOM_KEY = 0xA54FF53A5F1D36F1L;
+
+    private final FloodLimits limits;
+    private final int sketchWidth;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final List<FloodListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder verdicts = new LongAdder();
+
+    /**
+     * Creates a detector with {@link FloodLimits#DEFAULT} and
+     * {@link #DEFAULT_SKETCH_WIDTH}.
+     */
+    public FloodDetector() {
+        this(FloodLimits.DEFAULT, DEFAULT_SKETCH_WIDTH);
+    }
+
+    /**
+     * Creates a detector.
+     *
+     * @param limits
+     * @param sketchWidth counters per row of each room's sketch, a power of
+     * two; a room takes {@code 80 * sketchWidth} bytes
+     */
+    public FloodDetector(FloodLimits limits, int sketchWidth) {
+        if(sketchWidth < 2 || Integer.bitCount(sketchWidth) != 1) {
+            throw new IllegalArgumentException("sketchWidth must be a power of two");
+        }
+        if(limits.getWindowMillis() < BUCKETS) {
+            throw new IllegalArgumentException("Window must be at least " + BUCKETS + " milliseconds");
+        }
+        this.limits = limits;
+        this.sketchWidth = sketchWidth;
+    }
+
+    public FloodLimits getLimits() {
+        return limits;
+    }
+
+    public void addListener(FloodListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(FloodListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Checks a chat message received now; usable as an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#ROOM_MESSAGE}.
+     *
+     * @param bot
+     * @param message
+     */
+    public void onRoomMessage(ChaturBot bot, RoomMessage message) {
+        check(bot.getRoomName(), message.getUser(), message.getMessage(), System.currentTimeMillis());
+    }
+
+    /**
+     * Counts a message and returns its verdict, which is also delivered to the
+     * listeners.
+     *
+     * @param roomName
+     * @param user
+     * @param message
+     * @param timestampMillis when the message was sent; should not go
+     * backwards by more than the window
+     * @return null if the message exceeds no limit
+     */
+    public FloodVerdict check(String roomName, String user, String message, long timestampMillis) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            room = rooms.computeIfAbsent(roomName, key -> new Room(limits.getWindowMillis(), sketchWidth));
+        }
+        checked.increment();
+        FloodVerdict.Reason reason;
+        int count;
+        long userHash = Hashing.hash(user);
+        synchronized(room) {
+            int length = fingerprint(message, room.bands);
+            WindowedSketch sketch = room.sketch;
+            int repeats = 0;
+            for(int band = 0; band < REPEAT_BANDS; band++) {
+                repeats = Math.max(repeats, sketch.add(Hashing.mix(userHash ^ room.bands[band]) ^ REPEAT_SALT, timestampMillis));
+            }
+            int userMessages = sketch.add(userHash ^ USER_SALT, timestampMillis);
+            int first = 0, second = 0;
+            for(int band = 0; band < BANDS; band++) {
+                int c = sketch.add(room.bands[band], timestampMillis);
+                if(c > first) {
+                    second = first;
+                    first = c;
+                } else if(c > second) {
+                    second = c;
+                }
+            }
+            int roomMessages = sketch.add(ROOM_KEY, timestampMillis);
+            if(exceeds(repeats, limits.getUserRepeats())) {
+                reason = FloodVerdict.Reason.REPEAT;
+                count = repeats;
+            } else if(exceeds(userMessages, limits.getUserMessages())) {
+                reason = FloodVerdict.Reason.USER_FLOOD;
+                count = userMessages;
+            } else if(length >= MIN_DUPLICATE_LENGTH && exceeds(second, limits.getDuplicates())) {
+                reason = FloodVerdict.Reason.DUPLICATE;
+                count = second;
+            } else if(exceeds(roomMessages, limits.getRoomMessages())) {
+                reason = FloodVerdict.Reason.ROOM_FLOOD;
+                count = roomMessages;
+            } else {
+                return null;
+            }
+        }
+        verdicts.increment();
+        FloodVerdict verdict = new FloodVerdict(reason, roomName, user, message, count, timestampMillis);
+        for(FloodListener listener : listeners) {
+            try {
+                listener.onVerdict(verdict);
+            } catch(RuntimeException ex) {
+                LOG.error("Flood listener failed for room {}", roomName, ex);
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * Discards the counts of a room.
+     *
+     * @param roomName
+     */
+    public void removeRoom(String roomName) {
+        rooms.remove(roomName);
+    }
+
+    /**
+     * Returns the memory taken by the counts of one room, in bytes.
+     *
+     * @return
+     */
+    public long getRoomSizeInBytes() {
+        return 4L * BUCKETS * DEPTH * sketchWidth + 8L * BUCKETS + 8L * BANDS;
+    }
+
+    /**
+     * Returns the number of messages checked.
+     *
+     * @return
+     */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /**
+     * Returns the number of verdicts given.
+     *
+     * @return
+     */
+    public long getVerdictCount() {
+        return verdicts.sum();
+    }
+
+    private static boolean exceeds(int count, int limit) {
+        return limit > 0 && count > limit;
+    }
+
+    /**
+     * Fills {@code bands} with the min-hash of the message's
+     * {@value #SHINGLE}-character substrings.
+     *
+     * @return the number of letters and digits in the message
+     */
+    static int fingerprint(String message, long[] bands) {
+        for(int band = 0; band < BANDS; band++) {
+            bands[band] = Long.MAX_VALUE;
+        }
+        if(message == null) {
+            message = "";
+        }
+        // the hash of the last SHINGLE characters, rolled one character at a time
+        long shingleBaseOut = 1;
+        for(int i = 0; i < SHINGLE; i++) {
+            shingleBaseOut *= SHINGLE_BASE;
+        }
+        char[] window = new char[SHINGLE];
+        long hash = 0;
+        int length = 0;
+        for(int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if(!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            int slot = length % SHINGLE;
+            hash = hash * SHINGLE_BASE + c;
+            if(length >= SHINGLE) {
+                hash -= window[slot] * shingleBaseOut;
+            }
+            window[slot] = c;
+            length++;
+            if(length >= SHINGLE) {
+                offer(bands, hash);
+            }
+        }
+        if(length < SHINGLE) {
+            // too short for a whole shingle: the text itself is the only one,
+            // or the raw message if it has no letters or digits
+            offer(bands, length > 0 ? hash : Hashing.hash(message.trim()));
+        }
+        return length;
+    }
+
+    private static void offer(long[] bands, long shingle) {
+        for(int band = 0; band < BANDS; band++) {
+            long h = Hashing.mix(shingle ^ BAND_SEEDS[band]);
+            if(h < bands[band]) {
+                bands[band] = h;
+            }
+        }
+    }
+
+    private static final class Room {
+
+        final WindowedSketch sketch;
+        final long[] bands = new long[BANDS];
+
+        Room(long windowMillis, int width) {
+            sketch = new WindowedSketch(windowMillis, BUCKETS, DEPTH, width);
+        }
+    }
+}
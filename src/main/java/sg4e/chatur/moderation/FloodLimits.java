@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.moderation;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Value;
+
+/**
+ * The thresholds of a {@link FloodDetector}. Every limit is the number of
+ * messages allowed within the window; the next one gets a verdict. A limit of
+ * 0 disables its check.
+ */
+@Value
+public class FloodLimits {
+
+    /**
+     * At most 8 messages per user, 3 copies of one message per user, 5 copies
+     * of one message across users and 200 messages per room in 10 seconds.
+     */
+    public static final FloodLimits DEFAULT = new FloodLimits(10, TimeUnit.SECONDS, 8, 3, 5, 200);
+
+    long windowMillis;
+    /**
+     * Messages from one user.
+     */
+    int userMessages;
+    /**
+     * Near-duplicates of one message from the same user.
+     */
+    int userRepeats;
+    /**
+     * Near-duplicates of one message from anyone, as in copy-paste raids.
+     * Only messages of at least {@link FloodDetector#MIN_DUPLICATE_LENGTH}
+     * letters and digits are checked, so that everyone saying "lol" is not a
+     * raid.
+     */
+    int duplicates;
+    /**
+     * Messages in the room.
+     */
+    int roomMessages;
+
+    public FloodLimits(long window, TimeUnit unit, int userMessages, int userRepeats, int duplicates, int roomMessages) {
+        if(userMessages < 0 || userRepeats < 0 || duplicates < 0 || roomMessages < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.windowMillis = unit.toMillis(window);
+        if(windowMillis < 1) {
+            throw new IllegalArgumentException("Window must be at least one millisecond");
+        }
+        this.userMessages = userMessages;
+        this.userRepeats = userRepeats;
+        this.duplicates = duplicates;
+        this.roomMessages = roomMessages;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.moderation;
+
+import lombok.Value;
+
+/**
+ * A chat message that exceeded one of the {@link FloodLimits}.
+ */
+@Value
+public class FloodVerdict {
+
+    /**
+     * Which limit was exceeded. When several are, the first in this order is
+     * reported.
+     */
+    public enum Reason {
+        /**
+         * The user sent near-duplicates of this message too often.
+         */
+        REPEAT,
+        /**
+         * The user sent too many messages.
+         */
+        USER_FLOOD,
+        /**
+         * Too many users sent near-duplicates of this message.
+         */
+        DUPLICATE,
+        /**
+         * The room received too many messages.
+         */
+        ROOM_FLOOD
+    }
+
+    Reason reason;
+    String roomName;
+    String user;
+    String message;
+    /**
+     * The estimated number of messages counted against the limit, including
+     * this one; never less than the true number.
+     */
+    int count;
+    long timestampMillis;
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.moderation;
+
+import java.util.Arrays;
+import sg4e.chatur.Hashing;
+
+/**
+ * A count-min sketch over a sliding window: one sketch per bucket of the
+ * window, in a ring. A key's count is the minimum over the rows of the sum of
+ * its counters in the buckets still inside the window, so it is never less
+ * than the true count and exceeds it only by collisions. The memory is fixed
+ * at {@code buckets * depth * width} ints, however many keys are added.
+ * <p>
+ * Not thread-safe.
+ */
+final class WindowedSketch {
+
+    private final int buckets, depth, width, shift;
+    private final long bucketMillis;
+    /**
+     * {@code counts[(bucket * depth + row) * width + column]}
+     */
+    private final int[] counts;
+    private final long[] epochs;
+
+    /**
+     * @param windowMillis
+     * @param buckets number of buckets the window is split into
+     * @param depth number of rows
+     * @param width number of columns per row; a power of two
+     */
+    WindowedSketch(long windowMillis, int buckets, int depth, int width) {
+        if(buckets < 1 || depth < 1 || width < 2 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("buckets and depth must be positive and width a power of two");
+        }
+        if(windowMillis < buckets) {
+            throw new IllegalArgumentException("Window must be at least one millisecond per bucket");
+        }
+        this.buckets = buckets;
+        this.depth = depth;
+        this.width = width;
+        this.shift = 64 - Integer.numberOfTrailingZeros(width);
+        this.bucketMillis = windowMillis / buckets;
+        counts = new int[buckets * depth * width];
+        epochs = new long[buckets];
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * Counts one occurrence of {@code key} at {@code nowMillis}.
+     *
+     * @return the count of the key in the window, including this one
+     */
+    int add(long key, long nowMillis) {
+        long epoch = nowMillis / bucketMillis;
+        int current = (int) Math.floorMod(epoch, (long) buckets);
+        if(epochs[current] < epoch) {
+            int start = current * depth * width;
+            Arrays.fill(counts, start, start + depth * width, 0);
+            epochs[current] = epoch;
+        }
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < depth; row++) {
+            int column = column(key, row);
+            counts[(current * depth + row) * width + column]++;
+            estimate = Math.min(estimate, windowSum(row, column, epoch));
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the count of {@code key} in the window ending at
+     * {@code nowMillis}.
+     */
+    int estimate(long key, long nowMillis) {
+        long epoch = nowMillis / bucketMillis;
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, windowSum(row, column(key, row), epoch));
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the size of the counters in bytes.
+     */
+    long sizeInBytes() {
+        return 4L * counts.length + 8L * epochs.length;
+    }
+
+    private int windowSum(int row, int column, long epoch) {
+        int sum = 0;
+        for(int bucket = 0; bucket < buckets; bucket++) {
+            long age = epoch - epochs[bucket];
+            if(age >= 0 && age < buckets) {
+                sum += counts[(bucket * depth + row) * width + column];
+            }
+        }
+        return sum;
+    }
+
+    private int column(long key, int row) {
+        return (int) (Hashing.mix(key + row * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Detection of floods, repeated messages and raids in chat, in constant
+ * memory per room.
+ */
+package sg4e.chatur.moderation;
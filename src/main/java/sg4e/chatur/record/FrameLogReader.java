@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.record;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a log written by {@link FrameLogWriter}, segment by segment in the
+ * order they were written. The reader is a cursor: call {@link #next()} and
+ * then read the current record's fields.
+ */
+public class FrameLogReader implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "frames-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final List<Path> segments;
+    private int nextSegment;
+    private MappedByteBuffer segment;
+    private byte[] bytes = new byte[4096];
+    private byte[] lastRoom = new byte[0];
+    private String room;
+    private String frame;
+    private long timestamp;
+
+    /**
+     * Opens every segment in {@code directory}.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public FrameLogReader(Path directory) throws IOException {
+        segments = listSegments(directory);
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false if there are no more records
+     * @throws IOException if a segment cannot be opened or is not a frame log
+     */
+    public boolean next() throws IOException {
+        while(true) {
+            if(segment != null && segment.remaining() >= 4) {
+                int frameLength = segment.getInt();
+                if(frameLength > 0) {
+                    readRecord(frameLength);
+                    return true;
+                }
+            }
+            if(nextSegment == segments.size()) {
+                segment = null;
+                return false;
+            }
+            openSegment(segments.get(nextSegment++));
+        }
+    }
+
+    /**
+     * Receive time of the current record, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Room of the current record.
+     *
+     * @return
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Raw frame of the current record.
+     *
+     * @return
+     */
+    public String getFrame() {
+        return frame;
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        nextSegment = segments.size();
+    }
+
+    private void readRecord(int frameLength) {
+        timestamp = segment.getLong();
+        int roomLength = segment.getShort();
+        ensureCapacity(Math.max(roomLength, frameLength));
+        segment.get(bytes, 0, roomLength);
+        if(room == null || !sameBytes(lastRoom, bytes, roomLength)) {
+            lastRoom = Arrays.copyOf(bytes, roomLength);
+            room = new String(lastRoom, StandardCharsets.UTF_8);
+        }
+        segment.get(bytes, 0, frameLength);
+        frame = new String(bytes, 0, frameLength, StandardCharsets.UTF_8);
+    }
+
+    private void openSegment(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(segment.remaining() < FrameLogWriter.SEGMENT_HEADER_SIZE || segment.getInt() != FrameLogWriter.MAGIC) {
+            throw new IOException(file + " is not a frame log segment");
+        }
+        int version = segment.getInt();
+        if(version != FrameLogWriter.VERSION) {
+            throw new IOException(String.format("Unsupported frame log version %d in %s", version, file));
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if(bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int length) {
+        if(a.length != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if(!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path path : stream) {
+                segments.add(path);
+            }
+        }
+        // zero-padded names sort in write order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static String segmentFileName(long number) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
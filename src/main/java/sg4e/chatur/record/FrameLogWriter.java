@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import sg4e.chatur.FrameListener;
+
+/**
+ * Appends raw frames to a segmented, memory-mapped log. Install on bots with
+ * {@link sg4e.chatur.ChaturBot#setFrameListener(FrameListener)}; one writer
+ * can record any number of bots.
+ * <p>
+ * The log is a directory of fixed-size segment files. Each segment starts
+ * with a magic number and format version, followed by records of the form
+ * {@code [int frameLength][long timestampMillis][short roomLength][room][frame]}
+ * with strings in UTF-8. A zero length marks the end of the written part of a
+ * segment. Records are written straight into the mapped file, so appending
+ * involves no system calls except when rolling to a new segment, and recorded
+ * frames survive a crash of the JVM (but not of the OS unless
+ * {@link #flush()} is called).
+ * <p>
+ * A writer never appends to segments that already exist; it starts a new
+ * segment after the last one in the directory.
+ */
+public class FrameLogWriter implements FrameListener, AutoCloseable {
+
+    static final int MAGIC = 0x43424652;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 2;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Map<String, byte[]> roomNames = new HashMap<>();
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    private boolean closed;
+
+    /**
+     * Opens a writer with 64 MiB segments.
+     *
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public FrameLogWriter(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a writer.
+     *
+     * @param directory created if it does not exist
+     * @param segmentSize size of each segment file in bytes; frames larger
+     * than this get a segment of their own
+     * @throws IOException
+     */
+    public FrameLogWriter(Path directory, int segmentSize) throws IOException {
+        if(segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + 4) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        List<Path> existing = FrameLogReader.listSegments(directory);
+        segmentNumber = existing.isEmpty() ? -1 : FrameLogReader.segmentNumber(existing.get(existing.size() - 1));
+    }
+
+    /**
+     * Records a frame; {@link IOException}s are rethrown unchecked.
+     */
+    @Override
+    public void onFrame(String roomName, long timestampMillis, String frame) {
+        try {
+            append(timestampMillis, roomName, frame);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Appends one record. Empty frames are skipped: a zero length marks the
+     * end of a segment, and a bot ignores them anyway.
+     *
+     * @param timestampMillis
+     * @param roomName
+     * @param frame
+     * @throws IOException if a new segment cannot be created
+     * @throws IllegalStateException if the writer is closed
+     */
+    public synchronized void append(long timestampMillis, String roomName, String frame) throws IOException {
+        if(closed) {
+            throw new IllegalStateException("Frame log is closed");
+        }
+        if(frame.isEmpty()) {
+            return;
+        }
+        byte[] room = roomNames.get(roomName);
+        if(room == null) {
+            room = roomName.getBytes(StandardCharsets.UTF_8);
+            if(room.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Room name too long");
+            }
+            roomNames.put(roomName, room);
+        }
+        int frameLength = utf8Length(frame);
+        // keep 4 bytes after every record for the end marker
+        int needed = RECORD_HEADER_SIZE + room.length + frameLength + 4;
+        if(segment == null || segment.remaining() < needed) {
+            roll(needed);
+        }
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putLong(timestampMillis);
+        segment.putShort((short) room.length);
+        segment.put(room);
+        putUtf8(segment, frame);
+        // publish the record by writing its length last
+        segment.putInt(start, frameLength);
+    }
+
+    /**
+     * Forces written records to the storage device.
+     */
+    public synchronized void flush() {
+        if(segment != null) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if(!closed) {
+            flush();
+            closed = true;
+            segment = null;
+        }
+    }
+
+    private void roll(int needed) throws IOException {
+        flush();
+        segmentNumber++;
+        int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + needed);
+        Path file = directory.resolve(FrameLogReader.segmentFileName(segmentNumber));
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+    }
+
+    static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if(c >= 0x80) {
+                if(c < 0x800) {
+                    bytes += 1;
+                } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    static void putUtf8(ByteBuffer buffer, String s) {
+        int length = s.length();
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if(c < 0x80) {
+                buffer.put((byte) c);
+            } else if(c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                // lone surrogates are written as-is, like CESU-8; decoding yields U+FFFD
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
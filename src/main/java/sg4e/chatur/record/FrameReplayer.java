@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.record;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import sg4e.chatur.ChaturBot;
+
+/**
+ * Drives bots from a recorded frame log without a live connection, for
+ * example to reprocess history after changing a handler. Each recorded frame
+ * is passed to {@link ChaturBot#injectFrame(String)} of the bot for its room;
+ * frames of other rooms are skipped.
+ */
+public class FrameReplayer {
+
+    /**
+     * How quickly frames are replayed.
+     */
+    public enum Pacing {
+        /**
+         * Keep the gaps between frames that were recorded.
+         */
+        ORIGINAL,
+        /**
+         * Replay frames back to back.
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    private final Map<String, ChaturBot> bots;
+
+    /**
+     * Replays frames recorded for {@code bot}'s room into it.
+     *
+     * @param bot
+     */
+    public FrameReplayer(ChaturBot bot) {
+        this(Collections.singletonMap(bot.getRoomName(), bot));
+    }
+
+    /**
+     * Replays frames into the bot of their room.
+     *
+     * @param botsByRoom
+     */
+    public FrameReplayer(Map<String, ChaturBot> botsByRoom) {
+        this.bots = new HashMap<>(botsByRoom);
+    }
+
+    /**
+     * Replays every remaining record of {@code reader} on the calling thread.
+     *
+     * @param reader
+     * @param pacing
+     * @return number of frames injected into a bot
+     * @throws IOException if the log cannot be read
+     * @throws InterruptedException if interrupted while pacing
+     * @throws Exception if a bot's callback throws
+     */
+    public long replay(FrameLogReader reader, Pacing pacing) throws Exception {
+        long replayed = 0;
+        long firstTimestamp = -1;
+        long startNanos = System.nanoTime();
+        while(reader.next()) {
+            ChaturBot bot = bots.get(reader.getRoom());
+            if(bot == null) {
+                continue;
+            }
+            if(pacing == Pacing.ORIGINAL) {
+                if(firstTimestamp < 0) {
+                    firstTimestamp = reader.getTimestamp();
+                }
+                long dueNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(reader.getTimestamp() - firstTimestamp);
+                long waitNanos = dueNanos - System.nanoTime();
+                if(waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            }
+            bot.injectFrame(reader.getFrame());
+            replayed++;
+        }
+        return replayed;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Recording raw WebSocket traffic to disk and replaying it into bots.
+ */
+package sg4e.chatur.record;
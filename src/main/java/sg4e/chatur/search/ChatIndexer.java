@@ -0,0 +1,344 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.RoomDirectories;
+import sg4e.chatur.json.RoomMessage;
+
+/**
+ * Builds a full-text index of chat messages on a background thread, for
+ * {@link ChatSearcher}. Subscribe it to an {@link sg4e.chatur.EventBus}:
+ * <pre>
+ * bus.subscribe(Topic.ROOM_MESSAGE, indexer::onRoomMessage);
+ * </pre>
+ * Messages are handed to the indexing thread through a bounded queue, so the
+ * WebSocket threads only pay for an enqueue; if the queue is full the message
+ * is dropped and counted by {@link #getDroppedCount()}.
+ * <p>
+ * The index is partitioned like a {@link sg4e.chatur.archive.ChatArchiveWriter}
+ * archive: one directory per room holding one immutable segment per time
+ * partition. Each segment has a sorted term dictionary and varint-compressed
+ * posting lists with positions, and stores the sender and text of every
+ * message. Messages become searchable once their segment is written: when
+ * its partition ends, when it reaches its document limit, and on
+ * {@link #flush()} and {@link #close()}.
+ */
+public class ChatIndexer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatIndexer.class);
+
+    public static final long DEFAULT_PARTITION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_MAX_DOCS = 64 * 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    private static final long END_CHECK_MILLIS = 1000;
+    private static final Object STOP = new Object();
+
+    private final Path directory;
+    private final long partitionMillis;
+    private final int maxDocs;
+    private final BlockingQueue<Object> queue;
+    private final Map<String, SegmentBuilder> open = new HashMap<>();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Opens an indexer with daily partitions and starts its thread.
+     *
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public ChatIndexer(Path directory) throws IOException {
+        this(directory, DEFAULT_PARTITION_MILLIS, DEFAULT_MAX_DOCS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens an indexer and starts its thread.
+     *
+     * @param directory created if it does not exist
+     * @param partitionMillis length of the time partitions; longer partitions
+     * mean fewer segments for a search to visit
+     * @param maxDocs messages per segment before it is written
+     * @param queueCapacity messages waiting to be indexed before new ones are
+     * dropped
+     * @throws IOException
+     */
+    public ChatIndexer(Path directory, long partitionMillis, int maxDocs, int queueCapacity) throws IOException {
+        if(partitionMillis < 1 || maxDocs < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("partitionMillis, maxDocs and queueCapacity must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.partitionMillis = partitionMillis;
+        this.maxDocs = maxDocs;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        thread = new Thread(this::run, "chaturbot-indexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Indexes a chat message received now; an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#ROOM_MESSAGE}.
+     *
+     * @param bot
+     * @param message
+     */
+    public void onRoomMessage(ChaturBot bot, RoomMessage message) {
+        index(bot.getRoomName(), System.currentTimeMillis(), message.getUser(), message.getMessage());
+    }
+
+    /**
+     * Queues a message for indexing.
+     *
+     * @param room
+     * @param timestampMillis
+     * @param user
+     * @param text
+     * @return false if the message was dropped because the queue is full or
+     * the indexer is closed
+     */
+    public boolean index(String room, long timestampMillis, String user, String text) {
+        if(closed || !queue.offer(new Message(room, timestampMillis, user, text))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every message queued so far has been written to a segment
+     * and is searchable.
+     *
+     * @throws InterruptedException
+     * @throws IllegalStateException if the indexer is closed
+     */
+    public void flush() throws InterruptedException {
+        if(closed) {
+            throw new IllegalStateException("Indexer is closed");
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        queue.put(done);
+        while(!done.await(END_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if(!thread.isAlive()) {
+                // queued behind close(), which has already written everything
+                throw new IllegalStateException("Indexer is closed");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages written to segments.
+     *
+     * @return
+     */
+    public long getIndexedCount() {
+        return indexed.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of messages lost because their segment could not be
+     * written.
+     *
+     * @return
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of messages waiting to be indexed.
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Indexes the queued messages, writes all segments and stops the thread.
+     * Waits for the segments to be written even if interrupted, and then
+     * restores the interrupt status.
+     */
+    @Override
+    public synchronized void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        // the thread is never interrupted, so a segment write cannot be cut
+        // short by a ClosedByInterruptException
+        boolean interrupted = false;
+        while(true) {
+            try {
+                queue.put(STOP);
+                break;
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long nextEndCheck = System.currentTimeMillis() + END_CHECK_MILLIS;
+        while(true) {
+            Object next;
+            try {
+                next = queue.poll(END_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException ex) {
+                continue;
+            }
+            if(next instanceof Message) {
+                add((Message) next);
+            } else if(next instanceof CountDownLatch) {
+                writeAll();
+                ((CountDownLatch) next).countDown();
+            } else if(next == STOP) {
+                // index what raced with close() before it stopped new messages
+                for(Object late : queue) {
+                    if(late instanceof Message) {
+                        add((Message) late);
+                    }
+                }
+                writeAll();
+                for(Object late : queue) {
+                    if(late instanceof CountDownLatch) {
+                        ((CountDownLatch) late).countDown();
+                    }
+                }
+                queue.clear();
+                return;
+            }
+            // checked on a clock rather than when the queue goes idle, so
+            // steady traffic in other rooms cannot hold back ended partitions
+            long now = System.currentTimeMillis();
+            if(now >= nextEndCheck) {
+                writeEnded(now);
+                nextEndCheck = now + END_CHECK_MILLIS;
+            }
+        }
+    }
+
+    private void add(Message message) {
+        long start = Math.floorDiv(message.timestamp, partitionMillis) * partitionMillis;
+        SegmentBuilder builder = open.get(message.room);
+        if(builder != null && builder.getPartitionStart() != start) {
+            write(builder);
+            builder = null;
+        }
+        if(builder == null) {
+            builder = new SegmentBuilder(message.room, start, start + partitionMillis);
+            open.put(message.room, builder);
+        }
+        builder.add(message.timestamp, message.user, message.text);
+        if(builder.getDocs() >= maxDocs) {
+            write(builder);
+            open.remove(message.room);
+        }
+    }
+
+    private void writeAll() {
+        for(SegmentBuilder builder : open.values()) {
+            write(builder);
+        }
+        open.clear();
+    }
+
+    /**
+     * Writes the segments of rooms that have been quiet since their partition
+     * ended.
+     */
+    private void writeEnded(long nowMillis) {
+        for(Iterator<SegmentBuilder> iter = open.values().iterator(); iter.hasNext();) {
+            SegmentBuilder builder = iter.next();
+            if(builder.getPartitionEnd() <= nowMillis) {
+                write(builder);
+                iter.remove();
+            }
+        }
+    }
+
+    private void write(SegmentBuilder builder) {
+        try {
+            Path roomDirectory = Files.createDirectories(directory.resolve(RoomDirectories.directoryName(builder.getRoom())));
+            for(int sequence = 0;; sequence++) {
+                Path file = roomDirectory.resolve(IndexFormat.segmentFileName(builder.getPartitionStart(), builder.getPartitionEnd(), sequence));
+                try(OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    builder.writeTo(out);
+                    break;
+                } catch(FileAlreadyExistsException ex) {
+                    // an earlier segment of the same partition; try the next name
+                }
+            }
+            indexed.addAndGet(builder.getDocs());
+        } catch(IOException ex) {
+            failed.addAndGet(builder.getDocs());
+            LOG.error("Could not write index segment for room {}", builder.getRoom(), ex);
+        }
+    }
+
+    private static final class Message {
+
+        private final String room;
+        private final long timestamp;
+        private final String user, text;
+
+        Message(String room, long timestamp, String user, String text) {
+            this.room = room;
+            this.timestamp = timestamp;
+            this.user = user;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import sg4e.chatur.RoomDirectories;
+
+/**
+ * Searches an index built by {@link ChatIndexer}, newest messages first.
+ * <p>
+ * Segments are chosen by room and by the time partition in their file name,
+ * and visited from the newest partition back; the search stops as soon as
+ * no older partition can hold a message newer than the hits already found.
+ * Within a segment, terms are found by binary search of the mapped term
+ * table and posting lists are decoded only for the query's terms. Directory
+ * listings are cached until a directory changes, and recently used segments
+ * are kept mapped. Time ranges are half-open,
+ * {@code [fromMillis, toMillis)}.
+ * <p>
+ * Searchers are thread-safe and see segments written after they were
+ * created.
+ */
+public class ChatSearcher {
+
+    private static final int CACHED_SEGMENTS = 4096;
+
+    private final Path directory;
+    private final Map<Path, Listing> listings = new HashMap<>();
+    private final Map<Path, IndexSegment> segments = new LinkedHashMap<Path, IndexSegment>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, IndexSegment> eldest) {
+            return size() > CACHED_SEGMENTS;
+        }
+    };
+
+    /**
+     * Opens the index in {@code directory}.
+     *
+     * @param directory
+     */
+    public ChatSearcher(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Finds the newest messages matching {@code query}.
+     *
+     * @param query
+     * @param room null to search every room
+     * @param fromMillis
+     * @param toMillis
+     * @param limit maximum number of hits
+     * @return hits, newest first
+     * @throws IOException if a segment cannot be read
+     */
+    public List<SearchHit> search(Query query, String room, long fromMillis, long toMillis, int limit) throws IOException {
+        if(limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        List<Candidate> candidates = candidates(room, fromMillis, toMillis);
+        candidates.sort(Comparator.comparingLong((Candidate c) -> c.partitionEnd).reversed());
+        // oldest hit first, so that it is the one replaced
+        PriorityQueue<SearchHit> hits = new PriorityQueue<>(Comparator.comparingLong(SearchHit::getTimestamp));
+        for(Candidate candidate : candidates) {
+            if(hits.size() == limit && candidate.partitionEnd <= hits.peek().getTimestamp()) {
+                break;
+            }
+            IndexSegment segment = segment(candidate.path);
+            if(!segment.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            int[] docs = query.matches(segment);
+            for(int i = docs.length - 1; i >= 0; i--) {
+                long timestamp = segment.timestamp(docs[i]);
+                if(timestamp < fromMillis || timestamp >= toMillis) {
+                    continue;
+                }
+                if(hits.size() == limit) {
+                    if(timestamp <= hits.peek().getTimestamp()) {
+                        continue;
+                    }
+                    hits.poll();
+                }
+                hits.add(segment.hit(docs[i]));
+            }
+        }
+        List<SearchHit> result = new ArrayList<>(hits);
+        result.sort(Comparator.comparingLong(SearchHit::getTimestamp).reversed());
+        return result;
+    }
+
+    /**
+     * Counts the messages matching {@code query} without reading them.
+     *
+     * @param query
+     * @param room null to search every room
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     * @throws IOException if a segment cannot be read
+     */
+    public long count(Query query, String room, long fromMillis, long toMillis) throws IOException {
+        long count = 0;
+        for(Candidate candidate : candidates(room, fromMillis, toMillis)) {
+            IndexSegment segment = segment(candidate.path);
+            if(!segment.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            for(int doc : query.matches(segment)) {
+                long timestamp = segment.timestamp(doc);
+                if(timestamp >= fromMillis && timestamp < toMillis) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private IndexSegment segment(Path path) throws IOException {
+        synchronized(segments) {
+            IndexSegment segment = segments.get(path);
+            if(segment == null) {
+                segment = IndexSegment.open(path);
+                segments.put(path, segment);
+            }
+            return segment;
+        }
+    }
+
+    private List<Candidate> candidates(String room, long fromMillis, long toMillis) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        for(Path roomDirectory : roomDirectories(room)) {
+            for(Candidate candidate : listing(roomDirectory)) {
+                if(candidate.partitionEnd > fromMillis && candidate.partitionStart < toMillis) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the segments of a room, listing its directory again only when
+     * it has been modified.
+     */
+    private List<Candidate> listing(Path roomDirectory) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(roomDirectory);
+        Listing listing;
+        synchronized(listings) {
+            listing = listings.get(roomDirectory);
+        }
+        if(listing != null && listing.modified.equals(modified)) {
+            return listing.candidates;
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(roomDirectory, "*" + IndexFormat.SEGMENT_SUFFIX)) {
+            for(Path path : stream) {
+                long[] bounds = IndexFormat.partitionBounds(path.getFileName().toString());
+                if(bounds != null) {
+                    candidates.add(new Candidate(path, bounds[0], bounds[1]));
+                }
+            }
+        }
+        synchronized(listings) {
+            listings.put(roomDirectory, new Listing(modified, candidates));
+        }
+        return candidates;
+    }
+
+    private List<Path> roomDirectories(String room) throws IOException {
+        if(room != null) {
+            Path roomDirectory = directory.resolve(RoomDirectories.directoryName(room));
+            return Files.isDirectory(roomDirectory) ? Collections.singletonList(roomDirectory) : Collections.emptyList();
+        }
+        List<Path> rooms = new ArrayList<>();
+        if(Files.isDirectory(directory)) {
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+                for(Path path : stream) {
+                    rooms.add(path);
+                }
+            }
+        }
+        return rooms;
+    }
+
+    private static final class Candidate {
+
+        private final Path path;
+        private final long partitionStart, partitionEnd;
+
+        Candidate(Path path, long partitionStart, long partitionEnd) {
+            this.path = path;
+            this.partitionStart = partitionStart;
+            this.partitionEnd = partitionEnd;
+        }
+    }
+
+    private static final class Listing {
+
+        private final FileTime modified;
+        private final List<Candidate> candidates;
+
+        Listing(FileTime modified, List<Candidate> candidates) {
+            this.modified = modified;
+            this.candidates = candidates;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Layout of index segments, shared by {@link SegmentBuilder} and
+ * {@link IndexSegment}.
+ * <p>
+ * An index is a directory with one subdirectory per room. Each segment file
+ * indexes the messages of one room within one time partition, and its name
+ * holds the partition's bounds so that searches can skip it without opening
+ * it:
+ * <pre>
+ * [int MAGIC][int VERSION]
+ * [postings]     per term: [varint docFreq] then per document
+ *                [varint docDelta][varint freq][varint positionDelta...]
+ * [terms]        sorted by UTF-8 bytes, each [varint length][bytes]
+ *                [varint postingsOffset]
+ * [term table]   [int termOffset] per term, for binary search
+ * [documents]    [long timestamp][int storedOffset] per document
+ * [stored]       per document [varint userLength+1][user]
+ *                [varint textLength+1][text]
+ * [footer]       [utf room][int docs][int terms][long minTimestamp]
+ *                [long maxTimestamp][int offset] for each section
+ * [int footerOffset][int MAGIC]
+ * </pre>
+ * Documents are numbered in the order they were indexed. A sender is indexed
+ * as the term {@code @user}.
+ */
+final class IndexFormat {
+
+    static final int MAGIC = 0x43424958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 8;
+    static final int DOCUMENT_ENTRY_SIZE = 12;
+    static final String SEGMENT_SUFFIX = ".cbi";
+
+    private IndexFormat() {
+    }
+
+    static String segmentFileName(long partitionStart, long partitionEnd, int sequence) {
+        return String.format("%016d-%016d-%04d%s", partitionStart, partitionEnd, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns {@code [partitionStart, partitionEnd]} from a segment file
+     * name, or null if the name is not one.
+     */
+    static long[] partitionBounds(String fileName) {
+        if(!fileName.endsWith(SEGMENT_SUFFIX)) {
+            return null;
+        }
+        String[] parts = fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()).split("-");
+        if(parts.length != 3) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int b = buffer.get();
+        if(b >= 0) {
+            return b;
+        }
+        int value = b & 0x7F;
+        int shift = 7;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    /**
+     * A growable byte array.
+     */
+    static final class Sink {
+
+        byte[] bytes;
+        int size;
+
+        Sink(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void putBytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            bytes[size++] = (byte) (v >>> 24);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) v;
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putVarint(int v) {
+            ensure(5);
+            while((v & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        void putAll(Sink other) {
+            ensure(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        private void ensure(int extra) {
+            if(size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import static sg4e.chatur.search.IndexFormat.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped index segment. Lookups read the mapped file directly, so
+ * an open segment costs little heap however many terms it has. Safe for use
+ * by several threads.
+ */
+final class IndexSegment {
+
+    private final ByteBuffer buffer;
+    private final String room;
+    private final int docs, terms;
+    private final long minTimestamp, maxTimestamp;
+    private final int postingsOffset, termTableOffset, documentsOffset, storedOffset;
+
+    private IndexSegment(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int size = buffer.limit();
+        if(size < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException("Not an index segment");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        ByteBuffer footer = buffer.duplicate();
+        footer.position(buffer.getInt(size - TRAILER_SIZE));
+        room = readString(footer);
+        docs = footer.getInt();
+        terms = footer.getInt();
+        minTimestamp = footer.getLong();
+        maxTimestamp = footer.getLong();
+        postingsOffset = footer.getInt();
+        // the terms themselves are reached through the term table
+        footer.getInt();
+        termTableOffset = footer.getInt();
+        documentsOffset = footer.getInt();
+        storedOffset = footer.getInt();
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new IndexSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch(IOException ex) {
+            throw new IOException(file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    int getDocs() {
+        return docs;
+    }
+
+    boolean overlaps(long fromMillis, long toMillis) {
+        return maxTimestamp >= fromMillis && minTimestamp < toMillis;
+    }
+
+    /**
+     * Binary searches the term table.
+     *
+     * @return the term's postings, or null if no document has the term
+     */
+    Postings postings(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entries = buffer.duplicate();
+        int low = 0, high = terms - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            entries.position(buffer.getInt(termTableOffset + mid * 4));
+            int length = readVarint(entries);
+            int cmp = compare(entries, entries.position(), length, key);
+            if(cmp < 0) {
+                low = mid + 1;
+            } else if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                entries.position(entries.position() + length);
+                ByteBuffer data = buffer.duplicate();
+                data.position(postingsOffset + readVarint(entries));
+                return new Postings(data);
+            }
+        }
+        return null;
+    }
+
+    long timestamp(int doc) {
+        return buffer.getLong(documentsOffset + doc * DOCUMENT_ENTRY_SIZE);
+    }
+
+    SearchHit hit(int doc) {
+        ByteBuffer stored = buffer.duplicate();
+        stored.position(storedOffset + buffer.getInt(documentsOffset + doc * DOCUMENT_ENTRY_SIZE + 8));
+        String user = readString(stored);
+        String text = readString(stored);
+        return new SearchHit(room, timestamp(doc), user, text);
+    }
+
+    private static int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for(int i = 0; i < common; i++) {
+            int c = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer) - 1;
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import static sg4e.chatur.search.IndexFormat.readVarint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A forward-only cursor over the documents of one term, and the positions of
+ * the term within the current document.
+ */
+final class Postings {
+
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final ByteBuffer data;
+    private final int docFreq;
+    private int remainingDocs;
+    private int doc = -1;
+    private int lastDoc;
+    private int freq;
+    private int remainingPositions;
+    private int position;
+
+    Postings(ByteBuffer data) {
+        this.data = data;
+        docFreq = readVarint(data);
+        remainingDocs = docFreq;
+    }
+
+    int docFreq() {
+        return docFreq;
+    }
+
+    int doc() {
+        return doc;
+    }
+
+    int nextDoc() {
+        while(remainingPositions > 0) {
+            readVarint(data);
+            remainingPositions--;
+        }
+        if(remainingDocs == 0) {
+            doc = NO_MORE_DOCS;
+            return doc;
+        }
+        remainingDocs--;
+        lastDoc += readVarint(data);
+        doc = lastDoc;
+        freq = readVarint(data);
+        remainingPositions = freq;
+        position = 0;
+        return doc;
+    }
+
+    /**
+     * Moves to the first document at or after {@code target}.
+     */
+    int advance(int target) {
+        while(doc < target) {
+            nextDoc();
+        }
+        return doc;
+    }
+
+    int freq() {
+        return freq;
+    }
+
+    /**
+     * Returns the next position of the term in the current document; call at
+     * most {@link #freq()} times per document.
+     */
+    int nextPosition() {
+        remainingPositions--;
+        position += readVarint(data);
+        return position;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A search over indexed messages. Terms are matched after the same
+ * tokenization as indexed text, so matching ignores case and punctuation.
+ */
+public abstract class Query {
+
+    private static final int[] NO_DOCS = new int[0];
+
+    Query() {
+    }
+
+    /**
+     * Matches messages containing {@code word}. A word that tokenizes into
+     * several terms, such as {@code don't}, is matched as a phrase.
+     *
+     * @param word
+     * @return
+     * @throws IllegalArgumentException if {@code word} has no letters or
+     * digits
+     */
+    public static Query term(String word) {
+        return phrase(word);
+    }
+
+    /**
+     * Matches messages containing the terms of {@code text} next to each
+     * other and in order.
+     *
+     * @param text
+     * @return
+     * @throws IllegalArgumentException if {@code text} has no letters or
+     * digits
+     */
+    public static Query phrase(String text) {
+        List<String> terms = new ArrayList<>();
+        Tokenizer.tokenize(text, (term, position) -> terms.add(term));
+        if(terms.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to search for in \"" + text + "\"");
+        }
+        return terms.size() == 1 ? new TermQuery(terms.get(0), terms.get(0)) : new PhraseQuery(terms);
+    }
+
+    /**
+     * Matches messages sent by {@code username}, ignoring case.
+     *
+     * @param username
+     * @return
+     */
+    public static Query user(String username) {
+        return new TermQuery(Tokenizer.userTerm(username), "from:" + username);
+    }
+
+    /**
+     * Matches messages matched by every query.
+     *
+     * @param queries
+     * @return
+     */
+    public static Query and(Query... queries) {
+        if(queries.length == 0) {
+            throw new IllegalArgumentException("No queries");
+        }
+        return queries.length == 1 ? queries[0] : new AndQuery(Arrays.asList(queries));
+    }
+
+    /**
+     * Parses a query of space-separated parts, all of which must match:
+     * {@code from:user} for a sender, {@code "quoted text"} for a phrase and
+     * anything else for a term. For example
+     * {@code from:someone "nice show" tip}.
+     *
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if the query has nothing to search for
+     * or an unterminated quote
+     */
+    public static Query parse(String query) {
+        List<Query> parts = new ArrayList<>();
+        int i = 0;
+        int length = query.length();
+        while(i < length) {
+            char c = query.charAt(i);
+            if(Character.isWhitespace(c)) {
+                i++;
+            } else if(c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if(end < 0) {
+                    throw new IllegalArgumentException("Unterminated quote in " + query);
+                }
+                parts.add(phrase(query.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                int end = i;
+                while(end < length && !Character.isWhitespace(query.charAt(end))) {
+                    end++;
+                }
+                String word = query.substring(i, end);
+                if(word.startsWith("from:") && word.length() > 5) {
+                    parts.add(user(word.substring(5)));
+                } else {
+                    parts.add(term(word));
+                }
+                i = end;
+            }
+        }
+        if(parts.isEmpty()) {
+            throw new IllegalArgumentException("Empty query");
+        }
+        return and(parts.toArray(new Query[0]));
+    }
+
+    /**
+     * Returns the matching documents of {@code segment} in ascending order.
+     */
+    abstract int[] matches(IndexSegment segment);
+
+    private static final class TermQuery extends Query {
+
+        private final String term;
+        private final String display;
+
+        TermQuery(String term, String display) {
+            this.term = term;
+            this.display = display;
+        }
+
+        @Override
+        int[] matches(IndexSegment segment) {
+            Postings postings = segment.postings(term);
+            if(postings == null) {
+                return NO_DOCS;
+            }
+            int[] docs = new int[postings.docFreq()];
+            for(int i = 0; i < docs.length; i++) {
+                docs[i] = postings.nextDoc();
+            }
+            return docs;
+        }
+
+        @Override
+        public String toString() {
+            return display;
+        }
+    }
+
+    private static final class PhraseQuery extends Query {
+
+        private final List<String> terms;
+
+        PhraseQuery(List<String> terms) {
+            this.terms = Collections.unmodifiableList(terms);
+        }
+
+        @Override
+        int[] matches(IndexSegment segment) {
+            Postings[] postings = new Postings[terms.size()];
+            for(int i = 0; i < postings.length; i++) {
+                postings[i] = segment.postings(terms.get(i));
+                if(postings[i] == null) {
+                    return NO_DOCS;
+                }
+            }
+            int[] docs = new int[16];
+            int count = 0;
+            int[][] positions = new int[postings.length][];
+            int doc = postings[0].nextDoc();
+            outer:
+            while(doc != Postings.NO_MORE_DOCS) {
+                for(int i = 1; i < postings.length; i++) {
+                    int other = postings[i].advance(doc);
+                    if(other != doc) {
+                        doc = postings[0].advance(other);
+                        continue outer;
+                    }
+                }
+                for(int i = 0; i < postings.length; i++) {
+                    positions[i] = readPositions(postings[i], positions[i]);
+                }
+                if(adjacent(positions, postings)) {
+                    if(count == docs.length) {
+                        docs = Arrays.copyOf(docs, count * 2);
+                    }
+                    docs[count++] = doc;
+                }
+                doc = postings[0].nextDoc();
+            }
+            return Arrays.copyOf(docs, count);
+        }
+
+        private static int[] readPositions(Postings postings, int[] into) {
+            int freq = postings.freq();
+            if(into == null || into.length < freq) {
+                into = new int[Math.max(freq, 4)];
+            }
+            for(int i = 0; i < freq; i++) {
+                into[i] = postings.nextPosition();
+            }
+            return into;
+        }
+
+        private static boolean adjacent(int[][] positions, Postings[] postings) {
+            candidates:
+            for(int p = 0; p < postings[0].freq(); p++) {
+                int start = positions[0][p];
+                for(int i = 1; i < positions.length; i++) {
+                    if(Arrays.binarySearch(positions[i], 0, postings[i].freq(), start + i) < 0) {
+                        continue candidates;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return '"' + String.join(" ", terms) + '"';
+        }
+    }
+
+    private static final class AndQuery extends Query {
+
+        private final List<Query> queries;
+
+        AndQuery(List<Query> queries) {
+            this.queries = Collections.unmodifiableList(new ArrayList<>(queries));
+        }
+
+        @Override
+        int[] matches(IndexSegment segment) {
+            int[] docs = null;
+            for(Query query : queries) {
+                int[] next = query.matches(segment);
+                docs = docs == null ? next : intersect(docs, next);
+                if(docs.length == 0) {
+                    break;
+                }
+            }
+            return docs;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, count = 0;
+            while(i < a.length && j < b.length) {
+                if(a[i] < b[j]) {
+                    i++;
+                } else if(a[i] > b[j]) {
+                    j++;
+                } else {
+                    out[count++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, count);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            for(Query query : queries) {
+                if(s.length() > 0) {
+                    s.append(' ');
+                }
+                s.append(query);
+            }
+            return s.toString();
+        }
+    }
+}
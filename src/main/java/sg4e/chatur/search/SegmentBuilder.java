@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+import static sg4e.chatur.search.IndexFormat.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds one index segment in memory; see {@link IndexFormat} for the file
+ * layout. Used only by the indexing thread.
+ */
+final class SegmentBuilder {
+
+    private final String room;
+    private final long partitionStart, partitionEnd;
+    private final Map<String, TermPostings> terms = new HashMap<>();
+    private final List<TermPostings> documentTerms = new ArrayList<>();
+    private final Sink documents = new Sink(1024);
+    private final Sink stored = new Sink(4096);
+    private int docs;
+    private long minTimestamp, maxTimestamp;
+
+    SegmentBuilder(String room, long partitionStart, long partitionEnd) {
+        this.room = room;
+        this.partitionStart = partitionStart;
+        this.partitionEnd = partitionEnd;
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    long getPartitionStart() {
+        return partitionStart;
+    }
+
+    long getPartitionEnd() {
+        return partitionEnd;
+    }
+
+    int getDocs() {
+        return docs;
+    }
+
+    void add(long timestamp, String user, String text) {
+        int doc = docs++;
+        if(doc == 0) {
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+        documents.putLong(timestamp);
+        documents.putInt(stored.size);
+        putString(stored, user);
+        putString(stored, text);
+        if(text != null) {
+            Tokenizer.tokenize(text, (term, position) -> postings(term).addPosition(doc, position));
+        }
+        if(user != null) {
+            postings(Tokenizer.userTerm(user)).addPosition(doc, 0);
+        }
+        for(TermPostings postings : documentTerms) {
+            postings.finishDocument();
+        }
+        documentTerms.clear();
+    }
+
+    private TermPostings postings(String term) {
+        TermPostings postings = terms.get(term);
+        if(postings == null) {
+            postings = new TermPostings();
+            terms.put(term, postings);
+        }
+        if(postings.positionCount == 0) {
+            documentTerms.add(postings);
+        }
+        return postings;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        List<byte[]> sorted = new ArrayList<>(terms.size());
+        for(String term : terms.keySet()) {
+            sorted.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        sorted.sort(SegmentBuilder::compareBytes);
+        Sink file = new Sink(HEADER_SIZE + documents.size + stored.size + terms.size() * 16);
+        file.putInt(MAGIC);
+        file.putInt(VERSION);
+        int postingsOffset = file.size;
+        int[] termPostings = new int[sorted.size()];
+        for(int i = 0; i < sorted.size(); i++) {
+            TermPostings postings = terms.get(new String(sorted.get(i), StandardCharsets.UTF_8));
+            termPostings[i] = file.size - postingsOffset;
+            file.putVarint(postings.docFreq);
+            file.putAll(postings.data);
+        }
+        int termsOffset = file.size;
+        int[] termOffsets = new int[sorted.size()];
+        for(int i = 0; i < sorted.size(); i++) {
+            termOffsets[i] = file.size;
+            file.putVarint(sorted.get(i).length);
+            file.putBytes(sorted.get(i));
+            file.putVarint(termPostings[i]);
+        }
+        int termTableOffset = file.size;
+        for(int offset : termOffsets) {
+            file.putInt(offset);
+        }
+        int documentsOffset = file.size;
+        file.putAll(documents);
+        int storedOffset = file.size;
+        file.putAll(stored);
+        int footerOffset = file.size;
+        putString(file, room);
+        file.putInt(docs);
+        file.putInt(sorted.size());
+        file.putLong(minTimestamp);
+        file.putLong(maxTimestamp);
+        file.putInt(postingsOffset);
+        file.putInt(termsOffset);
+        file.putInt(termTableOffset);
+        file.putInt(documentsOffset);
+        file.putInt(storedOffset);
+        file.putInt(footerOffset);
+        file.putInt(MAGIC);
+        out.write(file.bytes, 0, file.size);
+    }
+
+    private static void putString(Sink sink, String s) {
+        if(s == null) {
+            sink.putVarint(0);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        sink.putVarint(utf8.length + 1);
+        sink.putBytes(utf8);
+    }
+
+    static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for(int i = 0; i < length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static final class TermPostings {
+
+        private final Sink data = new Sink(8);
+        private int docFreq;
+        private int lastDoc;
+        private int[] positions = new int[2];
+        private int positionCount;
+        private int doc;
+
+        /**
+         * Records an occurrence in {@code doc}, the document being added.
+         */
+        void addPosition(int doc, int position) {
+            if(positionCount == positions.length) {
+                positions = Arrays.copyOf(positions, positionCount * 2);
+            }
+            this.doc = doc;
+            positions[positionCount++] = position;
+        }
+
+        void finishDocument() {
+            data.putVarint(doc - lastDoc);
+            data.putVarint(positionCount);
+            int last = 0;
+            for(int i = 0; i < positionCount; i++) {
+                data.putVarint(positions[i] - last);
+                last = positions[i];
+            }
+            lastDoc = doc;
+            docFreq++;
+            positionCount = 0;
+        }
+    }
+}
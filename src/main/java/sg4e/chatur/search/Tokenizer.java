@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.search;
+
+/**
+ * Splits text into lower-case terms made of letters and digits; everything
+ * else separates terms. The same rules are applied to indexed messages and
+ * to queries.
+ */
+final class Tokenizer {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * Prefix of the terms that index the sender of a message; tokens never
+     * contain it.
+     */
+    static final String USER_PREFIX = "@";
+
+    interface TermConsumer {
+
+        void accept(String term, int position);
+    }
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Passes each term of {@code text} to {@code consumer} with its position,
+     * counting from 0. Terms longer than {@link #MAX_TERM_LENGTH} are
+     * truncated.
+     *
+     * @return number of terms
+     */
+    static int tokenize(String text, TermConsumer consumer) {
+        StringBuilder term = new StringBuilder();
+        int position = 0;
+        int length = text.length();
+        for(int i = 0; i < length;) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if(Character.isLetterOrDigit(cp)) {
+                if(term.length() < MAX_TERM_LENGTH) {
+                    term.appendCodePoint(Character.toLowerCase(cp));
+                }
+            } else if(term.length() > 0) {
+                consumer.accept(term.toString(), position++);
+                term.setLength(0);
+            }
+        }
+        if(term.length() > 0) {
+            consumer.accept(term.toString(), position++);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the term that indexes messages sent by {@code user}.
+     */
+    static String userTerm(String user) {
+        return USER_PREFIX + user.toLowerCase();
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Full-text indexing and search of chat messages.
+ */
+package sg4e.chatur.search;
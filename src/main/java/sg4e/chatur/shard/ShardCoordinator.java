@@ -0,0 +1,943 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.ChaturBotPool.BotFactory;
+import sg4e.chatur.EventBus;
+import sg4e.chatur.EventDispatcher;
+import sg4e.chatur.json.ModelCodec;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.users.UserRegistry;
+
+/**
+ * Spreads rooms across several local worker JVMs, each running a
+ * {@link ShardWorker}, so that the WebSocket connections, their threads and
+ * the decoding and binding of their messages are not all in one process.
+ * Every room still has a {@link ChaturBot} in this process, created by the
+ * {@link BotFactory} but never connected. Its worker decodes only the methods
+ * that bot wants, per {@link ChaturBot#wantsMethod(String)}, and sends the
+ * chat messages and notices as bound models, which are injected into the bot
+ * with {@link ChaturBot#injectRoomMessage} and
+ * {@link ChaturBot#injectNotification}, and other events with
+ * {@link ChaturBot#injectMessage(String, String...)}. Hooks, {@link EventBus}
+ * subscriptions and their filters, dispatchers and user registries thus work
+ * as they do for connected bots, except that a subscription to a method
+ * nothing wanted before reaches the workers with the next monitoring pass,
+ * within a second; events of that method until then are not forwarded.
+ * <p>
+ * The bots in this process send nothing: sending messages through them is
+ * not supported, and their room count queries fail because they are not
+ * started. {@link #queryRoomCount(String)} asks the room's worker instead.
+ * <p>
+ * Workers connect back to this coordinator over loopback TCP and speak the
+ * binary framing of {@link ShardProtocol}. A new room goes to the worker with
+ * the lowest message rate. When a worker dies its rooms are moved to the
+ * remaining workers at once and a replacement is started; when a worker's
+ * rate exceeds the mean by {@code overloadFactor}, its busiest rooms that
+ * narrow the gap are moved to the least loaded worker, once every
+ * {@code rebalanceInterval}. A moved room reconnects from its new worker, so
+ * its events during the handshake are lost.
+ */
+public class ShardCoordinator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private static final long MONITOR_INTERVAL_MILLIS = 1000;
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+    /**
+     * Frames waiting to be written to one worker; a worker that falls this
+     * far behind is treated as lost.
+     */
+    private static final int OUTBOX_CAPACITY = 4096;
+    private static final byte[] STOP = new byte[0];
+    /**
+     * Weight of the latest load report in a room's message rate.
+     */
+    private static final double RATE_SMOOTHING = 0.5;
+
+    private final BotFactory factory;
+    private final double overloadFactor;
+    private final long rebalanceIntervalMillis;
+    private final List<String> jvmOptions;
+    private final String token;
+    private final ServerSocket server;
+    /**
+     * The current worker of each slot; replaced when a worker dies.
+     */
+    private final Worker[] workers;
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final ConcurrentMap<Integer, Room> roomsById = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong countRequests = new AtomicLong();
+    private int nextRoomId;
+    private long lastRebalanceMillis;
+    private volatile EventBus eventBus;
+    private volatile EventDispatcher dispatcher;
+    private volatile UserRegistry userRegistry;
+    private volatile boolean closed;
+
+    /**
+     * Starts {@code workers} workers for plain {@link ChaturBot}s with default
+     * JVM options, rebalancing at most every 10 seconds when a worker has 1.5
+     * times the mean message rate.
+     *
+     * @param workers
+     * @throws IOException if the coordinator cannot listen or a worker cannot
+     * be started
+     */
+    public ShardCoordinator(int workers) throws IOException {
+        this(ChaturBot::new, workers, Collections.emptyList(), 1.5, TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Starts the workers. They run with the class path of this process.
+     *
+     * @param factory creates the bot of each room in this process
+     * @param workers number of worker processes
+     * @param jvmOptions options for the worker JVMs, such as {@code -Xmx256m}
+     * @param overloadFactor how many times the mean message rate a worker may
+     * reach before rooms are moved off it; greater than 1
+     * @param rebalanceIntervalMillis minimum time between two rebalances
+     * @throws IOException if the coordinator cannot listen or a worker cannot
+     * be started
+     */
+    public ShardCoordinator(BotFactory factory, int workers, List<String> jvmOptions, double overloadFactor, long rebalanceIntervalMillis) throws IOException {
+        if(workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        if(!(overloadFactor > 1)) {
+            throw new IllegalArgumentException("overloadFactor must be greater than 1");
+        }
+        if(rebalanceIntervalMillis < 1) {
+            throw new IllegalArgumentException("rebalanceIntervalMillis must be positive");
+        }
+        this.factory = factory;
+        this.overloadFactor = overloadFactor;
+        this.rebalanceIntervalMillis = rebalanceIntervalMillis;
+        this.jvmOptions = new ArrayList<>(jvmOptions);
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder();
+        for(byte b : secret) {
+            hex.append(String.format("%02x", b));
+        }
+        token = hex.toString();
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.workers = new Worker[workers];
+        Thread acceptor = new Thread(this::accept, "chaturbot-shard-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chaturbot-shard-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastRebalanceMillis = System.currentTimeMillis();
+        try {
+            synchronized(this) {
+                for(int i = 0; i < workers; i++) {
+                    this.workers[i] = launch(i);
+                }
+            }
+        } catch(IOException ex) {
+            close();
+            throw ex;
+        }
+        scheduler.scheduleWithFixedDelay(this::monitor, MONITOR_INTERVAL_MILLIS, MONITOR_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the bot for a room and assigns the room to the least loaded
+     * worker, which connects it.
+     *
+     * @param roomName
+     * @param URL
+     * @param connectAuth
+     * @return the bot in this process; its events arrive once the worker has
+     * connected
+     * @throws IOException if the bot cannot be created
+     * @throws IllegalStateException if the room is already assigned, or the
+     * coordinator is closed
+     */
+    public synchronized ChaturBot addRoom(String roomName, String URL, String connectAuth) throws IOException {
+        if(closed) {
+            throw new IllegalStateException("Coordinator is closed");
+        }
+        if(rooms.containsKey(roomName)) {
+            throw new IllegalStateException(String.format("Room %s is already assigned", roomName));
+        }
+        ChaturBot bot = factory.create(roomName, URL, connectAuth);
+        EventDispatcher currentDispatcher = dispatcher;
+        if(currentDispatcher != null) {
+            bot.setDispatcher(currentDispatcher);
+        }
+        UserRegistry registry = userRegistry;
+        if(registry != null) {
+            bot.setUserRegistry(registry);
+        }
+        EventBus bus = eventBus;
+        if(bus != null) {
+            bot.setEventBus(bus);
+        }
+        Room room = new Room(nextRoomId++, roomName, URL, connectAuth, bot);
+        rooms.put(roomName, room);
+        roomsById.put(room.id, room);
+        Worker target = leastLoaded();
+        if(target != null) {
+            assign(room, target);
+        }
+        return bot;
+    }
+
+    /**
+     * Removes a room and disconnects it on its worker. Does nothing if the
+     * room is not assigned.
+     *
+     * @param roomName
+     * @return the removed bot, or null
+     */
+    public synchronized ChaturBot removeRoom(String roomName) {
+        Room room = rooms.remove(roomName);
+        if(room == null) {
+            return null;
+        }
+        roomsById.remove(room.id);
+        unassign(room);
+        return room.bot;
+    }
+
+    /**
+     * Publishes the events of every room, including rooms added later, to
+     * {@code bus}. Pass null to remove.
+     *
+     * @param bus
+     */
+    public synchronized void setEventBus(EventBus bus) {
+        this.eventBus = bus;
+        for(Room room : rooms.values()) {
+            room.bot.setEventBus(bus);
+        }
+        updateFilters();
+    }
+
+    /**
+     * Routes the callbacks of every room, including rooms added later,
+     * through {@code dispatcher}; otherwise they run on the thread reading
+     * from the room's worker. Pass null to remove.
+     *
+     * @param dispatcher
+     */
+    public synchronized void setDispatcher(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        for(Room room : rooms.values()) {
+            room.bot.setDispatcher(dispatcher);
+        }
+    }
+
+    /**
+     * Interns the users of every room, including rooms added later, through
+     * one shared {@code registry}. Pass null to stop.
+     *
+     * @param registry
+     */
+    public synchronized void setUserRegistry(UserRegistry registry) {
+        this.userRegistry = registry;
+        for(Room room : rooms.values()) {
+            room.bot.setUserRegistry(registry);
+        }
+        updateFilters();
+    }
+
+    /**
+     * Returns the bot for a room, or null if the room is not assigned.
+     *
+     * @param roomName
+     * @return
+     */
+    public synchronized ChaturBot getBot(String roomName) {
+        Room room = rooms.get(roomName);
+        return room == null ? null : room.bot;
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the rooms.
+     *
+     * @return
+     */
+    public synchronized Set<String> getRooms() {
+        return Collections.unmodifiableSet(new HashSet<>(rooms.keySet()));
+    }
+
+    /**
+     * Queries the number of users in a room through the bot of its worker,
+     * which answers within 10 seconds; see {@link ChaturBot#queryRoomCount()}.
+     *
+     * @param roomName
+     * @return fails with an {@code IllegalStateException} if the worker's bot
+     * is not authenticated yet or the worker is lost before answering, and
+     * with a {@link TimeoutException} if the server does not answer
+     * @throws IllegalStateException if the room is not assigned, or its
+     * worker is not connected
+     */
+    public synchronized CompletableFuture<Integer> queryRoomCount(String roomName) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            throw new IllegalStateException(String.format("Room %s is not assigned", roomName));
+        }
+        Worker worker = room.worker;
+        if(worker == null || !worker.connected || worker.lost) {
+            throw new IllegalStateException(String.format("Room %s has no connected worker", roomName));
+        }
+        long request = countRequests.incrementAndGet();
+        CompletableFuture<Integer> count = new CompletableFuture<>();
+        worker.counts.put(request, count);
+        worker.send(worker.writer.begin(ShardProtocol.COUNT_QUERY).writeVarint(request).writeVarint(room.id));
+        return count;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the worker of each room, from 0 to {@link #getWorkerCount()}
+     * exclusive. Rooms waiting for a worker are left out.
+     *
+     * @return an unmodifiable snapshot
+     */
+    public synchronized Map<String, Integer> getAssignments() {
+        Map<String, Integer> assignments = new HashMap<>();
+        for(Room room : rooms.values()) {
+            Worker worker = room.worker;
+            if(worker != null) {
+                assignments.put(room.name, worker.slot);
+            }
+        }
+        return Collections.unmodifiableMap(assignments);
+    }
+
+    /**
+     * Returns the smoothed number of messages per second received in a room,
+     * as last reported by its worker, including those of methods nothing
+     * here wants.
+     *
+     * @param roomName
+     * @return 0 if the room is not assigned
+     */
+    public synchronized double getMessageRate(String roomName) {
+        Room room = rooms.get(roomName);
+        return room == null ? 0 : room.rate;
+    }
+
+    /**
+     * Returns the number of workers that died and were replaced.
+     *
+     * @return
+     */
+    public long getWorkerRestartCount() {
+        return restarts.get();
+    }
+
+    /**
+     * Returns the number of rooms moved by {@link #rebalance()}.
+     *
+     * @return
+     */
+    public long getMovedRoomCount() {
+        return moves.get();
+    }
+
+    /**
+     * Kills a worker process as if it had crashed; its rooms are moved and it
+     * is replaced as for any other lost worker. This is intended for testing
+     * failover.
+     *
+     * @param worker from 0 to {@link #getWorkerCount()} exclusive
+     */
+    public synchronized void destroyWorker(int worker) {
+        workers[worker].process.destroyForcibly();
+    }
+
+    /**
+     * Moves rooms off every worker whose message rate exceeds the mean by the
+     * overload factor, busiest room first, as long as a move narrows the gap
+     * to the least loaded worker. This runs periodically, and can be called
+     * to rebalance at once.
+     *
+     * @return the number of rooms moved
+     */
+    public synchronized int rebalance() {
+        lastRebalanceMillis = System.currentTimeMillis();
+        List<Worker> live = new ArrayList<>();
+        for(Worker worker : workers) {
+            if(worker.connected && !worker.lost) {
+                live.add(worker);
+            }
+        }
+        int moved = 0;
+        if(live.size() < 2) {
+            return moved;
+        }
+        for(int round = 0; round < rooms.size(); round++) {
+            Worker busiest = null, idlest = null;
+            double total = 0;
+            for(Worker worker : live) {
+                double load = worker.load();
+                total += load;
+                if(busiest == null || load > busiest.load()) {
+                    busiest = worker;
+                }
+                if(idlest == null || load < idlest.load()) {
+                    idlest = worker;
+                }
+            }
+            double mean = total / live.size();
+            if(busiest.load() <= mean * overloadFactor || busiest.rooms.size() < 2) {
+                break;
+            }
+            double gap = busiest.load() - idlest.load();
+            Room candidate = null;
+            for(Room room : busiest.rooms) {
+                if(room.rate > 0 && room.rate < gap && (candidate == null || room.rate > candidate.rate)) {
+                    candidate = room;
+                }
+            }
+            if(candidate == null) {
+                break;
+            }
+            LOG.info("Moving room {} ({} events/s) from worker {} to worker {}", candidate.name,
+                    String.format("%.1f", candidate.rate), busiest.slot, idlest.slot);
+            unassign(candidate);
+            assign(candidate, idlest);
+            moves.incrementAndGet();
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Stops every worker; their rooms are disconnected. The bots in this
+     * process are kept.
+     */
+    @Override
+    public void close() {
+        List<Worker> stopping = new ArrayList<>();
+        synchronized(this) {
+            closed = true;
+            for(Worker worker : workers) {
+                if(worker != null) {
+                    worker.lost = true;
+                    worker.closeSocket();
+                    worker.failCounts("Coordinator is closed");
+                    stopping.add(worker);
+                }
+            }
+        }
+        scheduler.shutdownNow();
+        try {
+            server.close();
+        } catch(IOException ex) {
+            LOG.warn("Unable to close coordinator socket", ex);
+        }
+        for(Worker worker : stopping) {
+            try {
+                if(!worker.process.waitFor(5, TimeUnit.SECONDS)) {
+                    worker.process.destroyForcibly();
+                }
+            } catch(InterruptedException ex) {
+                worker.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Worker launch(int slot) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(Integer.toString(server.getLocalPort()));
+        command.add(Integer.toString(slot));
+        ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        builder.environment().put(ShardProtocol.TOKEN_VARIABLE, token);
+        return new Worker(slot, builder.start());
+    }
+
+    /**
+     * Returns the live worker with the lowest message rate, preferring
+     * connected workers and then those with fewer rooms; null if every worker
+     * is lost.
+     */
+    private Worker leastLoaded() {
+        Worker best = null;
+        for(Worker worker : workers) {
+            if(worker.lost) {
+                continue;
+            }
+            if(best == null || compareLoad(worker, best) < 0) {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    private static int compareLoad(Worker a, Worker b) {
+        if(a.connected != b.connected) {
+            return a.connected ? -1 : 1;
+        }
+        int byLoad = Double.compare(a.load(), b.load());
+        return byLoad != 0 ? byLoad : Integer.compare(a.rooms.size(), b.rooms.size());
+    }
+
+    /**
+     * Returns the methods the bot of a room wants, as a mask of
+     * {@link ShardProtocol#METHODS}.
+     */
+    private static int wantedMethods(Room room) {
+        int methods = 0;
+        for(String method : ShardProtocol.METHODS) {
+            if(room.bot.wantsMethod(method)) {
+                methods |= ShardProtocol.methodBit(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Sends the workers the rooms whose wanted methods changed, as
+     * subscriptions come and go.
+     */
+    private void updateFilters() {
+        for(Room room : rooms.values()) {
+            int methods = wantedMethods(room);
+            Worker worker = room.worker;
+            if(methods != room.methods && worker != null && worker.connected) {
+                room.methods = methods;
+                worker.send(worker.writer.begin(ShardProtocol.FILTER).writeVarint(room.id).writeVarint(methods));
+            }
+        }
+    }
+
+    private void assign(Room room, Worker worker) {
+        room.worker = worker;
+        worker.rooms.add(room);
+        if(worker.connected) {
+            worker.sendAssign(room);
+        }
+    }
+
+    private void unassign(Room room) {
+        Worker worker = room.worker;
+        if(worker != null) {
+            room.worker = null;
+            worker.rooms.remove(room);
+            if(worker.connected) {
+                worker.send(worker.writer.begin(ShardProtocol.UNASSIGN).writeVarint(room.id));
+            }
+        }
+    }
+
+    /**
+     * Marks a worker lost, moves its rooms to the others and starts a
+     * replacement, unless the worker never connected, which would most likely
+     * happen to its replacement too.
+     */
+    private synchronized void workerLost(Worker worker, String reason) {
+        if(worker.lost) {
+            return;
+        }
+        worker.lost = true;
+        worker.closeSocket();
+        worker.process.destroyForcibly();
+        worker.failCounts("Worker " + worker.slot + " lost: " + reason);
+        if(closed) {
+            return;
+        }
+        LOG.warn("Worker {} lost: {}; moving {} rooms", worker.slot, reason, worker.rooms.size());
+        List<Room> orphans = new ArrayList<>(worker.rooms);
+        worker.rooms.clear();
+        for(Room room : orphans) {
+            room.worker = null;
+        }
+        if(worker.connected) {
+            try {
+                workers[worker.slot] = launch(worker.slot);
+                restarts.incrementAndGet();
+            } catch(IOException ex) {
+                LOG.error("Unable to restart worker {}", worker.slot, ex);
+            }
+        } else {
+            LOG.error("Worker {} exited before connecting; not restarting it", worker.slot);
+        }
+        for(Room room : orphans) {
+            Worker target = leastLoaded();
+            if(target != null) {
+                assign(room, target);
+            }
+        }
+    }
+
+    private void monitor() {
+        try {
+            List<Worker> dead = new ArrayList<>();
+            synchronized(this) {
+                long now = System.currentTimeMillis();
+                for(Worker worker : workers) {
+                    if(!worker.lost && (!worker.process.isAlive()
+                            || !worker.connected && now - worker.launchedMillis > CONNECT_TIMEOUT_MILLIS)) {
+                        dead.add(worker);
+                    }
+                }
+            }
+            for(Worker worker : dead) {
+                workerLost(worker, worker.process.isAlive() ? "did not connect" : "process exited");
+            }
+            synchronized(this) {
+                for(Room room : rooms.values()) {
+                    if(room.worker == null) {
+                        Worker target = leastLoaded();
+                        if(target == null) {
+                            break;
+                        }
+                        assign(room, target);
+                    }
+                }
+                updateFilters();
+                if(System.currentTimeMillis() - lastRebalanceMillis >= rebalanceIntervalMillis) {
+                    rebalance();
+                }
+            }
+        } catch(RuntimeException ex) {
+            LOG.error("Shard monitor failed", ex);
+        }
+    }
+
+    private void accept() {
+        while(!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch(IOException ex) {
+                if(!closed) {
+                    LOG.error("Coordinator stopped accepting workers", ex);
+                }
+                return;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+                ShardProtocol.Reader in = new ShardProtocol.Reader(new BufferedInputStream(socket.getInputStream()));
+                if(in.next() != ShardProtocol.HELLO) {
+                    throw new IOException("Expected HELLO");
+                }
+                int slot = in.readInt();
+                byte[] presented = in.readString().getBytes(StandardCharsets.UTF_8);
+                if(!MessageDigest.isEqual(presented, token.getBytes(StandardCharsets.UTF_8))) {
+                    throw new IOException("Invalid token");
+                }
+                socket.setSoTimeout(0);
+                connect(slot, socket, in);
+            } catch(IOException | RuntimeException ex) {
+                LOG.warn("Rejected worker connection from {}", socket.getRemoteSocketAddress(), ex);
+                try {
+                    socket.close();
+                } catch(IOException ignored) {
+                    // nothing to clean up
+                }
+            }
+        }
+    }
+
+    private synchronized void connect(int slot, Socket socket, ShardProtocol.Reader in) throws IOException {
+        Worker worker = slot >= 0 && slot < workers.length ? workers[slot] : null;
+        if(worker == null || worker.connected || worker.lost) {
+            throw new IOException("Unexpected worker " + slot);
+        }
+        worker.socket = socket;
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        worker.connected = true;
+        LOG.debug("Worker {} connected with {} rooms", slot, worker.rooms.size());
+        for(Room room : worker.rooms) {
+            worker.sendAssign(room);
+        }
+        Thread writer = new Thread(() -> worker.drain(out), "chaturbot-shard-writer-" + slot);
+        writer.setDaemon(true);
+        writer.start();
+        Thread reader = new Thread(() -> read(worker, in), "chaturbot-shard-" + slot);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Reads the frames of one worker until its connection is lost.
+     */
+    private void read(Worker worker, ShardProtocol.Reader in) {
+        String reason = "connection closed";
+        try {
+            for(int type; (type = in.next()) != -1;) {
+                switch(type) {
+                    case ShardProtocol.EVENT:
+                    case ShardProtocol.MESSAGE:
+                    case ShardProtocol.NOTICE:
+                        onEvent(worker, type, in);
+                        break;
+                    case ShardProtocol.COUNT:
+                        onCount(worker, in);
+                        break;
+                    case ShardProtocol.LOAD:
+                        onLoad(worker, in);
+                        break;
+                    default:
+                        throw new IOException("Unexpected frame type " + type);
+                }
+            }
+        } catch(IOException ex) {
+            reason = ex.toString();
+        }
+        workerLost(worker, reason);
+    }
+
+    private void onEvent(Worker worker, int type, ShardProtocol.Reader in) throws IOException {
+        Room room = roomsById.get(in.readInt());
+        if(room == null) {
+            return;
+        }
+        String method = null;
+        String[] args = null;
+        Object model = null;
+        switch(type) {
+            case ShardProtocol.MESSAGE:
+                model = ModelCodec.readRoomMessage(in.data());
+                break;
+            case ShardProtocol.NOTICE:
+                model = ModelCodec.readNotification(in.data());
+                break;
+            default:
+                method = in.readMethod();
+                args = new String[in.readInt()];
+                for(int i = 0; i < args.length; i++) {
+                    args[i] = in.readString();
+                }
+                break;
+        }
+        // a room being moved can briefly receive events from two workers
+        synchronized(room.injectLock) {
+            if(room.worker != worker) {
+                return;
+            }
+            try {
+                if(model instanceof RoomMessage) {
+                    room.bot.injectRoomMessage((RoomMessage) model);
+                } else if(model instanceof Notification) {
+                    room.bot.injectNotification((Notification) model);
+                } else {
+                    room.bot.injectMessage(method, args);
+                }
+            } catch(Exception ex) {
+                LOG.error("Unable to handle an event for room {}", room.name, ex);
+            }
+        }
+    }
+
+    private void onCount(Worker worker, ShardProtocol.Reader in) throws IOException {
+        CompletableFuture<Integer> count = worker.counts.remove(in.readVarint());
+        int status = in.readByte();
+        if(status == ShardProtocol.COUNT_OK) {
+            int value = (int) in.readVarint() - 1;
+            if(count != null) {
+                count.complete(value);
+            }
+            return;
+        }
+        String message = in.readString();
+        if(count != null) {
+            count.completeExceptionally(status == ShardProtocol.COUNT_TIMEOUT
+                    ? new TimeoutException(message) : new IllegalStateException(message));
+        }
+    }
+
+    private void onLoad(Worker worker, ShardProtocol.Reader in) throws IOException {
+        double seconds = Math.max(in.readVarint(), 1) / 1000.0;
+        int count = in.readInt();
+        for(int i = 0; i < count; i++) {
+            Room room = roomsById.get(in.readInt());
+            long events = in.readVarint();
+            if(room != null && room.worker == worker) {
+                room.rate += RATE_SMOOTHING * (events / seconds - room.rate);
+            }
+        }
+    }
+
+    private static final class Room {
+
+        private final int id;
+        private final String name, URL, connectAuth;
+        private final ChaturBot bot;
+        private final Object injectLock = new Object();
+        private volatile Worker worker;
+        private volatile double rate;
+        /**
+         * The wanted methods last sent to the worker; guarded by the
+         * coordinator.
+         */
+        private int methods;
+
+        Room(int id, String name, String URL, String connectAuth, ChaturBot bot) {
+            this.id = id;
+            this.name = name;
+            this.URL = URL;
+            this.connectAuth = connectAuth;
+            this.bot = bot;
+        }
+    }
+
+    /**
+     * One worker process; its connection fields are guarded by the
+     * coordinator. Frames are written to it by its own thread, so that a
+     * worker that stops reading cannot block the coordinator.
+     */
+    private final class Worker {
+
+        private final int slot;
+        private final Process process;
+        private final long launchedMillis = System.currentTimeMillis();
+        private final Set<Room> rooms = new LinkedHashSet<>();
+        private final ShardProtocol.Writer writer = new ShardProtocol.Writer();
+        /**
+         * Unanswered room count queries, by request.
+         */
+        private final ConcurrentMap<Long, CompletableFuture<Integer>> counts = new ConcurrentHashMap<>();
+        private final BlockingQueue<byte[]> outbox = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+        private volatile Socket socket;
+        private volatile boolean connected, lost;
+
+        Worker(int slot, Process process) {
+            this.slot = slot;
+            this.process = process;
+        }
+
+        double load() {
+            double load = 0;
+            for(Room room : rooms) {
+                load += room.rate;
+            }
+            return load;
+        }
+
+        void sendAssign(Room room) {
+            room.methods = wantedMethods(room);
+            send(writer.begin(ShardProtocol.ASSIGN).writeVarint(room.id).writeString(room.name)
+                    .writeString(room.URL).writeString(room.connectAuth).writeVarint(room.methods));
+        }
+
+        void failCounts(String reason) {
+            for(Long request : counts.keySet()) {
+                CompletableFuture<Integer> count = counts.remove(request);
+                if(count != null) {
+                    count.completeExceptionally(new IllegalStateException(reason));
+                }
+            }
+        }
+
+        /**
+         * Queues a frame for the writing thread. If the worker has fallen a
+         * full outbox behind, its socket is closed, and the reading thread
+         * then reports it lost.
+         */
+        void send(ShardProtocol.Writer frame) {
+            if(!outbox.offer(frame.toFrame())) {
+                LOG.warn("Worker {} is not reading its frames", slot);
+                closeSocket();
+            }
+        }
+
+        /**
+         * Closes the socket and stops the writing thread.
+         */
+        void closeSocket() {
+            outbox.clear();
+            outbox.offer(STOP);
+            Socket current = socket;
+            if(current != null) {
+                try {
+                    current.close();
+                } catch(IOException ex) {
+                    LOG.debug("Unable to close socket of worker {}", slot, ex);
+                }
+            }
+        }
+
+        /**
+         * Writes queued frames to the worker, flushing whenever the outbox is
+         * empty; a failed write closes the socket.
+         */
+        void drain(OutputStream out) {
+            try {
+                for(byte[] frame = outbox.take(); frame != STOP; frame = outbox.take()) {
+                    out.write(frame);
+                    if(outbox.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch(IOException ex) {
+                if(!lost) {
+                    LOG.warn("Unable to write to worker {}", slot, ex);
+                }
+                closeSocket();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
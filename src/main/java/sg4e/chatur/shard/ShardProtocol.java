@@ -0,0 +1,380 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.shard;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import sg4e.chatur.Varints;
+
+/**
+ * The framing spoken between a {@link ShardCoordinator} and its
+ * {@link ShardWorker}s. Every frame is a varint byte length followed by a type
+ * byte and its fields; integers are unsigned {@link Varints} and strings are
+ * a varint byte length followed by UTF-8. Rooms are referred to by an ID
+ * chosen by the coordinator when the room is assigned.
+ * <pre>
+ * HELLO       worker, token
+ * ASSIGN      room, roomName, URL, connectAuth, methods
+ * UNASSIGN    room
+ * FILTER      room, methods
+ * EVENT       room, method, argCount, args...
+ * MESSAGE     room, message
+ * NOTICE      room, notice
+ * LOAD        intervalMillis, roomCount, (room, messages)...
+ * COUNT_QUERY request, room
+ * COUNT       request, status, count + 1 | error
+ * </pre>
+ * {@code methods} has bit {@code i} set if the coordinator's bot wants the
+ * messages of {@code METHODS[i]}; the worker forwards no others, except
+ * those of unknown methods. Chat messages and notices are bound by the worker
+ * and sent as {@code MESSAGE} and {@code NOTICE}, in the format of
+ * {@link sg4e.chatur.json.ModelCodec}; other events are sent as
+ * {@code EVENT}, with the method as its index in {@link #METHODS} plus one,
+ * or as 0 followed by the name. {@code COUNT} answers a room count query
+ * with a {@code status} of {@link #COUNT_OK}, {@link #COUNT_TIMEOUT} or
+ * {@link #COUNT_FAILED}.
+ */
+final class ShardProtocol {
+
+    static final int HELLO = 1;
+    static final int ASSIGN = 2;
+    static final int UNASSIGN = 3;
+    static final int EVENT = 4;
+    static final int LOAD = 5;
+    static final int FILTER = 6;
+    static final int MESSAGE = 7;
+    static final int NOTICE = 8;
+    static final int COUNT_QUERY = 9;
+    static final int COUNT = 10;
+    static final int COUNT_OK = 0;
+    static final int COUNT_TIMEOUT = 1;
+    static final int COUNT_FAILED = 2;
+    /**
+     * Environment variable holding the token a worker presents in its
+     * {@code HELLO}, so that other local processes cannot pose as workers.
+     */
+    static final String TOKEN_VARIABLE = "CHATURBOT_SHARD_TOKEN";
+    static final String[] METHODS = {
+        "onRoomMsg", "onTitleChange", "onNotify", "onNotifyGroupShowCancel", "onSilence"
+    };
+    static final int MAX_FRAME = 16 << 20;
+
+    private ShardProtocol() {
+    }
+
+    static int methodCode(String method) {
+        for(int i = 0; i < METHODS.length; i++) {
+            if(METHODS[i].equals(method)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the bit of {@code method} in a {@code methods} mask, or 0 for
+     * methods outside {@link #METHODS}.
+     */
+    static int methodBit(String method) {
+        int code = methodCode(method);
+        return code == 0 ? 0 : 1 << (code - 1);
+    }
+
+    /**
+     * Builds frames in a growable buffer; reused for every frame written by
+     * one thread. As an {@code OutputStream}, it appends to the current
+     * frame.
+     */
+    static final class Writer extends OutputStream {
+
+        private byte[] buffer = new byte[256];
+        private int size;
+        private DataOutput data;
+
+        /**
+         * Discards the current frame and starts a new one.
+         */
+        Writer begin(int type) {
+            size = 0;
+            return writeByte(type);
+        }
+
+        Writer writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+            return this;
+        }
+
+        Writer writeVarint(long value) {
+            try {
+                Varints.write(data(), value);
+            } catch(IOException ex) {
+                // appending to the buffer cannot fail
+                throw new UncheckedIOException(ex);
+            }
+            return this;
+        }
+
+        Writer writeString(String s) {
+            return writeChars(s.toCharArray(), 0, s.length());
+        }
+
+        Writer writeMethod(String method) {
+            int code = methodCode(method);
+            writeByte(code);
+            return code == 0 ? writeString(method) : this;
+        }
+
+        /**
+         * Writes characters as UTF-8 without building a {@code String}.
+         */
+        Writer writeChars(char[] chars, int offset, int length) {
+            int bytes = 0;
+            for(int i = offset; i < offset + length; i++) {
+                char c = chars[i];
+                if(c < 0x80) {
+                    bytes++;
+                } else if(c < 0x800) {
+                    bytes += 2;
+                } else if(Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                    bytes += 4;
+                    i++;
+                } else if(Character.isSurrogate(c)) {
+                    bytes++;
+                } else {
+                    bytes += 3;
+                }
+            }
+            writeVarint(bytes);
+            ensure(bytes);
+            for(int i = offset; i < offset + length; i++) {
+                char c = chars[i];
+                if(c < 0x80) {
+                    buffer[size++] = (byte) c;
+                } else if(c < 0x800) {
+                    buffer[size++] = (byte) (0xC0 | c >> 6);
+                    buffer[size++] = (byte) (0x80 | c & 0x3F);
+                } else if(Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                    int cp = Character.toCodePoint(c, chars[++i]);
+                    buffer[size++] = (byte) (0xF0 | cp >> 18);
+                    buffer[size++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buffer[size++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buffer[size++] = (byte) (0x80 | cp & 0x3F);
+                } else if(Character.isSurrogate(c)) {
+                    // unpaired, as String.getBytes() does
+                    buffer[size++] = '?';
+                } else {
+                    buffer[size++] = (byte) (0xE0 | c >> 12);
+                    buffer[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[size++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Appends the fields written to {@code other} since its last
+         * {@link #begin(int)}, without its type byte.
+         */
+        Writer append(Writer other) {
+            ensure(other.size - 1);
+            System.arraycopy(other.buffer, 1, buffer, size, other.size - 1);
+            size += other.size - 1;
+            return this;
+        }
+
+        /**
+         * Returns the current frame with its length prefix.
+         */
+        byte[] toFrame() {
+            // the prefix is encoded after the frame and then moved in front
+            int length = size;
+            writeVarint(length);
+            int prefix = size - length;
+            byte[] frame = new byte[size];
+            System.arraycopy(buffer, length, frame, 0, prefix);
+            System.arraycopy(buffer, 0, frame, prefix, length);
+            size = length;
+            return frame;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(toFrame());
+        }
+
+        /**
+         * Returns a view that appends to the current frame.
+         */
+        DataOutput data() {
+            if(data == null) {
+                data = new DataOutputStream(this);
+            }
+            return data;
+        }
+
+        @Override
+        public void write(int b) {
+            writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void ensure(int n) {
+            if(buffer.length - size < n) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + n, buffer.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Reads frames from a stream into a reusable buffer. As an
+     * {@code InputStream}, it reads the rest of the current frame.
+     */
+    static final class Reader extends InputStream {
+
+        private final InputStream in;
+        private byte[] buffer = new byte[256];
+        private int limit, position;
+        private DataInput data;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next frame and returns its type.
+         *
+         * @return -1 at the end of the stream
+         * @throws IOException if the stream ends inside a frame or the frame
+         * is larger than {@link #MAX_FRAME}
+         */
+        int next() throws IOException {
+            int first = in.read();
+            if(first == -1) {
+                return -1;
+            }
+            long length = first & 0x7F;
+            for(int shift = 7; (first & 0x80) != 0; shift += 7) {
+                first = in.read();
+                if(first == -1 || shift > 28) {
+                    throw new EOFException("Truncated frame length");
+                }
+                length |= (long) (first & 0x7F) << shift;
+            }
+            if(length < 1 || length > MAX_FRAME) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if(buffer.length < length) {
+                buffer = new byte[(int) Math.max(length, buffer.length * 2L)];
+            }
+            int read = 0;
+            while(read < length) {
+                int n = in.read(buffer, read, (int) length - read);
+                if(n == -1) {
+                    throw new EOFException("Truncated frame");
+                }
+                read += n;
+            }
+            limit = (int) length;
+            position = 0;
+            return readByte();
+        }
+
+        int readByte() throws IOException {
+            if(position >= limit) {
+                throw new EOFException("Read past the end of a frame");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            return Varints.read(data());
+        }
+
+        int readInt() throws IOException {
+            return Varints.readInt(data());
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if(length > limit - position) {
+                throw new EOFException("String runs past the end of a frame");
+            }
+            String s = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        /**
+         * Returns a view that reads the rest of the current frame.
+         */
+        DataInput data() {
+            if(data == null) {
+                data = new DataInputStream(this);
+            }
+            return data;
+        }
+
+        @Override
+        public int read() {
+            return position < limit ? buffer[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(length == 0) {
+                return 0;
+            }
+            if(position >= limit) {
+                return -1;
+            }
+            int n = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        String readMethod() throws IOException {
+            int code = readByte();
+            if(code == 0) {
+                return readString();
+            }
+            if(code > METHODS.length) {
+                throw new IOException("Unknown method code " + code);
+            }
+            return METHODS[code - 1];
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.ChaturBotPool;
+import sg4e.chatur.ConnectionSupervisor;
+import sg4e.chatur.EventBus;
+import sg4e.chatur.EventHandler;
+import sg4e.chatur.RawMessage;
+import sg4e.chatur.Silence;
+import sg4e.chatur.Topic;
+import sg4e.chatur.json.ModelCodec;
+import sg4e.chatur.json.Notification;
+import sg4e.chatur.json.RoomMessage;
+import sg4e.chatur.metrics.MetricsSink.RoomRecorder;
+
+/**
+ * A worker process of a {@link ShardCoordinator}. It connects the rooms it is
+ * assigned with a {@link ChaturBotPool} and a {@link ConnectionSupervisor},
+ * decodes their messages and sends the resulting events back to the
+ * coordinator: chat messages and notices as bound models, other events with
+ * their arguments unescaped. Only the methods the coordinator's bot for the
+ * room wants are decoded and sent; the bots here skip the others like any bot
+ * with no subscriber. Every second the worker also reports how many messages
+ * each room received, and it answers room count queries with its own bots.
+ * <p>
+ * Workers are started by the coordinator, which passes its port and the
+ * worker's number on the command line and a token in the environment:
+ * <pre>
+ * ShardWorker &lt;port&gt; &lt;worker&gt;
+ * </pre>
+ * A worker exits when its connection to the coordinator is closed.
+ */
+public final class ShardWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardWorker.class);
+
+    static final long LOAD_INTERVAL_MILLIS = 1000;
+    /**
+     * Frames waiting to be written to the coordinator; when full, the reading
+     * threads of the rooms block, and the chat server sees TCP backpressure.
+     */
+    private static final int OUTBOX_CAPACITY = 1 << 16;
+
+    /**
+     * An assigned room; also the recorder of its bot, which counts its
+     * messages.
+     */
+    private static final class Room implements RoomRecorder {
+
+        private final int id;
+        private final String name;
+        private final AtomicLong messages = new AtomicLong();
+        private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
+        private long reported;
+
+        Room(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public void messageReceived(String method) {
+            messages.incrementAndGet();
+        }
+    }
+
+    private final ConcurrentMap<Integer, Room> rooms = new ConcurrentHashMap<>();
+    private final BlockingQueue<byte[]> outbox = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+    private final ThreadLocal<ShardProtocol.Writer> frames = ThreadLocal.withInitial(ShardProtocol.Writer::new);
+    private final EventBus bus = new EventBus();
+    private final ChaturBotPool pool;
+    private final ConnectionSupervisor supervisor;
+    private final ScheduledExecutorService scheduler;
+
+    private ShardWorker() {
+        pool = new ChaturBotPool(ChaturBot::new, 4, 100);
+        supervisor = new ConnectionSupervisor();
+        pool.setConnectionSupervisor(supervisor);
+        pool.setEventBus(bus);
+        pool.setMetricsSink(this::recorderFor);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chaturbot-shard-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        String token = System.getenv(ShardProtocol.TOKEN_VARIABLE);
+        if(args.length != 2 || token == null) {
+            System.err.println("usage: ShardWorker <port> <worker>, with " + ShardProtocol.TOKEN_VARIABLE + " set");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        int worker = Integer.parseInt(args[1]);
+        ShardWorker shard = new ShardWorker();
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            shard.run(socket, worker, token);
+        } catch(IOException ex) {
+            LOG.warn("Worker {} lost its coordinator", worker, ex);
+        } finally {
+            shard.close();
+        }
+        // the WebSocket client's threads would otherwise keep the JVM alive
+        System.exit(0);
+    }
+
+    /**
+     * Bots are created after their room is registered, so the room is found
+     * by name.
+     */
+    private RoomRecorder recorderFor(String roomName) {
+        for(Room room : rooms.values()) {
+            if(room.name.equals(roomName)) {
+                return room;
+            }
+        }
+        return RoomRecorder.NOOP;
+    }
+
+    private void run(Socket socket, int worker, String token) throws IOException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 << 10);
+        new ShardProtocol.Writer().begin(ShardProtocol.HELLO).writeVarint(worker).writeString(token).writeTo(out);
+        out.flush();
+        Thread writer = new Thread(() -> drain(socket, out), "chaturbot-shard-writer");
+        writer.setDaemon(true);
+        writer.start();
+        scheduler.scheduleAtFixedRate(new LoadReporter(), LOAD_INTERVAL_MILLIS, LOAD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        ShardProtocol.Reader in = new ShardProtocol.Reader(new BufferedInputStream(socket.getInputStream()));
+        for(int type; (type = in.next()) != -1;) {
+            switch(type) {
+                case ShardProtocol.ASSIGN:
+                    assign(in.readInt(), in.readString(), in.readString(), in.readString(), in.readInt());
+                    break;
+                case ShardProtocol.UNASSIGN:
+                    unassign(in.readInt());
+                    break;
+                case ShardProtocol.FILTER:
+                    Room room = rooms.get(in.readInt());
+                    int methods = in.readInt();
+                    if(room != null) {
+                        subscribe(room, methods);
+                    }
+                    break;
+                case ShardProtocol.COUNT_QUERY:
+                    queryRoomCount(in.readVarint(), in.readInt());
+                    break;
+                default:
+                    throw new IOException("Unexpected frame type " + type);
+            }
+        }
+    }
+
+    private void assign(int id, String roomName, String URL, String connectAuth, int methods) {
+        Room room = new Room(id, roomName);
+        if(rooms.putIfAbsent(id, room) != null) {
+            LOG.warn("Room {} is already assigned to this worker", roomName);
+            return;
+        }
+        subscribe(room, methods);
+        try {
+            pool.addRoom(roomName, URL, connectAuth);
+        } catch(IOException | RuntimeException ex) {
+            rooms.remove(id, room);
+            unsubscribe(room);
+            LOG.error("Unable to add room {}", roomName, ex);
+        }
+    }
+
+    private void unassign(int id) {
+        Room room = rooms.remove(id);
+        if(room != null) {
+            unsubscribe(room);
+            pool.removeRoom(room.name);
+        }
+    }
+
+    /**
+     * Replaces the subscriptions of a room with one per wanted method, plus
+     * one for unknown methods, which the coordinator always takes.
+     */
+    private void subscribe(Room room, int methods) {
+        synchronized(room) {
+            unsubscribe(room);
+            room.subscriptions.add(subscribe(room, Topic.RAW, (bot, raw) -> forwardRaw(room, raw)));
+            if(wants(methods, "onRoomMsg")) {
+                room.subscriptions.add(subscribe(room, Topic.ROOM_MESSAGE, (bot, message) -> forwardMessage(room, message)));
+            }
+            if(wants(methods, "onNotify")) {
+                room.subscriptions.add(subscribe(room, Topic.NOTICE, (bot, notice) -> forwardNotice(room, notice)));
+            }
+            if(wants(methods, "onTitleChange")) {
+                room.subscriptions.add(subscribe(room, Topic.TITLE_CHANGE, (bot, title) -> forwardEvent(room, "onTitleChange", title)));
+            }
+            if(wants(methods, "onNotifyGroupShowCancel")) {
+                room.subscriptions.add(subscribe(room, Topic.GROUP_SHOW_CANCEL, (bot, cancel) -> forwardEvent(room, "onNotifyGroupShowCancel")));
+            }
+            if(wants(methods, "onSilence")) {
+                room.subscriptions.add(subscribe(room, Topic.SILENCE,
+                        (bot, silence) -> forwardEvent(room, "onSilence", silence.getFirst(), silence.getSecond())));
+            }
+        }
+    }
+
+    private <T> EventBus.Subscription subscribe(Room room, Topic<T> topic, EventHandler<? super T> handler) {
+        return bus.subscribe(room.name, topic, null, handler);
+    }
+
+    private static boolean wants(int methods, String method) {
+        return (methods & ShardProtocol.methodBit(method)) != 0;
+    }
+
+    private void unsubscribe(Room room) {
+        synchronized(room) {
+            for(EventBus.Subscription subscription : room.subscriptions) {
+                subscription.close();
+            }
+            room.subscriptions.clear();
+        }
+    }
+
+    private void forwardMessage(Room room, RoomMessage message) {
+        ShardProtocol.Writer frame = frames.get().begin(ShardProtocol.MESSAGE).writeVarint(room.id);
+        try {
+            ModelCodec.writeRoomMessage(message, frame.data());
+        } catch(IOException ex) {
+            // the frame is built in memory
+            throw new IllegalStateException(ex);
+        }
+        send(frame.toFrame());
+    }
+
+    private void forwardNotice(Room room, Notification notice) {
+        ShardProtocol.Writer frame = frames.get().begin(ShardProtocol.NOTICE).writeVarint(room.id);
+        try {
+            ModelCodec.writeNotification(notice, frame.data());
+        } catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        send(frame.toFrame());
+    }
+
+    private void forwardRaw(Room room, RawMessage raw) {
+        forwardEvent(room, raw.getMethod(), raw.getArgs().toArray(new String[0]));
+    }
+
+    private void forwardEvent(Room room, String method, String... args) {
+        ShardProtocol.Writer frame = frames.get().begin(ShardProtocol.EVENT).writeVarint(room.id)
+                .writeMethod(method).writeVarint(args.length);
+        for(String arg : args) {
+            frame.writeString(arg == null ? "" : arg);
+        }
+        send(frame.toFrame());
+    }
+
+    /**
+     * Queues a frame for the coordinator, blocking while the outbox is full.
+     */
+    private void send(byte[] frame) {
+        try {
+            outbox.put(frame);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Answers a room count query once the room's bot has its answer; the bot
+     * fails the query if the room is not connected and authenticated.
+     */
+    private void queryRoomCount(long request, int id) {
+        Room room = rooms.get(id);
+        ChaturBot bot = room == null ? null : pool.getBot(room.name);
+        CompletableFuture<Integer> count;
+        try {
+            if(bot == null) {
+                throw new IllegalStateException("Room is not assigned to worker");
+            }
+            count = bot.queryRoomCount();
+        } catch(IllegalStateException ex) {
+            count = new CompletableFuture<>();
+            count.completeExceptionally(ex);
+        }
+        count.whenComplete((value, error) -> {
+            ShardProtocol.Writer frame = frames.get().begin(ShardProtocol.COUNT).writeVarint(request);
+            if(error == null) {
+                frame.writeByte(ShardProtocol.COUNT_OK).writeVarint(value + 1L);
+            } else {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                frame.writeByte(cause instanceof TimeoutException ? ShardProtocol.COUNT_TIMEOUT : ShardProtocol.COUNT_FAILED)
+                        .writeString(String.valueOf(cause.getMessage()));
+            }
+            send(frame.toFrame());
+        });
+    }
+
+    /**
+     * Writes queued frames to the coordinator, flushing whenever the queue is
+     * empty.
+     */
+    private void drain(Socket socket, OutputStream out) {
+        try {
+            while(true) {
+                out.write(outbox.take());
+                for(byte[] frame = outbox.poll(); frame != null; frame = outbox.poll()) {
+                    out.write(frame);
+                }
+                out.flush();
+            }
+        } catch(IOException ex) {
+            LOG.warn("Unable to write to coordinator", ex);
+            try {
+                socket.close();
+            } catch(IOException ignored) {
+                // the reading loop ends either way
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void close() {
+        scheduler.shutdownNow();
+        pool.close();
+        supervisor.close();
+    }
+
+    /**
+     * Reports the messages of every room since the previous report.
+     */
+    private final class LoadReporter implements Runnable {
+
+        private final ShardProtocol.Writer writer = new ShardProtocol.Writer();
+        private long lastNanos = System.nanoTime();
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            List<Room> snapshot = new ArrayList<>(rooms.values());
+            writer.begin(ShardProtocol.LOAD).writeVarint(TimeUnit.NANOSECONDS.toMillis(now - lastNanos)).writeVarint(snapshot.size());
+            for(Room room : snapshot) {
+                long messages = room.messages.get();
+                writer.writeVarint(room.id).writeVarint(messages - room.reported);
+                room.reported = messages;
+            }
+            lastNanos = now;
+            send(writer.toFrame());
+        }
+    }
+}
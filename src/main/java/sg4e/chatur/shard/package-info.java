@@ -0,0 +1,6 @@
+/**
+ * Room sharding across local worker processes, with a coordinator that
+ * assigns rooms, publishes their events and moves rooms off dead or
+ * overloaded workers.
+ */
+package sg4e.chatur.shard;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+import lombok.Value;
+
+/**
+ * The samples of a metric within one rollup interval.
+ */
+@Value
+public class Aggregate {
+
+    /**
+     * Start of the interval.
+     */
+    long timestampMillis;
+    long count;
+    long sum;
+    long min;
+    long max;
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes bit strings, most significant bit first, in a region of a
+ * buffer. Writing only sets bits, so the region must start out zeroed, as
+ * fresh regions of a mapped file are.
+ */
+final class BitCursor {
+
+    private final ByteBuffer buffer;
+    private final int base;
+    private int position;
+
+    /**
+     * @param buffer
+     * @param base byte offset of the region in {@code buffer}
+     * @param position bit offset in the region
+     */
+    BitCursor(ByteBuffer buffer, int base, int position) {
+        this.buffer = buffer;
+        this.base = base;
+        this.position = position;
+    }
+
+    /**
+     * Returns the bit offset in the region.
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * Writes the low {@code n} bits of {@code value}.
+     */
+    void write(long value, int n) {
+        while(n > 0) {
+            int index = base + (position >>> 3);
+            int free = 8 - (position & 7);
+            int take = Math.min(free, n);
+            int bits = (int) (value >>> (n - take)) & ((1 << take) - 1);
+            buffer.put(index, (byte) (buffer.get(index) | (bits << (free - take))));
+            position += take;
+            n -= take;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Reads {@code n} bits as an unsigned value.
+     */
+    long read(int n) {
+        long value = 0;
+        while(n > 0) {
+            int index = base + (position >>> 3);
+            int available = 8 - (position & 7);
+            int take = Math.min(available, n);
+            int bits = ((buffer.get(index) & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | bits;
+            position += take;
+            n -= take;
+        }
+        return value;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+/**
+ * The numeric series kept for each room.
+ */
+public enum Metric {
+    /**
+     * Room count samples, e.g. from a {@link sg4e.chatur.RoomCountPoller}.
+     */
+    VIEWERS("viewers"),
+    /**
+     * The amount of each tip; the rollup sums are the tip volume per
+     * interval.
+     */
+    TIPS("tips");
+
+    private final String fileName;
+
+    Metric(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Base name of the metric's files in a room directory.
+     */
+    String getFileName() {
+        return fileName;
+    }
+}
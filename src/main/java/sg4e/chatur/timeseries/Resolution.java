@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The intervals numeric series are rolled up into.
+ */
+public enum Resolution {
+    MINUTE(TimeUnit.MINUTES.toMillis(1), "1m"),
+    HOUR(TimeUnit.HOURS.toMillis(1), "1h");
+
+    private final long millis;
+    private final String suffix;
+
+    Resolution(long millis, String suffix) {
+        this.millis = millis;
+        this.suffix = suffix;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Returns the start of the interval containing {@code timestampMillis}.
+     *
+     * @param timestampMillis
+     * @return
+     */
+    public long intervalStart(long timestampMillis) {
+        return Math.floorDiv(timestampMillis, millis) * millis;
+    }
+
+    String getSuffix() {
+        return suffix;
+    }
+}
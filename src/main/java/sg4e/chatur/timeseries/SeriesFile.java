@@ -0,0 +1,426 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One compressed series: points of a timestamp, a fixed number of long
+ * values and optionally a string, in non-decreasing time order.
+ * <p>
+ * The file is a sequence of {@value #BLOCK_SIZE}-byte blocks, mapped
+ * {@value #CHUNK_BLOCKS} blocks at a time. Each block starts with a header
+ * <pre>
+ * [int MAGIC][byte VERSION][byte columns][byte hasText][byte 0]
+ * [long firstTimestamp][long lastTimestamp][int count][int bitLength]
+ * </pre>
+ * followed by a bit stream of {@code count} points. Within a block, each
+ * timestamp is written as the change from the previous delta ("delta of
+ * delta"), starting from {@code firstTimestamp} and a delta of 0:
+ * <pre>
+ * '0'                  delta unchanged
+ * '10'   + 7 bits      within [-63, 64]
+ * '110'  + 9 bits      within [-255, 256]
+ * '1110' + 12 bits     within [-2047, 2048]
+ * '1111' + 64 bits     anything else
+ * </pre>
+ * Each value is written as the zigzag-encoded difference from the previous
+ * value in its column ({@code 0} before the first), as {@code '0'} if it is
+ * unchanged, otherwise {@code '1'}, six bits for its length {@code L} in bits
+ * minus one, and its low {@code L - 1} bits; the top bit is always set. A
+ * string is its UTF-8 length in the same variable-length form, not
+ * differenced, followed by its bytes.
+ * <p>
+ * Blocks are never rewritten once full, and a block's count is written after
+ * its points, so a reader never sees a partial point. Range scans use the
+ * block headers to skip blocks without decoding them.
+ * <p>
+ * Not thread-safe.
+ */
+final class SeriesFile {
+
+    static final int MAGIC = 0x43425453;
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 4096;
+    static final int CHUNK_BLOCKS = 16;
+    static final int BLOCK_HEADER_SIZE = 32;
+    static final int DATA_BITS = (BLOCK_SIZE - BLOCK_HEADER_SIZE) * 8;
+    /**
+     * Strings are truncated to this many bytes of UTF-8.
+     */
+    static final int MAX_TEXT_BYTES = 1024;
+
+    private static final int COLUMNS_OFFSET = 5;
+    private static final int TEXT_OFFSET = 6;
+    private static final int FIRST_OFFSET = 8;
+    private static final int LAST_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int BITS_OFFSET = 28;
+    private static final int CHUNK_SIZE = CHUNK_BLOCKS * BLOCK_SIZE;
+
+    /**
+     * Receives decoded points; {@code values} is reused between points.
+     */
+    interface Visitor {
+
+        void onPoint(long timestampMillis, long[] values, String text);
+    }
+
+    private final Path file;
+    private final int columns;
+    private final boolean text;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer textBuffer;
+
+    // state of the block being appended to
+    private int block = -1;
+    private int bitPosition;
+    private int pointsInBlock;
+    private long previousTimestamp;
+    private long previousDelta;
+    private final long[] previousValues;
+
+    private SeriesFile(Path file, int columns, boolean text) {
+        this.file = file;
+        this.columns = columns;
+        this.text = text;
+        previousValues = new long[columns];
+        textBuffer = text ? ByteBuffer.allocate(MAX_TEXT_BYTES) : null;
+    }
+
+    /**
+     * Opens a series, mapping the file if it exists and recovering the state
+     * of its last block. The file is only created by the first append.
+     *
+     * @param file
+     * @param columns number of values per point
+     * @param text whether points carry a string
+     * @throws IOException if the file is not a series of this shape
+     */
+    static SeriesFile open(Path file, int columns, boolean text) throws IOException {
+        SeriesFile series = new SeriesFile(file, columns, text);
+        if(Files.exists(file)) {
+            long size = Files.size(file);
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            for(int i = 0; i < chunkCount; i++) {
+                series.mapChunk(i);
+            }
+            series.recover();
+        }
+        return series;
+    }
+
+    /**
+     * Returns the timestamp of the last point, or {@link Long#MIN_VALUE} if
+     * there is none.
+     */
+    long getLastTimestamp() {
+        if(block < 0 || pointsInBlock == 0) {
+            return Long.MIN_VALUE;
+        }
+        return previousTimestamp;
+    }
+
+    /**
+     * Returns the bytes taken by blocks in use.
+     */
+    long sizeInBytes() {
+        return (block + 1L) * BLOCK_SIZE;
+    }
+
+    /**
+     * Appends a point. A timestamp before the last point's is moved forward
+     * to it, so that the series stays ordered.
+     *
+     * @param timestampMillis
+     * @param values {@code columns} values
+     * @param string the string of the point if the series has them; may be null
+     * for an empty string
+     * @throws IOException if the file cannot be extended
+     */
+    void append(long timestampMillis, long[] values, String string) throws IOException {
+        long last = getLastTimestamp();
+        if(timestampMillis < last) {
+            timestampMillis = last;
+        }
+        int textLength = 0;
+        if(text) {
+            textBuffer.clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(string == null ? "" : string), textBuffer, true);
+            textLength = textBuffer.position();
+        }
+        int bound = 4 + 64 + columns * (1 + 6 + 63) + (text ? 1 + 6 + 63 + 8 * textLength : 0);
+        if(block < 0 || bitPosition + bound > DATA_BITS) {
+            startBlock(timestampMillis);
+        }
+        ByteBuffer chunk = chunk(block);
+        int base = blockOffset(block);
+        BitCursor bits = new BitCursor(chunk, base + BLOCK_HEADER_SIZE, bitPosition);
+        long delta = timestampMillis - previousTimestamp;
+        writeDeltaOfDelta(bits, delta - previousDelta);
+        for(int i = 0; i < columns; i++) {
+            writeLength(bits, zigzag(values[i] - previousValues[i]));
+            previousValues[i] = values[i];
+        }
+        if(text) {
+            writeLength(bits, textLength);
+            for(int i = 0; i < textLength; i++) {
+                bits.write(textBuffer.get(i), 8);
+            }
+        }
+        previousTimestamp = timestampMillis;
+        previousDelta = delta;
+        bitPosition = bits.position();
+        pointsInBlock++;
+        chunk.putLong(base + LAST_OFFSET, timestampMillis);
+        chunk.putInt(base + BITS_OFFSET, bitPosition);
+        // publish the point by writing the count last
+        chunk.putInt(base + COUNT_OFFSET, pointsInBlock);
+    }
+
+    /**
+     * Visits the points within {@code [fromMillis, toMillis)} in order.
+     *
+     * @return the number of points visited
+     */
+    long scan(long fromMillis, long toMillis, Visitor visitor) {
+        long visited = 0;
+        long[] values = new long[columns];
+        for(int b = 0; b <= block; b++) {
+            ByteBuffer chunk = chunk(b);
+            int base = blockOffset(b);
+            int count = chunk.getInt(base + COUNT_OFFSET);
+            if(count == 0 || chunk.getLong(base + LAST_OFFSET) < fromMillis) {
+                continue;
+            }
+            long first = chunk.getLong(base + FIRST_OFFSET);
+            if(first >= toMillis) {
+                break;
+            }
+            BitCursor bits = new BitCursor(chunk, base + BLOCK_HEADER_SIZE, 0);
+            long timestamp = first;
+            long delta = 0;
+            Arrays.fill(values, 0);
+            for(int i = 0; i < count; i++) {
+                delta += readDeltaOfDelta(bits);
+                timestamp += delta;
+                String string = readValues(bits, values);
+                if(timestamp >= toMillis) {
+                    return visited;
+                }
+                if(timestamp >= fromMillis) {
+                    visitor.onPoint(timestamp, values, string);
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Forces written blocks to the storage device.
+     */
+    void force() {
+        for(MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Unmaps the file as far as Java allows, by dropping the mappings.
+     */
+    void close() {
+        force();
+        chunks.clear();
+        block = -1;
+    }
+
+    private void recover() throws IOException {
+        int blocks = chunks.size() * CHUNK_BLOCKS;
+        for(int b = 0; b < blocks; b++) {
+            ByteBuffer chunk = chunk(b);
+            int base = blockOffset(b);
+            if(chunk.getInt(base) != MAGIC) {
+                break;
+            }
+            if(chunk.get(base + 4) != VERSION || chunk.get(base + COLUMNS_OFFSET) != columns || (chunk.get(base + TEXT_OFFSET) != 0) != text) {
+                throw new IOException(String.format("%s is not a version %d series of %d columns", file, VERSION, columns));
+            }
+            block = b;
+        }
+        if(block < 0) {
+            return;
+        }
+        ByteBuffer chunk = chunk(block);
+        int base = blockOffset(block);
+        pointsInBlock = chunk.getInt(base + COUNT_OFFSET);
+        BitCursor bits = new BitCursor(chunk, base + BLOCK_HEADER_SIZE, 0);
+        previousTimestamp = chunk.getLong(base + FIRST_OFFSET);
+        previousDelta = 0;
+        for(int i = 0; i < pointsInBlock; i++) {
+            previousDelta += readDeltaOfDelta(bits);
+            previousTimestamp += previousDelta;
+            readValues(bits, previousValues);
+        }
+        bitPosition = bits.position();
+        // bits of a point that was being written when the process died
+        int data = base + BLOCK_HEADER_SIZE;
+        int partial = data + (bitPosition >>> 3);
+        if((bitPosition & 7) != 0) {
+            chunk.put(partial, (byte) (chunk.get(partial) & (0xFF00 >>> (bitPosition & 7))));
+            partial++;
+        }
+        for(int i = partial; i < base + BLOCK_SIZE; i++) {
+            chunk.put(i, (byte) 0);
+        }
+    }
+
+    private void startBlock(long timestampMillis) throws IOException {
+        int next = block + 1;
+        if(next / CHUNK_BLOCKS >= chunks.size()) {
+            mapChunk(chunks.size());
+        }
+        ByteBuffer chunk = chunk(next);
+        int base = blockOffset(next);
+        chunk.putLong(base + FIRST_OFFSET, timestampMillis);
+        chunk.putLong(base + LAST_OFFSET, timestampMillis);
+        chunk.put(base + 4, (byte) VERSION);
+        chunk.put(base + COLUMNS_OFFSET, (byte) columns);
+        chunk.put(base + TEXT_OFFSET, (byte) (text ? 1 : 0));
+        chunk.putInt(base, MAGIC);
+        block = next;
+        bitPosition = 0;
+        pointsInBlock = 0;
+        previousTimestamp = timestampMillis;
+        previousDelta = 0;
+        Arrays.fill(previousValues, 0);
+    }
+
+    private void mapChunk(int index) throws IOException {
+        Files.createDirectories(file.getParent());
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) index * CHUNK_SIZE, CHUNK_SIZE));
+        }
+    }
+
+    private ByteBuffer chunk(int block) {
+        return chunks.get(block / CHUNK_BLOCKS);
+    }
+
+    private static int blockOffset(int block) {
+        return (block % CHUNK_BLOCKS) * BLOCK_SIZE;
+    }
+
+    /**
+     * Reads the values and string of a point into {@code values}.
+     */
+    private String readValues(BitCursor bits, long[] values) {
+        for(int i = 0; i < columns; i++) {
+            values[i] += unzigzag(readLength(bits));
+        }
+        if(!text) {
+            return null;
+        }
+        int length = (int) readLength(bits);
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = (byte) bits.read(8);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDeltaOfDelta(BitCursor bits, long dod) {
+        if(dod == 0) {
+            bits.write(0b0, 1);
+        } else if(dod >= -63 && dod <= 64) {
+            bits.write(0b10, 2);
+            bits.write(dod + 63, 7);
+        } else if(dod >= -255 && dod <= 256) {
+            bits.write(0b110, 3);
+            bits.write(dod + 255, 9);
+        } else if(dod >= -2047 && dod <= 2048) {
+            bits.write(0b1110, 4);
+            bits.write(dod + 2047, 12);
+        } else {
+            bits.write(0b1111, 4);
+            bits.write(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitCursor bits) {
+        if(!bits.readBit()) {
+            return 0;
+        }
+        if(!bits.readBit()) {
+            return bits.read(7) - 63;
+        }
+        if(!bits.readBit()) {
+            return bits.read(9) - 255;
+        }
+        if(!bits.readBit()) {
+            return bits.read(12) - 2047;
+        }
+        return bits.read(64);
+    }
+
+    /**
+     * Writes a value as {@code '0'} or {@code '1'}, its length in bits minus
+     * one, and all its bits but the top one.
+     */
+    private static void writeLength(BitCursor bits, long value) {
+        if(value == 0) {
+            bits.write(0b0, 1);
+            return;
+        }
+        int length = 64 - Long.numberOfLeadingZeros(value);
+        bits.write(0b1, 1);
+        bits.write(length - 1, 6);
+        bits.write(value, length - 1);
+    }
+
+    private static long readLength(BitCursor bits) {
+        if(!bits.readBit()) {
+            return 0;
+        }
+        int length = (int) bits.read(6) + 1;
+        return (1L << (length - 1)) | bits.read(length - 1);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.timeseries;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import sg4e.chatur.ChaturBot;
+import sg4e.chatur.RoomDirectories;
+import sg4e.chatur.json.Notification;
+
+/**
+ * An embedded store of room-level time series: viewer counts, tips and title
+ * changes, compressed to a few bits per sample and rolled up by the minute and
+ * hour as they are written. Feed it from a
+ * {@link sg4e.chatur.RoomCountPoller} and an {@link sg4e.chatur.EventBus}:
+ * <pre>{@code
+ * TimeSeriesStore store = new TimeSeriesStore(Paths.get("metrics"));
+ * RoomCountPoller poller = new RoomCountPoller(30, TimeUnit.SECONDS, store::onRoomCount);
+ * bus.subscribe(Topic.TIP, store::onNotice);
+ * bus.subscribe(Topic.TITLE_CHANGE, store::onTitleChange);
+ * }</pre>
+ * <p>
+ * The store is a directory with one subdirectory per room, holding for each
+ * {@link Metric} a raw series and one per {@link Resolution}, plus the
+ * titles. Each series is a memory-mapped file of fixed-size blocks with
+ * delta-of-delta timestamps and variable-length value deltas; see
+ * {@link SeriesFile}. Queries only open the files of the room and metric
+ * asked for, and skip blocks outside the range by their headers, so a month
+ * of hourly or per-minute rollups reads in milliseconds.
+ * <p>
+ * Rollup intervals are written when a sample of a later interval arrives; the
+ * interval still open is kept in memory and included in queries, and is
+ * rebuilt from the raw series when the store is reopened. Samples must arrive
+ * roughly in time order: one earlier than the last sample of its series is
+ * stored at the time of that sample. Time ranges are half-open,
+ * {@code [fromMillis, toMillis)}.
+ * <p>
+ * Safe to use from any number of threads; each room is updated under its own
+ * lock. Written samples survive a crash of the JVM, but not of the OS unless
+ * {@link #flush()} is called. The series of a room that has not been written
+ * or queried for the idle limit are closed, and reopened when it is next
+ * used. Queries for rooms or metrics without data return nothing and open no
+ * files.
+ */
+public class TimeSeriesStore implements AutoCloseable {
+
+    private static final String RAW_SUFFIX = ".raw";
+    private static final String TITLES_FILE = "titles" + RAW_SUFFIX;
+    /**
+     * count, sum, min, max
+     */
+    private static final int ROLLUP_COLUMNS = 4;
+
+    public static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Path directory;
+    private final long idleMillis;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong nextIdleCheck;
+    private volatile boolean closed;
+
+    /**
+     * Opens the store in {@code directory}, closing the series of rooms idle
+     * for ten minutes.
+     *
+     * @param directory created if it does not exist
+     * @throws IOException
+     */
+    public TimeSeriesStore(Path directory) throws IOException {
+        this(directory, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Opens the store in {@code directory}.
+     *
+     * @param directory created if it does not exist
+     * @param idleMillis time after which the series of a room that has been
+     * neither written nor queried are closed
+     * @throws IOException
+     */
+    public TimeSeriesStore(Path directory, long idleMillis) throws IOException {
+        if(idleMillis < 1) {
+            throw new IllegalArgumentException("idleMillis must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.idleMillis = idleMillis;
+        nextIdleCheck = new AtomicLong(System.currentTimeMillis() + idleMillis);
+    }
+
+    /**
+     * Records a viewer count sample; a {@link sg4e.chatur.RoomCountPoller.Listener}.
+     * Negative counts, which mean the count is unknown, are ignored.
+     * {@link IOException}s are rethrown unchecked.
+     *
+     * @param bot
+     * @param count
+     * @param timestampMillis
+     */
+    public void onRoomCount(ChaturBot bot, int count, long timestampMillis) {
+        if(count >= 0) {
+            try {
+                record(bot.getRoomName(), Metric.VIEWERS, timestampMillis, count);
+            } catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Records the tip in a notice received now, if it is one; an
+     * {@link sg4e.chatur.EventHandler} for {@link sg4e.chatur.Topic#TIP}. Tips
+     * replayed from the room's history on join are ignored.
+     * {@link IOException}s are rethrown unchecked.
+     *
+     * @param bot
+     * @param notice
+     */
+    public void onNotice(ChaturBot bot, Notification notice) {
+        if(notice.getAmount() > 0 && !notice.isHistory()) {
+            try {
+                record(bot.getRoomName(), Metric.TIPS, System.currentTimeMillis(), notice.getAmount());
+            } catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Records a title change received now; an
+     * {@link sg4e.chatur.EventHandler} for
+     * {@link sg4e.chatur.Topic#TITLE_CHANGE}. {@link IOException}s are
+     * rethrown unchecked.
+     *
+     * @param bot
+     * @param title
+     */
+    public void onTitleChange(ChaturBot bot, String title) {
+        try {
+            recordTitle(bot.getRoomName(), System.currentTimeMillis(), title);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Records a sample.
+     *
+     * @param roomName
+     * @param metric
+     * @param timestampMillis
+     * @param value
+     * @throws IOException if a series cannot be extended
+     * @throws IllegalStateException if the store is closed
+     */
+    public void record(String roomName, Metric metric, long timestampMillis, long value) throws IOException {
+        Room room = room(roomName);
+        synchronized(room) {
+            checkOpen();
+            room.series(metric).add(timestampMillis, value);
+        }
+    }
+
+    /**
+     * Records a title change. Titles longer than 1 KiB of UTF-8 are
+     * truncated.
+     *
+     * @param roomName
+     * @param timestampMillis
+     * @param title
+     * @throws IOException if the series cannot be extended
+     * @throws IllegalStateException if the store is closed
+     */
+    public void recordTitle(String roomName, long timestampMillis, String title) throws IOException {
+        Room room = room(roomName);
+        synchronized(room) {
+            checkOpen();
+            room.titles().append(timestampMillis, new long[0], title);
+        }
+    }
+
+    /**
+     * Visits the raw samples of a metric within the time range.
+     *
+     * @param roomName
+     * @param metric
+     * @param fromMillis
+     * @param toMillis
+     * @param visitor
+     * @return number of samples visited
+     * @throws IOException if a series cannot be opened
+     */
+    public long scan(String roomName, Metric metric, long fromMillis, long toMillis, PointVisitor visitor) throws IOException {
+        Room room = existingRoom(roomName);
+        if(room == null) {
+            return 0;
+        }
+        synchronized(room) {
+            checkOpen();
+            MetricSeries series = room.existingSeries(metric);
+            return series == null ? 0 : series.raw.scan(fromMillis, toMillis, (timestamp, values, text) -> visitor.onPoint(timestamp, values[0]));
+        }
+    }
+
+    /**
+     * Returns the rollups of a metric for the intervals starting within the
+     * time range, in time order; intervals without samples are omitted.
+     *
+     * @param roomName
+     * @param metric
+     * @param resolution
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     * @throws IOException if a series cannot be opened
+     */
+    public List<Aggregate> getRollups(String roomName, Metric metric, Resolution resolution, long fromMillis, long toMillis) throws IOException {
+        Room room = existingRoom(roomName);
+        if(room == null) {
+            return new ArrayList<>();
+        }
+        synchronized(room) {
+            checkOpen();
+            MetricSeries series = room.existingSeries(metric);
+            return series == null ? new ArrayList<>() : series.rollups(resolution, fromMillis, toMillis);
+        }
+    }
+
+    /**
+     * Returns the title changes within the time range, in time order.
+     *
+     * @param roomName
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     * @throws IOException if the series cannot be opened
+     */
+    public List<TitleChange> getTitles(String roomName, long fromMillis, long toMillis) throws IOException {
+        List<TitleChange> titles = new ArrayList<>();
+        Room room = existingRoom(roomName);
+        if(room == null) {
+            return titles;
+        }
+        synchronized(room) {
+            checkOpen();
+            SeriesFile series = room.existingTitles();
+            if(series != null) {
+                series.scan(fromMillis, toMillis, (timestamp, values, text) -> titles.add(new TitleChange(timestamp, text)));
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * Lists the rooms with data in the store.
+     *
+     * @return room names in alphabetical order
+     * @throws IOException
+     */
+    public List<String> getRooms() throws IOException {
+        List<String> names = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for(Path roomDirectory : stream) {
+                names.add(RoomDirectories.roomName(roomDirectory.getFileName().toString()));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Forces written samples to the storage device.
+     */
+    public void flush() {
+        for(Room room : rooms.values()) {
+            synchronized(room) {
+                room.forEachFile(SeriesFile::force);
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes every series. Open rollup intervals are rebuilt from
+     * the raw samples when the store is reopened.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for(Room room : rooms.values()) {
+            synchronized(room) {
+                room.closeFiles();
+            }
+        }
+        rooms.clear();
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Time series store is closed");
+        }
+    }
+
+    private Room room(String roomName) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            room = rooms.computeIfAbsent(roomName, key -> new Room(directory.resolve(RoomDirectories.directoryName(key))));
+        }
+        touch(room);
+        return room;
+    }
+
+    /**
+     * Returns the room for a query, or null if it has never been written, so
+     * that queries for unknown rooms leave nothing behind.
+     */
+    private Room existingRoom(String roomName) {
+        Room room = rooms.get(roomName);
+        if(room == null) {
+            if(!Files.isDirectory(directory.resolve(RoomDirectories.directoryName(roomName)))) {
+                return null;
+            }
+            return room(roomName);
+        }
+        touch(room);
+        return room;
+    }
+
+    private void touch(Room room) {
+        long now = System.currentTimeMillis();
+        // set before the caller locks the room, so a concurrent idle check
+        // that rechecks under the lock leaves it open
+        room.lastUsedMillis = now;
+        long next = nextIdleCheck.get();
+        if(now >= next && nextIdleCheck.compareAndSet(next, now + idleMillis)) {
+            closeIdle(now);
+        }
+    }
+
+    /**
+     * Closes the series of rooms unused for the idle limit. The rooms stay
+     * registered, so a room is never open twice, and reopen their series on
+     * the next use.
+     */
+    private void closeIdle(long nowMillis) {
+        for(Room room : rooms.values()) {
+            if(nowMillis - room.lastUsedMillis >= idleMillis) {
+                synchronized(room) {
+                    if(nowMillis - room.lastUsedMillis >= idleMillis) {
+                        room.closeFiles();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The series of one room, opened as they are first used.
+     */
+    private static final class Room {
+
+        private final Path directory;
+        private final Map<Metric, MetricSeries> metrics = new EnumMap<>(Metric.class);
+        private SeriesFile titles;
+        private volatile long lastUsedMillis;
+
+        Room(Path directory) {
+            this.directory = directory;
+        }
+
+        MetricSeries series(Metric metric) throws IOException {
+            MetricSeries series = metrics.get(metric);
+            if(series == null) {
+                series = new MetricSeries(directory, metric);
+                metrics.put(metric, series);
+            }
+            return series;
+        }
+
+        /**
+         * Returns the series of a metric, or null if it has never been
+         * written.
+         */
+        MetricSeries existingSeries(Metric metric) throws IOException {
+            if(!metrics.containsKey(metric) && !Files.exists(directory.resolve(metric.getFileName() + RAW_SUFFIX))) {
+                return null;
+            }
+            return series(metric);
+        }
+
+        SeriesFile titles() throws IOException {
+            if(titles == null) {
+                titles = SeriesFile.open(directory.resolve(TITLES_FILE), 0, true);
+            }
+            return titles;
+        }
+
+        SeriesFile existingTitles() throws IOException {
+            if(titles == null && !Files.exists(directory.resolve(TITLES_FILE))) {
+                return null;
+            }
+            return titles();
+        }
+
+        /**
+         * Closes every open series; they are reopened as they are next used,
+         * rebuilding open rollup intervals from the raw samples.
+         */
+        void closeFiles() {
+            forEachFile(SeriesFile::close);
+            metrics.clear();
+            titles = null;
+        }
+
+        void forEachFile(Consumer<SeriesFile> action) {
+            for(MetricSeries series : metrics.values()) {
+                action.accept(series.raw);
+                for(SeriesFile rollup : series.rollups) {
+                    action.accept(rollup);
+                }
+            }
+            if(titles != null) {
+                action.accept(titles);
+            }
+        }
+    }
+
+    /**
+     * The raw series of a metric and its rollups, with the interval of each
+     * rollup that is still open.
+     */
+    private static final class MetricSeries {
+
+        private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+        final SeriesFile raw;
+        final SeriesFile[] rollups = new SeriesFile[RESOLUTIONS.length];
+        private final Interval[] open = new Interval[RESOLUTIONS.length];
+        private final long[] value = new long[1];
+        private final long[] aggregate = new long[ROLLUP_COLUMNS];
+
+        MetricSeries(Path directory, Metric metric) throws IOException {
+            raw = SeriesFile.open(directory.resolve(metric.getFileName() + RAW_SUFFIX), 1, false);
+            for(int i = 0; i < RESOLUTIONS.length; i++) {
+                rollups[i] = SeriesFile.open(directory.resolve(metric.getFileName() + "." + RESOLUTIONS[i].getSuffix()), ROLLUP_COLUMNS, false);
+                open[i] = new Interval();
+                // rebuild the open interval, and any the process died before writing
+                long last = rollups[i].getLastTimestamp();
+                long from = last == Long.MIN_VALUE ? Long.MIN_VALUE : last + RESOLUTIONS[i].getMillis();
+                int index = i;
+                IOException[] failure = new IOException[1];
+                raw.scan(from, Long.MAX_VALUE, (timestamp, values, text) -> {
+                    if(failure[0] == null) {
+                        try {
+                            accumulate(index, timestamp, values[0]);
+                        } catch(IOException ex) {
+                            failure[0] = ex;
+                        }
+                    }
+                });
+                if(failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }
+
+        void add(long timestampMillis, long sample) throws IOException {
+            timestampMillis = Math.max(timestampMillis, raw.getLastTimestamp());
+            value[0] = sample;
+            raw.append(timestampMillis, value, null);
+            for(int i = 0; i < RESOLUTIONS.length; i++) {
+                accumulate(i, timestampMillis, sample);
+            }
+        }
+
+        List<Aggregate> rollups(Resolution resolution, long fromMillis, long toMillis) {
+            int index = resolution.ordinal();
+            List<Aggregate> aggregates = new ArrayList<>();
+            rollups[index].scan(fromMillis, toMillis, (timestamp, values, text)
+                    -> aggregates.add(new Aggregate(timestamp, values[0], values[1], values[2], values[3])));
+            Interval interval = open[index];
+            if(interval.count > 0 && interval.start >= fromMillis && interval.start < toMillis) {
+                aggregates.add(new Aggregate(interval.start, interval.count, interval.sum, interval.min, interval.max));
+            }
+            return aggregates;
+        }
+
+        private void accumulate(int index, long timestampMillis, long sample) throws IOException {
+            long start = RESOLUTIONS[index].intervalStart(timestampMillis);
+            Interval interval = open[index];
+            if(interval.count > 0 && start > interval.start) {
+                aggregate[0] = interval.count;
+                aggregate[1] = interval.sum;
+                aggregate[2] = interval.min;
+                aggregate[3] = interval.max;
+                rollups[index].append(interval.start, aggregate, null);
+                interval.count = 0;
+            }
+            if(interval.count == 0) {
+                interval.start = start;
+                interval.sum = 0;
+                interval.min = sample;
+                interval.max = sample;
+            }
+            interval.count++;
+            interval.sum += sample;
+            interval.min = Math.min(interval.min, sample);
+            interval.max = Math.max(interval.max, sample);
+        }
+    }
+
+    private static final class Interval {
+
+        long start, count, sum, min, max;
+    }
+}
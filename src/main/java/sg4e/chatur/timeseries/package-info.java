@@ -0,0 +1,5 @@
+/**
+ * A compressed, memory-mapped store of room-level time series: viewer counts,
+ * tip volume and title changes, with minute and hour rollups.
+ */
+package sg4e.chatur.timeseries;
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.tips;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The candidates for the top tippers of one room in one window. At most
+ * {@code capacity} users are kept; when a user outside the board tips, it
+ * replaces the candidate with the lowest current total if its own total is
+ * higher. Queries therefore only look at the candidates, never at every user
+ * of the room.
+ * <p>
+ * For the session window, totals only grow, so the board always holds the
+ * exact top {@code capacity}. For rolling windows, a candidate may fall below
+ * a user that left the board earlier as old buckets expire; results are exact
+ * as long as fewer than {@code capacity} users tipped within the window.
+ */
+final class Leaderboard {
+
+    private final int window;
+    private final String[] users;
+    private final Totals[] totals;
+    private int size;
+
+    Leaderboard(int window, int capacity) {
+        this.window = window;
+        users = new String[capacity];
+        totals = new Totals[capacity];
+    }
+
+    synchronized void offer(String username, Totals userTotals, long nowMillis) {
+        int lowest = -1;
+        long lowestTotal = Long.MAX_VALUE;
+        for(int i = 0; i < size; i++) {
+            if(totals[i] == userTotals) {
+                return;
+            }
+            long total = totals[i].sum(window, nowMillis);
+            if(total < lowestTotal) {
+                lowest = i;
+                lowestTotal = total;
+            }
+        }
+        if(size < users.length) {
+            users[size] = username;
+            totals[size] = userTotals;
+            size++;
+        } else if(userTotals.sum(window, nowMillis) > lowestTotal) {
+            users[lowest] = username;
+            totals[lowest] = userTotals;
+        }
+    }
+
+    synchronized void remove(Totals userTotals) {
+        for(int i = 0; i < size; i++) {
+            if(totals[i] == userTotals) {
+                size--;
+                users[i] = users[size];
+                totals[i] = totals[size];
+                users[size] = null;
+                totals[size] = null;
+                return;
+            }
+        }
+    }
+
+    synchronized List<TipperTotal> top(int n, long nowMillis) {
+        List<TipperTotal> entries = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            long total = totals[i].sum(window, nowMillis);
+            if(total > 0) {
+                entries.add(new TipperTotal(users[i], total));
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.getTotal(), a.getTotal()));
+        return entries.size() > n ? new ArrayList<>(entries.subList(0, n)) : entries;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.tips;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free sum over a rolling window. Each bucket is one long packing the
+ * bucket's epoch (time divided by the bucket length) in the upper 32 bits and
+ * its sum in the lower 32 bits, so a bucket is claimed for a new epoch and
+ * added to with a single compare-and-set. A bucket holds at most 2<sup>32</sup>-1
+ * tokens; larger sums saturate.
+ */
+final class RollingCounter {
+
+    private static final long SUM_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLongArray buckets;
+    private final long bucketMillis;
+
+    RollingCounter(TipWindow window) {
+        buckets = new AtomicLongArray(window.getBuckets());
+        bucketMillis = window.getBucketMillis();
+    }
+
+    void add(long timestampMillis, int amount) {
+        long epoch = timestampMillis / bucketMillis;
+        int index = (int) (epoch % buckets.length());
+        int packedEpoch = (int) epoch;
+        while(true) {
+            long current = buckets.get(index);
+            int currentEpoch = (int) (current >>> 32);
+            long updated;
+            if(currentEpoch == packedEpoch) {
+                updated = pack(packedEpoch, Math.min(SUM_MASK, (current & SUM_MASK) + amount));
+            } else if(packedEpoch - currentEpoch < 0 && current != 0) {
+                // a late tip for a bucket that has already been reused
+                return;
+            } else {
+                updated = pack(packedEpoch, amount);
+            }
+            if(buckets.compareAndSet(index, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    long sum(long nowMillis) {
+        int now = (int) (nowMillis / bucketMillis);
+        int length = buckets.length();
+        long sum = 0;
+        for(int i = 0; i < length; i++) {
+            long bucket = buckets.get(i);
+            int age = now - (int) (bucket >>> 32);
+            if(age >= 0 && age < length) {
+                sum += bucket & SUM_MASK;
+            }
+        }
+        return sum;
+    }
+
+    private static long pack(int epoch, long sum) {
+        return ((long) epoch << 32) | sum;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.tips;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import sg4e.chatur.json.Notification;
+
+/**
+ * Keeps tip totals per user and per room over rolling windows, and the top
+ * tippers of each room. Safe to feed from any number of bots concurrently,
+ * e.g. from {@link sg4e.chatur.ChaturBot#onNotify}:
+ * <pre>{@code
+ * protected void onNotify(Notification notification) {
+ *     tips.onNotify(getRoomName(), notification);
+ * }
+ * }</pre>
+ * <p>
+ * Counters are updated with compare-and-set only, under a short lock per tip
+ * on the room, which eviction also takes so that no tip lands in totals that
+ * are being discarded. Memory is bounded by evicting users that have not
+ * tipped for the idle timeout, which also resets their session totals. Eviction
+ * runs on the thread recording a tip at most once per idle timeout, or
+ * explicitly through {@link #evictIdle()}.
+ */
+public class TipAggregator {
+
+    private static final int DEFAULT_LEADERBOARD_SIZE = 100;
+
+    private final TipWindow[] windows;
+    private final long idleMillis;
+    private final int leaderboardSize;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepMillis = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Creates an aggregator over {@link TipWindow#MINUTE},
+     * {@link TipWindow#HOUR} and {@link TipWindow#SESSION} that evicts users
+     * after an idle hour and keeps 100 leaderboard candidates per room and
+     * window.
+     */
+    public TipAggregator() {
+        this(1, TimeUnit.HOURS, DEFAULT_LEADERBOARD_SIZE, TipWindow.MINUTE, TipWindow.HOUR, TipWindow.SESSION);
+    }
+
+    /**
+     * Creates an aggregator.
+     *
+     * @param idleTimeout time after their last tip after which a user's
+     * totals are discarded
+     * @param unit
+     * @param leaderboardSize number of candidates tracked per room and window;
+     * the largest useful {@code n} for {@link #getTopTippers}
+     * @param windows the windows to keep totals for
+     */
+    public TipAggregator(long idleTimeout, TimeUnit unit, int leaderboardSize, TipWindow... windows) {
+        if(windows.length == 0) {
+            throw new IllegalArgumentException("At least one window is required");
+        }
+        if(leaderboardSize < 1) {
+            throw new IllegalArgumentException("leaderboardSize must be positive");
+        }
+        this.idleMillis = unit.toMillis(idleTimeout);
+        this.leaderboardSize = leaderboardSize;
+        this.windows = windows.clone();
+    }
+
+    /**
+     * Records the tip in {@code notification}, if it is one. Notices without
+     * an amount or tipper and tips replayed from the room's history on join
+     * are ignored.
+     *
+     * @param roomName
+     * @param notification
+     */
+    public void onNotify(String roomName, Notification notification) {
+        if(notification.getAmount() > 0 && notification.getFromUsername() != null && !notification.isHistory()) {
+            record(roomName, notification.getFromUsername(), notification.getAmount(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Records a tip.
+     *
+     * @param roomName
+     * @param username
+     * @param amount
+     * @param timestampMillis
+     */
+    public void record(String roomName, String username, int amount, long timestampMillis) {
+        if(amount <= 0) {
+            return;
+        }
+        while(true) {
+            Room room = rooms.get(roomName);
+            if(room == null) {
+                room = rooms.computeIfAbsent(roomName, key -> new Room());
+            }
+            synchronized(room) {
+                // evicted between the lookup and the lock; use its replacement
+                if(room.removed) {
+                    continue;
+                }
+                Totals user = room.users.get(username);
+                if(user == null) {
+                    user = room.users.computeIfAbsent(username, key -> new Totals(windows));
+                }
+                user.add(timestampMillis, amount);
+                room.totals.add(timestampMillis, amount);
+                for(Leaderboard board : room.boards) {
+                    board.offer(username, user, timestampMillis);
+                }
+            }
+            break;
+        }
+        long lastSweep = lastSweepMillis.get();
+        if(timestampMillis - lastSweep >= idleMillis && lastSweepMillis.compareAndSet(lastSweep, timestampMillis)) {
+            evictIdle(timestampMillis);
+        }
+    }
+
+    /**
+     * Returns a user's total in a room, or 0 if the user is not tracked.
+     *
+     * @param roomName
+     * @param username
+     * @param window one of the windows this aggregator was created with
+     * @return
+     */
+    public long getUserTotal(String roomName, String username, TipWindow window) {
+        int index = indexOf(window);
+        Room room = rooms.get(roomName);
+        Totals user = room == null ? null : room.users.get(username);
+        return user == null ? 0 : user.sum(index, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the total of all tips in a room.
+     *
+     * @param roomName
+     * @param window one of the windows this aggregator was created with
+     * @return
+     */
+    public long getRoomTotal(String roomName, TipWindow window) {
+        int index = indexOf(window);
+        Room room = rooms.get(roomName);
+        return room == null ? 0 : room.totals.sum(index, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns up to {@code n} users with the highest totals in a room, highest
+     * first. Only the room's leaderboard candidates are examined.
+     *
+     * @param roomName
+     * @param window one of the windows this aggregator was created with
+     * @param n
+     * @return
+     */
+    public List<TipperTotal> getTopTippers(String roomName, TipWindow window, int n) {
+        int index = indexOf(window);
+        Room room = rooms.get(roomName);
+        return room == null ? Collections.emptyList() : room.boards[index].top(n, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the number of users tracked across all rooms.
+     *
+     * @return
+     */
+    public int getTrackedUserCount() {
+        int count = 0;
+        for(Room room : rooms.values()) {
+            count += room.users.size();
+        }
+        return count;
+    }
+
+    /**
+     * Discards all totals of a room.
+     *
+     * @param roomName
+     */
+    public void removeRoom(String roomName) {
+        Room room = rooms.remove(roomName);
+        if(room != null) {
+            synchronized(room) {
+                room.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Discards users that have not tipped within the idle timeout, and rooms
+     * left without users.
+     *
+     * @return the number of users evicted
+     */
+    public int evictIdle() {
+        return evictIdle(System.currentTimeMillis());
+    }
+
+    private int evictIdle(long nowMillis) {
+        int evicted = 0;
+        for(Map.Entry<String, Room> roomEntry : rooms.entrySet()) {
+            Room room = roomEntry.getValue();
+            synchronized(room) {
+                for(Map.Entry<String, Totals> userEntry : room.users.entrySet()) {
+                    Totals user = userEntry.getValue();
+                    if(nowMillis - user.getLastTipMillis() >= idleMillis && room.users.remove(userEntry.getKey(), user)) {
+                        for(Leaderboard board : room.boards) {
+                            board.remove(user);
+                        }
+                        evicted++;
+                    }
+                }
+                if(room.users.isEmpty() && nowMillis - room.totals.getLastTipMillis() >= idleMillis
+                        && rooms.remove(roomEntry.getKey(), room)) {
+                    room.removed = true;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private int indexOf(TipWindow window) {
+        for(int i = 0; i < windows.length; i++) {
+            if(windows[i].equals(window)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("%s is not one of %s", window, Arrays.toString(windows)));
+    }
+
+    private final class Room {
+
+        private final ConcurrentMap<String, Totals> users = new ConcurrentHashMap<>();
+        private final Totals totals = new Totals(windows);
+        private final Leaderboard[] boards = new Leaderboard[windows.length];
+        /**
+         * Set once the room is no longer in the map; guarded by the room.
+         */
+        private boolean removed;
+
+        Room() {
+            for(int i = 0; i < windows.length; i++) {
+                boards[i] = new Leaderboard(i, leaderboardSize);
+            }
+        }
+    }
+}
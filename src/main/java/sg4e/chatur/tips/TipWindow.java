@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.tips;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A period over which a {@link TipAggregator} keeps totals. Rolling windows are
+ * split into a fixed number of buckets; a total covers the current, partially
+ * elapsed bucket plus the preceding {@code buckets - 1}, so totals drop in steps
+ * of one bucket as time passes.
+ */
+public final class TipWindow {
+
+    /**
+     * The default number of buckets of a rolling window.
+     */
+    public static final int DEFAULT_BUCKETS = 12;
+
+    /**
+     * The last minute, in 5-second buckets.
+     */
+    public static final TipWindow MINUTE = of(1, TimeUnit.MINUTES);
+
+    /**
+     * The last hour, in 5-minute buckets.
+     */
+    public static final TipWindow HOUR = of(1, TimeUnit.HOURS);
+
+    /**
+     * Everything since a user or room was first seen by the aggregator (or
+     * since an idle user was evicted).
+     */
+    public static final TipWindow SESSION = new TipWindow(0, 0);
+
+    private final long bucketMillis;
+    private final int buckets;
+
+    private TipWindow(long bucketMillis, int buckets) {
+        this.bucketMillis = bucketMillis;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Creates a rolling window of {@link #DEFAULT_BUCKETS} buckets.
+     *
+     * @param duration
+     * @param unit
+     * @return
+     */
+    public static TipWindow of(long duration, TimeUnit unit) {
+        return of(duration, unit, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Creates a rolling window. More buckets make totals expire more smoothly
+     * at the cost of 8 bytes per bucket for every tracked user.
+     *
+     * @param duration
+     * @param unit
+     * @param buckets
+     * @return
+     */
+    public static TipWindow of(long duration, TimeUnit unit, int buckets) {
+        long millis = unit.toMillis(duration);
+        if(buckets < 1 || millis < buckets) {
+            throw new IllegalArgumentException("Window must be at least one millisecond per bucket");
+        }
+        return new TipWindow(millis / buckets, buckets);
+    }
+
+    public boolean isSession() {
+        return buckets == 0;
+    }
+
+    public long getDurationMillis() {
+        return isSession() ? Long.MAX_VALUE : bucketMillis * buckets;
+    }
+
+    long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    int getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof TipWindow)) {
+            return false;
+        }
+        TipWindow other = (TipWindow) obj;
+        return bucketMillis == other.bucketMillis && buckets == other.buckets;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(bucketMillis) * 31 + buckets;
+    }
+
+    @Override
+    public String toString() {
+        return isSession() ? "TipWindow(session)" : String.format("TipWindow(%dms in %d buckets)", getDurationMillis(), buckets);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.tips;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The totals of one user or room in every window of an aggregator.
+ */
+final class Totals {
+
+    private final RollingCounter[] rolling;
+    private final AtomicLong session = new AtomicLong();
+    private volatile long lastTipMillis;
+
+    Totals(TipWindow[] windows) {
+        rolling = new RollingCounter[windows.length];
+        for(int i = 0; i < windows.length; i++) {
+            if(!windows[i].isSession()) {
+                rolling[i] = new RollingCounter(windows[i]);
+            }
+        }
+    }
+
+    void add(long timestampMillis, int amount) {
+        for(RollingCounter counter : rolling) {
+            if(counter != null) {
+                counter.add(timestampMillis, amount);
+            }
+        }
+        session.addAndGet(amount);
+        if(timestampMillis > lastTipMillis) {
+            lastTipMillis = timestampMillis;
+        }
+    }
+
+    long sum(int window, long nowMillis) {
+        RollingCounter counter = rolling[window];
+        return counter == null ? session.get() : counter.sum(nowMillis);
+    }
+
+    long getLastTipMillis() {
+        return lastTipMillis;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Aggregation of tips into rolling totals and leaderboards.
+ */
+package sg4e.chatur.tips;
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.users;
+
+import java.util.concurrent.locks.StampedLock;
+import sg4e.chatur.json.TippingMetadata;
+
+/**
+ * The latest known state of every user seen in one room, keyed by
+ * {@link UserRegistry} ID in an open-addressing table of primitive ints. Each
+ * user's state is packed into one int: the flag bits below, and the first
+ * character of the user's gender in the upper 16 bits. A tracked user costs
+ * about 16 bytes.
+ * <p>
+ * Updates usually come from the room's reading thread; reads of known users
+ * take no lock.
+ */
+public class RoomUserTable {
+
+    public static final int MOD = 1;
+    public static final int IN_FANCLUB = 1 << 1;
+    public static final int HAS_TOKENS = 1 << 2;
+    public static final int TIPPED_RECENTLY = 1 << 3;
+    public static final int TIPPED_ALOT_RECENTLY = 1 << 4;
+    public static final int TIPPED_TONS_RECENTLY = 1 << 5;
+
+    private static final int PRESENT = 1 << 15;
+    private static final int FLAG_MASK = 0xFFFF & ~PRESENT;
+
+    private final StampedLock lock = new StampedLock();
+    /**
+     * User ID + 1 per slot; 0 marks an empty slot.
+     */
+    private int[] keys = new int[16];
+    private int[] values = new int[16];
+    private int size;
+
+    RoomUserTable() {
+    }
+
+    /**
+     * Returns the flag bits of the user who sent a message or notice.
+     *
+     * @param metadata
+     * @param isMod
+     * @return bitwise or of the flag constants
+     */
+    public static int flags(TippingMetadata metadata, boolean isMod) {
+        int flags = 0;
+        if(isMod) {
+            flags |= MOD;
+        }
+        if(metadata.isInFanclub()) {
+            flags |= IN_FANCLUB;
+        }
+        if(metadata.hasTokens()) {
+            flags |= HAS_TOKENS;
+        }
+        if(metadata.hasTippedRecently()) {
+            flags |= TIPPED_RECENTLY;
+        }
+        if(metadata.hasTippedAlotRecently()) {
+            flags |= TIPPED_ALOT_RECENTLY;
+        }
+        if(metadata.hasTippedTonsRecently()) {
+            flags |= TIPPED_TONS_RECENTLY;
+        }
+        return flags;
+    }
+
+    /**
+     * Packs flags and a gender into the state stored by {@link #update}.
+     *
+     * @param flags bitwise or of the flag constants
+     * @param gender may be null
+     * @return
+     */
+    public static int pack(int flags, String gender) {
+        char g = gender == null || gender.isEmpty() ? 0 : gender.charAt(0);
+        return (g << 16) | (flags & FLAG_MASK);
+    }
+
+    /**
+     * Replaces the state of a user.
+     *
+     * @param userId
+     * @param state as returned by {@link #pack(int, String)}
+     */
+    public void update(int userId, int state) {
+        if(userId < 0) {
+            throw new IllegalArgumentException("Invalid user ID " + userId);
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = slot(keys, userId);
+            if(keys[slot] == 0) {
+                if((size + 1) * 2 > keys.length) {
+                    resize();
+                    slot = slot(keys, userId);
+                }
+                keys[slot] = userId + 1;
+                size++;
+            }
+            values[slot] = state | PRESENT;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns whether the user has been seen in this room.
+     *
+     * @param userId
+     * @return
+     */
+    public boolean contains(int userId) {
+        return (read(userId) & PRESENT) != 0;
+    }
+
+    /**
+     * Returns the flags of a user, or 0 if the user has not been seen.
+     *
+     * @param userId
+     * @return
+     */
+    public int getFlags(int userId) {
+        return read(userId) & FLAG_MASK;
+    }
+
+    /**
+     * Returns true if all of {@code flags} are set for the user.
+     *
+     * @param userId
+     * @param flags
+     * @return
+     */
+    public boolean hasFlags(int userId, int flags) {
+        return (getFlags(userId) & flags) == flags;
+    }
+
+    /**
+     * Returns the first character of the user's gender, or 0 if unknown.
+     *
+     * @param userId
+     * @return
+     */
+    public char getGender(int userId) {
+        return (char) (read(userId) >>> 16);
+    }
+
+    /**
+     * Returns the number of users seen in this room.
+     *
+     * @return
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    long estimateHeapBytes() {
+        long stamp = lock.readLock();
+        try {
+            return 8L * keys.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int read(int userId) {
+        if(userId < 0) {
+            return 0;
+        }
+        long stamp = lock.tryOptimisticRead();
+        int state = lookup(userId);
+        if(lock.validate(stamp)) {
+            return state;
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(userId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int lookup(int userId) {
+        int[] currentKeys = keys;
+        int[] currentValues = values;
+        int mask = currentKeys.length - 1;
+        for(int i = mix(userId) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            int key = currentKeys[i];
+            if(key == 0) {
+                return 0;
+            }
+            if(key == userId + 1) {
+                return i < currentValues.length ? currentValues[i] : 0;
+            }
+        }
+        return 0;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        int[] newKeys = new int[oldKeys.length * 2];
+        int[] newValues = new int[newKeys.length];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != 0) {
+                int slot = slot(newKeys, oldKeys[i] - 1);
+                newKeys[slot] = oldKeys[i];
+                newValues[slot] = oldValues[i];
+            }
+        }
+        values = newValues;
+        keys = newKeys;
+    }
+
+    /**
+     * Returns the slot holding {@code userId}, or the empty slot where it
+     * belongs.
+     */
+    private static int slot(int[] table, int userId) {
+        int mask = table.length - 1;
+        int i = mix(userId) & mask;
+        while(table[i] != 0 && table[i] != userId + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Spreads sequential IDs over the table.
+     */
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2020 sg4e.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sg4e.chatur.users;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Interns usernames to dense int IDs, so that one {@code String} instance is
+ * kept per chatter and downstream code can key state by {@code int}. IDs are
+ * assigned from 0 in the order users are first seen and are never reused or
+ * released for the lifetime of the registry. One registry can be shared by
+ * any number of bots.
+ * <p>
+ * Names are stored in an open-addressing table of IDs with linear probing;
+ * lookups of known users take no lock and do not allocate, even when the name
+ * is given as a range of characters. Only new users take the write lock. A
+ * tracked user costs about 16 bytes of table space plus the name itself (see
+ * {@link #estimateHeapBytes()}).
+ * <p>
+ * The latest known state of each user in each room is kept in the room's
+ * {@link RoomUserTable}.
+ */
+public class UserRegistry {
+
+    /**
+     * The ID of a model whose user has not been interned.
+     */
+    public static final int UNKNOWN_USER = -1;
+
+    private static final int MAX_CANONICAL_STRINGS = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private final ConcurrentMap<String, RoomUserTable> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> canonicalStrings = new ConcurrentHashMap<>();
+    /**
+     * ID + 1 per slot; 0 marks an empty slot. The length is a power of two.
+     */
+    private int[] slots = new int[64];
+    private String[] names = new String[32];
+    private int[] hashes = new int[32];
+    private int size;
+
+    /**
+     * Returns the ID of {@code username}, assigning the next ID if it is new.
+     *
+     * @param username
+     * @return
+     */
+    public int intern(String username) {
+        int hash = username.hashCode();
+        long stamp = lock.tryOptimisticRead();
+        int id = find(username, hash);
+        if(id >= 0 && lock.validate(stamp)) {
+            return id;
+        }
+        stamp = lock.writeLock();
+        try {
+            id = find(username, hash);
+            return id >= 0 ? id : add(username, hash);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the ID of the username held in {@code chars[offset, offset +
+     * length)}. No string is created unless the user is new.
+     *
+     * @param chars
+     * @param offset
+     * @param length
+     * @return
+     */
+    public int intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for(int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        long stamp = lock.tryOptimisticRead();
+        int id = find(chars, offset, length, hash);
+        if(id >= 0 && lock.validate(stamp)) {
+            return id;
+        }
+        stamp = lock.writeLock();
+        try {
+            id = find(chars, offset, length, hash);
+            return id >= 0 ? id : add(new String(chars, offset, length), hash);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the ID of {@code username}, or {@link #UNKNOWN_USER} if it has
+     * not been interned.
+     *
+     * @param username
+     * @return
+     */
+    public int lookup(String username) {
+        int hash = username.hashCode();
+        long stamp = lock.tryOptimisticRead();
+        int id = find(username, hash);
+        if(lock.validate(stamp)) {
+            return id;
+        }
+        stamp = lock.readLock();
+        try {
+            return find(username, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the shared name instance of an ID.
+     *
+     * @param id
+     * @return
+     * @throws IllegalArgumentException if the ID was not assigned by this
+     * registry
+     */
+    public String getUsername(int id) {
+        long stamp = lock.tryOptimisticRead();
+        String[] current = names;
+        String name = id >= 0 && id < current.length ? current[id] : null;
+        if(!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                name = id >= 0 && id < size ? names[id] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if(name == null) {
+            throw new IllegalArgumentException("Unknown user ID " + id);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the number of users interned.
+     *
+     * @return
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns a shared instance equal to {@code value}, for the few distinct
+     * values of fields such as gender and font. Only the first 1024 distinct
+     * values are kept; others are returned as given.
+     *
+     * @param value
+     * @return
+     */
+    public String canonicalize(String value) {
+        if(value == null) {
+            return null;
+        }
+        String canonical = canonicalStrings.get(value);
+        if(canonical != null) {
+            return canonical;
+        }
+        if(canonicalStrings.size() >= MAX_CANONICAL_STRINGS) {
+            return value;
+        }
+        canonical = canonicalStrings.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    /**
+     * Returns the state table of a room, creating it if needed.
+     *
+     * @param roomName
+     * @return
+     */
+    public RoomUserTable getRoom(String roomName) {
+        return rooms.computeIfAbsent(roomName, key -> new RoomUserTable());
+    }
+
+    /**
+     * Discards the state table of a room. Interned names are kept.
+     *
+     * @param roomName
+     */
+    public void removeRoom(String roomName) {
+        rooms.remove(roomName);
+    }
+
+    /**
+     * Returns the approximate heap used by the name tables and every room's
+     * state table, excluding the name strings themselves.
+     *
+     * @return
+     */
+    public long estimateHeapBytes() {
+        long bytes;
+        long stamp = lock.readLock();
+        try {
+            bytes = 4L * slots.length + 4L * names.length + 4L * hashes.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for(RoomUserTable room : rooms.values()) {
+            bytes += room.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    private int find(String username, int hash) {
+        int[] currentSlots = slots;
+        String[] currentNames = names;
+        int[] currentHashes = hashes;
+        int mask = currentSlots.length - 1;
+        for(int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            int id = currentSlots[i] - 1;
+            if(id < 0) {
+                return UNKNOWN_USER;
+            }
+            if(id < currentHashes.length && id < currentNames.length && currentHashes[id] == hash && username.equals(currentNames[id])) {
+                return id;
+            }
+        }
+        return UNKNOWN_USER;
+    }
+
+    private int find(char[] chars, int offset, int length, int hash) {
+        int[] currentSlots = slots;
+        String[] currentNames = names;
+        int[] currentHashes = hashes;
+        int mask = currentSlots.length - 1;
+        for(int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            int id = currentSlots[i] - 1;
+            if(id < 0) {
+                return UNKNOWN_USER;
+            }
+            if(id < currentHashes.length && id < currentNames.length && currentHashes[id] == hash && matches(currentNames[id], chars, offset, length)) {
+                return id;
+            }
+        }
+        return UNKNOWN_USER;
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if(name == null || name.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Assigns the next ID; called with the write lock held.
+     */
+    private int add(String username, int hash) {
+        int id = size;
+        if(id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = username;
+        hashes[id] = hash;
+        size++;
+        if(size * 2 > slots.length) {
+            int[] resized = new int[slots.length * 2];
+            for(int i = 0; i < id; i++) {
+                insert(resized, hashes[i], i);
+            }
+            slots = resized;
+        }
+        insert(slots, hash, id);
+        return id;
+    }
+
+    private static void insert(int[] table, int hash, int id) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while(table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+}
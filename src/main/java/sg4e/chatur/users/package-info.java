@@ -0,0 +1,4 @@
+/**
+ * Compact registries of the chatters seen by bots.
+ */
+package sg4e.chatur.users;